@@ -3,6 +3,8 @@ package org.archive.bdb;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -20,6 +22,12 @@ import com.esotericsoftware.kryo.SerializationException;
  * KryoReflectionFactorySupport class of Martin Grotzke's kryo-serializers 
  * project. <https://github.com/magro/kryo-serializers>
  * 
+ * Kryo assigns class IDs in registration order, and stored entries refer
+ * to classes by those IDs, so a class's autoregisterTo() chain is its
+ * stable class-ID table: additions must only be appended. Classes reached
+ * but never registered are written by full name into every entry, unless
+ * strict registration is set, in which case they are an error.
+ * 
  * TODO: more comments!
  * 
  * @contributor gojomo
@@ -27,6 +35,7 @@ import com.esotericsoftware.kryo.SerializationException;
 @SuppressWarnings("unchecked")
 public class AutoKryo extends Kryo {
     protected ArrayList<Class<?>> registeredClasses = new ArrayList<Class<?>>(); 
+    protected boolean strictRegistration = false;
     
     @Override
     protected void handleUnregisteredClass(@SuppressWarnings("rawtypes") Class type) {
@@ -34,6 +43,31 @@ public class AutoKryo extends Kryo {
         super.handleUnregisteredClass(type);
     }
 
+    /**
+     * Require all serialized classes to be registered, overriding any
+     * setRegistrationOptional(true) made during autoregistration.
+     */
+    public void setStrictRegistration(boolean strict) {
+        this.strictRegistration = strict;
+        super.setRegistrationOptional(!strict);
+    }
+
+    public boolean isStrictRegistration() {
+        return strictRegistration;
+    }
+
+    @Override
+    public void setRegistrationOptional(boolean optional) {
+        super.setRegistrationOptional(optional && !strictRegistration);
+    }
+
+    /**
+     * @return classes autoregistered, in order of registration
+     */
+    public List<Class<?>> getRegisteredClasses() {
+        return Collections.unmodifiableList(registeredClasses);
+    }
+
     public void autoregister(Class<?> type) {
         if (registeredClasses.contains(type)) {
             return;
@@ -45,6 +45,7 @@ import org.archive.checkpointing.Checkpointable;
 import org.archive.spring.ConfigPath;
 import org.archive.util.FilesystemLinkMaker;
 import org.archive.util.IdentityCacheable;
+import org.archive.util.ObjectIdentityBdbBoundedCache;
 import org.archive.util.ObjectIdentityBdbManualCache;
 import org.archive.util.ObjectIdentityCache;
 import org.archive.util.TextUtils;
@@ -205,6 +206,21 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         this.useHardLinkCheckpoints = useHardLinkCheckpoints;
     }
     
+    /**
+     * Object caches, by database name (such as 'hosts', 'servers' or
+     * 'allqueues'), to hold a fixed maximum number of entries in memory,
+     * chosen by frequency and recency of use, rather than however many
+     * soft references the garbage collector leaves uncleared. Caches not
+     * named here are soft-reference based. 
+     */
+    protected Map<String,Long> boundedObjectCaches = new HashMap<String,Long>();
+    public Map<String,Long> getBoundedObjectCaches() {
+        return boundedObjectCaches;
+    }
+    public void setBoundedObjectCaches(Map<String,Long> boundedObjectCaches) {
+        this.boundedObjectCaches = boundedObjectCaches;
+    }
+    
     private transient EnhancedEnvironment bdbEnvironment;
         
     private transient StoredClassCatalog classCatalog;
@@ -405,6 +421,37 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         return oic;
     }
   
+    /**
+     * Get an ObjectIdentityBdbBoundedCache, backed by a BDB Database of 
+     * the given name, with the given value class type, holding at most
+     * maxEntries values in memory. If 'recycle' is true, reuse values 
+     * already in the database; otherwise start with an empty cache. 
+     *  
+     * @param <V>
+     * @param dbName
+     * @param recycle
+     * @param valueClass
+     * @param maxEntries
+     * @return
+     * @throws DatabaseException
+     */
+    public <V extends IdentityCacheable> ObjectIdentityBdbBoundedCache<V> getBoundedCache(String dbName, boolean recycle,
+            Class<? extends V> valueClass, long maxEntries) 
+    throws DatabaseException {
+        if (!recycle) {
+            try {
+                bdbEnvironment.truncateDatabase(null, dbName, false);
+            } catch (DatabaseNotFoundException e) {
+                // ignored
+            }
+        }
+        ObjectIdentityBdbBoundedCache<V> oic = new ObjectIdentityBdbBoundedCache<V>();
+        oic.setMaximumEntries(maxEntries);
+        oic.initialize(bdbEnvironment, dbName, valueClass, classCatalog);
+        oiCaches.put(dbName, oic);
+        return oic;
+    }
+  
     public <V extends IdentityCacheable> ObjectIdentityCache<V> getObjectCache(String dbName, boolean recycle,
             Class<V> valueClass) 
     throws DatabaseException {
@@ -432,7 +479,12 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         if(oic!=null) {
             return oic; 
         }
-        oic =  getOIBCCache(dbName, recycle, valueClass);
+        Long maxEntries = boundedObjectCaches.get(dbName);
+        if(maxEntries!=null) {
+            oic = getBoundedCache(dbName, recycle, valueClass, maxEntries);
+        } else {
+            oic =  getOIBCCache(dbName, recycle, valueClass);
+        }
         return oic; 
     }
     
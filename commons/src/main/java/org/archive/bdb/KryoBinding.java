@@ -18,9 +18,6 @@
  */
 package org.archive.bdb;
 
-import java.lang.ref.WeakReference;
-
-import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.ObjectBuffer;
 import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.je.DatabaseEntry;
@@ -33,43 +30,63 @@ import com.sleepycat.je.DatabaseEntry;
  */
 public class KryoBinding<K> implements EntryBinding<K> {
 
+    /** initial size of per-thread buffers */
+    protected static final int INITIAL_BUFFER_SIZE = 16*1024;
+    /** 
+     * per-thread buffers grown (by a large entry) beyond this size are 
+     * discarded after use, rather than held for the life of the thread 
+     */
+    protected static final int MAX_RETAINED_BUFFER_SIZE = 1024*1024;
+
     protected Class<K> baseClass;
     protected AutoKryo kryo = new AutoKryo(); 
-    protected ThreadLocal<WeakReference<ObjectBuffer>> threadBuffer = new ThreadLocal<WeakReference<ObjectBuffer>>() {
+    protected ThreadLocal<ObjectBuffer> threadBuffer = new ThreadLocal<ObjectBuffer>() {
         @Override
-        protected WeakReference<ObjectBuffer> initialValue() {
-            return new WeakReference<ObjectBuffer>(new ObjectBuffer(kryo,16*1024,Integer.MAX_VALUE));
+        protected ObjectBuffer initialValue() {
+            return new ObjectBuffer(kryo,INITIAL_BUFFER_SIZE,Integer.MAX_VALUE);
         }
     };
     
     /**
      * Constructor. Save parameters locally, as superclass 
-     * fields are private. 
+     * fields are private. Registration is strict if the system property
+     * 'org.archive.bdb.KryoBinding.strictRegistration' is true.
      * 
-     * @param classCatalog is the catalog to hold shared class information
-     *
      * @param baseClass is the base class for serialized objects stored using
      * this binding
      */
     public KryoBinding(Class<K> baseClass) {
+        this(baseClass, 
+             Boolean.getBoolean(KryoBinding.class.getName()+".strictRegistration"));
+    }
+
+    /**
+     * @param baseClass is the base class for serialized objects stored using
+     * this binding
+     * @param strictRegistration if true, any class reached but not 
+     * autoregistered from baseClass is a serialization error, rather than 
+     * having its name written into every entry
+     */
+    public KryoBinding(Class<K> baseClass, boolean strictRegistration) {
         this.baseClass = baseClass;
+        kryo.setStrictRegistration(strictRegistration);
         kryo.autoregister(baseClass);
         // TODO: reevaluate if explicit registration should be required
         kryo.setRegistrationOptional(true);
     }
 
-    public Kryo getKryo() {
+    public AutoKryo getKryo() {
         return kryo;
     }
     
-    private ObjectBuffer getBuffer() {
-        WeakReference<ObjectBuffer> ref = threadBuffer.get();
-        ObjectBuffer ob = ref.get();
-        if (ob == null) {
-            ob = new ObjectBuffer(kryo,16*1024,Integer.MAX_VALUE);
-            threadBuffer.set(new WeakReference<ObjectBuffer>(ob));
+    /**
+     * Forget the current thread's buffer if a large entry has grown it;
+     * otherwise it is reused for every entry the thread handles.
+     */
+    private void releaseIfGrown(int entrySize) {
+        if (entrySize > MAX_RETAINED_BUFFER_SIZE) {
+            threadBuffer.remove();
         }
-        return ob;        
     }
     
     /**
@@ -78,11 +95,15 @@ public class KryoBinding<K> implements EntryBinding<K> {
      * @see com.sleepycat.bind.serial.SerialBinding#entryToObject
      */
     public void objectToEntry(K object, DatabaseEntry entry) {
-        entry.setData(getBuffer().writeObjectData(object));
+        byte[] data = threadBuffer.get().writeObjectData(object);
+        releaseIfGrown(data.length);
+        entry.setData(data);
     }
 
     @Override
     public K entryToObject(DatabaseEntry entry) {
-        return getBuffer().readObjectData(entry.getData(), baseClass);
+        K object = threadBuffer.get().readObjectData(entry.getData(), baseClass);
+        releaseIfGrown(entry.getSize());
+        return object;
     }
 }
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Logging Handler publishing to an AsyncLogWriter, usable in place of a
+ * GenerationFileHandler for high-volume logs such as crawl.log.
+ *
+ * <p>Unlike StreamHandler, publish() is not synchronized: each calling
+ * thread formats its record (formatters like UriProcessingFormatter
+ * assemble into thread-local buffers) and encodes it on its own, and
+ * only the finished bytes are handed to the writer thread.
+ */
+public class AsyncLogHandler extends Handler {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected final AsyncLogWriter writer;
+
+    public AsyncLogHandler(AsyncLogWriter writer, Formatter formatter) {
+        this.writer = writer;
+        setFormatter(formatter);
+    }
+
+    public AsyncLogWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        Formatter formatter = getFormatter();
+        String line;
+        try {
+            line = formatter.format(record);
+        } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            return;
+        } finally {
+            if (formatter instanceof Preformatter) {
+                ((Preformatter) formatter).clear();
+            }
+        }
+        try {
+            writer.enqueue(line.getBytes(UTF8));
+        } catch (IllegalStateException e) {
+            // writer closed
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    @Override
+    public void flush() {
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+
+    /**
+     * Rotate the underlying file; see
+     * {@link AsyncLogWriter#rotate(String, boolean)}.
+     * @return the rotated-off file
+     */
+    public File rotate(String storeSuffix, boolean mergeOld)
+    throws IOException {
+        return writer.rotate(storeSuffix, mergeOld);
+    }
+}
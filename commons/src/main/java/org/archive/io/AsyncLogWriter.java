@@ -0,0 +1,298 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Append-only log file written by a single background thread.
+ *
+ * <p>Callers hand over finished lines as byte slices into a bounded ring,
+ * claiming a slot by CAS rather than taking any lock; the writer thread
+ * copies whatever has accumulated into one large buffer and writes it
+ * with a single sequential write, optionally through an on-the-fly gzip
+ * stream. When the ring is full, callers park until the writer catches up
+ * (see {@link LineRing}).
+ *
+ * <p>{@link #rotate(String, boolean)} waits for everything already handed
+ * over to be written, then moves the active file aside under the given
+ * suffix and begins a fresh one, as GenerationFileHandler does at
+ * checkpoints.
+ */
+public class AsyncLogWriter implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(
+            AsyncLogWriter.class.getName());
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    protected final File file;
+    protected final boolean gzip;
+    protected final int bufferSize;
+
+    protected final Thread writerThread;
+    protected final LineRing<byte[]> ring;
+
+    /** all sequence numbers below this have been written to the file */
+    protected volatile long written = 0;
+    protected volatile boolean running = true;
+
+    /** guards the output stream against rotation mid-write */
+    protected final Object outLock = new Object();
+    protected OutputStream out;
+    /** previously rotated files, oldest first, for merging */
+    protected LinkedList<File> generations = new LinkedList<File>();
+
+    /** count of writes to the underlying stream */
+    protected long writes = 0;
+    protected long bytesWritten = 0;
+
+    /**
+     * @param file file to append to
+     * @param gzip whether to gzip output on the fly (in which case the
+     * file is written as a fresh member on each open)
+     * @param capacity ring size in lines; rounded up to a power of 2
+     * @param bufferSize size of the writer's sequential write buffer
+     */
+    public AsyncLogWriter(File file, boolean gzip, int capacity,
+            int bufferSize) throws IOException {
+        this.file = file;
+        this.gzip = gzip;
+        this.bufferSize = bufferSize;
+        this.out = openOut();
+        this.writerThread = new Thread(this, "log writer: " + file.getName());
+        this.writerThread.setDaemon(true);
+        this.ring = new LineRing<byte[]>(capacity, writerThread);
+        this.writerThread.start();
+    }
+
+    public AsyncLogWriter(File file, boolean gzip) throws IOException {
+        this(file, gzip, DEFAULT_CAPACITY, DEFAULT_BUFFER_SIZE);
+    }
+
+    protected OutputStream openOut() throws IOException {
+        OutputStream fos = new FileOutputStream(file, true);
+        // sync-flushing, so flush() makes everything written readable
+        return gzip ? new GZIPOutputStream(fos, 64 * 1024, true) : fos;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Add a complete line (including any terminating newline) to be
+     * written, waiting only if the ring is full. The array must not be
+     * modified afterward.
+     *
+     * @throws IllegalStateException if the writer has been closed
+     */
+    public void enqueue(byte[] line) {
+        ring.put(line);
+    }
+
+    public void run() {
+        byte[] buffer = new byte[bufferSize];
+        int fill = 0;
+        while (running || !ring.isEmpty()) {
+            byte[] line;
+            while ((line = ring.poll()) != null) {
+                if (fill + line.length > buffer.length && fill > 0) {
+                    fill = drain(buffer, fill);
+                }
+                if (line.length > buffer.length) {
+                    // oversized: write through directly
+                    drain(line, line.length);
+                } else {
+                    System.arraycopy(line, 0, buffer, fill, line.length);
+                    fill += line.length;
+                }
+            }
+            if (!ring.isEmpty()) {
+                // a caller is mid-enqueue
+                Thread.yield();
+                continue;
+            }
+            if (fill > 0) {
+                // caught up: write out what we have
+                fill = drain(buffer, fill);
+            }
+            written = ring.getTaken();
+            if (running) {
+                ring.parkConsumer(1000000L);
+            }
+        }
+        synchronized (outLock) {
+            flushOut();
+        }
+    }
+
+    /**
+     * Write the buffered bytes to the current output stream.
+     * @return new buffer fill (always 0)
+     */
+    protected int drain(byte[] buffer, int fill) {
+        synchronized (outLock) {
+            try {
+                out.write(buffer, 0, fill);
+                writes++;
+                bytesWritten += fill;
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "problem writing " + file, e);
+            }
+        }
+        return 0;
+    }
+
+    protected void flushOut() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "problem flushing " + file, e);
+        }
+    }
+
+    /**
+     * Wait until every line enqueued before this call has been written
+     * and flushed to the file.
+     */
+    public void flush() {
+        awaitWritten();
+        synchronized (outLock) {
+            flushOut();
+        }
+    }
+
+    /**
+     * Wait until every line enqueued before this call has been written
+     * (though perhaps not yet flushed).
+     */
+    public void awaitWritten() {
+        long target = ring.getClaimed();
+        while (written < target && writerThread.isAlive()) {
+            ring.wakeConsumer();
+            LockSupport.parkNanos(this, 100000L);
+        }
+    }
+
+    /**
+     * Move the active file aside, to its name plus the given suffix, after
+     * writing everything enqueued so far; further lines go to a fresh
+     * file. Lines enqueued concurrently with rotation may land in either.
+     *
+     * @param storeSuffix suffix for the rotated-off file
+     * @param mergeOld if true, fold earlier rotated generations into this
+     * one (oldest first) and delete them
+     * @return the rotated-off file
+     */
+    public File rotate(String storeSuffix, boolean mergeOld)
+    throws IOException {
+        awaitWritten();
+        File stored = new File(file.getParentFile(),
+                file.getName() + storeSuffix);
+        synchronized (outLock) {
+            out.close();
+            if (mergeOld && !generations.isEmpty()) {
+                mergeInto(stored);
+            } else if (!file.renameTo(stored)) {
+                throw new IOException("unable to move " + file + " to "
+                        + stored);
+            }
+            generations.add(stored);
+            out = openOut();
+        }
+        return stored;
+    }
+
+    /**
+     * Concatenate all earlier generations plus the active file into
+     * stored. (Concatenated gzip members remain a valid gzip file.)
+     */
+    protected void mergeInto(File stored) throws IOException {
+        generations.add(file);
+        OutputStream merged = new FileOutputStream(stored);
+        try {
+            for (File f : generations) {
+                InputStream in = new FileInputStream(f);
+                try {
+                    IOUtils.copyLarge(in, merged);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            merged.close();
+        }
+        for (File f : generations) {
+            if (!f.delete()) {
+                LOGGER.warning("unable to delete merged " + f);
+            }
+        }
+        generations.clear();
+    }
+
+    /**
+     * Write out everything enqueued, end the writer thread, and close
+     * the file. Later calls to {@link #enqueue(byte[])} fail; a line
+     * enqueued at the very moment of closing may be lost.
+     */
+    public void close() {
+        ring.close();
+        running = false;
+        ring.wakeConsumer();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "interrupted stopping log writer", e);
+            Thread.currentThread().interrupt();
+        }
+        synchronized (outLock) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "problem closing " + file, e);
+            }
+        }
+    }
+
+    public long getFullStalls() {
+        return ring.getFullStalls();
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
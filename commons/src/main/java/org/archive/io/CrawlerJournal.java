@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -72,6 +73,12 @@ public class CrawlerJournal implements Closeable {
      */
     protected File gzipFile = null;
     
+    /**
+     * If non-null, the writer thread to which lines are handed, in
+     * group-commit mode.
+     */
+    protected volatile GroupCommitJournalWriter groupCommit = null;
+    
     /**
      * Create a new crawler journal at the given location
      * 
@@ -102,12 +109,47 @@ public class CrawlerJournal implements Closeable {
             new FastBufferedOutputStream(new FileOutputStream(f),32*1024)));
     }
 
+    /**
+     * Switch to group-commit mode: rather than each calling thread
+     * writing (and compressing) its lines under this journal's lock,
+     * lines are queued, through a bounded ring of the given capacity, to
+     * a single writer thread which adds them to the journal in batches.
+     * Lines may then reach the journal after writeLine() returns, but
+     * before any rotateForCheckpoint() or close() completes.
+     * 
+     * @param capacity maximum number of lines queued before callers wait
+     */
+    public synchronized void startGroupCommit(int capacity) {
+        if (groupCommit != null) {
+            return;
+        }
+        groupCommit = new GroupCommitJournalWriter(this, capacity);
+        groupCommit.start();
+    }
+    
     /**
      * Write a line
      * 
      * @param string String
      */
-    public synchronized void writeLine(String... strs) {
+    public void writeLine(String... strs) {
+        GroupCommitJournalWriter gc = groupCommit;
+        if (gc != null) {
+            int length = 1;
+            for (String s : strs) {
+                length += s.length();
+            }
+            StringBuilder line = new StringBuilder(length);
+            for (String s : strs) {
+                line.append(s);
+            }
+            gc.enqueue(line.append('\n').toString());
+            return;
+        }
+        writeLineDirect(strs);
+    }
+    
+    protected synchronized void writeLineDirect(String... strs) {
         try {
             for(String s : strs) {
                 this.out.write(s);
@@ -127,7 +169,16 @@ public class CrawlerJournal implements Closeable {
      * 
      * @param mstring MutableString to write
      */
-    public synchronized void writeLine(MutableString mstring) {
+    public void writeLine(MutableString mstring) {
+        GroupCommitJournalWriter gc = groupCommit;
+        if (gc != null) {
+            gc.enqueue(mstring.toString() + "\n");
+            return;
+        }
+        writeLineDirect(mstring);
+    }
+    
+    protected synchronized void writeLineDirect(MutableString mstring) {
         if (this.out == null) {
             return;
         }
@@ -140,6 +191,27 @@ public class CrawlerJournal implements Closeable {
         }
     }
 
+    /**
+     * Write a batch of complete lines, as collected by the group-commit
+     * writer thread.
+     * 
+     * @param lines lines, each already ending in a newline
+     */
+    protected synchronized void writeBatch(List<String> lines) {
+        if (this.out == null) {
+            LOGGER.warning("journal closed; dropping " + lines.size() + " lines");
+            return;
+        }
+        try {
+            for (String line : lines) {
+                this.out.write(line);
+                noteLine();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE,"problem writing journal lines", e);
+        }
+    }
+
     /**
      * Count and note a line
      * 
@@ -164,9 +236,22 @@ public class CrawlerJournal implements Closeable {
     }
 
     /**
-     * Flush and close the underlying IO objects.
+     * Write out any lines queued for the group-commit writer thread, 
+     * ending it; then flush and close the underlying IO objects.
      */
     public void close() {
+        GroupCommitJournalWriter gc = groupCommit;
+        if (gc != null) {
+            groupCommit = null;
+            gc.stop();
+        }
+        closeOut();
+    }
+
+    /**
+     * Flush and close the underlying IO objects.
+     */
+    protected synchronized void closeOut() {
         if (this.out == null) {
             return;
         }
@@ -184,7 +269,7 @@ public class CrawlerJournal implements Closeable {
      * 
      * @param err
      */
-    public synchronized void seriousError(String err) {
+    public void seriousError(String err) {
         writeLine(LOG_ERROR+ArchiveUtils.getLog14Date()+" "+err+"\n");
     }
 
@@ -195,11 +280,20 @@ public class CrawlerJournal implements Closeable {
      * @param checkpointDir
      * @throws IOException
      */
-    public synchronized void rotateForCheckpoint(Checkpoint checkpointInProgress) {
+    public void rotateForCheckpoint(Checkpoint checkpointInProgress) {
+        GroupCommitJournalWriter gc = groupCommit;
+        if (gc != null) {
+            // lines queued before the checkpoint belong in the rotated file
+            gc.awaitWritten();
+        }
+        rotate(checkpointInProgress);
+    }
+
+    protected synchronized void rotate(Checkpoint checkpointInProgress) {
         if (this.out == null || !this.gzipFile.exists()) {
             return;
         }
-        close();
+        closeOut();
 
         File newName = new File(this.gzipFile.getParentFile(),
                 this.gzipFile.getName() + "." + checkpointInProgress.getName());
@@ -0,0 +1,146 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single writer thread for a CrawlerJournal in group-commit mode.
+ *
+ * Calling threads enqueue finished lines into a bounded ring without
+ * taking any lock (claiming a slot by CAS); the writer thread drains
+ * whatever has accumulated and hands it to the journal as one batch,
+ * so the journal's lock and compressing stream are used by one thread,
+ * once per batch, rather than contended for by every caller. When the
+ * ring is full, callers park until the writer catches up (see
+ * {@link LineRing}).
+ */
+public class GroupCommitJournalWriter implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(
+            GroupCommitJournalWriter.class.getName());
+
+    /** most lines handed to the journal at once */
+    protected static final int MAX_BATCH = 1024;
+
+    protected final CrawlerJournal journal;
+    protected final Thread writerThread;
+    protected final LineRing<String> ring;
+
+    /** all sequence numbers below this have been written to the journal */
+    protected volatile long written = 0;
+    protected volatile boolean running = true;
+
+    /** count of batches handed to the journal */
+    protected long batches = 0;
+
+    /**
+     * @param journal journal to write batches to
+     * @param capacity ring size in lines; rounded up to a power of 2
+     */
+    public GroupCommitJournalWriter(CrawlerJournal journal, int capacity) {
+        this.journal = journal;
+        this.writerThread = new Thread(this,
+                "journal writer: " + journal.gzipFile.getName());
+        this.writerThread.setDaemon(true);
+        this.ring = new LineRing<String>(capacity, writerThread);
+    }
+
+    public void start() {
+        writerThread.start();
+    }
+
+    /**
+     * Add a complete line (including any terminating newline) to be
+     * written, waiting only if the ring is full.
+     */
+    public void enqueue(String line) {
+        ring.put(line);
+    }
+
+    public void run() {
+        List<String> batch = new ArrayList<String>(MAX_BATCH);
+        while (running || !ring.isEmpty()) {
+            while (batch.size() < MAX_BATCH) {
+                String line = ring.poll();
+                if (line == null) {
+                    break;
+                }
+                batch.add(line);
+            }
+            if (batch.isEmpty()) {
+                if (!ring.isEmpty()) {
+                    // a caller is mid-enqueue
+                    Thread.yield();
+                    continue;
+                }
+                if (running) {
+                    ring.parkConsumer(1000000L);
+                }
+                continue;
+            }
+            try {
+                journal.writeBatch(batch);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "problem writing journal batch", e);
+            }
+            batches++;
+            batch.clear();
+            written = ring.getTaken();
+        }
+    }
+
+    /**
+     * Wait until every line enqueued before this call has been handed
+     * to the journal. Must not be called holding the journal's lock.
+     */
+    public void awaitWritten() {
+        long target = ring.getClaimed();
+        while (written < target && writerThread.isAlive()) {
+            ring.wakeConsumer();
+            LockSupport.parkNanos(this, 100000L);
+        }
+    }
+
+    /**
+     * Write out everything enqueued, and end the writer thread.
+     */
+    public void stop() {
+        running = false;
+        ring.wakeConsumer();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "interrupted stopping journal writer", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getFullStalls() {
+        return ring.getFullStalls();
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+}
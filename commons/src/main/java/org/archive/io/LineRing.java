@@ -0,0 +1,202 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of finished lines, filled by any number of calling
+ * threads and emptied, in claim order, by a single consumer thread.
+ *
+ * Callers claim a slot by CAS on the tail sequence number rather than
+ * taking any lock. When the ring is full, a caller parks until the
+ * consumer has taken something, rather than spinning; the consumer
+ * parks when the ring is empty until a caller puts something.
+ *
+ * @param <E> type of line (e.g. String or byte[])
+ */
+public class LineRing<E> {
+    /** longest a waiting thread parks before rechecking on its own */
+    protected static final long MAX_PARK_NANOS = 10 * 1000000L;
+
+    protected final AtomicReferenceArray<E> slots;
+    protected final int capacity;
+    protected final int mask;
+
+    /** next sequence number to be claimed by a caller */
+    protected final AtomicLong tail = new AtomicLong(0);
+    /** next sequence number to be taken by the consumer */
+    protected volatile long head = 0;
+
+    protected final Thread consumer;
+    protected volatile boolean consumerParked = false;
+    /** once set, no more lines may be put */
+    protected volatile boolean closed = false;
+    /** callers parked waiting for room */
+    protected final Queue<Thread> waitingProducers =
+        new ConcurrentLinkedQueue<Thread>();
+
+    /** count of times a caller found the ring full */
+    protected final AtomicLong fullStalls = new AtomicLong(0);
+
+    /**
+     * @param capacity ring size in lines; rounded up to a power of 2
+     * @param consumer the only thread that will call {@link #poll()}
+     */
+    public LineRing(int capacity, Thread consumer) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<E>(this.capacity);
+        this.consumer = consumer;
+    }
+
+    /**
+     * Add a line, parking only if the ring is full. The line must not be
+     * modified afterward.
+     *
+     * @throws IllegalStateException if the ring has been closed
+     */
+    public void put(E line) {
+        long seq;
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("ring closed");
+            }
+            seq = tail.get();
+            if (seq - head >= capacity) {
+                awaitRoom(seq);
+                continue;
+            }
+            if (tail.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+        slots.lazySet((int) seq & mask, line);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Park the calling thread until the consumer has taken something
+     * since the caller saw the ring full at the given tail.
+     */
+    protected void awaitRoom(long seq) {
+        fullStalls.incrementAndGet();
+        Thread current = Thread.currentThread();
+        waitingProducers.add(current);
+        try {
+            LockSupport.unpark(consumer);
+            // recheck after registering: poll() advances head before
+            // looking for waiting producers, so one of us sees the other
+            while (seq - head >= capacity && !closed && consumer.isAlive()) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+        } finally {
+            waitingProducers.remove(current);
+        }
+    }
+
+    /**
+     * Take the next line, if one has been put. Only to be called by the
+     * consumer thread.
+     *
+     * @return next line, or null if the ring is empty or the next slot is
+     * claimed but not yet filled (in which case {@link #isEmpty()} is false)
+     */
+    public E poll() {
+        long h = head;
+        int index = (int) h & mask;
+        E line = slots.get(index);
+        if (line == null) {
+            return null;
+        }
+        slots.lazySet(index, null);
+        head = h + 1;
+        if (!waitingProducers.isEmpty()) {
+            for (Thread producer : waitingProducers) {
+                LockSupport.unpark(producer);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * @return true if every line claimed so far has been taken
+     */
+    public boolean isEmpty() {
+        return head == tail.get();
+    }
+
+    /**
+     * Park the consumer until a line is put, it is woken by
+     * {@link #wakeConsumer()}, or the given time passes. Only to be called
+     * by the consumer thread.
+     */
+    public void parkConsumer(long nanos) {
+        consumerParked = true;
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        consumerParked = false;
+    }
+
+    /**
+     * Refuse further lines, waking any callers waiting for room (which
+     * then fail). Lines already put may still be taken.
+     */
+    public void close() {
+        closed = true;
+        for (Thread producer : waitingProducers) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void wakeConsumer() {
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * @return sequence number of the next line to be claimed: every line
+     * put before this call is below it
+     */
+    public long getClaimed() {
+        return tail.get();
+    }
+
+    /**
+     * @return sequence number of the next line to be taken
+     */
+    public long getTaken() {
+        return head;
+    }
+
+    public long getFullStalls() {
+        return fullStalls.get();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * OutputStream writing exactly one gzip member, like GZIPOutputStream, but
+ * deflating fixed-size chunks of input concurrently on a ForkJoinPool.
+ *
+ * <p>Each chunk is deflated independently, primed with the last 32KiB of
+ * the previous chunk as a preset dictionary (as pigz does), and ended with
+ * a sync flush so that the chunks' outputs concatenate into a single valid
+ * deflate stream. The result is readable by any gzip reader, and costs
+ * only slightly in compression ratio. Input no longer than one chunk is
+ * deflated on the calling thread, exactly as a plain GZIPOutputStream
+ * would.
+ *
+ * <p>A bounded number of chunks are in flight at once, so memory use is
+ * independent of the total length written. Not thread-safe; one instance
+ * per member.
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream {
+    /** deflate's maximum back-reference distance */
+    protected static final int DICTIONARY_SIZE = 32 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 128 * 1024;
+
+    /** same header GZIPOutputStream writes: no name, no mtime */
+    protected static final byte[] HEADER = {
+        (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static ForkJoinPool sharedPool;
+    /**
+     * @return pool, sized to available processors, shared by all instances
+     * not given a specific pool
+     */
+    public static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool();
+        }
+        return sharedPool;
+    }
+
+    protected ForkJoinPool pool;
+    protected int chunkSize;
+    protected int level;
+    protected int maxInFlight;
+
+    protected byte[] chunk;
+    protected int chunkFill = 0;
+    protected byte[] previousChunk = null;
+    protected LinkedList<ForkJoinTask<byte[]>> inFlight =
+        new LinkedList<ForkJoinTask<byte[]>>();
+
+    protected CRC32 crc = new CRC32();
+    protected long totalIn = 0;
+    protected boolean headerWritten = false;
+    protected boolean finished = false;
+
+    public ParallelGZIPOutputStream(OutputStream out) {
+        this(out, getSharedPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelGZIPOutputStream(OutputStream out, ForkJoinPool pool,
+            int chunkSize) {
+        this(out, pool, chunkSize, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelGZIPOutputStream(OutputStream out, ForkJoinPool pool,
+            int chunkSize, int level) {
+        super(out);
+        if (chunkSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("chunkSize must be at least "
+                    + DICTIONARY_SIZE + ": " + chunkSize);
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.level = level;
+        this.maxInFlight = 2 * pool.getParallelism();
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("gzip member already finished");
+        }
+        crc.update(b, off, len);
+        totalIn += len;
+        while (len > 0) {
+            if (chunkFill == chunkSize) {
+                submitChunk();
+            }
+            int n = Math.min(len, chunkSize - chunkFill);
+            System.arraycopy(b, off, chunk, chunkFill, n);
+            chunkFill += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Hand the (full) current chunk to the pool, first writing out
+     * completed chunks if too many are in flight.
+     */
+    protected void submitChunk() throws IOException {
+        while (inFlight.size() >= maxInFlight) {
+            writeCompressed(inFlight.removeFirst().join());
+        }
+        inFlight.add(pool.submit(
+                new DeflateChunk(chunk, chunkFill, previousChunk, false)));
+        previousChunk = chunk;
+        chunk = new byte[chunkSize];
+        chunkFill = 0;
+    }
+
+    protected void writeCompressed(byte[] compressed) throws IOException {
+        if (!headerWritten) {
+            out.write(HEADER);
+            headerWritten = true;
+        }
+        out.write(compressed);
+    }
+
+    /**
+     * Write all remaining compressed data and the gzip trailer, without
+     * closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        // final (possibly empty) chunk on this thread; the common case of
+        // a small record never touches the pool
+        byte[] last = new DeflateChunk(chunk, chunkFill, previousChunk, true)
+            .compute();
+        while (!inFlight.isEmpty()) {
+            writeCompressed(inFlight.removeFirst().join());
+        }
+        writeCompressed(last);
+        writeIntLE((int) crc.getValue());
+        writeIntLE((int) totalIn);
+        finished = true;
+        chunk = null;
+        previousChunk = null;
+    }
+
+    protected void writeIntLE(int i) throws IOException {
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+
+    /**
+     * Only flushes the underlying stream; buffered input is not forced out,
+     * which would degrade compression.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Raw deflate of one chunk, primed with the tail of the previous chunk.
+     */
+    protected class DeflateChunk extends RecursiveTask<byte[]> {
+        private static final long serialVersionUID = 1L;
+        protected byte[] input;
+        protected int length;
+        protected byte[] dictionary;
+        protected boolean last;
+
+        protected DeflateChunk(byte[] input, int length, byte[] dictionary,
+                boolean last) {
+            this.input = input;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+
+        @Override
+        protected byte[] compute() {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (dictionary != null) {
+                    // previous chunks are always full
+                    deflater.setDictionary(dictionary,
+                            dictionary.length - DICTIONARY_SIZE,
+                            DICTIONARY_SIZE);
+                }
+                deflater.setInput(input, 0, length);
+                ByteArrayOutputStream compressed =
+                    new ByteArrayOutputStream(length / 2 + 64);
+                byte[] buf = new byte[Math.max(512, Math.min(length, 64 * 1024))];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(buf);
+                        compressed.write(buf, 0, n);
+                    }
+                } else {
+                    // sync flush ends on a byte boundary, so the next
+                    // chunk's blocks may simply follow
+                    int n;
+                    do {
+                        n = deflater.deflate(buf, 0, buf.length,
+                                Deflater.SYNC_FLUSH);
+                        compressed.write(buf, 0, n);
+                    } while (n == buf.length);
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
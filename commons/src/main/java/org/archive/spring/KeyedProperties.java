@@ -20,9 +20,11 @@
  package org.archive.spring;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Logger;
 
@@ -44,12 +46,24 @@ public class KeyedProperties extends ConcurrentSkipListMap<String,Object> {
      * TODO: consider if deterministic ordered list is important */
     protected TreeSet<String> externalPaths = new TreeSet<String>(); 
     
+    /**
+     * Precomputed full override keys (externalPath + "." + local key) for
+     * each local key looked up so far; lets get() check overlays without
+     * composing new Strings on every read. Cleared whenever an external
+     * path is added. 
+     */
+    protected transient volatile ConcurrentHashMap<String,String[]> overrideKeysCache; 
+    
     /**
      * Add a path by which the outside world can reach this map
      * @param path String path
      */
     public void addExternalPath(String path) {
-        externalPaths.add(path);
+        synchronized (externalPaths) {
+            externalPaths.add(path);
+            // any previously-composed override keys are now incomplete
+            overrideKeysCache = null;
+        }
     }
 
     /**
@@ -60,14 +74,23 @@ public class KeyedProperties extends ConcurrentSkipListMap<String,Object> {
      */
     public Object get(String key) {
         ArrayList<OverlayContext> overlays = threadOverrides.get();
+        if(overlays.isEmpty()) {
+            // fast path: no overlay context active on this thread
+            return super.get(key);
+        }
+        String[] overrideKeys = null; 
         for(int i = overlays.size()-1; i>=0; i--) {
             OverlayContext ocontext = overlays.get(i); 
-            for(int j = ocontext.getOverlayNames().size()-1; j>=0; j--) {
-                String name = ocontext.getOverlayNames().get(j);
+            ArrayList<String> names = ocontext.getOverlayNames();
+            for(int j = names.size()-1; j>=0; j--) {
+                String name = names.get(j);
                 Map<String,Object> m = ocontext.getOverlayMap(name);
                 if (m != null) { 
-                    for(String ok : getOverrideKeys(key)) {
-                        Object val = m.get(ok);
+                    if(overrideKeys == null) {
+                        overrideKeys = getOverrideKeysArray(key);
+                    }
+                    for(int k = 0; k < overrideKeys.length; k++) {
+                        Object val = m.get(overrideKeys[k]);
                         if(val!=null) {
                             return val;
                         }
@@ -89,9 +112,41 @@ public class KeyedProperties extends ConcurrentSkipListMap<String,Object> {
      * @return List of full keys to check
      */
     protected List<String> getOverrideKeys(String key) {
-        ArrayList<String> keys = new ArrayList<String>(externalPaths.size());
-        for(String path : externalPaths) {
-            keys.add(path+"."+key);
+        return Arrays.asList(getOverrideKeysArray(key));
+    }
+
+    /**
+     * Return the complete override keys for the given local key, from 
+     * the precomputed table if possible, otherwise composing them once 
+     * and remembering them. The returned array must not be modified. 
+     * 
+     * @param key local key to compose
+     * @return array of full keys to check
+     */
+    protected String[] getOverrideKeysArray(String key) {
+        ConcurrentHashMap<String,String[]> cache = overrideKeysCache;
+        if(cache == null) {
+            synchronized (externalPaths) {
+                cache = overrideKeysCache;
+                if(cache == null) {
+                    cache = new ConcurrentHashMap<String,String[]>();
+                    overrideKeysCache = cache;
+                }
+            }
+        }
+        String[] keys = cache.get(key);
+        if(keys == null) {
+            synchronized (externalPaths) {
+                keys = new String[externalPaths.size()];
+                int i = 0; 
+                for(String path : externalPaths) {
+                    keys[i++] = path+"."+key;
+                }
+                // only remember if the table wasn't invalidated meanwhile
+                if(cache == overrideKeysCache) {
+                    cache.put(key, keys);
+                }
+            }
         }
         return keys;
     }
@@ -127,6 +182,24 @@ public class KeyedProperties extends ConcurrentSkipListMap<String,Object> {
         return threadOverrides.get().remove(threadOverrides.get().size()-1);
     }
     
+    /**
+     * Whether any overlay (sheet) could currently apply on this thread:
+     * true if some pushed context has overlay names. When false, every
+     * get() returns the local value, so callers may safely rely on 
+     * values captured earlier from the local map.
+     * 
+     * @return true if some overlay may apply
+     */
+    static public boolean overlaysActive() {
+        ArrayList<OverlayContext> overlays = threadOverrides.get();
+        for(int i = overlays.size()-1; i>=0; i--) {
+            if(!overlays.get(i).getOverlayNames().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     static public void clearAllOverrideContexts() {
         threadOverrides.get().clear(); 
     }
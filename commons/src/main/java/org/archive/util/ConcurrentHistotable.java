@@ -0,0 +1,210 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Collect frequency information from many threads at once, without
+ * locking.
+ *
+ * Unlike {@link Histotable}, which is a TreeMap whose tally() is
+ * synchronized, each key here has its own counter cell: a single atomic
+ * long while uncontended, which on the first failed compare-and-set
+ * inflates into cache-line-padded stripes selected by thread, so that
+ * threads hammering the same key rarely touch the same memory. Reading
+ * sums a cell's stripes; {@link #snapshot(Histotable)} copies all
+ * nonzero totals into a plain Histotable for sorting and reporting.
+ *
+ * Totals read while tallies are in progress are each exact as of some
+ * moment during the read, but a snapshot is not an atomic view across
+ * keys.
+ */
+public class ConcurrentHistotable<K> implements Tallier<K>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** longs per stripe: 64 bytes, so each stripe has its own cache line */
+    protected static final int PAD = 8;
+    protected static final int STRIPES = Math.min(64, Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors()) * 2));
+
+    /**
+     * One key's counter: a base value until contended, then also an
+     * array of striped partial sums.
+     */
+    protected static final class Cell implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final AtomicLongFieldUpdater<Cell> BASE =
+            AtomicLongFieldUpdater.newUpdater(Cell.class, "base");
+        private static final AtomicReferenceFieldUpdater<Cell,AtomicLongArray>
+            STRIPED = AtomicReferenceFieldUpdater.newUpdater(
+                    Cell.class, AtomicLongArray.class, "stripes");
+
+        private volatile long base;
+        private volatile AtomicLongArray stripes;
+
+        public Cell(long initial) {
+            base = initial;
+        }
+
+        public void add(long count) {
+            AtomicLongArray s = stripes;
+            if (s == null) {
+                long b = base;
+                if (BASE.compareAndSet(this, b, b + count)) {
+                    return;
+                }
+                // contended: spread this key over stripes from now on
+                s = new AtomicLongArray(STRIPES * PAD);
+                if (!STRIPED.compareAndSet(this, null, s)) {
+                    s = stripes;
+                }
+            }
+            s.getAndAdd(stripeIndex(), count);
+        }
+
+        public long sum() {
+            long sum = base;
+            AtomicLongArray s = stripes;
+            if (s != null) {
+                for (int i = 0; i < s.length(); i += PAD) {
+                    sum += s.get(i);
+                }
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * @return array index of the current thread's stripe
+     */
+    protected static int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h >>> 16) & (STRIPES - 1)) * PAD;
+    }
+
+    protected final ConcurrentHashMap<K,Cell> cells =
+        new ConcurrentHashMap<K,Cell>();
+
+    /**
+     * Record one more occurence of the given key.
+     */
+    public void tally(K key) {
+        tally(key, 1L);
+    }
+
+    /**
+     * Record <i>count</i> more occurence(s) of the given key.
+     */
+    public void tally(K key, long count) {
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            Cell fresh = new Cell(count);
+            cell = cells.putIfAbsent(key, fresh);
+            if (cell == null) {
+                return;
+            }
+        }
+        cell.add(count);
+    }
+
+    /**
+     * @return current total for key; 0 if never tallied
+     */
+    public long get(Object key) {
+        Cell cell = cells.get(key);
+        return cell == null ? 0 : cell.sum();
+    }
+
+    /**
+     * @return true if key has a nonzero total (as with Histotable, where
+     * keys tallied back to zero are removed)
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != 0;
+    }
+
+    /**
+     * @return live set of all keys ever tallied (including any whose
+     * total is now zero)
+     */
+    public Set<K> keySet() {
+        return cells.keySet();
+    }
+
+    public boolean isEmpty() {
+        return cells.isEmpty();
+    }
+
+    /**
+     * @return total of all tallies
+     */
+    public long getTotal() {
+        long total = 0;
+        for (Cell cell : cells.values()) {
+            total += cell.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Add all the given totals to this one's.
+     */
+    public void add(Map<K,Long> totals) {
+        for (Map.Entry<K,Long> entry : totals.entrySet()) {
+            tally(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Copy every nonzero total into the given (typically empty)
+     * Histotable.
+     *
+     * @return the Histotable passed in, for convenience
+     */
+    public <H extends Histotable<K>> H snapshot(H into) {
+        for (Map.Entry<K,Cell> entry : cells.entrySet()) {
+            long sum = entry.getValue().sum();
+            if (sum != 0) {
+                into.put(entry.getKey(), sum);
+            }
+        }
+        return into;
+    }
+
+    /**
+     * @return new Histotable of every nonzero total
+     */
+    public Histotable<K> snapshot() {
+        return snapshot(new Histotable<K>());
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
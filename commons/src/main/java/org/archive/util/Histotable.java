@@ -30,7 +30,8 @@ import java.util.TreeSet;
 /**
  * Collect and report frequency information. 
  * 
- * Assumes external synchronization.
+ * Assumes external synchronization. (For counts tallied from many threads
+ * at once, see {@link ConcurrentHistotable}.)
  * 
  * TODO: Histotable and TopNSet that they could possibly
  * have a closer relationship and share some code (even though Histotable 
@@ -39,7 +40,7 @@ import java.util.TreeSet;
  * 
  * @contributor gojomo
  */
-public class Histotable<K> extends TreeMap<K,Long> {    
+public class Histotable<K> extends TreeMap<K,Long> implements Tallier<K> {    
     private static final long serialVersionUID = 310306238032568623L;
     
     /**
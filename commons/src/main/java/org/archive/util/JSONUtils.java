@@ -44,4 +44,11 @@ public class JSONUtils {
             targetMap.put(k, new AtomicLong(sourceJson.getLong(k)));
         }
     }
+
+    @SuppressWarnings("unchecked")
+    public static void tallyAllLongs(Tallier<String> target, JSONObject sourceJson) throws JSONException {
+        for(String k : new Iteratorable<String>(sourceJson.keys())) {
+            target.tally(k, sourceJson.getLong(k));
+        }
+    }
 }
@@ -0,0 +1,1157 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * Tests a string against many regular expressions at once, with the same
+ * results as calling Pattern.matcher(string).matches() for each.
+ *
+ * Patterns using only regular constructs (literals, escapes, '.',
+ * character classes, groups, alternation, greedy or reluctant
+ * quantifiers, '^' and '$' at the ends, and a leading '(?i)') are
+ * combined into automata of up to PATTERNS_PER_AUTOMATON patterns each,
+ * so that a string is scanned once per automaton rather than once per
+ * pattern. Each automaton is an NFA whose
+ * deterministic states are built lazily, as strings need them, and
+ * cached (up to a limit of states and of memory; past it, the cache is
+ * frozen, and further states are computed for each use, without
+ * locking, but not kept). Other patterns (backreferences, lookaround,
+ * possessive quantifiers, most flags, etc.) are tested individually by
+ * java.util.regex, as are strings containing surrogate characters.
+ *
+ * Instances are immutable, other than the cache, and safe for use from
+ * multiple threads.
+ */
+public class MultiPatternMatcher {
+    /** default limit on cached states, per automaton */
+    public static final int DEFAULT_MAX_STATES = 10000;
+    /** limit on ints held by cached states, per automaton (so ~4MB) */
+    protected static final long MAX_CACHED_INTS = 1024 * 1024;
+    /**
+     * patterns per automaton; more per automaton means fewer scans of
+     * each string, but more (and larger) states
+     */
+    protected static final int PATTERNS_PER_AUTOMATON = 128;
+    /** limit on NFA states from a single pattern (as when large counted repeats) */
+    protected static final int MAX_PATTERN_NFA_STATES = 5000;
+
+    protected final Pattern[] patterns;
+    /** indexes of patterns tested individually */
+    protected final int[] fallbacks;
+    /** automata for all other patterns */
+    protected final Automaton[] automata;
+
+    public MultiPatternMatcher(List<Pattern> patterns) {
+        this(patterns, DEFAULT_MAX_STATES);
+    }
+
+    public MultiPatternMatcher(List<Pattern> patterns, int maxStates) {
+        this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+        List<Automaton> built = new ArrayList<Automaton>();
+        Nfa nfa = new Nfa();
+        List<Integer> others = new ArrayList<Integer>();
+        for (int i = 0; i < this.patterns.length; i++) {
+            Node ast = Parser.parse(this.patterns[i]);
+            if (ast == null || !nfa.add(ast, i)) {
+                others.add(i);
+            } else if (nfa.patternCount == PATTERNS_PER_AUTOMATON) {
+                built.add(new Automaton(nfa, maxStates));
+                nfa = new Nfa();
+            }
+        }
+        if (nfa.patternCount > 0) {
+            built.add(new Automaton(nfa, maxStates));
+        }
+        automata = built.toArray(new Automaton[built.size()]);
+        fallbacks = new int[others.size()];
+        for (int i = 0; i < fallbacks.length; i++) {
+            fallbacks[i] = others.get(i);
+        }
+    }
+
+    /**
+     * @return number of patterns
+     */
+    public int size() {
+        return patterns.length;
+    }
+
+    /**
+     * @return number of patterns tested by automaton (rather than
+     * individually)
+     */
+    public int getAutomatonPatternCount() {
+        return patterns.length - fallbacks.length;
+    }
+
+    /**
+     * @return number of automaton states cached so far
+     */
+    public int getCachedStateCount() {
+        int count = 0;
+        for (Automaton automaton : automata) {
+            count += automaton.stateCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if any pattern matches the entire string
+     */
+    public boolean matchesAny(CharSequence s) {
+        for (Automaton automaton : automata) {
+            DState end = automaton.run(s);
+            if (end == null) {
+                return matchesAnyIndividually(s);
+            }
+            if (end.accepts.length > 0) {
+                return true;
+            }
+        }
+        for (int i : fallbacks) {
+            if (patterns[i].matcher(s).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected boolean matchesAnyIndividually(CharSequence s) {
+        for (Pattern p : patterns) {
+            if (p.matcher(s).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if every pattern matches the entire string (and so
+     * true if there are no patterns)
+     */
+    public boolean matchesAll(CharSequence s) {
+        for (Automaton automaton : automata) {
+            DState end = automaton.run(s);
+            if (end == null) {
+                for (Pattern p : patterns) {
+                    if (!p.matcher(s).matches()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (end.accepts.length < automaton.patternCount) {
+                return false;
+            }
+        }
+        for (int i : fallbacks) {
+            if (!patterns[i].matcher(s).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the first pattern, at or after 'from', to match the
+     * entire string; -1 if none does
+     */
+    public int firstMatch(CharSequence s, int from) {
+        int candidate = Integer.MAX_VALUE;
+        for (Automaton automaton : automata) {
+            DState end = automaton.run(s);
+            if (end == null) {
+                for (int i = from; i < patterns.length; i++) {
+                    if (patterns[i].matcher(s).matches()) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            for (int i : end.accepts) {
+                if (i >= from) {
+                    candidate = Math.min(candidate, i);
+                    break;
+                }
+            }
+        }
+        for (int i : fallbacks) {
+            if (i >= candidate) {
+                break;
+            }
+            if (i >= from && patterns[i].matcher(s).matches()) {
+                return i;
+            }
+        }
+        return candidate == Integer.MAX_VALUE ? -1 : candidate;
+    }
+
+    //
+    // parsing: regex to syntax tree
+    //
+
+    protected static abstract class Node {
+    }
+
+    /** one char from a set, as sorted, non-overlapping inclusive ranges */
+    protected static class CharSet extends Node {
+        int[] ranges;
+        CharSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+    }
+
+    protected static class Concat extends Node {
+        List<Node> items;
+        Concat(List<Node> items) {
+            this.items = items;
+        }
+    }
+
+    protected static class Alt extends Node {
+        List<Node> alternatives;
+        Alt(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+    }
+
+    protected static class Repeat extends Node {
+        Node body;
+        int min;
+        /** -1 for unbounded */
+        int max;
+        Repeat(Node body, int min, int max) {
+            this.body = body;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /** thrown internally for constructs not handled by automaton */
+    @SuppressWarnings("serial")
+    protected static class UnsupportedSyntax extends Exception {
+    }
+
+    /** chars other than line terminators: what '.' matches */
+    protected static final int[] DOT = {
+        0, '\n' - 1, '\n' + 1, '\r' - 1, '\r' + 1, 0x84, 0x86, 0x2027, 0x202A, 0xFFFF };
+    protected static final int[] DIGIT = { '0', '9' };
+    protected static final int[] SPACE = { '\t', '\r', ' ', ' ' };
+    protected static final int[] WORD = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+
+    /**
+     * Recursive-descent parser for the supported subset of
+     * java.util.regex syntax.
+     */
+    protected static class Parser {
+        final String p;
+        int pos;
+        boolean ci;
+
+        Parser(String p) {
+            this.p = p;
+        }
+
+        /**
+         * @return syntax tree, or null if the pattern uses anything
+         * unsupported
+         */
+        static Node parse(Pattern pattern) {
+            int flags = pattern.flags();
+            if ((flags & ~Pattern.CASE_INSENSITIVE) != 0) {
+                return null;
+            }
+            Parser parser = new Parser(pattern.pattern());
+            parser.ci = (flags & Pattern.CASE_INSENSITIVE) != 0;
+            try {
+                return parser.parse();
+            } catch (UnsupportedSyntax e) {
+                return null;
+            }
+        }
+
+        Node parse() throws UnsupportedSyntax {
+            if (p.startsWith("(?i)")) {
+                ci = true;
+                pos = 4;
+            }
+            Node n = alternation(0);
+            if (pos != p.length()) {
+                throw new UnsupportedSyntax();
+            }
+            return n;
+        }
+
+        Node alternation(int depth) throws UnsupportedSyntax {
+            List<Node> alternatives = new ArrayList<Node>();
+            alternatives.add(concatenation(depth));
+            while (pos < p.length() && p.charAt(pos) == '|') {
+                pos++;
+                alternatives.add(concatenation(depth));
+            }
+            return alternatives.size() == 1
+                    ? alternatives.get(0) : new Alt(alternatives);
+        }
+
+        Node concatenation(int depth) throws UnsupportedSyntax {
+            List<Node> items = new ArrayList<Node>();
+            while (pos < p.length()) {
+                char c = p.charAt(pos);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                if (c == '^') {
+                    // only where it can't but match at start
+                    if (depth > 0 || !items.isEmpty()) {
+                        throw new UnsupportedSyntax();
+                    }
+                    pos++;
+                    continue;
+                }
+                if (c == '$') {
+                    // only where it can't but match at end
+                    pos++;
+                    if (depth > 0
+                            || (pos < p.length() && p.charAt(pos) != '|')) {
+                        throw new UnsupportedSyntax();
+                    }
+                    continue;
+                }
+                items.add(quantified(atom(depth)));
+            }
+            return items.size() == 1 ? items.get(0) : new Concat(items);
+        }
+
+        Node quantified(Node atom) throws UnsupportedSyntax {
+            if (pos >= p.length()) {
+                return atom;
+            }
+            int min;
+            int max;
+            char c = p.charAt(pos);
+            if (c == '*') {
+                min = 0;
+                max = -1;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{') {
+                pos++;
+                min = number();
+                max = min;
+                if (pos < p.length() && p.charAt(pos) == ',') {
+                    pos++;
+                    max = (pos < p.length() && p.charAt(pos) == '}') ? -1 : number();
+                }
+                if (pos >= p.length() || p.charAt(pos) != '}'
+                        || (max != -1 && max < min)) {
+                    throw new UnsupportedSyntax();
+                }
+                pos++;
+            } else {
+                return atom;
+            }
+            if (pos < p.length()) {
+                c = p.charAt(pos);
+                if (c == '?') {
+                    // reluctant: same strings match entirely
+                    pos++;
+                } else if (c == '+' || c == '*' || c == '{') {
+                    // possessive (or invalid)
+                    throw new UnsupportedSyntax();
+                }
+            }
+            return new Repeat(atom, min, max);
+        }
+
+        int number() throws UnsupportedSyntax {
+            int start = pos;
+            while (pos < p.length() && Character.isDigit(p.charAt(pos))
+                    && p.charAt(pos) < 128 && pos - start < 6) {
+                pos++;
+            }
+            if (pos == start) {
+                throw new UnsupportedSyntax();
+            }
+            return Integer.parseInt(p.substring(start, pos));
+        }
+
+        Node atom(int depth) throws UnsupportedSyntax {
+            char c = p.charAt(pos++);
+            switch (c) {
+            case '(':
+                if (p.startsWith("?:", pos)) {
+                    pos += 2;
+                } else if (p.startsWith("?<", pos) && pos + 2 < p.length()
+                        && Character.isLetter(p.charAt(pos + 2))) {
+                    // named group
+                    int end = p.indexOf('>', pos);
+                    if (end < 0) {
+                        throw new UnsupportedSyntax();
+                    }
+                    pos = end + 1;
+                } else if (p.startsWith("?", pos)) {
+                    // lookaround, atomic group, flags
+                    throw new UnsupportedSyntax();
+                }
+                Node group = alternation(depth + 1);
+                if (pos >= p.length() || p.charAt(pos) != ')') {
+                    throw new UnsupportedSyntax();
+                }
+                pos++;
+                return group;
+            case '[':
+                return new CharSet(charClass());
+            case '.':
+                return new CharSet(DOT);
+            case '\\':
+                return escape();
+            case '*': case '+': case '?': case '{': case ')':
+                throw new UnsupportedSyntax();
+            default:
+                return new CharSet(literal(c));
+            }
+        }
+
+        Node escape() throws UnsupportedSyntax {
+            if (pos >= p.length()) {
+                throw new UnsupportedSyntax();
+            }
+            char c = p.charAt(pos);
+            if (c == 'Q') {
+                int end = p.indexOf("\\E", pos + 1);
+                String quoted = p.substring(pos + 1, end < 0 ? p.length() : end);
+                pos = end < 0 ? p.length() : end + 2;
+                if (pos < p.length() && "*+?{".indexOf(p.charAt(pos)) >= 0) {
+                    // quantifier would apply to last quoted char only
+                    throw new UnsupportedSyntax();
+                }
+                List<Node> items = new ArrayList<Node>();
+                for (int i = 0; i < quoted.length(); i++) {
+                    items.add(new CharSet(literal(quoted.charAt(i))));
+                }
+                return new Concat(items);
+            }
+            int[] predefined = predefined();
+            if (predefined != null) {
+                return new CharSet(predefined);
+            }
+            return new CharSet(literal(escapedChar()));
+        }
+
+        /**
+         * @return ranges for \d, \s, \w (or complements) at pos,
+         * advancing past; null (not advancing) if none there
+         */
+        int[] predefined() {
+            int[] ranges;
+            switch (p.charAt(pos)) {
+            case 'd': ranges = DIGIT; break;
+            case 'D': ranges = complement(DIGIT); break;
+            case 's': ranges = SPACE; break;
+            case 'S': ranges = complement(SPACE); break;
+            case 'w': ranges = WORD; break;
+            case 'W': ranges = complement(WORD); break;
+            default: return null;
+            }
+            pos++;
+            return ranges;
+        }
+
+        /**
+         * @return char denoted by escape at pos (just past backslash),
+         * advancing past
+         */
+        char escapedChar() throws UnsupportedSyntax {
+            char c = p.charAt(pos++);
+            switch (c) {
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 'f': return '\f';
+            case 'a': return '\u0007';
+            case 'e': return '\u001B';
+            case 'x': return hex(2);
+            case 'u': return hex(4);
+            case '0':
+                int value = 0;
+                int digits = 0;
+                while (pos < p.length() && digits < 3
+                        && p.charAt(pos) >= '0' && p.charAt(pos) <= '7'
+                        && value * 8 + (p.charAt(pos) - '0') <= 0377) {
+                    value = value * 8 + (p.charAt(pos++) - '0');
+                    digits++;
+                }
+                if (digits == 0) {
+                    throw new UnsupportedSyntax();
+                }
+                return (char) value;
+            }
+            if (c < 128 && Character.isLetterOrDigit(c)) {
+                // backreference, boundary, property, etc.
+                throw new UnsupportedSyntax();
+            }
+            if (Character.isSurrogate(c)) {
+                throw new UnsupportedSyntax();
+            }
+            return c;
+        }
+
+        char hex(int digits) throws UnsupportedSyntax {
+            if (pos + digits > p.length()) {
+                throw new UnsupportedSyntax();
+            }
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                int d = Character.digit(p.charAt(pos++), 16);
+                if (d < 0) {
+                    throw new UnsupportedSyntax();
+                }
+                value = value * 16 + d;
+            }
+            if (Character.isSurrogate((char) value)) {
+                throw new UnsupportedSyntax();
+            }
+            return (char) value;
+        }
+
+        /**
+         * @return ranges for bracketed class, pos being just past '['
+         */
+        int[] charClass() throws UnsupportedSyntax {
+            boolean negated = false;
+            if (pos < p.length() && p.charAt(pos) == '^') {
+                negated = true;
+                pos++;
+            }
+            List<int[]> parts = new ArrayList<int[]>();
+            boolean first = true;
+            while (true) {
+                if (pos >= p.length()) {
+                    throw new UnsupportedSyntax();
+                }
+                char c = p.charAt(pos);
+                if (c == ']' && !first) {
+                    pos++;
+                    break;
+                }
+                if (c == '[' || c == ']' || p.startsWith("&&", pos)) {
+                    // union, intersection, or leading ']'
+                    throw new UnsupportedSyntax();
+                }
+                if (c == '-' && !first && !p.startsWith("-]", pos)) {
+                    throw new UnsupportedSyntax();
+                }
+                first = false;
+                pos++;
+                int lo;
+                if (c == '\\') {
+                    if (pos >= p.length() || p.charAt(pos) == 'Q') {
+                        throw new UnsupportedSyntax();
+                    }
+                    int[] predefined = predefined();
+                    if (predefined != null) {
+                        parts.add(predefined);
+                        continue;
+                    }
+                    lo = escapedChar();
+                } else {
+                    if (Character.isSurrogate(c)) {
+                        throw new UnsupportedSyntax();
+                    }
+                    lo = c;
+                }
+                int hi = lo;
+                if (p.startsWith("-", pos) && pos + 1 < p.length()
+                        && p.charAt(pos + 1) != ']') {
+                    pos++;
+                    char d = p.charAt(pos++);
+                    if (d == '\\') {
+                        if (pos >= p.length()) {
+                            throw new UnsupportedSyntax();
+                        }
+                        char e = p.charAt(pos);
+                        if (e == 'Q' || e == 'd' || e == 'D' || e == 's'
+                                || e == 'S' || e == 'w' || e == 'W') {
+                            throw new UnsupportedSyntax();
+                        }
+                        hi = escapedChar();
+                    } else if (d == '[' || Character.isSurrogate(d)) {
+                        throw new UnsupportedSyntax();
+                    } else {
+                        hi = d;
+                    }
+                    if (hi < lo) {
+                        throw new UnsupportedSyntax();
+                    }
+                }
+                parts.add(caseClosed(new int[] {lo, hi}));
+            }
+            int[] ranges = union(parts);
+            return negated ? complement(ranges) : ranges;
+        }
+
+        int[] literal(char c) throws UnsupportedSyntax {
+            if (Character.isSurrogate(c)) {
+                throw new UnsupportedSyntax();
+            }
+            return caseClosed(new int[] {c, c});
+        }
+
+        /**
+         * @return given range, plus ASCII letters of other case if
+         * case-insensitive (as Pattern.CASE_INSENSITIVE without
+         * UNICODE_CASE)
+         */
+        int[] caseClosed(int[] range) {
+            if (!ci) {
+                return range;
+            }
+            List<int[]> parts = new ArrayList<int[]>();
+            parts.add(range);
+            int lo = Math.max(range[0], 'A');
+            int hi = Math.min(range[1], 'Z');
+            if (lo <= hi) {
+                parts.add(new int[] {lo + 32, hi + 32});
+            }
+            lo = Math.max(range[0], 'a');
+            hi = Math.min(range[1], 'z');
+            if (lo <= hi) {
+                parts.add(new int[] {lo - 32, hi - 32});
+            }
+            return union(parts);
+        }
+    }
+
+    /**
+     * @return sorted, merged union of the given range lists
+     */
+    protected static int[] union(List<int[]> parts) {
+        List<int[]> all = new ArrayList<int[]>();
+        for (int[] ranges : parts) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                all.add(new int[] {ranges[i], ranges[i + 1]});
+            }
+        }
+        Collections.sort(all, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+        int[] out = new int[all.size() * 2];
+        int n = 0;
+        for (int[] r : all) {
+            if (n > 0 && r[0] <= out[n - 1] + 1) {
+                out[n - 1] = Math.max(out[n - 1], r[1]);
+            } else {
+                out[n++] = r[0];
+                out[n++] = r[1];
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    protected static int[] complement(int[] ranges) {
+        int[] out = new int[ranges.length + 2];
+        int n = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                out[n++] = next;
+                out[n++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= 0xFFFF) {
+            out[n++] = next;
+            out[n++] = 0xFFFF;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    //
+    // NFA: syntax trees to states
+    //
+
+    protected static final int EPSILON = 0;
+    protected static final int CHARS = 1;
+    protected static final int ACCEPT = 2;
+
+    protected static class NState {
+        int kind;
+        /** CHARS: ranges matched */
+        int[] ranges;
+        /** CHARS: alphabet classes matched */
+        BitSet classes;
+        /** CHARS: state after char */
+        int out;
+        /** EPSILON: states reached without consuming */
+        int[] outs;
+        /** ACCEPT: pattern index */
+        int pattern;
+    }
+
+    /**
+     * Thompson-style NFA, built back to front (each fragment built with
+     * its continuation already known).
+     */
+    protected static class Nfa {
+        List<NState> states = new ArrayList<NState>();
+        List<Integer> starts = new ArrayList<Integer>();
+        int patternCount;
+
+        /**
+         * Add pattern's states; false (adding nothing) if too large.
+         */
+        boolean add(Node ast, int pattern) {
+            int mark = states.size();
+            NState accept = new NState();
+            accept.kind = ACCEPT;
+            accept.pattern = pattern;
+            int next = add(accept);
+            next = build(ast, next, mark + MAX_PATTERN_NFA_STATES);
+            if (next < 0) {
+                states.subList(mark, states.size()).clear();
+                return false;
+            }
+            starts.add(next);
+            patternCount++;
+            return true;
+        }
+
+        int add(NState s) {
+            states.add(s);
+            return states.size() - 1;
+        }
+
+        int epsilon(int... outs) {
+            NState s = new NState();
+            s.kind = EPSILON;
+            s.outs = outs;
+            return add(s);
+        }
+
+        /**
+         * @return start of states matching node then continuing to 'next';
+         * -1 if exceeding 'limit' states
+         */
+        int build(Node node, int next, int limit) {
+            if (next < 0 || states.size() > limit) {
+                return -1;
+            }
+            if (node instanceof CharSet) {
+                NState s = new NState();
+                s.kind = CHARS;
+                s.ranges = ((CharSet) node).ranges;
+                s.out = next;
+                return add(s);
+            }
+            if (node instanceof Concat) {
+                List<Node> items = ((Concat) node).items;
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    next = build(items.get(i), next, limit);
+                }
+                return next;
+            }
+            if (node instanceof Alt) {
+                List<Node> alternatives = ((Alt) node).alternatives;
+                int[] outs = new int[alternatives.size()];
+                for (int i = 0; i < outs.length; i++) {
+                    outs[i] = build(alternatives.get(i), next, limit);
+                    if (outs[i] < 0) {
+                        return -1;
+                    }
+                }
+                return epsilon(outs);
+            }
+            Repeat r = (Repeat) node;
+            if (r.max < 0) {
+                // loop: body returns to a choice of body again or next
+                int loop = epsilon(-1, next);
+                int body = build(r.body, loop, limit);
+                if (body < 0) {
+                    return -1;
+                }
+                states.get(loop).outs[0] = body;
+                next = loop;
+            } else {
+                for (int i = r.min; i < r.max && next >= 0; i++) {
+                    int body = build(r.body, next, limit);
+                    next = body < 0 ? -1 : epsilon(body, next);
+                }
+            }
+            for (int i = 0; i < r.min && next >= 0; i++) {
+                next = build(r.body, next, limit);
+            }
+            return next;
+        }
+    }
+
+    //
+    // DFA: lazily-built sets of NFA states
+    //
+
+    protected static final int UNKNOWN = -2;
+    protected static final int DEAD = -1;
+
+    protected static class DState {
+        /** sorted CHARS and ACCEPT NFA states */
+        final int[] nfa;
+        /** sorted indexes of patterns matched if string ends here */
+        final int[] accepts;
+        /** next cached state index by char class; UNKNOWN or DEAD */
+        final int[] next;
+        /** index in cache; -1 if uncached */
+        final int id;
+
+        DState(int[] nfa, int[] accepts, int classCount, int id) {
+            this.nfa = nfa;
+            this.accepts = accepts;
+            this.id = id;
+            this.next = new int[classCount];
+            Arrays.fill(next, UNKNOWN);
+        }
+    }
+
+    protected static class Automaton {
+        final NState[] nfa;
+        final int patternCount;
+        final int maxStates;
+        /** lowest char of each class */
+        final int[] classLows;
+        /** classes of ASCII chars */
+        final int[] asciiClasses = new int[128];
+        /** first class of surrogates, and first after */
+        final int surrogateClass;
+        final int afterSurrogateClass;
+        final DState start;
+
+        /** cached states; read without lock, written with */
+        final AtomicReferenceArray<DState> states;
+        volatile int stateCount;
+        long cachedInts;
+        /** written with lock until full, then only read, without lock */
+        final Map<IntArrayKey, Integer> index = new HashMap<IntArrayKey, Integer>();
+        /** set (with lock) once a state is refused caching; no more are cached */
+        volatile boolean full;
+        /** closure scratch, used with lock */
+        final Scratch lockedScratch;
+        /** closure scratch for use without lock, once full */
+        final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+            protected Scratch initialValue() {
+                return new Scratch(nfa.length);
+            }
+        };
+
+        Automaton(Nfa builder, int maxStates) {
+            nfa = builder.states.toArray(new NState[builder.states.size()]);
+            patternCount = builder.patternCount;
+            this.maxStates = maxStates;
+            lockedScratch = new Scratch(nfa.length);
+
+            // alphabet: chars no range distinguishes share a class
+            TreeSet<Integer> lows = new TreeSet<Integer>();
+            lows.add(0);
+            lows.add(0xD800);
+            lows.add(0xE000);
+            for (NState s : nfa) {
+                if (s.kind == CHARS) {
+                    for (int i = 0; i < s.ranges.length; i += 2) {
+                        lows.add(s.ranges[i]);
+                        if (s.ranges[i + 1] < 0xFFFF) {
+                            lows.add(s.ranges[i + 1] + 1);
+                        }
+                    }
+                }
+            }
+            classLows = new int[lows.size()];
+            int n = 0;
+            for (int low : lows) {
+                classLows[n++] = low;
+            }
+            for (char c = 0; c < 128; c++) {
+                asciiClasses[c] = classOf(c);
+            }
+            surrogateClass = classOf(0xD800);
+            afterSurrogateClass = classOf(0xE000);
+            for (NState s : nfa) {
+                if (s.kind == CHARS) {
+                    s.classes = new BitSet(classLows.length);
+                    for (int i = 0; i < s.ranges.length; i += 2) {
+                        s.classes.set(classOf(s.ranges[i]), classOf(s.ranges[i + 1]) + 1);
+                    }
+                }
+            }
+
+            states = new AtomicReferenceArray<DState>(Math.max(maxStates, 1));
+            int[] seeds = new int[builder.starts.size()];
+            for (int i = 0; i < seeds.length; i++) {
+                seeds[i] = builder.starts.get(i);
+            }
+            synchronized (this) {
+                start = intern(closure(seeds, lockedScratch));
+            }
+        }
+
+        int classOf(int c) {
+            int i = Arrays.binarySearch(classLows, c);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        /**
+         * @return state after the whole string, DEAD_STATE if no pattern
+         * can match, or null if the string can't be run (surrogates)
+         */
+        DState run(CharSequence s) {
+            DState state = start;
+            int length = s.length();
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                int cls;
+                if (c < 128) {
+                    cls = asciiClasses[c];
+                } else {
+                    cls = classOf(c);
+                    if (cls >= surrogateClass && cls < afterSurrogateClass) {
+                        return null;
+                    }
+                }
+                int n = state.next[cls];
+                DState target;
+                if (n >= 0 && (target = states.get(n)) != null) {
+                    state = target;
+                    continue;
+                }
+                if (n == DEAD) {
+                    return DEAD_STATE;
+                }
+                state = step(state, cls);
+                if (state == DEAD_STATE) {
+                    return state;
+                }
+            }
+            return state;
+        }
+
+        /**
+         * Compute (and, until the cache is full, cache) the state after
+         * char class 'cls'.
+         */
+        DState step(DState from, int cls) {
+            if (full) {
+                return stepUncached(from, cls);
+            }
+            synchronized (this) {
+                int n = from.next[cls];
+                if (n == DEAD) {
+                    return DEAD_STATE;
+                }
+                if (n >= 0) {
+                    return states.get(n);
+                }
+                int[] set = closure(seeds(from, cls), lockedScratch);
+                if (set.length == 0) {
+                    from.next[cls] = DEAD;
+                    return DEAD_STATE;
+                }
+                DState to = intern(set);
+                if (to.id >= 0) {
+                    from.next[cls] = to.id;
+                }
+                return to;
+            }
+        }
+
+        /**
+         * Compute the state after char class 'cls' without lock, using
+         * cached states where they exist but caching no more; for use
+         * once the cache is full.
+         */
+        DState stepUncached(DState from, int cls) {
+            int[] set = closure(seeds(from, cls), scratch.get());
+            if (set.length == 0) {
+                return DEAD_STATE;
+            }
+            Integer i = index.get(new IntArrayKey(set));
+            if (i != null) {
+                return states.get(i);
+            }
+            return newState(set, -1);
+        }
+
+        /**
+         * @return NFA states entered on char class 'cls' from the given
+         * state
+         */
+        int[] seeds(DState from, int cls) {
+            int[] seeds = new int[from.nfa.length];
+            int count = 0;
+            for (int id : from.nfa) {
+                NState s = nfa[id];
+                if (s.kind == CHARS && s.classes.get(cls)) {
+                    seeds[count++] = s.out;
+                }
+            }
+            return count == seeds.length ? seeds : Arrays.copyOf(seeds, count);
+        }
+
+        /**
+         * @return the state for the given NFA state set: cached, newly
+         * cached, or (past maxStates) uncached
+         */
+        DState intern(int[] set) {
+            IntArrayKey key = new IntArrayKey(set);
+            Integer i = index.get(key);
+            if (i != null) {
+                return states.get(i);
+            }
+            if (full) {
+                return newState(set, -1);
+            }
+            long cost = set.length + acceptCount(set) + classLows.length;
+            if (stateCount >= maxStates || cachedInts + cost > MAX_CACHED_INTS) {
+                // freeze the cache, so index may be read without lock
+                full = true;
+                return newState(set, -1);
+            }
+            DState state = newState(set, stateCount);
+            cachedInts += cost;
+            states.set(stateCount, state);
+            index.put(key, stateCount);
+            stateCount++;
+            return state;
+        }
+
+        int acceptCount(int[] set) {
+            int acceptCount = 0;
+            for (int id : set) {
+                if (nfa[id].kind == ACCEPT) {
+                    acceptCount++;
+                }
+            }
+            return acceptCount;
+        }
+
+        DState newState(int[] set, int stateId) {
+            int[] accepts = new int[acceptCount(set)];
+            int acceptCount = 0;
+            for (int id : set) {
+                if (nfa[id].kind == ACCEPT) {
+                    accepts[acceptCount++] = nfa[id].pattern;
+                }
+            }
+            Arrays.sort(accepts);
+            return new DState(set, accepts, classLows.length, stateId);
+        }
+
+        /**
+         * @return sorted CHARS and ACCEPT states reachable from seeds
+         * without consuming chars
+         */
+        int[] closure(int[] seeds, Scratch scratch) {
+            int count = seeds.length;
+            int[] marks = scratch.marks;
+            int mark = ++scratch.mark;
+            int[] stack = new int[Math.max(16, count)];
+            int top = 0;
+            int[] found = new int[16];
+            int foundCount = 0;
+            for (int i = 0; i < count; i++) {
+                stack[top++] = seeds[i];
+            }
+            while (top > 0) {
+                int id = stack[--top];
+                if (marks[id] == mark) {
+                    continue;
+                }
+                marks[id] = mark;
+                NState s = nfa[id];
+                if (s.kind == EPSILON) {
+                    for (int out : s.outs) {
+                        if (marks[out] != mark) {
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, top * 2);
+                            }
+                            stack[top++] = out;
+                        }
+                    }
+                } else {
+                    if (foundCount == found.length) {
+                        found = Arrays.copyOf(found, foundCount * 2);
+                    }
+                    found[foundCount++] = id;
+                }
+            }
+            int[] set = Arrays.copyOf(found, foundCount);
+            Arrays.sort(set);
+            return set;
+        }
+    }
+
+    /** marks of NFA states visited by a closure */
+    protected static class Scratch {
+        final int[] marks;
+        int mark;
+        Scratch(int size) {
+            marks = new int[size];
+        }
+    }
+
+    protected static final DState DEAD_STATE = new DState(new int[0], new int[0], 0, -1);
+
+    protected static class IntArrayKey {
+        final int[] values;
+        final int hash;
+
+        IntArrayKey(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntArrayKey
+                && Arrays.equals(values, ((IntArrayKey) o).values);
+        }
+    }
+}
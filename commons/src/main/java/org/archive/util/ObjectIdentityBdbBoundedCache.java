@@ -0,0 +1,654 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.cache.Weigher;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+
+/**
+ * A BDB JE backed object cache holding an explicit budget of entries
+ * (and optionally of weight) in memory, chosen by a frequency-aware
+ * policy rather than left to the garbage collector's clearing of soft
+ * references -- so memory use is predictable, and not released in
+ * bursts at full GCs.
+ * <p/>
+ * The policy is W-TinyLFU: new entries enter a small LRU 'window';
+ * entries leaving the window are admitted to the main (segmented LRU)
+ * space only if a compact frequency sketch estimates they've been
+ * requested more often than the main space's own eviction victim.
+ * <p/>
+ * Evicted values are written to disk, by the page-out thread, if made
+ * dirty (by dirtyKey()) since last written, then held only weakly: as
+ * long as they're still referenced elsewhere, subsequent get()s return
+ * (and re-admit) the exact same object, as ObjectIdentityCache requires.
+ * <p/>
+ * The backing database, miss-path lock striping, and page-out thread
+ * are those of ObjectIdentityBdbManualCache; only what is held in 
+ * memory, and for how long, differs.
+ * <p/>
+ * The backing disk is only guaranteed to be up-to-date after a flush
+ * of all dirty values to disk, as can be forced by sync().
+ */
+public class ObjectIdentityBdbBoundedCache<V extends IdentityCacheable>
+extends ObjectIdentityBdbManualCache<V> {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger =
+        Logger.getLogger(ObjectIdentityBdbBoundedCache.class.getName());
+
+    /** in-memory entries, as managed by the eviction policy */
+    protected transient ConcurrentHashMap<String,Node<V>> nodes;
+
+    /** evicted values, recoverable while still referenced elsewhere */
+    protected transient ConcurrentHashMap<String,RetiredEntry<V>> retired;
+    protected transient ReferenceQueue<V> retiredQueue;
+
+    /**
+     * Maximum number of entries held in memory. Must be set before
+     * initialize().
+     */
+    protected long maximumEntries = 10000;
+    public long getMaximumEntries() {
+        return maximumEntries;
+    }
+    public void setMaximumEntries(long maximumEntries) {
+        if (maximumEntries < 1) {
+            throw new IllegalArgumentException(
+                    "maximumEntries must be positive: " + maximumEntries);
+        }
+        this.maximumEntries = maximumEntries;
+    }
+
+    /**
+     * Maximum total weight, as reported by the weigher, of entries held
+     * in memory; -1 (the default) for no limit beyond maximumEntries.
+     * Must be set before initialize().
+     */
+    protected long maximumWeight = -1;
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Weigher giving each entry's weight, as measured when it's brought
+     * into memory; if null (the default), every entry weighs 1.
+     */
+    protected transient Weigher<? super String, ? super V> weigher;
+    public Weigher<? super String, ? super V> getWeigher() {
+        return weigher;
+    }
+    public void setWeigher(Weigher<? super String, ? super V> weigher) {
+        this.weigher = weigher;
+    }
+
+    //
+    // POLICY STATE, guarded by policyLock
+    //
+    protected transient ReentrantLock policyLock;
+    protected transient FrequencySketch sketch;
+    protected transient AccessDeque<V> window;
+    protected transient AccessDeque<V> probation;
+    protected transient AccessDeque<V> protectedSpace;
+    protected transient long windowMaxEntries;
+    protected transient long windowMaxWeight;
+    protected transient long protectedMaxEntries;
+    protected transient long protectedMaxWeight;
+
+    //
+    // USAGE STATS, beyond those of ObjectIdentityBdbManualCache
+    //
+    /** Count of times an evicted but still-referenced object was reused */
+    private AtomicLong retiredHit = new AtomicLong(0);
+    /** Count of evicted entries that were dirty, and so written to disk */
+    private AtomicLong evictionWrites = new AtomicLong(0);
+    /** Count of window entries refused admission to the main space */
+    private AtomicLong admissionsRejected = new AtomicLong(0);
+
+    /**
+     * Constructor. You must call
+     * {@link #initialize(Environment, String, Class, StoredClassCatalog)}
+     * to finish construction.
+     */
+    public ObjectIdentityBdbBoundedCache() {
+        super();
+    }
+
+    /**
+     * Call this method when you have an instance when you used the
+     * default constructor or when you have a deserialized instance that you
+     * want to reconnect with an extant bdbje environment.
+     * @param env
+     * @param dbName
+     * @param valueClass
+     * @param classCatalog
+     * @throws DatabaseException
+     */
+    @Override
+    public void initialize(final Environment env, String dbName,
+            final Class valueClass, final StoredClassCatalog classCatalog)
+    throws DatabaseException {
+        this.nodes = new ConcurrentHashMap<String,Node<V>>(
+                (int) Math.min(maximumEntries, 8192), 0.75f, 64);
+        this.retired = new ConcurrentHashMap<String,RetiredEntry<V>>(
+                1024, 0.75f, 64);
+        this.retiredQueue = new ReferenceQueue<V>();
+
+        this.policyLock = new ReentrantLock();
+        this.sketch = new FrequencySketch(maximumEntries);
+        this.window = new AccessDeque<V>();
+        this.probation = new AccessDeque<V>();
+        this.protectedSpace = new AccessDeque<V>();
+        // 1% window, and main space 80% protected, as in the W-TinyLFU paper
+        this.windowMaxEntries = Math.max(1, maximumEntries / 100);
+        this.protectedMaxEntries = (maximumEntries - windowMaxEntries) * 8 / 10;
+        this.windowMaxWeight = Math.max(1, maximumWeight / 100);
+        this.protectedMaxWeight = (maximumWeight - windowMaxWeight) * 8 / 10;
+
+        initializeDisk(env, dbName, valueClass, classCatalog);
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.util.ObjectIdentityCache#getOrUse(java.lang.String, org.archive.util.Supplier)
+     */
+    @Override
+    public V getOrUse(final String key, Supplier<V> supplierOrNull) {
+        countOfGets.incrementAndGet();
+
+        if (countOfGets.get() % 10000 == 0) {
+            logCacheSummary();
+        }
+
+        // check mem cache
+        Node<V> node = nodes.get(key);
+        if(node != null) {
+            // the concurrent garden path: in memory
+            cacheHit.incrementAndGet();
+            recordAccess(node);
+            node.value.setIdentityCache(this);
+            return node.value;
+        }
+
+        List<Node<V>> victims;
+        V val;
+        synchronized (stripeFor(key)) {
+            node = nodes.get(key);
+            if(node != null) {
+                // another thread filled it while we waited
+                cacheHit.incrementAndGet();
+                val = node.value;
+                victims = Collections.emptyList();
+            } else {
+                val = takeRetired(key);
+                if(val != null) {
+                    retiredHit.incrementAndGet();
+                } else {
+                    val = diskMap.get(key);
+                    if(val == null) {
+                        // never yet created, consider creating
+                        if(supplierOrNull==null) {
+                            return null;
+                        }
+                        val = supplierOrNull.get();
+                        supplierUsed.incrementAndGet();
+                        // putting initial value directly into diskMap
+                        // (rather than just in memory until eviction)
+                        // ensures diskMap.keySet() provides complete view
+                        V prevVal = diskMap.putIfAbsent(key, val);
+                        if(prevVal!=null) {
+                            // we lost a race; discard our local creation in favor of disk version
+                            diskHit.incrementAndGet();
+                            val = prevVal;
+                        } else {
+                            // we uniquely added a new key
+                            count.incrementAndGet();
+                        }
+                    } else {
+                        diskHit.incrementAndGet();
+                    }
+                }
+                node = new Node<V>(key, val, weigh(key, val));
+                nodes.put(key, node);
+                victims = admit(node);
+            }
+        }
+        // outside the stripe lock: victims' stripes are (usually) others
+        writeBack(victims);
+        val.setIdentityCache(this);
+        return val;
+    }
+
+    @Override
+    protected String composeCacheSummary() {
+        long totalHits = cacheHit.get() + retiredHit.get() + diskHit.get();
+        if (totalHits < 1) {
+            return "";
+        }
+        long cacheHitPercent
+                = (cacheHit.get() * 100) / totalHits;
+        StringBuilder sb = new StringBuilder(200);
+        sb.append("DB name:")
+          .append(getDatabaseName())
+          .append(", ")
+          .append(" hit%: ")
+          .append(cacheHitPercent)
+          .append("%, gets=")
+          .append(countOfGets.get())
+          .append(" memHits=")
+          .append(cacheHit.get())
+          .append(" retiredHits=")
+          .append(retiredHit.get())
+          .append(" diskHits=")
+          .append(diskHit.get())
+          .append(" supplieds=")
+          .append(supplierUsed.get())
+          .append(" inMemItems=")
+          .append(nodes.size())
+          .append(" retiredItems=")
+          .append(retired.size())
+          .append(" evictions=")
+          .append(evictions.get())
+          .append(" evictionWrites=")
+          .append(evictionWrites.get())
+          .append(" rejected=")
+          .append(admissionsRejected.get())
+          .append(" syncs=")
+          .append(useStatsSyncUsed.get());
+        return sb.toString();
+    }
+
+    /**
+     * Sync all dirty in-memory entries to backing disk store.
+     */
+    @Override
+    public synchronized void sync() {
+        String dbName = null;
+        useStatsSyncUsed.incrementAndGet();
+        long startTime = 0;
+        if (logger.isLoggable(Level.FINE)) {
+            dbName = getDatabaseName();
+            startTime = System.currentTimeMillis();
+            logger.fine(dbName + " start sizes: disk " + this.diskMap.size() +
+                ", mem " + this.nodes.size());
+        }
+
+        for (Node<V> node : nodes.values()) {
+            synchronized (stripeFor(node.key)) {
+                if (node.dirty) {
+                    node.dirty = false;
+                    diskMap.put(node.key, node.value);
+                }
+            }
+        }
+        // and those already evicted, on the page-out thread
+        awaitPageOuts();
+
+        try {
+            this.db.sync();
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(dbName + " sync took " +
+                (System.currentTimeMillis() - startTime) + "ms. " +
+                "Finish sizes: disk " +
+                this.diskMap.size() + ", mem " + this.nodes.size());
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.util.ObjectIdentityCache#dirtyKey(java.lang.String)
+     */
+    @Override
+    public void dirtyKey(String key) {
+        List<Node<V>> victims;
+        synchronized (stripeFor(key)) {
+            Node<V> node = nodes.get(key);
+            if (node != null) {
+                node.dirty = true;
+                return;
+            }
+            // evicted while still in use; bring back under management
+            V val = takeRetired(key);
+            if (val == null) {
+                logger.severe("dirty key not in memory should be impossible");
+                return;
+            }
+            retiredHit.incrementAndGet();
+            node = new Node<V>(key, val, weigh(key, val));
+            node.dirty = true;
+            nodes.put(key, node);
+            victims = admit(node);
+        }
+        writeBack(victims);
+    }
+
+    protected int weigh(String key, V val) {
+        if (weigher == null) {
+            return 1;
+        }
+        return Math.max(0, weigher.weigh(key, val));
+    }
+
+    /**
+     * Remove and return any still-referenced evicted value for the key.
+     * Caller must hold the key's stripe lock.
+     */
+    @SuppressWarnings("unchecked")
+    protected V takeRetired(String key) {
+        RetiredEntry<V> cleared;
+        while ((cleared = (RetiredEntry<V>) retiredQueue.poll()) != null) {
+            retired.remove(cleared.key, cleared);
+        }
+        RetiredEntry<V> entry = retired.remove(key);
+        return (entry == null) ? null : entry.get();
+    }
+
+    /**
+     * Note a hit on an in-memory entry. Reordering is skipped if another
+     * thread is updating the policy, rather than having every hit wait.
+     */
+    protected void recordAccess(Node<V> node) {
+        if (!policyLock.tryLock()) {
+            return;
+        }
+        try {
+            sketch.increment(node.key);
+            AccessDeque<V> deque = node.deque;
+            if (deque == window || deque == protectedSpace) {
+                deque.moveToFront(node);
+            } else if (deque == probation) {
+                probation.unlink(node);
+                protectedSpace.linkFirst(node);
+                while (protectedSpace.overBudget(protectedMaxEntries,
+                        protectedMaxWeight, maximumWeight > 0)) {
+                    Node<V> demoted = protectedSpace.last();
+                    protectedSpace.unlink(demoted);
+                    probation.linkFirst(demoted);
+                }
+            } // else already evicted
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Place a newly in-memory entry under the policy, returning any
+     * entries it decided to evict as a result.
+     */
+    protected List<Node<V>> admit(Node<V> node) {
+        List<Node<V>> victims = new ArrayList<Node<V>>(2);
+        policyLock.lock();
+        try {
+            sketch.increment(node.key);
+            window.linkFirst(node);
+
+            // window overflow becomes the candidates for the main space
+            List<Node<V>> candidates = new ArrayList<Node<V>>(2);
+            while (window.overBudget(windowMaxEntries, windowMaxWeight,
+                    maximumWeight > 0)) {
+                Node<V> candidate = window.last();
+                window.unlink(candidate);
+                probation.linkFirst(candidate);
+                candidates.add(candidate);
+            }
+
+            int next = 0;
+            while (overBudget()) {
+                Node<V> victim = probation.last();
+                if (victim == null) {
+                    victim = (protectedSpace.last() != null)
+                            ? protectedSpace.last() : window.last();
+                    evict(victim, victims);
+                    continue;
+                }
+                Node<V> candidate = null;
+                while (next < candidates.size() && candidate == null) {
+                    candidate = candidates.get(next++);
+                    if (candidate.deque != probation) {
+                        candidate = null;
+                    }
+                }
+                if (candidate == null || candidate == victim) {
+                    evict(victim, victims);
+                } else if (maximumWeight > 0 && candidate.weight > maximumWeight) {
+                    // could never fit
+                    evict(candidate, victims);
+                    admissionsRejected.incrementAndGet();
+                } else if (sketch.frequency(candidate.key)
+                        > sketch.frequency(victim.key)) {
+                    evict(victim, victims);
+                } else {
+                    evict(candidate, victims);
+                    admissionsRejected.incrementAndGet();
+                }
+            }
+        } finally {
+            policyLock.unlock();
+        }
+        return victims;
+    }
+
+    protected boolean overBudget() {
+        long entries = window.entries + probation.entries + protectedSpace.entries;
+        if (entries > maximumEntries) {
+            return true;
+        }
+        long weight = window.weight + probation.weight + protectedSpace.weight;
+        return maximumWeight > 0 && weight > maximumWeight;
+    }
+
+    protected void evict(Node<V> node, List<Node<V>> victims) {
+        node.deque.unlink(node);
+        victims.add(node);
+    }
+
+    /**
+     * Hand evicted entries to the page-out thread if dirty, and leave 
+     * them only weakly reachable (but strongly held until written). Until
+     * removed from nodes under the stripe lock, an evicted entry is still
+     * returned (but not reordered) by get()s.
+     */
+    protected void writeBack(List<Node<V>> victims) {
+        for (Node<V> node : victims) {
+            synchronized (stripeFor(node.key)) {
+                if (node.dirty) {
+                    node.dirty = false;
+                    pageOut(node.key, node.value);
+                    evictionWrites.incrementAndGet();
+                }
+                retired.put(node.key,
+                        new RetiredEntry<V>(node.key, node.value, retiredQueue));
+                nodes.remove(node.key, node);
+            }
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * In-memory entry: value plus its place in the policy's deques.
+     */
+    protected static class Node<V> {
+        final String key;
+        final V value;
+        final int weight;
+        /** guarded by the key's stripe lock */
+        boolean dirty;
+        /** guarded by policyLock; null once evicted */
+        AccessDeque<V> deque;
+        Node<V> prev;
+        Node<V> next;
+
+        Node(String key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Doubly-linked access-ordered list of Nodes, most recent first,
+     * with running totals of entries and weight.
+     */
+    protected static class AccessDeque<V> {
+        final Node<V> head = new Node<V>(null, null, 0);
+        long entries;
+        long weight;
+
+        AccessDeque() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        void linkFirst(Node<V> node) {
+            node.prev = head;
+            node.next = head.next;
+            head.next.prev = node;
+            head.next = node;
+            node.deque = this;
+            entries++;
+            weight += node.weight;
+        }
+
+        void unlink(Node<V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.deque = null;
+            entries--;
+            weight -= node.weight;
+        }
+
+        void moveToFront(Node<V> node) {
+            unlink(node);
+            linkFirst(node);
+        }
+
+        /** least-recently-used Node, or null if empty */
+        Node<V> last() {
+            return (head.prev == head) ? null : head.prev;
+        }
+
+        boolean overBudget(long maxEntries, long maxWeight, boolean weighted) {
+            return entries > maxEntries || (weighted && weight > maxWeight);
+        }
+    }
+
+    /**
+     * Evicted value, held until collected or reused.
+     */
+    protected static class RetiredEntry<V> extends WeakReference<V> {
+        final String key;
+
+        RetiredEntry(String key, V referent, ReferenceQueue<V> q) {
+            super(referent, q);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters estimating how often each key
+     * has recently been requested. Counters are halved after a sample
+     * of 10 increments per slot, so estimates favor recent popularity.
+     * <p/>
+     * Adapted from the FrequencySketch of Caffeine
+     * (https://github.com/ben-manes/caffeine), Copyright 2015 Ben Manes,
+     * used under the Apache License, Version 2.0: the counter layout,
+     * SEEDS, reset mask and index hashing are Caffeine's.
+     */
+    protected static class FrequencySketch {
+        static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        static final long RESET_MASK = 0x7777777777777777L;
+
+        final long[] table;
+        final int tableMask;
+        final int sampleSize;
+        int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int size = (int) Math.min(Math.max(expectedEntries, 16), 1 << 24);
+            size = Integer.highestOneBit(size - 1) << 1;
+            this.table = new long[size];
+            this.tableMask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        int frequency(String key) {
+            int h = spread(key.hashCode());
+            int start = (h & 3) << 2;
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                int shift = (start + i) << 2;
+                int count = (int) ((table[indexOf(h, i)] >>> shift) & 0xfL);
+                min = Math.min(min, count);
+            }
+            return min;
+        }
+
+        void increment(String key) {
+            int h = spread(key.hashCode());
+            int start = (h & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(h, i);
+                int shift = (start + i) << 2;
+                if (((table[index] >>> shift) & 0xfL) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        int indexOf(int h, int i) {
+            long hash = (h + SEEDS[i]) * SEEDS[i];
+            hash += hash >>> 32;
+            return ((int) hash) & tableMask;
+        }
+
+        static int spread(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
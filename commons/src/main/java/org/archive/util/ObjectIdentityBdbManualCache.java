@@ -25,8 +25,13 @@ import java.io.Serializable;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -56,6 +61,13 @@ import com.sleepycat.je.Environment;
  * The backing disk is only guaranteed to be up-to-date after a flush 
  * of all dirty values to disk, as can be forced by sync().
  * <p/>
+ * Misses are serialized only against other misses on keys sharing the
+ * same lock stripe, so one slow disk read doesn't stall threads needing
+ * other keys, while concurrent misses on one key read it only once.
+ * Dirty values evicted from the dirty set are written to disk by a 
+ * background page-out thread, rather than by the thread whose access 
+ * triggered the eviction.
+ * <p/>
  * 
  * <p/>
  * 
@@ -84,22 +96,49 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
     protected transient ConcurrentMap<String,V> dirtyItems;
     
     protected AtomicLong count;
+
+    /**
+     * Number of locks (a power of 2) striping the miss path by key hash.
+     * Must be set before initialize().
+     */
+    protected int lockStripes = 256;
+    public int getLockStripes() {
+        return lockStripes;
+    }
+    public void setLockStripes(int lockStripes) {
+        if (Integer.bitCount(lockStripes) != 1) {
+            throw new IllegalArgumentException(
+                    "lockStripes must be a power of 2: " + lockStripes);
+        }
+        this.lockStripes = lockStripes;
+    }
+    protected transient Object[] stripes;
+
+    /** 
+     * most evicted dirty values awaiting the page-out thread; beyond this,
+     * the evicting thread writes them itself
+     */
+    protected static final int MAX_QUEUED_PAGE_OUTS = 1000;
+    /** background thread writing evicted dirty values to disk */
+    protected transient ThreadPoolExecutor pageOutThread;
+    /** page-outs queued or in progress, awaited by sync() */
+    protected transient AtomicInteger pendingPageOuts = new AtomicInteger(0);
     
     //
     // USAGE STATS
     //
     /** Count of times we got an object from in-memory cache */
-    private AtomicLong cacheHit = new AtomicLong(0);
+    protected AtomicLong cacheHit = new AtomicLong(0);
     /** Count of times the {@link ObjectIdentityBdbManualCache#get} method was called. */
-    private AtomicLong countOfGets = new AtomicLong(0);
+    protected AtomicLong countOfGets = new AtomicLong(0);
     /** Count of every time disk-based map provided non-null object */ 
-    private AtomicLong diskHit = new AtomicLong(0);
+    protected AtomicLong diskHit = new AtomicLong(0);
     /** Count of times Supplier was used for new object */
-    private AtomicLong supplierUsed = new AtomicLong(0);
+    protected AtomicLong supplierUsed = new AtomicLong(0);
     /** count of {@link #sync()} use */
-    transient private AtomicLong useStatsSyncUsed = new AtomicLong(0);
+    transient protected AtomicLong useStatsSyncUsed = new AtomicLong(0);
     /** Count of times Supplier was used for new object */
-    private AtomicLong evictions = new AtomicLong(0);
+    protected AtomicLong evictions = new AtomicLong(0);
 
     /**
      * Constructor. You must call
@@ -118,8 +157,13 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
                 .removalListener(new RemovalListener<String, V>() {
                     @Override
                     public void onRemoval(RemovalNotification<String, V> stringVRemovalNotification) {
+                        if (!stringVRemovalNotification.wasEvicted()) {
+                            // replaced by itself (re-dirtied), or removed 
+                            // by sync(), which writes it
+                            return;
+                        }
                         evictions.incrementAndGet();
-                        diskMap.put(stringVRemovalNotification.getKey(), stringVRemovalNotification.getValue());
+                        pageOut(stringVRemovalNotification.getKey(), stringVRemovalNotification.getValue());
                     }
                 })
                 .<String, V>build()
@@ -138,7 +182,7 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
      * @param classCatalog
      * @throws DatabaseException
      */
-    public void initialize(final Environment env, String dbName,
+    public void initialize(final Environment env, final String dbName,
             final Class valueClass, final StoredClassCatalog classCatalog)
     throws DatabaseException {
         // TODO: tune capacity for actual threads, expected size of key caches?
@@ -148,12 +192,122 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
                 .softValues()
                 .<String, V>build()
                 .asMap();
+        initializeDisk(env, dbName, valueClass, classCatalog);
+    }
+
+    /**
+     * Open the backing database, and start the page-out thread: the part
+     * of initialize() shared with subclasses keeping memory differently.
+     */
+    protected void initializeDisk(final Environment env, final String dbName,
+            final Class valueClass, final StoredClassCatalog classCatalog)
+    throws DatabaseException {
         this.db = openDatabase(env, dbName);
         this.diskMap = createDiskMap(this.db, classCatalog, valueClass);
         // keep a record of items that must be persisted; auto-persist if 
         // unchanged after 5 minutes, or more than 10K would collect
 
         this.count = new AtomicLong(diskMap.size());
+        this.stripes = new Object[lockStripes];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+        startPageOutThread(dbName);
+    }
+
+    protected void startPageOutThread(final String dbName) {
+        pageOutThread = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PAGE_OUTS),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, 
+                                "ObjectIdentityBdbManualCache page-out: " + dbName);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // backlog full, or closed: write on this thread
+                        r.run();
+                    }
+                });
+    }
+
+    /**
+     * Write an evicted dirty value to disk, on the page-out thread if 
+     * running. Until written, the value is strongly held, so it stays in 
+     * memMap and a get() can't read a stale copy from disk.
+     */
+    protected void pageOut(final String key, final V value) {
+        pendingPageOuts.incrementAndGet();
+        Runnable write = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    diskMap.put(key, value);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "problem paging out " + key, e);
+                } finally {
+                    if (pendingPageOuts.decrementAndGet() == 0) {
+                        synchronized (pendingPageOuts) {
+                            pendingPageOuts.notifyAll();
+                        }
+                    }
+                }
+            }
+        };
+        ThreadPoolExecutor executor = pageOutThread;
+        if (executor == null) {
+            write.run();
+        } else {
+            executor.execute(write);
+        }
+    }
+
+    /**
+     * Wait until all page-outs handed to the page-out thread are written.
+     */
+    protected void awaitPageOuts() {
+        synchronized (pendingPageOuts) {
+            while (pendingPageOuts.get() > 0) {
+                try {
+                    pendingPageOuts.wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the page-out thread once its queue is written, without 
+     * interrupting it (which BDB-JE doesn't tolerate during I/O).
+     */
+    protected void stopPageOutThread() {
+        ThreadPoolExecutor executor = pageOutThread;
+        if (executor == null) {
+            return;
+        }
+        pageOutThread = null;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return lock for misses on the given key
+     */
+    protected Object stripeFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
     }
 
     @SuppressWarnings("unchecked")
@@ -190,6 +344,7 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
         if (this.db != null) {
             try {
                 sync(); 
+                stopPageOutThread();
                 this.db.sync();
                 this.db.close();
             } catch (DatabaseException e) {
@@ -230,34 +385,46 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
             val.setIdentityCache(this); 
             return val;
         }
-        val = diskMap.get(key);
-        V prevVal; 
-        if(val == null) {
-            // never yet created, consider creating
-            if(supplierOrNull==null) {
-                return null;
+        // misses on keys in the same stripe are serialized, so that a 
+        // key is read from disk (or created) once, and others proceed
+        synchronized (stripeFor(key)) {
+            // recheck mem cache -- if another thread beat us into sync 
+            // block and already filled the key 
+            val = memMap.get(key);
+            if(val != null) {
+                cacheHit.incrementAndGet();
+                val.setIdentityCache(this); 
+                return val;
             }
-            val = supplierOrNull.get();
-            supplierUsed.incrementAndGet();
-            // putting initial value directly into diskMap
-            // (rather than just the memMap until page-out)
-            // ensures diskMap.keySet() provides complete view
-            prevVal = diskMap.putIfAbsent(key, val); 
-            if(prevVal!=null) {
-                // we lost a race; discard our local creation in favor of disk version
-                diskHit.incrementAndGet();
-                val = prevVal;
+            val = diskMap.get(key);
+            V prevVal; 
+            if(val == null) {
+                // never yet created, consider creating
+                if(supplierOrNull==null) {
+                    return null;
+                }
+                val = supplierOrNull.get();
+                supplierUsed.incrementAndGet();
+                // putting initial value directly into diskMap
+                // (rather than just the memMap until page-out)
+                // ensures diskMap.keySet() provides complete view
+                prevVal = diskMap.putIfAbsent(key, val); 
+                if(prevVal!=null) {
+                    // we lost a race; discard our local creation in favor of disk version
+                    diskHit.incrementAndGet();
+                    val = prevVal;
+                } else {
+                    // we uniquely added a new key
+                    count.incrementAndGet();
+                }
             } else {
-                // we uniquely added a new key
-                count.incrementAndGet();
+                diskHit.incrementAndGet();
             }
-        } else {
-            diskHit.incrementAndGet();
-        }
         
-        prevVal = memMap.putIfAbsent(key, val); // fill memMap or lose race gracefully
-        if(prevVal != null) {
-            val = prevVal; 
+            prevVal = memMap.putIfAbsent(key, val); // fill memMap or lose race gracefully
+            if(prevVal != null) {
+                val = prevVal; 
+            }
         }
         val.setIdentityCache(this); 
         return val; 
@@ -273,7 +440,7 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
     /**
      * Summary to log, if at FINE level
      */
-    private void logCacheSummary() {
+    protected void logCacheSummary() {
         if (logger.isLoggable((Level.FINE))) {
             logger.fine(composeCacheSummary());
         }
@@ -354,6 +521,8 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
             iter.remove();
             diskMap.put(entry.getKey(), entry.getValue());
         }
+        // and those already evicted, on the page-out thread
+        awaitPageOuts();
         
         try {
             this.db.sync();
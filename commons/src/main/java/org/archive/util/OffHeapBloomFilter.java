@@ -0,0 +1,462 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Bloom filter, hashing exactly as {@link BloomFilter64bit} does, but
+ * keeping its bitfield outside the Java heap -- so that multi-gigabyte
+ * filters neither lengthen GC pauses nor need to be counted in heap
+ * sizing -- and safe for concurrent add()/contains() without external
+ * locking. Bits are only ever set, so contains() and the first check of
+ * add() read without locking; an add() that must set a bit takes one of
+ * a fixed set of striped locks, chosen by the containing long.
+ *
+ * <p>The bitfield is either direct buffers (which count against
+ * -XX:MaxDirectMemorySize, and are freed when the filter is garbage
+ * collected) or a memory-mapped file. A file-backed filter may be
+ * {@link #sync()}ed, and later reopened with {@link #OffHeapBloomFilter(File)}
+ * to resume with all bits (and the insert count) intact, rather than
+ * rebuilt or deserialized through the heap.
+ *
+ * <p>Either kind may also be serialized, as by a checkpoint (see
+ * BloomUriUniqFilter); the bitfield is streamed, never copied whole into
+ * the heap, and is read back into direct buffers.
+ */
+public class OffHeapBloomFilter implements BloomFilter, Closeable, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    protected static final long FILE_MAGIC = 0x4854584246494c31L; // "HTXBFIL1"
+    /** magic, expectedInserts, d, power, m, size */
+    protected static final int FILE_FIELDS_LENGTH = 8 + 8 + 4 + 4 + 8 + 8;
+    protected static final int FILE_SIZE_POSITION = 32;
+    protected static final int PAGE_SIZE = 4096;
+    /** bytes per buffer of the bitfield (2^30) */
+    protected static final long SEGMENT_POWER_OF_TWO = 30;
+    /** locks guarding bit-setting; a power of 2 */
+    protected static final int LOCK_STRIPES = 1024;
+    /**
+     * byte order of longs in the bitfield; fixed, so that files and
+     * serialized filters are portable
+     */
+    protected static final ByteOrder BITFIELD_ORDER = ByteOrder.LITTLE_ENDIAN;
+    /** bytes per chunk when streaming the bitfield */
+    protected static final int COPY_CHUNK = 64 * 1024;
+
+    protected final static int NUMBER_OF_WEIGHTS =
+        BloomFilter64bit.NUMBER_OF_WEIGHTS;
+    protected final static double NATURAL_LOG_OF_2 = Math.log(2);
+
+    /** The number of bits in this filter. */
+    protected transient long m;
+    /** if bitfield is an exact power of 2 in length, it is this power */
+    protected transient int power;
+    /** The expected number of inserts; determines calculated size */
+    protected transient long expectedInserts;
+    /** The number of hash functions used by this filter. */
+    protected transient int d;
+    /** The random integers used to generate the hash functions. */
+    protected transient long[][] weight;
+    /** number of add()s that set at least one new bit */
+    protected transient AtomicInteger size = new AtomicInteger(0);
+    /** locks held while setting bits, by containing long */
+    protected transient Object[] locks = newLocks();
+
+    /** bytes of bitfield */
+    protected transient long lengthInBytes;
+    /** bitfield, in buffers of 2^SEGMENT_POWER_OF_TWO bytes */
+    protected transient ByteBuffer[] segments;
+    /** file-backed bitfield, if any */
+    protected transient File file;
+    protected transient RandomAccessFile raf;
+    protected transient MappedByteBuffer header;
+
+    /**
+     * Creates a new, empty Bloom filter with its bitfield in direct
+     * buffers.
+     *
+     * @param n the expected number of elements.
+     * @param d the number of hash functions
+     */
+    public OffHeapBloomFilter(long n, int d) throws IOException {
+        this(n, d, new SecureRandom(), false, null);
+    }
+
+    /**
+     * Creates a new, empty Bloom filter.
+     *
+     * @param n the expected number of elements.
+     * @param d the number of hash functions; if the filter add not more
+     * than <code>n</code> elements, false positives will happen with
+     * probability 2<sup>-<var>d</var></sup>.
+     * @param weightsGenerator may provide a seeded Random for reproducible
+     * internal universal hash function weighting
+     * @param roundUp if true, round bit size up to next-nearest-power-of-2
+     * @param file if non-null, file (overwritten) to map as bitfield
+     */
+    public OffHeapBloomFilter(long n, int d, Random weightsGenerator,
+            boolean roundUp, File file) throws IOException {
+        this.expectedInserts = n;
+        this.d = d;
+        long lenInLongs = (long) Math.ceil(((long) n * (long) d / NATURAL_LOG_OF_2) / 64L);
+        long lenInBits = lenInLongs * 64L;
+        if (roundUp) {
+            int pow = 0;
+            while ((1L << pow) < lenInBits) {
+                pow++;
+            }
+            this.power = pow;
+            this.m = 1L << pow;
+            lenInLongs = m / 64L;
+        } else {
+            this.power = -1;
+            this.m = lenInBits;
+        }
+        this.lengthInBytes = lenInLongs * 8L;
+
+        weight = new long[d][];
+        for (int i = 0; i < d; i++) {
+            weight[i] = new long[NUMBER_OF_WEIGHTS];
+            for (int j = 0; j < NUMBER_OF_WEIGHTS; j++) {
+                weight[i][j] = weightsGenerator.nextLong();
+            }
+        }
+
+        if (file == null) {
+            allocateSegments();
+        } else {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("unable to replace " + file);
+            }
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+            // extending the file leaves the bitfield zero-filled
+            raf.setLength(headerLength(d) + lengthInBytes);
+            mapFile();
+            header.putLong(0, FILE_MAGIC);
+            header.putLong(8, expectedInserts);
+            header.putInt(16, d);
+            header.putInt(20, power);
+            header.putLong(24, m);
+            header.putLong(FILE_SIZE_POSITION, 0);
+            int pos = FILE_FIELDS_LENGTH;
+            for (int i = 0; i < d; i++) {
+                for (int j = 0; j < NUMBER_OF_WEIGHTS; j++) {
+                    header.putLong(pos, weight[i][j]);
+                    pos += 8;
+                }
+            }
+            sync();
+        }
+    }
+
+    /**
+     * Reopen a file-backed filter previously created (and {@link #sync()}ed
+     * or {@link #close()}d) with the given file.
+     *
+     * @param file existing bloom file
+     */
+    public OffHeapBloomFilter(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        ByteBuffer fields = ByteBuffer.allocate(FILE_FIELDS_LENGTH);
+        raf.getChannel().read(fields, 0);
+        fields.flip();
+        if (fields.remaining() < FILE_FIELDS_LENGTH
+                || fields.getLong(0) != FILE_MAGIC) {
+            raf.close();
+            throw new IOException("not a bloom file: " + file);
+        }
+        expectedInserts = fields.getLong(8);
+        d = fields.getInt(16);
+        power = fields.getInt(20);
+        m = fields.getLong(24);
+        lengthInBytes = m / 8L;
+        if (raf.length() != headerLength(d) + lengthInBytes) {
+            raf.close();
+            throw new IOException("truncated bloom file: " + file);
+        }
+        mapFile();
+        size.set((int) header.getLong(FILE_SIZE_POSITION));
+        weight = new long[d][NUMBER_OF_WEIGHTS];
+        int pos = FILE_FIELDS_LENGTH;
+        for (int i = 0; i < d; i++) {
+            for (int j = 0; j < NUMBER_OF_WEIGHTS; j++) {
+                weight[i][j] = header.getLong(pos);
+                pos += 8;
+            }
+        }
+    }
+
+    protected static Object[] newLocks() {
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    /**
+     * @return bytes before the bitfield in a bloom file: fields and weights,
+     * rounded up to a whole page, so the bitfield mapping is aligned
+     */
+    protected static long headerLength(int d) {
+        long len = FILE_FIELDS_LENGTH + (long) d * NUMBER_OF_WEIGHTS * 8L;
+        return (len + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    protected int segmentCount() {
+        long segmentBytes = 1L << SEGMENT_POWER_OF_TWO;
+        return (int) ((lengthInBytes + segmentBytes - 1) / segmentBytes);
+    }
+
+    protected int segmentLength(int i) {
+        long segmentBytes = 1L << SEGMENT_POWER_OF_TWO;
+        return (int) Math.min(segmentBytes, lengthInBytes - i * segmentBytes);
+    }
+
+    /** allocate a zeroed bitfield in direct buffers */
+    protected void allocateSegments() {
+        segments = new ByteBuffer[segmentCount()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentLength(i))
+                .order(BITFIELD_ORDER);
+        }
+    }
+
+    protected void mapFile() throws IOException {
+        FileChannel channel = raf.getChannel();
+        long headerLength = headerLength(d);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerLength);
+        segments = new ByteBuffer[segmentCount()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    headerLength + ((long) i << SEGMENT_POWER_OF_TWO),
+                    segmentLength(i)).order(BITFIELD_ORDER);
+        }
+    }
+
+    /**
+     * @return buffer holding the long of the given index
+     */
+    protected ByteBuffer segmentOf(long longIndex) {
+        ByteBuffer[] segs = segments;
+        if (segs == null) {
+            throw new IllegalStateException("bloom closed");
+        }
+        return segs[(int) (longIndex >>> (SEGMENT_POWER_OF_TWO - 3))];
+    }
+
+    /**
+     * @return byte position, within its buffer, of the long of the given
+     * index
+     */
+    protected static int positionOf(long longIndex) {
+        return (int) ((longIndex << 3) & ((1L << SEGMENT_POWER_OF_TWO) - 1));
+    }
+
+    /** Hashes the given sequence with the given hash function.
+     *
+     * @see BloomFilter64bit#hash(CharSequence, int, int)
+     */
+    protected long hash(final CharSequence s, final int l, final int k) {
+        final long[] w = weight[k];
+        long h = 0;
+        int i = l;
+        while (i-- != 0) h ^= s.charAt(i) * w[i % NUMBER_OF_WEIGHTS];
+        if (power > 0) {
+            return h >>> (64 - power);
+        } else {
+            return (h & 0x7FFFFFFFFFFFFFFFL) % m;
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean contains(final CharSequence s) {
+        int i = d, l = s.length();
+        while (i-- != 0) if (!getBit(hash(s, l, i))) return false;
+        return true;
+    }
+
+    public boolean add(final CharSequence s) {
+        boolean result = false;
+        int i = d, l = s.length();
+        while (i-- != 0) {
+            if (!setGetBit(hash(s, l, i))) {
+                result = true;
+            }
+        }
+        if (result) size.incrementAndGet();
+        return result;
+    }
+
+    public boolean getBit(long bitIndex) {
+        long longIndex = bitIndex >>> 6;
+        long mask = 1L << (bitIndex & 63);
+        return (segmentOf(longIndex).getLong(positionOf(longIndex)) & mask) != 0;
+    }
+
+    /**
+     * Set the given bit, returning its previous value. Of concurrent calls
+     * for the same bit, exactly one returns false.
+     */
+    protected boolean setGetBit(long bitIndex) {
+        long longIndex = bitIndex >>> 6;
+        long mask = 1L << (bitIndex & 63);
+        ByteBuffer segment = segmentOf(longIndex);
+        int position = positionOf(longIndex);
+        if ((segment.getLong(position) & mask) != 0) {
+            // bits are never cleared, so a set bit needs no lock
+            return true;
+        }
+        synchronized (locks[(int) (longIndex & (LOCK_STRIPES - 1))]) {
+            long old = segment.getLong(position);
+            if ((old & mask) != 0) {
+                return true;
+            }
+            segment.putLong(position, old | mask);
+            return false;
+        }
+    }
+
+    public long getSizeBytes() {
+        return lengthInBytes;
+    }
+
+    public long getExpectedInserts() {
+        return expectedInserts;
+    }
+
+    public long getHashCount() {
+        return d;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Write the insert count and all bits of a file-backed filter through to
+     * disk. Adds concurrent with sync() may or may not be included.
+     */
+    public synchronized void sync() {
+        if (header == null) {
+            return;
+        }
+        header.putLong(FILE_SIZE_POSITION, size.get());
+        for (ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+        header.force();
+    }
+
+    /**
+     * Release the bitfield (after syncing, if file-backed). The filter may
+     * not be used afterward.
+     */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            sync();
+            header = null;
+            raf.close();
+            raf = null;
+        }
+        // buffers are released once unreachable
+        segments = null;
+    }
+
+    /**
+     * Write parameters, weights, insert count and bitfield. Adds concurrent
+     * with serialization may or may not be included.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeLong(expectedInserts);
+        out.writeInt(d);
+        out.writeInt(power);
+        out.writeLong(m);
+        out.writeInt(size.get());
+        for (int i = 0; i < d; i++) {
+            for (int j = 0; j < NUMBER_OF_WEIGHTS; j++) {
+                out.writeLong(weight[i][j]);
+            }
+        }
+        byte[] chunk = new byte[COPY_CHUNK];
+        for (ByteBuffer segment : segments) {
+            ByteBuffer bytes = segment.duplicate();
+            bytes.clear();
+            while (bytes.hasRemaining()) {
+                int n = Math.min(chunk.length, bytes.remaining());
+                bytes.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Read a serialized filter into direct buffers; the result is not
+     * file-backed, even if the written filter was.
+     */
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        expectedInserts = in.readLong();
+        d = in.readInt();
+        power = in.readInt();
+        m = in.readLong();
+        size = new AtomicInteger(in.readInt());
+        locks = newLocks();
+        weight = new long[d][NUMBER_OF_WEIGHTS];
+        for (int i = 0; i < d; i++) {
+            for (int j = 0; j < NUMBER_OF_WEIGHTS; j++) {
+                weight[i][j] = in.readLong();
+            }
+        }
+        lengthInBytes = m / 8L;
+        allocateSegments();
+        byte[] chunk = new byte[COPY_CHUNK];
+        for (ByteBuffer segment : segments) {
+            ByteBuffer bytes = segment.duplicate();
+            bytes.clear();
+            while (bytes.hasRemaining()) {
+                int n = Math.min(chunk.length, bytes.remaining());
+                in.readFully(chunk, 0, n);
+                bytes.put(chunk, 0, n);
+            }
+        }
+    }
+}
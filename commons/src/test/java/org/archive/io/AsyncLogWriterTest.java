@@ -0,0 +1,188 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for {@link AsyncLogWriter} and {@link AsyncLogHandler}.
+ */
+public class AsyncLogWriterTest extends TmpDirTestCase {
+
+    protected List<String> readLines(File file, boolean gzip)
+    throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (gzip) {
+            in = new GZIPInputStream(in);
+        }
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, "UTF-8"));
+        List<String> lines = new ArrayList<String>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    protected File freshFile(String name) {
+        File file = new File(getTmpDir(), name);
+        file.delete();
+        return file;
+    }
+
+    public void testManyThreadsPreserveEachThreadsOrder() throws Exception {
+        File file = freshFile("AsyncLogWriterTest-many.log");
+        // small ring and buffer, so callers find the ring full and the
+        // writer makes many writes
+        final AsyncLogWriter writer = new AsyncLogWriter(file, false, 64, 4096);
+        final int threadCount = 8;
+        final int perThread = 5000;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final String prefix = "t" + t + " ";
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        writer.enqueue((prefix + i + "\n").getBytes());
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.close();
+
+        List<String> lines = readLines(file, false);
+        assertEquals(threadCount * perThread, lines.size());
+        int[] next = new int[threadCount];
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            int t = Integer.parseInt(parts[0].substring(1));
+            assertEquals(next[t]++, Integer.parseInt(parts[1]));
+        }
+        assertTrue(writer.getWrites() > 1);
+    }
+
+    public void testOversizedLine() throws Exception {
+        File file = freshFile("AsyncLogWriterTest-oversized.log");
+        AsyncLogWriter writer = new AsyncLogWriter(file, false, 16, 64);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            big.append("0123456789");
+        }
+        writer.enqueue("small\n".getBytes());
+        writer.enqueue((big + "\n").getBytes());
+        writer.enqueue("small\n".getBytes());
+        writer.close();
+
+        List<String> lines = readLines(file, false);
+        assertEquals(3, lines.size());
+        assertEquals(big.toString(), lines.get(1));
+    }
+
+    public void testGzipRotationAndMerge() throws Exception {
+        File file = freshFile("AsyncLogWriterTest-rotate.log.gz");
+        AsyncLogWriter writer = new AsyncLogWriter(file, true);
+        for (int generation = 0; generation < 3; generation++) {
+            for (int i = 0; i < 100; i++) {
+                writer.enqueue(("g" + generation + " " + i + "\n").getBytes());
+            }
+            File stored = writer.rotate(".cp" + generation, generation == 2);
+            List<String> lines = readLines(stored, true);
+            // the last rotation merges in the earlier generations
+            int expectedGenerations = (generation == 2) ? 3 : 1;
+            assertEquals(100 * expectedGenerations, lines.size());
+            assertEquals("g" + generation + " 99",
+                    lines.get(lines.size() - 1));
+        }
+        assertFalse(new File(file.getPath() + ".cp0").exists());
+        assertFalse(new File(file.getPath() + ".cp1").exists());
+        writer.enqueue("after\n".getBytes());
+        writer.close();
+
+        List<String> lines = readLines(file, true);
+        assertEquals(1, lines.size());
+        assertEquals("after", lines.get(0));
+        new File(file.getPath() + ".cp2").delete();
+    }
+
+    public void testEnqueueAfterClose() throws Exception {
+        File file = freshFile("AsyncLogWriterTest-closed.log");
+        AsyncLogWriter writer = new AsyncLogWriter(file, false, 4, 64);
+        writer.enqueue("before\n".getBytes());
+        writer.close();
+        try {
+            writer.enqueue("after\n".getBytes());
+            fail("enqueue to closed writer accepted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        List<String> lines = readLines(file, false);
+        assertEquals(1, lines.size());
+        assertEquals("before", lines.get(0));
+    }
+
+    public void testHandler() throws Exception {
+        File file = freshFile("AsyncLogWriterTest-handler.log");
+        AsyncLogHandler handler = new AsyncLogHandler(
+                new AsyncLogWriter(file, false), new Formatter() {
+            public String format(LogRecord record) {
+                return record.getMessage() + " " + record.getParameters()[0]
+                        + "\n";
+            }
+        });
+        Logger logger = Logger.getLogger(AsyncLogWriterTest.class.getName()
+                + ".testHandler");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        for (int i = 0; i < 10; i++) {
+            logger.log(Level.INFO, "line", new Object[] {i});
+        }
+        handler.flush();
+        assertEquals(10, readLines(file, false).size());
+        logger.removeHandler(handler);
+        handler.close();
+
+        List<String> lines = readLines(file, false);
+        assertEquals("line 0", lines.get(0));
+        assertEquals("line 9", lines.get(9));
+    }
+}
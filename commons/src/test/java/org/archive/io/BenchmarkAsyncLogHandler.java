@@ -0,0 +1,129 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Simple benchmarking of crawl.log-like logging lines/sec from varying
+ * numbers of threads, through a GenerationFileHandler (synchronized
+ * publish) versus an AsyncLogHandler.
+ *
+ * Usage: BenchmarkAsyncLogHandler [lines-per-thread] [max-threads] [dir]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkAsyncLogHandler {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkAsyncLogHandler()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int linesPerThread =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+        File dir = (args.length > 2) ? new File(args[2])
+            : new File(System.getProperty("java.io.tmpdir"));
+        System.out.println("linesPerThread=" + linesPerThread
+                + " maxThreads=" + maxThreads);
+        for (int round = 0; round < 2; round++) {
+            // first round includes warm-up
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                test(dir, threads, linesPerThread, false);
+                test(dir, threads, linesPerThread, true);
+            }
+        }
+    }
+
+    protected Formatter makeFormatter() {
+        return new Formatter() {
+            ThreadLocal<StringBuilder> bufLocal =
+                new ThreadLocal<StringBuilder>() {
+                    protected StringBuilder initialValue() {
+                        return new StringBuilder(1000);
+                    }
+            };
+            public String format(LogRecord record) {
+                StringBuilder buf = bufLocal.get();
+                buf.setLength(0);
+                buf.append("20140101000000000   200      12345 ")
+                    .append(record.getMessage())
+                    .append(" LLX http://www.example.com/ text/html #")
+                    .append(record.getParameters()[0])
+                    .append(" 20140101000000000+100 sha1:ABCDEFGHIJKLMNOP - -\n");
+                return buf.toString();
+            }
+        };
+    }
+
+    protected void test(File dir, int threads, final int linesPerThread,
+            boolean async) throws Exception {
+        File file = new File(dir, "benchmark-crawl.log");
+        file.delete();
+        Handler handler;
+        if (async) {
+            handler = new AsyncLogHandler(new AsyncLogWriter(file, false),
+                    makeFormatter());
+        } else {
+            handler = GenerationFileHandler.makeNew(file.getAbsolutePath(),
+                    false, false);
+            handler.setFormatter(makeFormatter());
+        }
+        final Logger logger = Logger.getLogger("benchmark." + threads + "."
+                + async);
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        final CountDownLatch done = new CountDownLatch(threads);
+        long startNs = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final Object[] params = {t};
+            final String host = "http://www" + t + ".example.com/";
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < linesPerThread; i++) {
+                        logger.log(Level.INFO, host + "page" + i + ".html",
+                                params);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        // includes writing out any queued lines
+        logger.removeHandler(handler);
+        handler.close();
+        long elapsedNs = System.nanoTime() - startNs;
+        long lines = (long) threads * linesPerThread;
+        System.out.println((async ? "async" : "file-handler")
+                + " threads=" + threads + ": "
+                + (lines * 1000000000L / elapsedNs) + " lines/sec");
+        file.delete();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Simple benchmarking of CrawlerJournal lines/sec, writing frontier-style
+ * 'F+' lines from varying numbers of threads, with each thread writing
+ * under the journal's lock (the default) versus group-commit mode.
+ *
+ * Usage: BenchmarkCrawlerJournal [lines-per-thread] [max-threads]
+ *   [capacity] [dir]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkCrawlerJournal {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkCrawlerJournal()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int linesPerThread =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+        int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+        int capacity = (args.length > 2) ? Integer.parseInt(args[2]) : 65536;
+        File dir = (args.length > 3) ? new File(args[3])
+            : new File(System.getProperty("java.io.tmpdir"));
+        System.out.println("linesPerThread=" + linesPerThread
+                + " maxThreads=" + maxThreads + " capacity=" + capacity);
+        for (int round = 0; round < 2; round++) {
+            // first round includes warm-up
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                test(dir, threads, linesPerThread, 0);
+                test(dir, threads, linesPerThread, capacity);
+            }
+        }
+    }
+
+    protected void test(File dir, int threads, final int linesPerThread,
+            int capacity) throws IOException, InterruptedException {
+        File file = new File(dir, "benchmark-journal.gz");
+        final CrawlerJournal journal = new CrawlerJournal(file);
+        if (capacity > 0) {
+            journal.startGroupCommit(capacity);
+        }
+        final CountDownLatch done = new CountDownLatch(threads);
+        long startNs = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final String host = "http://www" + t + ".example.com/";
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < linesPerThread; i++) {
+                        journal.writeLine("F+ ", host, "page",
+                                Integer.toString(i), ".html", " ", "LLX",
+                                " ", host, "index.html");
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        // includes draining any queued lines
+        journal.close();
+        long elapsedNs = System.nanoTime() - startNs;
+        long lines = (long) threads * linesPerThread;
+        System.out.println((capacity > 0 ? "group-commit" : "direct")
+                + " threads=" + threads + ": "
+                + (lines * 1000000000L / elapsedNs) + " lines/sec, "
+                + (file.length() / lines) + " bytes/line");
+        file.delete();
+    }
+}
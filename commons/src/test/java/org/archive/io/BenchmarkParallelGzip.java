@@ -0,0 +1,149 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Simple benchmarking of per-record gzip compression, as done when writing
+ * compressed WARCs, comparing GZIPOutputStream against
+ * ParallelGZIPOutputStream over a synthetic record set: mostly small
+ * HTML-like records, plus occasional multi-megabyte, less-compressible
+ * 'media' records of the kind which monopolize a writer. Compressed output
+ * is counted and discarded.
+ *
+ * Usage: BenchmarkParallelGzip [total-megabytes] [chunk-kilobytes] [threads]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkParallelGzip {
+
+    public static void main(String[] args) throws IOException {
+        (new BenchmarkParallelGzip()).instanceMain(args);
+    }
+
+    /** source content sliced into records, to avoid holding the whole set */
+    protected byte[] text;
+    protected byte[] media;
+
+    public void instanceMain(String[] args) throws IOException {
+        int totalMb =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 1024;
+        int chunkKb =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 128;
+        int threads =
+            (args.length > 2) ? Integer.parseInt(args[2])
+                    : Runtime.getRuntime().availableProcessors();
+        System.out.println("totalMb="+totalMb+" chunkKb="+chunkKb
+                +" threads="+threads);
+        makeSources();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        for (int round = 0; round < 2; round++) {
+            // first round includes warm-up
+            testCompression("GZIPOutputStream", null, 0, totalMb);
+            testCompression("ParallelGZIPOutputStream", pool, chunkKb * 1024,
+                    totalMb);
+        }
+        pool.shutdown();
+    }
+
+    protected void makeSources() {
+        Random random = new Random(0);
+        String[] words = {"<div class=\"item\">", "</div>\n", "<a href=\"/",
+                "page", "index", ".html\">", "</a>", "the", "archive",
+                "crawl", " ", "<p>", "</p>\n", "2016", "link", "&amp;"};
+        text = new byte[16 * 1024 * 1024];
+        for (int i = 0; i < text.length; ) {
+            byte[] w = words[random.nextInt(words.length)].getBytes();
+            for (int j = 0; j < w.length && i < text.length; j++) {
+                text[i++] = w[j];
+            }
+        }
+        // mostly-random bytes with some structure, like encoded media
+        media = new byte[64 * 1024 * 1024];
+        random.nextBytes(media);
+        for (int i = 0; i < media.length; i += 64) {
+            for (int j = 0; j < 16 && i + j < media.length; j++) {
+                media[i + j] = 0;
+            }
+        }
+    }
+
+    protected void testCompression(String label, ForkJoinPool pool,
+            int chunkSize, int totalMb) throws IOException {
+        Random sizes = new Random(1);
+        long total = totalMb * 1024L * 1024L;
+        long written = 0;
+        long records = 0;
+        CountingSink sink = new CountingSink();
+        System.gc();
+        long startNs = System.nanoTime();
+        while (written < total) {
+            byte[] source;
+            int length;
+            if (sizes.nextInt(100) == 0) {
+                source = media;
+                length = 4 * 1024 * 1024 + sizes.nextInt(28 * 1024 * 1024);
+            } else {
+                source = text;
+                length = 2 * 1024 + sizes.nextInt(60 * 1024);
+            }
+            length = (int) Math.min(length, total - written);
+            int offset = sizes.nextInt(source.length - length + 1);
+            OutputStream gz = (pool == null)
+                ? new GZIPOutputStream(sink)
+                : new ParallelGZIPOutputStream(sink, pool, chunkSize);
+            gz.write(source, offset, length);
+            if (pool == null) {
+                ((GZIPOutputStream) gz).finish();
+            } else {
+                ((ParallelGZIPOutputStream) gz).finish();
+            }
+            written += length;
+            records++;
+        }
+        long elapsedMs = Math.max(1, (System.nanoTime() - startNs) / 1000000);
+        System.out.println(label + ": " + records + " records, "
+                + (written / 1024 / 1024) + "MB in " + elapsedMs + "ms = "
+                + (written / 1024 * 1000 / 1024 / elapsedMs) + "MB/s, "
+                + "compressed to " + (sink.count * 100 / Math.max(1, written))
+                + "%");
+    }
+
+    /** discards output, tallying bytes */
+    protected static class CountingSink extends OutputStream {
+        long count = 0;
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.archive.checkpointing.Checkpoint;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for {@link CrawlerJournal}, particularly in group-commit mode.
+ */
+public class CrawlerJournalTest extends TmpDirTestCase {
+
+    protected List<String> readLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file))));
+        List<String> lines = new ArrayList<String>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    public void testGroupCommitFromManyThreads() throws Exception {
+        File file = new File(getTmpDir(), "CrawlerJournalTest-many.gz");
+        final CrawlerJournal journal = new CrawlerJournal(file);
+        // small ring, so callers regularly find it full
+        journal.startGroupCommit(64);
+        final int threadCount = 8;
+        final int perThread = 5000;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final String prefix = "t" + t + "-";
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        journal.writeLine(prefix, Integer.toString(i));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        journal.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(threadCount * perThread, lines.size());
+        Set<String> unique = new HashSet<String>(lines);
+        for (int t = 0; t < threadCount; t++) {
+            for (int i = 0; i < perThread; i++) {
+                assertTrue(unique.contains("t" + t + "-" + i));
+            }
+        }
+    }
+
+    public void testGroupCommitRotation() throws Exception {
+        File file = new File(getTmpDir(), "CrawlerJournalTest-rotate.gz");
+        CrawlerJournal journal = new CrawlerJournal(file);
+        journal.startGroupCommit(1024);
+        for (int i = 0; i < 100; i++) {
+            journal.writeLine("before ", Integer.toString(i));
+        }
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.generateFrom(new ConfigPath("checkpoints",
+                new File(getTmpDir(), "CrawlerJournalTest-cp").getAbsolutePath()), 1);
+        journal.rotateForCheckpoint(checkpoint);
+        for (int i = 0; i < 100; i++) {
+            journal.writeLine("after ", Integer.toString(i));
+        }
+        journal.close();
+
+        File rotated = new File(file.getParentFile(),
+                file.getName() + "." + checkpoint.getName());
+        List<String> before = readLines(rotated);
+        List<String> after = readLines(file);
+        assertEquals(100, before.size());
+        assertEquals(100, after.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("before " + i, before.get(i));
+            assertEquals("after " + i, after.get(i));
+        }
+        rotated.delete();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LineRing}.
+ */
+public class LineRingTest extends TestCase {
+
+    /**
+     * Callers that find a tiny ring full park, are woken as the consumer
+     * takes lines, and every caller's lines come out in its own order.
+     */
+    public void testFullRingParksCallers() throws Exception {
+        final int producerCount = 4;
+        final int perProducer = 2000;
+        final List<String> taken = new ArrayList<String>();
+        final AtomicReference<LineRing<String>> holder =
+            new AtomicReference<LineRing<String>>();
+        Thread consumer = new Thread() {
+            public void run() {
+                LineRing<String> ring = holder.get();
+                while (taken.size() < producerCount * perProducer) {
+                    String line = ring.poll();
+                    if (line == null) {
+                        ring.parkConsumer(1000000L);
+                        continue;
+                    }
+                    taken.add(line);
+                    if (taken.size() % 100 == 0) {
+                        // slow consumer, so callers find the ring full
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        final LineRing<String> ring = new LineRing<String>(4, consumer);
+        holder.set(ring);
+        consumer.start();
+
+        Thread[] producers = new Thread[producerCount];
+        for (int p = 0; p < producerCount; p++) {
+            final String prefix = "p" + p + " ";
+            producers[p] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        ring.put(prefix + i);
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        consumer.join();
+
+        assertTrue(ring.isEmpty());
+        assertEquals(producerCount * perProducer, taken.size());
+        int[] next = new int[producerCount];
+        for (String line : taken) {
+            String[] parts = line.split(" ");
+            int p = Integer.parseInt(parts[0].substring(1));
+            assertEquals(next[p]++, Integer.parseInt(parts[1]));
+        }
+        assertTrue(ring.getFullStalls() > 0);
+        assertTrue(ring.waitingProducers.isEmpty());
+    }
+}
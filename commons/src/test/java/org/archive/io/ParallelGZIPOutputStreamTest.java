@@ -0,0 +1,154 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ParallelGZIPOutputStream}.
+ */
+public class ParallelGZIPOutputStreamTest extends TestCase {
+
+    protected static final int CHUNK = 32 * 1024;
+
+    protected ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.shutdown();
+        super.tearDown();
+    }
+
+    /** mix of repetitive and random bytes, so both matter to deflate */
+    protected byte[] makeContent(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (i % 1000 < 900)
+                ? (byte) ("heritrix ".charAt(i % 9))
+                : (byte) random.nextInt();
+        }
+        return content;
+    }
+
+    protected byte[] compress(byte[] content, int writeSize) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream gz =
+            new ParallelGZIPOutputStream(compressed, pool, CHUNK);
+        for (int off = 0; off < content.length; off += writeSize) {
+            gz.write(content, off, Math.min(writeSize, content.length - off));
+        }
+        gz.finish();
+        return compressed.toByteArray();
+    }
+
+    protected byte[] gunzip(byte[] compressed) throws IOException {
+        GZIPInputStream in =
+            new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            result.write(buf, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    protected void assertRoundTrip(int length, int writeSize) throws Exception {
+        byte[] content = makeContent(length, length);
+        byte[] compressed = compress(content, writeSize);
+        assertTrue("length " + length,
+                Arrays.equals(content, gunzip(compressed)));
+        assertSingleMember(compressed, length);
+    }
+
+    /**
+     * Check that the deflate data ends exactly at the 8-byte trailer,
+     * rather than being followed by further members.
+     */
+    protected void assertSingleMember(byte[] compressed, int length)
+    throws Exception {
+        assertEquals((byte) 0x1f, compressed[0]);
+        assertEquals((byte) 0x8b, compressed[1]);
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed, 10, compressed.length - 10);
+        byte[] out = new byte[length + 1];
+        int total = 0;
+        while (!inflater.finished()) {
+            total += inflater.inflate(out, total, out.length - total);
+        }
+        assertEquals(length, total);
+        assertEquals(8, inflater.getRemaining());
+        inflater.end();
+    }
+
+    public void testEmpty() throws Exception {
+        assertRoundTrip(0, 1);
+    }
+
+    public void testSmallerThanChunk() throws Exception {
+        assertRoundTrip(1000, 7);
+    }
+
+    public void testExactChunk() throws Exception {
+        assertRoundTrip(CHUNK, 4096);
+        assertRoundTrip(2 * CHUNK, CHUNK);
+    }
+
+    public void testManyChunks() throws Exception {
+        // more chunks than may be in flight at once
+        assertRoundTrip(20 * CHUNK + 12345, 10000);
+        assertRoundTrip(3 * CHUNK + 1, 3 * CHUNK + 1);
+    }
+
+    public void testSingleByteWrites() throws Exception {
+        byte[] content = makeContent(CHUNK + 100, 1);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream gz =
+            new ParallelGZIPOutputStream(compressed, pool, CHUNK);
+        for (byte b : content) {
+            gz.write(b);
+        }
+        gz.close();
+        assertTrue(Arrays.equals(content, gunzip(compressed.toByteArray())));
+    }
+
+    public void testWriteAfterFinish() throws Exception {
+        ParallelGZIPOutputStream gz = new ParallelGZIPOutputStream(
+                new ByteArrayOutputStream(), pool, CHUNK);
+        gz.finish();
+        gz.finish();
+        try {
+            gz.write(1);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
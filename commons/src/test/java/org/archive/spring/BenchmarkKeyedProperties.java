@@ -0,0 +1,94 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+ 
+package org.archive.spring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.archive.spring.KeyedPropertiesTest.SimpleOverlayContext;
+
+/**
+ * Simple benchmarking of KeyedProperties.get() with 0, 1 and 5 overlay 
+ * sheets active on the calling thread, none of which override the key 
+ * read (the common case, where every sheet must be consulted before 
+ * falling back to the local value). 
+ * 
+ * Usage: BenchmarkKeyedProperties [reps] [gets-per-rep] [external-paths]
+ * 
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test 
+ * machine may affect relative time tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkKeyedProperties {
+
+    public static void main(String[] args) {
+        (new BenchmarkKeyedProperties()).instanceMain(args);
+    }
+    
+    public void instanceMain(String[] args) {
+        int reps = 
+            (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        int gets = 
+            (args.length > 1) ? Integer.parseInt(args[1]) : 10000000;
+        int paths = 
+            (args.length > 2) ? Integer.parseInt(args[2]) : 2;
+        System.out.println("reps="+reps+" gets="+gets+" paths="+paths);
+        
+        KeyedProperties kp = new KeyedProperties();
+        for(int i = 0; i < paths; i++) {
+            kp.addExternalPath("someBean"+i);
+        }
+        kp.put("maxHops", 20);
+        
+        for(int r = 0; r < reps; r++) {
+            for(int overlays : new int[] {0, 1, 5}) {
+                SimpleOverlayContext ocontext = new SimpleOverlayContext();
+                for(int i = 0; i < overlays; i++) {
+                    Map<String,Object> sheet = new HashMap<String,Object>();
+                    sheet.put("otherBean.maxHops", 5);
+                    ocontext.addOverlay("sheet"+i, sheet);
+                }
+                if(overlays > 0) {
+                    KeyedProperties.loadOverridesFrom(ocontext);
+                }
+                try {
+                    testGets(kp, overlays, gets);
+                } finally {
+                    KeyedProperties.clearOverridesFrom(ocontext);
+                }
+            }
+        }
+    }
+
+    protected void testGets(KeyedProperties kp, int overlays, int gets) {
+        System.gc();
+        long startTime = System.nanoTime();
+        long sum = 0; 
+        for(int i = 0; i < gets; i++) {
+            sum += (Integer) kp.get("maxHops");
+        }
+        long elapsed = System.nanoTime() - startTime;
+        System.out.println(overlays+" overlays: "
+                + (elapsed / gets) + "ns/get " 
+                + (elapsed / 1000000) + "ms total"
+                + (sum == 0 ? " (?)" : ""));
+    }
+}
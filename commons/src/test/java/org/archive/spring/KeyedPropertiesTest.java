@@ -0,0 +1,108 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+ 
+package org.archive.spring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for KeyedProperties override resolution.
+ */
+public class KeyedPropertiesTest extends TestCase {
+
+    /**
+     * Minimal OverlayContext holding its overlay maps directly. 
+     */
+    public static class SimpleOverlayContext implements OverlayContext {
+        ArrayList<String> names = new ArrayList<String>();
+        Map<String,Map<String,Object>> maps = new HashMap<String,Map<String,Object>>();
+        
+        public void addOverlay(String name, Map<String,Object> map) {
+            names.add(name);
+            maps.put(name, map);
+        }
+        public boolean haveOverlayNamesBeenSet() {
+            return true;
+        }
+        public ArrayList<String> getOverlayNames() {
+            return names;
+        }
+        public Map<String, Object> getOverlayMap(String name) {
+            return maps.get(name);
+        }
+    }
+    
+    public void testNoOverlays() {
+        KeyedProperties kp = new KeyedProperties();
+        kp.addExternalPath("bean");
+        kp.put("foo", "local");
+        assertEquals("local value expected", "local", kp.get("foo"));
+    }
+    
+    public void testOverlayAndInvalidation() {
+        KeyedProperties kp = new KeyedProperties();
+        kp.addExternalPath("bean");
+        kp.put("foo", "local");
+        
+        Map<String,Object> sheet = new HashMap<String,Object>();
+        sheet.put("bean.foo", "overlaid");
+        sheet.put("otherBean.foo", "overlaid-other");
+        SimpleOverlayContext ocontext = new SimpleOverlayContext();
+        ocontext.addOverlay("sheet", sheet);
+        
+        KeyedProperties.loadOverridesFrom(ocontext);
+        try {
+            assertEquals("overlay not applied", "overlaid", kp.get("foo"));
+            assertEquals("unrelated key affected", null, kp.get("bar"));
+            
+            // new path must be honored even after keys were cached 
+            sheet.remove("bean.foo");
+            assertEquals("local value expected", "local", kp.get("foo"));
+            kp.addExternalPath("otherBean");
+            assertEquals("new external path ignored", 
+                    "overlaid-other", kp.get("foo"));
+        } finally {
+            KeyedProperties.clearOverridesFrom(ocontext);
+        }
+        assertEquals("overlay should be cleared", "local", kp.get("foo"));
+    }
+    
+    public void testLaterOverlayWins() {
+        KeyedProperties kp = new KeyedProperties();
+        kp.addExternalPath("bean");
+        kp.put("foo", "local");
+        Map<String,Object> first = new HashMap<String,Object>();
+        first.put("bean.foo", "first");
+        Map<String,Object> second = new HashMap<String,Object>();
+        second.put("bean.foo", "second");
+        SimpleOverlayContext ocontext = new SimpleOverlayContext();
+        ocontext.addOverlay("first", first);
+        ocontext.addOverlay("second", second);
+        KeyedProperties.loadOverridesFrom(ocontext);
+        try {
+            assertEquals("last-named overlay should win", "second", kp.get("foo"));
+        } finally {
+            KeyedProperties.clearOverridesFrom(ocontext);
+        }
+    }
+}
@@ -24,6 +24,9 @@
 */
 package org.archive.util;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Simple benchmarking of different BloomFilter
  * implementations.
@@ -37,11 +40,11 @@ package org.archive.util;
  */
 public class BenchmarkBlooms {
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
 		(new BenchmarkBlooms()).instanceMain(args);
 	}
 	
-	public void instanceMain(String[] args) {
+	public void instanceMain(String[] args) throws Exception {
 		int reps = 
 			(args.length > 0) ? Integer.parseInt(args[0]) : 3;
 		int n_expected = 
@@ -54,11 +57,14 @@ public class BenchmarkBlooms {
 		        (args.length > 4) ? Integer.parseInt(args[4]) : 8000000;
 	    String prefix = 
 	    	(args.length > 5) ? args[5] : "http://www.archive.org/";
+	    int threads = 
+	    	(args.length > 6) ? Integer.parseInt(args[6]) : 8;
 	    
 	    System.out.println(
 	    		"reps="+reps+" n_expected="+n_expected+
 				" d_hashes="+d_hashes+" adds="+adds+
-				" contains="+contains+" prefix="+prefix);
+				" contains="+contains+" prefix="+prefix+
+				" threads="+threads);
 	    
 	    BloomFilter64bit bloom64;
 //	    BloomFilter bloom32;
@@ -77,9 +83,64 @@ public class BenchmarkBlooms {
             bloom64 = new BloomFilter64bit(n_expected,d_hashes,true);
             testBloom("bitsize rounded up",bloom64,adds,contains,prefix);
             bloom64=null;  
+            OffHeapBloomFilter offHeap = new OffHeapBloomFilter(n_expected,d_hashes);
+            testBloom("off-heap",offHeap,adds,contains,prefix);
+            offHeap.close();
+            // concurrent adds: heap bloom needs external locking
+            bloom64 = new BloomFilter64bit(n_expected,d_hashes);
+            testConcurrentAdds("synchronized",bloom64,true,adds,threads,prefix);
+            bloom64=null;
+            offHeap = new OffHeapBloomFilter(n_expected,d_hashes);
+            testConcurrentAdds("off-heap, striped locks",offHeap,false,adds,threads,prefix);
+            offHeap.close();
 		}
 	}
 	
+	protected long usedHeap() {
+		System.gc();
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+	
+	/**
+	 * Add distinct strings from several threads at once, reporting 
+	 * adds/sec.
+	 */
+	private void testConcurrentAdds(String note, final BloomFilter bloom, 
+			final boolean lock, int adds, int threads, final String prefix) 
+	throws InterruptedException {
+		final AtomicLong next = new AtomicLong(0);
+		final long limit = adds;
+		final CountDownLatch done = new CountDownLatch(threads);
+		System.gc();
+		long startTime = System.currentTimeMillis();
+		for(int t=0;t<threads;t++) {
+			new Thread() {
+				public void run() {
+					long i;
+					while((i = next.getAndIncrement()) < limit) {
+						String s = prefix+Long.toString(i);
+						if(lock) {
+							synchronized(bloom) {
+								bloom.add(s);
+							}
+						} else {
+							bloom.add(s);
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		long elapsed = Math.max(1,System.currentTimeMillis()-startTime);
+		System.out.println(bloom.getClass().getName()
+				+" ("+note+", "+threads+" threads):\n "
+				+elapsed+"ms "
+				+(adds*1000L/elapsed)+" adds/sec "
+				+bloom.size()+" size");
+	}
+	
 	/**
 	 * @param bloom
 	 * @param prefix
@@ -87,7 +148,7 @@ public class BenchmarkBlooms {
 	 * @param d_hashes
 	 */
 	private void testBloom(String note, BloomFilter bloom, int adds, int contains, String prefix) {
-		System.gc();
+		long heapUsed = usedHeap();
 		long startTime = System.currentTimeMillis();
 		long falsePositivesAdds = 0;
 		int i = 0; 
@@ -107,7 +168,9 @@ public class BenchmarkBlooms {
 		        +((note!=null)?" ("+note+")" : "")
 		        +":\n "
 				+(finishTime-startTime)+"ms "
+				+((adds+(long)contains)*1000L/Math.max(1,finishTime-startTime))+" ops/sec "
 				+bloom.getSizeBytes()+"bytes "
+				+heapUsed+" heapBytesUsed "
 				+falsePositivesAdds+" falseDuringAdds "
 				+falsPositivesContains+" falseDuringContains ");
 	}
@@ -0,0 +1,157 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simple benchmarking of StatisticsTracker-like tallying (a few hot keys,
+ * tallied by every thread for every URI) from many threads, and of the
+ * cost of snapshotting many keys, for a ConcurrentHistotable versus the
+ * tallies StatisticsTracker used before: a synchronized Histotable (as
+ * CrawledBytesHistotable, whose tally() it inherits) and a
+ * ConcurrentHashMap of AtomicLongs (as the mime-type and status-code
+ * distributions).
+ *
+ * Usage: BenchmarkConcurrentHistotable [tallies-per-thread] [max-threads]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkConcurrentHistotable {
+    static final String[] KEYS = {
+        "novel", "novelCount", "200", "text/html", "image/jpeg", "404",
+    };
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkConcurrentHistotable()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int perThread = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        System.out.println("talliesPerThread=" + perThread
+                + " maxThreads=" + maxThreads);
+        for (int round = 0; round < 2; round++) {
+            // first round includes warm-up
+            for (int threads = 1; ; threads *= 5) {
+                // always end with maxThreads itself
+                threads = Math.min(threads, maxThreads);
+                test(threads, perThread, new Histotable<String>());
+                test(threads, perThread, new AtomicLongMapTallier());
+                test(threads, perThread, new ConcurrentHistotable<String>());
+                if (threads == maxThreads) {
+                    break;
+                }
+            }
+            testSnapshot(new Histotable<String>());
+            testSnapshot(new AtomicLongMapTallier());
+            testSnapshot(new ConcurrentHistotable<String>());
+        }
+    }
+
+    /**
+     * The tallies StatisticsTracker kept in a ConcurrentHashMap of
+     * AtomicLongs, tallied and copied as it did.
+     */
+    protected static class AtomicLongMapTallier implements Tallier<String> {
+        protected ConcurrentMap<String,AtomicLong> map =
+            new ConcurrentHashMap<String,AtomicLong>();
+
+        public void tally(String key, long count) {
+            AtomicLong lw = map.get(key);
+            if (lw == null) {
+                lw = new AtomicLong(0);
+                AtomicLong prevVal = map.putIfAbsent(key, lw);
+                if (prevVal != null) {
+                    lw = prevVal;
+                }
+            }
+            lw.addAndGet(count);
+        }
+
+        public Histotable<String> snapshot() {
+            Histotable<String> copy = new Histotable<String>();
+            for (Map.Entry<String,AtomicLong> entry : map.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue().get());
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Time a copy, for reporting, of tallies of 100000 keys.
+     */
+    protected void testSnapshot(Tallier<String> tallies) {
+        for (int i = 0; i < 100000; i++) {
+            tallies.tally("host" + i + ".example.com", i);
+        }
+        long startNs = System.nanoTime();
+        if (tallies instanceof ConcurrentHistotable) {
+            ((ConcurrentHistotable<String>) tallies).snapshot();
+        } else if (tallies instanceof AtomicLongMapTallier) {
+            ((AtomicLongMapTallier) tallies).snapshot();
+        } else {
+            Histotable<String> ht = (Histotable<String>) tallies;
+            synchronized (ht) {
+                new Histotable<String>().putAll(ht);
+            }
+        }
+        System.out.println(tallies.getClass().getSimpleName()
+                + " snapshot of 100000 keys: "
+                + ((System.nanoTime() - startNs) / 1000) + "us");
+    }
+
+    protected void test(int threads, final int perThread,
+            final Tallier<String> tallies) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        tallies.tally(KEYS[i % KEYS.length], 1);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        long startNs = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNs = System.nanoTime() - startNs;
+        long total = (long) threads * perThread;
+        System.out.println(tallies.getClass().getSimpleName()
+                + " threads=" + threads + ": "
+                + (total * 1000000000L / Math.max(1, elapsedNs))
+                + " tallies/sec");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Simple benchmarking of per-URI cost of testing a URI against lists of
+ * exclusion-style regexes (10, 100, 1000) one Pattern at a time, versus
+ * by MultiPatternMatcher.
+ *
+ * Usage: BenchmarkMultiPatternMatcher [uris] [rounds]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkMultiPatternMatcher {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkMultiPatternMatcher()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int uriCount = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        Random random = new Random(1);
+        String[] uris = new String[uriCount];
+        for (int i = 0; i < uriCount; i++) {
+            uris[i] = "http://www" + random.nextInt(100) + ".host"
+                + random.nextInt(2000) + ".com/dir" + random.nextInt(2000)
+                + "/page" + random.nextInt(100) + ".html"
+                + (random.nextBoolean() ? "?param" + random.nextInt(2000) + "=1" : "");
+        }
+        System.out.println("uris=" + uriCount + " rounds=" + rounds);
+        for (int count : new int[] {10, 100, 1000}) {
+            List<Pattern> patterns = makePatterns(count);
+            MultiPatternMatcher mpm = new MultiPatternMatcher(patterns);
+            for (int pass = 0; pass < 2; pass++) {
+                // first pass includes warm-up (and automaton building)
+                long startNs = System.nanoTime();
+                int matches = 0;
+                for (int r = 0; r < rounds; r++) {
+                    for (String uri : uris) {
+                        for (Pattern p : patterns) {
+                            if (p.matcher(uri).matches()) {
+                                matches++;
+                                break;
+                            }
+                        }
+                    }
+                }
+                report(count, "java.util.regex", startNs, rounds * uriCount, matches);
+                startNs = System.nanoTime();
+                matches = 0;
+                for (int r = 0; r < rounds; r++) {
+                    for (String uri : uris) {
+                        if (mpm.matchesAny(uri)) {
+                            matches++;
+                        }
+                    }
+                }
+                report(count, "MultiPatternMatcher", startNs, rounds * uriCount, matches);
+            }
+            System.out.println(count + " patterns: "
+                    + mpm.getAutomatonPatternCount() + " by automaton, "
+                    + mpm.getCachedStateCount() + " states cached");
+        }
+    }
+
+    /**
+     * @return typical exclusion patterns: hosts, paths, extensions and
+     * query parameters
+     */
+    protected List<Pattern> makePatterns(int count) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (int i = 0; i < count; i++) {
+            String regex;
+            switch (i % 4) {
+            case 0: regex = "https?://([^/]+\\.)?host" + i + "\\.com/.*"; break;
+            case 1: regex = ".*/dir" + i + "/.*"; break;
+            case 2: regex = "(?i).*\\.ext" + i + "(\\?.*)?"; break;
+            default: regex = ".*[?&]param" + i + "=.*"; break;
+            }
+            patterns.add(Pattern.compile(regex));
+        }
+        return patterns;
+    }
+
+    protected void report(int count, String label, long startNs, int tests, int matches) {
+        long elapsedNs = System.nanoTime() - startNs;
+        System.out.println(count + " patterns, " + label + ": "
+                + (elapsedNs / tests) + "ns/uri (" + matches + " matched)");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+/**
+ * Contention benchmark for ObjectIdentityBdbManualCache, as BdbModule
+ * provides for servers, hosts and queues: many threads getting, changing
+ * and dirtying random keys from a working set of values larger than the
+ * heap (so that soft references are steadily cleared, misses go to disk,
+ * and dirty values are paged out), comparing a single miss-path lock
+ * against the default lock striping.
+ *
+ * Run with a heap smaller than keys * valueKb, e.g. -Xmx256m with the
+ * defaults.
+ *
+ * Usage: BenchmarkObjectIdentityBdbManualCache [threads] [keys] [valueKb]
+ *   [seconds] [dir]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkObjectIdentityBdbManualCache {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkObjectIdentityBdbManualCache()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 64;
+        int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        int valueKb = (args.length > 2) ? Integer.parseInt(args[2]) : 32;
+        int seconds = (args.length > 3) ? Integer.parseInt(args[3]) : 30;
+        File dir = (args.length > 4) ? new File(args[4])
+            : new File(System.getProperty("java.io.tmpdir"), "oibc-benchmark");
+        System.out.println("threads=" + threads + " keys=" + keys
+                + " valueKb=" + valueKb + " seconds=" + seconds
+                + " maxHeapMb=" + (Runtime.getRuntime().maxMemory() >> 20));
+        for (int stripes : new int[] {1, 256}) {
+            test(dir, stripes, threads, keys, valueKb, seconds);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void test(File dir, int stripes, final int threads,
+            final int keys, final int valueKb, int seconds)
+    throws IOException, InterruptedException {
+        FileUtils.deleteDirectory(dir);
+        org.archive.util.FileUtils.ensureWriteableDirectory(dir);
+        EnhancedEnvironment env = EnhancedEnvironment.getTestEnvironment(dir);
+        final ObjectIdentityBdbManualCache<IdentityCacheableWrapper<byte[]>> cache =
+            new ObjectIdentityBdbManualCache();
+        cache.setLockStripes(stripes);
+        cache.initialize(env, "benchmark", IdentityCacheableWrapper.class,
+                env.getClassCatalog());
+
+        // fill, so that most values start on disk only
+        for (int i = 0; i < keys; i++) {
+            String key = Integer.toString(i);
+            cache.getOrUse(key, new Supplier<IdentityCacheableWrapper<byte[]>>(
+                    new IdentityCacheableWrapper<byte[]>(key,
+                            new byte[valueKb * 1024])));
+        }
+        System.gc();
+
+        final AtomicLong gets = new AtomicLong();
+        final AtomicLong maxNs = new AtomicLong();
+        final long endTime = System.currentTimeMillis() + seconds * 1000L;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            new Thread() {
+                public void run() {
+                    long count = 0;
+                    long max = 0;
+                    while (System.currentTimeMillis() < endTime) {
+                        String key = Integer.toString(random.nextInt(keys));
+                        long start = System.nanoTime();
+                        IdentityCacheableWrapper<byte[]> value = cache.get(key);
+                        // change, as a user of the value would; dirtying
+                        // may evict another value, to be paged out
+                        value.get()[random.nextInt(valueKb * 1024)]++;
+                        value.makeDirty();
+                        long elapsed = System.nanoTime() - start;
+                        max = Math.max(max, elapsed);
+                        count++;
+                    }
+                    gets.addAndGet(count);
+                    synchronized (maxNs) {
+                        maxNs.set(Math.max(maxNs.get(), max));
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        System.out.println("stripes=" + stripes + ": "
+                + (gets.get() / seconds) + " gets/sec, max get+dirty "
+                + (maxNs.get() / 1000000) + "ms; "
+                + cache.composeCacheSummary());
+        cache.close();
+        env.close();
+        FileUtils.deleteDirectory(dir);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ConcurrentHistotable}.
+ */
+public class ConcurrentHistotableTest extends TestCase {
+
+    public void testBasics() {
+        ConcurrentHistotable<String> tallies = new ConcurrentHistotable<String>();
+        assertTrue(tallies.isEmpty());
+        assertEquals(0, tallies.get("a"));
+        assertFalse(tallies.containsKey("a"));
+
+        tallies.tally("a");
+        tallies.tally("a", 4);
+        tallies.tally("b", 10);
+        tallies.tally("c", 3);
+        tallies.tally("c", -3);
+        assertEquals(5, tallies.get("a"));
+        assertEquals(10, tallies.get("b"));
+        assertTrue(tallies.containsKey("a"));
+        assertFalse("zeroed key", tallies.containsKey("c"));
+        assertEquals(15, tallies.getTotal());
+
+        Histotable<String> snapshot = tallies.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(5L, (long) snapshot.get("a"));
+        assertEquals(10L, (long) snapshot.get("b"));
+        assertFalse(snapshot.containsKey("c"));
+
+        // snapshots don't see later tallies
+        tallies.tally("b");
+        assertEquals(10L, (long) snapshot.get("b"));
+
+        // round trip
+        ConcurrentHistotable<String> copy = new ConcurrentHistotable<String>();
+        copy.add(tallies.snapshot());
+        assertEquals(tallies.snapshot(), copy.snapshot());
+    }
+
+    public void testConcurrentTallies() throws InterruptedException {
+        final ConcurrentHistotable<String> tallies =
+            new ConcurrentHistotable<String>();
+        final int threads = 32;
+        final int perThread = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final String own = "thread" + t;
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        // all threads contend on "shared"
+                        tallies.tally("shared");
+                        tallies.tally("bytes", 100);
+                        tallies.tally(own);
+                        tallies.tally("key" + (i % 10));
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        start.countDown();
+        // snapshots taken mid-tally never exceed final totals
+        while (done.getCount() > 0) {
+            Histotable<String> partial = tallies.snapshot();
+            Long shared = partial.get("shared");
+            assertTrue(shared == null || shared <= (long) threads * perThread);
+            Thread.sleep(1);
+        }
+        done.await();
+
+        assertEquals((long) threads * perThread, tallies.get("shared"));
+        assertEquals(100L * threads * perThread, tallies.get("bytes"));
+        for (int t = 0; t < threads; t++) {
+            assertEquals(perThread, tallies.get("thread" + t));
+        }
+        for (int k = 0; k < 10; k++) {
+            assertEquals((long) threads * perThread / 10, tallies.get("key" + k));
+        }
+        Histotable<String> snapshot = tallies.snapshot();
+        assertEquals(tallies.getTotal(), snapshot.getTotal());
+        assertEquals(2 + threads + 10, snapshot.size());
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that MultiPatternMatcher gives the same results as testing each
+ * Pattern individually.
+ */
+public class MultiPatternMatcherTest extends TestCase {
+    public static final String[] REGEXES = {
+        ".*\\.(jpg|gif|png)",
+        "(?i).*\\.(JPE?G|css)(\\?.*)?",
+        "^https?://[^/]*example\\.(com|org)/.*$",
+        ".*/calendar/\\d{4}/\\d{1,2}/.*",
+        ".*[?&](jsessionid|sid|PHPSESSID)=[0-9a-fA-F]{8,}.*",
+        ".*/([^/]+)/\\1/\\1/.*", // backreference
+        ".*(?<!\\.html)", // lookbehind
+        ".*/a++b", // possessive
+        "(?i:.*/ADMIN/.*)", // scoped flags
+        "[a-z&&[^x]]+://.*", // intersection
+        "\\Qhttp://example.com/?\\E.*",
+        ".*/(?<name>print|email)/.*",
+        ".*\\x2F\\u002f.*",
+        "[\\w.-]+:[^\\s]*",
+        "[^\\W\\d]+:.*",
+        "(?i)[^a-m]ttp:.*",
+        "(?i)[B-y]ttp:.*",
+        ".*[\\[\\]].*",
+        "(a|ab)(c|bcd)(d*)",
+        "(a*)*b?",
+        "x{0}.*\\.exe",
+        ".*\\.(tar|zip)\\.?(gz|bz2)??",
+        "[-a]+.*|.*[a-]+",
+        "\\Q\\E.*\\Qz\\E",
+        ".*\\r?\\n.*",
+        ".*\u00e9.*",
+        ".{3,5}",
+        ".*\\0101.*", // octal 'A'
+        "$",
+        "^",
+        "^$|^x$",
+        ".*(a|b)$|^c.*",
+    };
+
+    public static final String[] STRINGS = {
+        "",
+        "x",
+        "c",
+        "AaB",
+        "abcd",
+        "abd",
+        "b",
+        "http://example.com/",
+        "http://example.com/?foo",
+        "https://www.example.org/img/PHOTO.JPEG?v=2",
+        "http://example.org/calendar/2014/07/",
+        "http://other.com/a.jpg",
+        "http://other.com/x/print/y",
+        "http://other.com/x/y/y/y/z",
+        "http://other.com/index.html",
+        "http://other.com/ADMIN/x",
+        "http://other.com/admin/x",
+        "http://other.com/?sid=0123456789abcdef",
+        "http://other.com/a/aaab",
+        "ftp://x/setup.exe",
+        "http://x/a.tar.gz",
+        "http://x/a.tar.",
+        "http://x/a.targz",
+        "http://x/[1]",
+        "dns:example.com",
+        "Bttp:x",
+        "zttp:x",
+        "Nttp:x",
+        "nttp:x",
+        "http://x//y",
+        "http://x/\u00e9t\u00e9",
+        "line\nbreak",
+        "line\r\nbreak",
+        "line\u2028break",
+        "a\u0085b",
+        "http://x/A",
+        "http://x/\ud83d\ude00.jpg",
+        "-a-z",
+    };
+
+    protected List<Pattern> compile(String... regexes) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        return patterns;
+    }
+
+    protected void assertParity(List<Pattern> patterns, MultiPatternMatcher mpm, String s) {
+        boolean any = false;
+        boolean all = true;
+        for (Pattern p : patterns) {
+            boolean matches = p.matcher(s).matches();
+            any |= matches;
+            all &= matches;
+        }
+        assertEquals(patterns + " any " + s, any, mpm.matchesAny(s));
+        assertEquals(patterns + " all " + s, all, mpm.matchesAll(s));
+        for (int from = 0; from <= patterns.size(); from++) {
+            int expected = -1;
+            for (int i = from; i < patterns.size(); i++) {
+                if (patterns.get(i).matcher(s).matches()) {
+                    expected = i;
+                    break;
+                }
+            }
+            assertEquals(patterns + " first " + from + " " + s,
+                    expected, mpm.firstMatch(s, from));
+        }
+    }
+
+    public void testEachPattern() {
+        for (String regex : REGEXES) {
+            List<Pattern> patterns = compile(regex);
+            MultiPatternMatcher mpm = new MultiPatternMatcher(patterns);
+            for (String s : STRINGS) {
+                assertParity(patterns, mpm, s);
+            }
+        }
+    }
+
+    public void testAllPatterns() {
+        List<Pattern> patterns = compile(REGEXES);
+        MultiPatternMatcher mpm = new MultiPatternMatcher(patterns);
+        // backreference, lookbehind, possessive, scoped flags, intersection
+        assertEquals(REGEXES.length - 5, mpm.getAutomatonPatternCount());
+        for (String s : STRINGS) {
+            assertParity(patterns, mpm, s);
+        }
+        // again, from cache
+        int states = mpm.getCachedStateCount();
+        for (String s : STRINGS) {
+            assertParity(patterns, mpm, s);
+        }
+        assertEquals(states, mpm.getCachedStateCount());
+    }
+
+    public void testStateLimit() {
+        List<Pattern> patterns = compile(REGEXES);
+        MultiPatternMatcher mpm = new MultiPatternMatcher(patterns, 3);
+        for (String s : STRINGS) {
+            assertParity(patterns, mpm, s);
+        }
+        assertEquals(3, mpm.getCachedStateCount());
+    }
+
+    /**
+     * Past the state limit, states are computed without lock; results
+     * from many threads at once must still match java.util.regex's.
+     */
+    public void testStateLimitThreads() throws InterruptedException {
+        final List<Pattern> patterns = compile(REGEXES);
+        final MultiPatternMatcher mpm = new MultiPatternMatcher(patterns, 3);
+        // checked here, as assertion failures on other threads go unseen
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            for (String s : STRINGS) {
+                                assertParity(patterns, mpm, s);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertEquals(3, mpm.getCachedStateCount());
+    }
+
+    public void testEmpty() {
+        MultiPatternMatcher mpm = new MultiPatternMatcher(new ArrayList<Pattern>());
+        assertFalse(mpm.matchesAny("x"));
+        assertTrue(mpm.matchesAll("x"));
+        assertEquals(-1, mpm.firstMatch("x", 0));
+    }
+
+    public void testFlags() {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        patterns.add(Pattern.compile(".*/admin/.*", Pattern.CASE_INSENSITIVE));
+        patterns.add(Pattern.compile("http://x.*", Pattern.COMMENTS));
+        MultiPatternMatcher mpm = new MultiPatternMatcher(patterns);
+        assertEquals(1, mpm.getAutomatonPatternCount());
+        for (String s : STRINGS) {
+            assertParity(patterns, mpm, s);
+        }
+    }
+
+    /**
+     * Random patterns from a small alphabet, against random strings.
+     */
+    public void testRandom() {
+        Random random = new Random(0);
+        String[] atoms = {"a", "b", "/", ".", "[ab]", "[^a]", "\\w", "\\.",
+                "(?:a|b/)", "(a|)", "x"};
+        String[] quantifiers = {"", "", "", "*", "+", "?", "{2}", "{1,3}", "{2,}", "*?"};
+        for (int round = 0; round < 200; round++) {
+            List<Pattern> patterns = new ArrayList<Pattern>();
+            int count = 1 + random.nextInt(8);
+            for (int i = 0; i < count; i++) {
+                StringBuilder regex = new StringBuilder();
+                if (random.nextInt(5) == 0) {
+                    regex.append("(?i)");
+                }
+                int length = 1 + random.nextInt(5);
+                for (int j = 0; j < length; j++) {
+                    if (j > 0 && random.nextInt(8) == 0) {
+                        regex.append('|');
+                    }
+                    regex.append(atoms[random.nextInt(atoms.length)]);
+                    regex.append(quantifiers[random.nextInt(quantifiers.length)]);
+                }
+                patterns.add(Pattern.compile(regex.toString()));
+            }
+            MultiPatternMatcher mpm = new MultiPatternMatcher(patterns);
+            assertEquals(patterns.toString(), count, mpm.getAutomatonPatternCount());
+            for (int k = 0; k < 50; k++) {
+                StringBuilder s = new StringBuilder();
+                int length = random.nextInt(8);
+                for (int j = 0; j < length; j++) {
+                    s.append("abAB/.x\n".charAt(random.nextInt(8)));
+                }
+                assertParity(patterns, mpm, s.toString());
+            }
+        }
+    }
+}
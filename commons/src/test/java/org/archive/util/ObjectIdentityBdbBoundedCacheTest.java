@@ -0,0 +1,167 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.google.common.cache.Weigher;
+
+/**
+ * ObjectIdentityBdbBoundedCache tests
+ */
+public class ObjectIdentityBdbBoundedCacheTest extends TmpDirTestCase {
+    EnhancedEnvironment env;
+    private ObjectIdentityBdbBoundedCache<IdentityCacheableWrapper<AtomicInteger>> cache;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void setUp() throws Exception {
+        super.setUp();
+        File envDir = new File(getTmpDir(),"ObjectIdentityBdbBoundedCacheTest");
+        org.archive.util.FileUtils.ensureWriteableDirectory(envDir);
+        FileUtils.deleteDirectory(envDir);
+        org.archive.util.FileUtils.ensureWriteableDirectory(envDir);
+        env = EnhancedEnvironment.getTestEnvironment(envDir);
+        this.cache = new ObjectIdentityBdbBoundedCache();
+        this.cache.setMaximumEntries(100);
+        this.cache.initialize(env,"setUpCache",IdentityCacheableWrapper.class, env.getClassCatalog());
+    }
+
+    protected void tearDown() throws Exception {
+        this.cache.close();
+        File envDir = env.getHome();
+        env.close();
+        FileUtils.deleteDirectory(envDir);
+        super.tearDown();
+    }
+
+    protected IdentityCacheableWrapper<AtomicInteger> getOrCreate(String key) {
+        return cache.getOrUse(
+                key,
+                new Supplier<IdentityCacheableWrapper<AtomicInteger>>(
+                        new IdentityCacheableWrapper<AtomicInteger>(
+                                key, new AtomicInteger(0))));
+    }
+
+    public void testMemoryBounded() {
+        for (int i = 0; i < 10000; i++) {
+            getOrCreate("" + i);
+            assertTrue("over budget at " + i, cache.nodes.size() <= 100);
+        }
+        assertEquals(10000, cache.size());
+        assertEquals(10000, cache.keySet().size());
+        assertTrue(cache.composeCacheSummary().contains("evictions=9900"));
+    }
+
+    public void testDirtyWrittenBackOnEviction() {
+        for (int i = 0; i < 1000; i++) {
+            IdentityCacheableWrapper<AtomicInteger> wrap = getOrCreate("" + i);
+            wrap.get().set(i);
+            wrap.makeDirty();
+        }
+        // read back directly from disk, so not via any retained instance,
+        // once the page-out thread has written those evicted
+        cache.awaitPageOuts();
+        for (int i = 0; i < 1000; i++) {
+            if (!cache.nodes.containsKey("" + i)) {
+                assertEquals(i, cache.diskMap.get("" + i).get().get());
+            }
+        }
+        cache.sync();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, cache.diskMap.get("" + i).get().get());
+        }
+    }
+
+    public void testIdentityWhileReferenced() {
+        IdentityCacheableWrapper<AtomicInteger> held = getOrCreate("held");
+        // second pass requests outrank 'held' for admission
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 1000; i++) {
+                getOrCreate("" + i);
+            }
+        }
+        assertFalse("held not evicted", cache.nodes.containsKey("held"));
+
+        // mutated after eviction: dirtying re-admits, so change persists
+        held.get().set(42);
+        held.makeDirty();
+        assertTrue(cache.nodes.containsKey("held"));
+        assertSame(held, cache.get("held"));
+        cache.sync();
+        assertEquals(42, cache.diskMap.get("held").get().get());
+        assertTrue(cache.composeCacheSummary().contains("retiredHits=1"));
+    }
+
+    public void testFrequentEntriesSurviveScan() {
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 50; i++) {
+                getOrCreate("hot" + i);
+            }
+        }
+        for (int i = 0; i < 10000; i++) {
+            getOrCreate("scan" + i);
+        }
+        int survivors = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.nodes.containsKey("hot" + i)) {
+                survivors++;
+            }
+        }
+        // all but (possibly) the one still in the window at scan start
+        assertTrue("hot entries evicted by scan: " + (50 - survivors),
+                survivors >= 49);
+        assertTrue(cache.nodes.size() <= 100);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testWeightBounded() {
+        ObjectIdentityBdbBoundedCache<IdentityCacheableWrapper<AtomicInteger>> weighted =
+            new ObjectIdentityBdbBoundedCache();
+        weighted.setMaximumWeight(100);
+        weighted.setWeigher(new Weigher<String, IdentityCacheableWrapper<AtomicInteger>>() {
+            public int weigh(String key, IdentityCacheableWrapper<AtomicInteger> value) {
+                return 10;
+            }
+        });
+        weighted.initialize(env, "weightedCache",
+                IdentityCacheableWrapper.class, env.getClassCatalog());
+        try {
+            for (int i = 0; i < 1000; i++) {
+                String key = "" + i;
+                weighted.getOrUse(key,
+                        new Supplier<IdentityCacheableWrapper<AtomicInteger>>(
+                                new IdentityCacheableWrapper<AtomicInteger>(
+                                        key, new AtomicInteger(i))));
+                assertTrue(weighted.nodes.size() <= 10);
+            }
+            assertEquals(1000, weighted.size());
+        } finally {
+            weighted.close();
+        }
+    }
+
+    public static void main(String [] args) {
+        junit.textui.TestRunner.run(ObjectIdentityBdbBoundedCacheTest.class);
+    }
+}
@@ -24,6 +24,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.math.RandomUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.spring.ConfigPath;
 import org.archive.util.bdbje.EnhancedEnvironment;
 
 /**
@@ -157,6 +159,88 @@ public class ObjectIdentityBdbManualCacheTest extends TmpDirTestCase {
         }
     }
     
+    /**
+     * Test, through BdbModule as the crawler gets its caches, that 
+     * concurrent misses on the same keys all receive the one identical
+     * instance per key, and that every change reaches disk, including
+     * those of values evicted from the dirty set to the page-out thread.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testIdentityAndPageOutThroughBdbModule() throws Exception {
+        File dir = new File(getTmpDir(), "ObjectIdentityBdbManualCacheTest-module");
+        FileUtils.deleteDirectory(dir);
+        // more keys than are held dirty before page-out
+        final int keyCount = 12000;
+        final int threadCount = 16;
+        BdbModule bdb = new BdbModule();
+        bdb.setDir(new ConfigPath("bdb", dir.getAbsolutePath()));
+        bdb.start();
+        try {
+            final ObjectIdentityCache<IdentityCacheableWrapper<AtomicInteger>> moduleCache =
+                (ObjectIdentityCache) bdb.getObjectCache("moduleCache", false,
+                        IdentityCacheableWrapper.class);
+            assertTrue(moduleCache instanceof ObjectIdentityBdbManualCache);
+            final Object[][] results = new Object[threadCount][keyCount];
+            final Throwable[] failure = new Throwable[1];
+            Thread[] threads = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                final int thread = t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int i = 0; i < keyCount; i++) {
+                                // each thread in a different key order
+                                int k = (i * 7 + thread * 131) % keyCount;
+                                String key = "" + k;
+                                IdentityCacheableWrapper<AtomicInteger> wrap = 
+                                    moduleCache.getOrUse(
+                                        key, 
+                                        new Supplier<IdentityCacheableWrapper<AtomicInteger>>(
+                                            new IdentityCacheableWrapper<AtomicInteger>(
+                                                key, new AtomicInteger(0))));
+                                wrap.get().incrementAndGet();
+                                wrap.makeDirty();
+                                results[thread][k] = wrap;
+                            }
+                        } catch (Throwable e) {
+                            failure[0] = e;
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull("thread failed: " + failure[0], failure[0]);
+            for (int k = 0; k < keyCount; k++) {
+                assertNotNull(results[0][k]);
+                for (int t = 1; t < threadCount; t++) {
+                    assertSame("key " + k, results[0][k], results[t][k]);
+                }
+            }
+            assertEquals(keyCount, moduleCache.size());
+        } finally {
+            bdb.close();
+        }
+
+        bdb = new BdbModule();
+        bdb.setDir(new ConfigPath("bdb", dir.getAbsolutePath()));
+        bdb.start();
+        try {
+            ObjectIdentityCache<IdentityCacheableWrapper<AtomicInteger>> moduleCache =
+                (ObjectIdentityCache) bdb.getObjectCache("moduleCache", true,
+                        IdentityCacheableWrapper.class);
+            for (int k = 0; k < keyCount; k++) {
+                assertEquals("key " + k, threadCount, 
+                        moduleCache.get("" + k).get().get());
+            }
+        } finally {
+            bdb.close();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
     /**
      * Test that in scarce memory conditions, the memory map is 
      * expunged of otherwise unreferenced entries as expected.
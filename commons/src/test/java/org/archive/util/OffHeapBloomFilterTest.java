@@ -0,0 +1,166 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OffHeapBloomFilter tests
+ */
+public class OffHeapBloomFilterTest extends BloomFilterTest {
+    protected List<OffHeapBloomFilter> opened = new ArrayList<OffHeapBloomFilter>();
+
+    @Override
+    BloomFilter createBloom(long n, int d, Random weightsGenerator) {
+        try {
+            OffHeapBloomFilter bloom =
+                new OffHeapBloomFilter(n, d, weightsGenerator, false, null);
+            opened.add(bloom);
+            return bloom;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (OffHeapBloomFilter bloom : opened) {
+            bloom.close();
+        }
+        super.tearDown();
+    }
+
+    public void testSameBitsAsBloomFilter64bit() {
+        BloomFilter64bit heap = new BloomFilter64bit(10000, 10, new Random(1), false);
+        BloomFilter offHeap = createBloom(10000, 10, new Random(1));
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(heap.add("item" + i), offHeap.add("item" + i));
+        }
+        assertEquals(heap.getSizeBytes(), offHeap.getSizeBytes());
+        for (long i = 0; i < heap.getSizeBytes() * 8; i++) {
+            assertEquals(heap.getBit(i), offHeap.getBit(i));
+        }
+        assertEquals(heap.size(), offHeap.size());
+    }
+
+    public void testConcurrentAdds() throws InterruptedException {
+        final BloomFilter bloom = createBloom(400000, 20, new Random(1));
+        final AtomicInteger added = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    // overlapping ranges: each item offered by 2 threads
+                    for (int i = offset * 50000; i < offset * 50000 + 100000; i++) {
+                        if (bloom.add("item" + (i % 200000))) {
+                            added.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < 200000; i++) {
+            assertTrue(bloom.contains("item" + i));
+        }
+        // exactly one thread wins each item, barring false positives
+        assertTrue(added.get() <= 200000);
+        assertTrue(added.get() > 200000 - 10);
+        assertEquals(added.get(), bloom.size());
+    }
+
+    public void testPersistence() throws IOException {
+        File file = new File(TmpDirTestCase.tmpDir(), "OffHeapBloomFilterTest.bloom");
+        OffHeapBloomFilter bloom =
+            new OffHeapBloomFilter(100000, 16, new Random(1), true, file);
+        for (int i = 0; i < 50000; i++) {
+            bloom.add("item" + i);
+        }
+        int size = bloom.size();
+        bloom.close();
+
+        OffHeapBloomFilter reopened = new OffHeapBloomFilter(file);
+        opened.add(reopened);
+        assertEquals(size, reopened.size());
+        assertEquals(100000, reopened.getExpectedInserts());
+        assertEquals(16, reopened.getHashCount());
+        for (int i = 0; i < 50000; i++) {
+            assertTrue(reopened.contains("item" + i));
+            assertFalse(reopened.add("item" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 50000; i < 100000; i++) {
+            if (!reopened.add("item" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 10);
+        reopened.close();
+        file.delete();
+    }
+
+    public void testSerialization() throws Exception {
+        File file = new File(TmpDirTestCase.tmpDir(), "OffHeapBloomFilterTest.bloom");
+        OffHeapBloomFilter[] blooms = {
+            (OffHeapBloomFilter) createBloom(100000, 16, new Random(1)),
+            new OffHeapBloomFilter(100000, 16, new Random(1), true, file),
+        };
+        opened.add(blooms[1]);
+        for (OffHeapBloomFilter bloom : blooms) {
+            for (int i = 0; i < 50000; i++) {
+                bloom.add("item" + i);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(bloom);
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()));
+            OffHeapBloomFilter copy = (OffHeapBloomFilter) in.readObject();
+            opened.add(copy);
+
+            assertNull(copy.getFile());
+            assertEquals(bloom.size(), copy.size());
+            assertEquals(bloom.getSizeBytes(), copy.getSizeBytes());
+            assertEquals(bloom.getHashCount(), copy.getHashCount());
+            for (long i = 0; i < bloom.getSizeBytes() * 8; i++) {
+                assertEquals(bloom.getBit(i), copy.getBit(i));
+            }
+            // same hashing, so same answers
+            for (int i = 0; i < 60000; i++) {
+                assertEquals(bloom.add("item" + i), copy.add("item" + i));
+            }
+        }
+        file.delete();
+    }
+}
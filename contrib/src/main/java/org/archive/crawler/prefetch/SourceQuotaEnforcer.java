@@ -34,6 +34,7 @@ import org.archive.modules.ProcessResult;
 import org.archive.modules.Processor;
 import org.archive.modules.fetcher.FetchStatusCodes;
 import org.archive.modules.seeds.SeedModule;
+import org.archive.util.ConcurrentHistotable;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -84,7 +85,7 @@ public class SourceQuotaEnforcer extends Processor {
     protected boolean shouldProcess(CrawlURI curi) {
         return curi.containsDataKey(CoreAttributeConstants.A_SOURCE_TAG)
                 && sourceTag.equals(curi.getSourceTag())
-                && statisticsTracker.getSourceStats(curi.getSourceTag()) != null;
+                && statisticsTracker.getSourceTallies(curi.getSourceTag()) != null;
     }
 
     protected void innerProcess(CrawlURI curi) {
@@ -96,7 +97,8 @@ public class SourceQuotaEnforcer extends Processor {
             return ProcessResult.PROCEED;
         }
 
-        CrawledBytesHistotable stats = statisticsTracker.getSourceStats(curi.getSourceTag());
+        // live tallies: no per-URI snapshot copy
+        ConcurrentHistotable<String> stats = statisticsTracker.getSourceTallies(curi.getSourceTag());
 
         for (Entry<String, Long> quota: quotas.entrySet()) {
             if (stats.get(quota.getKey()) >= quota.getValue()) {
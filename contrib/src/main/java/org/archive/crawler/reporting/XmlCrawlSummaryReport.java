@@ -6,6 +6,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.archive.crawler.restlet.XmlMarshaller;
+import org.archive.crawler.util.CrawledBytesHistotable;
 import org.archive.modules.writer.WARCWriterProcessor;
 import org.archive.util.ArchiveUtils;
 
@@ -26,6 +27,7 @@ public class XmlCrawlSummaryReport extends Report {
         Map<String,Object> info = new LinkedHashMap<String,Object>();
 
         CrawlStatSnapshot snapshot = stats.getLastSnapshot();
+        CrawledBytesHistotable crawledBytes = stats.getCrawledBytes();
 
         info.put("crawlName", 
                 ((WARCWriterProcessor) stats.appCtx.getBean("warcWriter")).getPrefix());
@@ -48,29 +50,29 @@ public class XmlCrawlSummaryReport extends Report {
         info.put("uriFailures", snapshot.downloadFailures);
         info.put("uriDisregards", snapshot.downloadDisregards);
 
-        info.put("novelUris", stats.crawledBytes.get("novelCount"));
+        info.put("novelUris", crawledBytes.get("novelCount"));
 
-        long duplicateCount = stats.crawledBytes.containsKey("dupByHashCount") ? stats.crawledBytes
+        long duplicateCount = crawledBytes.containsKey("dupByHashCount") ? crawledBytes
                 .get("dupByHashCount").longValue() : 0L;
 
         info.put("duplicateByHashUris", duplicateCount);
-        long notModifiedCount = stats.crawledBytes
-                .containsKey("notModifiedCount") ? stats.crawledBytes.get(
+        long notModifiedCount = crawledBytes
+                .containsKey("notModifiedCount") ? crawledBytes.get(
                 "notModifiedCount").longValue() : 0L;
 
         info.put("notModifiedUris", notModifiedCount);
 
         info.put("totalCrawledBytes", snapshot.bytesProcessed);
 
-        info.put("novelCrawledBytes", stats.crawledBytes.get("novel"));
+        info.put("novelCrawledBytes", crawledBytes.get("novel"));
 
-        long duplicateByHashCrawledBytes = stats.crawledBytes
-                .containsKey("dupByHash") ? stats.crawledBytes.get("dupByHash")
+        long duplicateByHashCrawledBytes = crawledBytes
+                .containsKey("dupByHash") ? crawledBytes.get("dupByHash")
                 .longValue() : 0L;
 
         info.put("duplicateByHashCrawledBytes",duplicateByHashCrawledBytes);
-        long notModifiedCrawledBytes = stats.crawledBytes
-                .containsKey("notModified") ? stats.crawledBytes.get(
+        long notModifiedCrawledBytes = crawledBytes
+                .containsKey("notModified") ? crawledBytes.get(
                 "notModified").longValue() : 0L;
 
         info.put("notModifiedCrawledBytes",notModifiedCrawledBytes);
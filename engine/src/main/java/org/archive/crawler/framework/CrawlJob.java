@@ -54,6 +54,7 @@ import org.archive.crawler.framework.CrawlController.StopCompleteEvent;
 import org.archive.crawler.reporting.AlertThreadGroup;
 import org.archive.crawler.reporting.CrawlStatSnapshot;
 import org.archive.crawler.reporting.StatisticsTracker;
+import org.archive.crawler.util.CrawledBytesHistotable;
 import org.archive.spring.ConfigPath;
 import org.archive.spring.ConfigPathConfigurer;
 import org.archive.spring.PathSharingContext;
@@ -851,9 +852,10 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         }
         
         // stats.crawledBytesSummary() also includes totals, so add those in here
-        TreeMap<String, Long> map = new TreeMap<String,Long>(stats.getCrawledBytes());
-        map.put("total", stats.getCrawledBytes().getTotalBytes());
-        map.put("totalCount", stats.getCrawledBytes().getTotalUrls());
+        CrawledBytesHistotable crawledBytes = stats.getCrawledBytes();
+        TreeMap<String, Long> map = new TreeMap<String,Long>(crawledBytes);
+        map.put("total", crawledBytes.getTotalBytes());
+        map.put("totalCount", crawledBytes.getTotalUrls());
         return map;
     }
 
@@ -280,7 +280,7 @@ public interface Frontier extends Lifecycle, Reporter {
      * <p>"scopeSchedules": if non-null, any URI imported be checked
      * against the frontier's configured scope before scheduling 
      * 
-     * <p>If the "format" is "recoveryLog", 7 more keys are significant:
+     * <p>If the "format" is "recoveryLog", 9 more keys are significant:
      * 
      * <p>"includeSuccesses": if non-null, success lines ("Fs") in the log
      * will be considered-included. (Usually, this is the aim of
@@ -302,6 +302,10 @@ public interface Frontier extends Lifecycle, Reporter {
      * <p>"scheduleScheduleds": if non-null, scheduled lines ("F+") in the 
      * log will be considered-included. (Usually, this is the aim of a
      * recovery-log import.)
+     * <p>"recoveryThreads": number of threads parsing and scheduling
+     * lines (default: number of processors)
+     * <p>"spillDir": directory for the temporary file of lines set
+     * aside to schedule (default: the log's directory)
      * 
      * TODO: add parameter for auto-unpause-at-good-time
      * 
@@ -134,6 +134,22 @@ public abstract class AbstractFrontier
     public void setRecoveryLogEnabled(boolean enabled) {
         kp.put("recoveryLogEnabled",enabled);
     }
+    
+    /**
+     * If positive, recovery log lines are queued (up to this many) for a
+     * single writer thread to compress in batches, rather than each
+     * thread writing its own under a shared lock. Useful when the
+     * journal becomes a point of contention at high URI rates. 
+     */
+    {
+        setRecoveryLogGroupCommitCapacity(0);
+    }
+    public int getRecoveryLogGroupCommitCapacity() {
+        return (Integer) kp.get("recoveryLogGroupCommitCapacity");
+    }
+    public void setRecoveryLogGroupCommitCapacity(int capacity) {
+        kp.put("recoveryLogGroupCommitCapacity",capacity);
+    }
 
     {
         setMaxOutlinks(6000);
@@ -582,6 +598,10 @@ public abstract class AbstractFrontier
             String logsPath = logsDisk + File.separatorChar;
             this.recover = new FrontierJournal(logsPath,
                     FrontierJournal.LOGNAME_RECOVER);
+            if (getRecoveryLogGroupCommitCapacity() > 0) {
+                this.recover.startGroupCommit(
+                        getRecoveryLogGroupCommitCapacity());
+            }
         }
     }
 
@@ -863,7 +883,7 @@ public abstract class AbstractFrontier
                         new Object[] { curi, e });
             }
             // once logged, discard
-            curi.getData().remove(A_NONFATAL_ERRORS);
+            curi.clearNonFatalFailures();
         }
     }
 
@@ -26,10 +26,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.archive.bdb.AutoKryo;
+import org.archive.crawler.frontier.precedence.HighestUriQueuePrecedencePolicy.HighestUriPrecedenceProvider;
 import org.archive.crawler.frontier.precedence.SimplePrecedenceProvider;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchStats;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.Histotable;
 
 import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
@@ -178,6 +180,10 @@ implements Serializable {
         kryo.autoregister(HashSet.class);
         kryo.autoregister(SimplePrecedenceProvider.class);
         kryo.autoregister(byte[].class);
+        // registration order fixes class IDs in already-stored queues: 
+        // only append, below
+        kryo.autoregister(HighestUriPrecedenceProvider.class);
+        kryo.autoregister(Histotable.class);
         kryo.setRegistrationOptional(true); 
     }
 }
\ No newline at end of file
@@ -18,20 +18,15 @@
  */
 package org.archive.crawler.frontier;
 
-import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.httpclient.URIException;
 import org.archive.crawler.framework.Frontier;
 import org.archive.io.CrawlerJournal;
 import org.archive.modules.CrawlURI;
-import org.archive.modules.deciderules.DecideRule;
-import org.archive.util.ArchiveUtils;
 import org.json.JSONObject;
 
 /**
@@ -59,9 +54,6 @@ public class FrontierJournal extends CrawlerJournal {
     public final static String F_SUCCESS = "Fs ";
     public final static String F_FAILURE = "Ff ";
     
-    //  show recovery progress every this many lines
-    private final static int PROGRESS_INTERVAL = 1000000; 
-    
     // once this many URIs are queued during recovery, allow 
     // crawl to begin, while enqueuing of other URIs from log
     // continues in background
@@ -124,6 +116,7 @@ public class FrontierJournal extends CrawlerJournal {
      * @throws IOException
      * 
      * @see org.archive.crawler.framework.Frontier#importURIs(String)
+     * @see RecoveryLogImporter
      */
     public static void importRecoverLog(final JSONObject params, final Frontier frontier)
     throws IOException {
@@ -134,10 +127,33 @@ public class FrontierJournal extends CrawlerJournal {
         final File source = new File(path);
         LOGGER.info("recovering frontier completion state from "+source);
         
+        final FrontierJournal newJournal = frontier.getFrontierJournal();
+        final RecoveryLogImporter importer = new RecoveryLogImporter(params, 
+                frontier.getScope(), new RecoveryLogImporter.Target() {
+            public void include(CrawlURI curi, String line) {
+                frontier.considerIncluded(curi);
+                if (newJournal != null) {
+                    // write same line as read
+                    newJournal.writeLine(line);
+                }
+            }
+            public void includesDone() {
+                if (frontier instanceof WorkQueueFrontier) {
+                    // apply any batched notes before scheduling begins
+                    ((WorkQueueFrontier)frontier).getUriUniqFilter().requestFlush();
+                }
+            }
+            public void schedule(CrawlURI curi) {
+                frontier.schedule(curi);
+            }
+            public long queuedCount() {
+                return frontier.queuedUriCount();
+            }
+        });
+
         // first, fill alreadyIncluded with successes (and possibly failures),
-        // and count the total lines
-        final int lines =
-            importCompletionInfoFromLog(source, frontier, params);
+        // setting aside lines to schedule
+        importer.importCompletions(source);
         
         LOGGER.info("finished completion state; recovering queues from " +
             source);
@@ -148,8 +164,14 @@ public class FrontierJournal extends CrawlerJournal {
         final CountDownLatch recoveredEnough = new CountDownLatch(1);
         new Thread(new Runnable() {
             public void run() {
-                importQueuesFromLog(source, frontier, params, lines, 
-                        recoveredEnough);
+                try {
+                    importer.importQueues(recoveredEnough, ENOUGH_TO_START_CRAWLING);
+                } catch (RuntimeException e) {
+                    // no caller to pass this to; don't let it go unseen
+                    LOGGER.log(Level.SEVERE, "recovering queues from "
+                            + source + " ended early", e);
+                    recoveredEnough.countDown();
+                }
             }
         }, "queuesRecoveryThread").start();
         
@@ -160,170 +182,4 @@ public class FrontierJournal extends CrawlerJournal {
             LOGGER.log(Level.WARNING,"interrupted",e);
         }
     }
-    
-    /**
-     * Import just the SUCCESS (and possibly FAILURE) URIs from the given
-     * recovery log into the frontier as considered included. 
-     * 
-     * @param source recovery log file to use
-     * @param controller CrawlController of crawl to update
-     * @param retainFailures whether failure ('Ff') URIs should count as done
-     * @return number of lines in recovery log (for reference)
-     * @throws IOException
-     */
-    private static int importCompletionInfoFromLog(File source, 
-            Frontier frontier, JSONObject params) throws IOException {
-        // Scan log for 'Fs' (+maybe 'Ff') lines: add as 'alreadyIncluded'
-        boolean includeSuccesses = !params.isNull("includeSuccesses");
-        boolean includeFailures = !params.isNull("includeFailures");
-        boolean includeScheduleds = !params.isNull("includeScheduleds");
-        boolean scopeIncludes = !params.isNull("scopeIncludes");
-        
-        DecideRule scope = (scopeIncludes) ? frontier.getScope() : null;
-        FrontierJournal newJournal = frontier.getFrontierJournal();
-        
-        BufferedReader br = ArchiveUtils.getBufferedReader(source);
-        String read;
-        int lines = 0; 
-        try {
-            while ((read = br.readLine())!=null) {
-                lines++;
-                if(read.length()<4) {
-                    continue;
-                }
-                String lineType = read.substring(0, 3);
-                if(includeSuccesses && F_SUCCESS.equals(lineType) 
-                        || includeFailures && F_FAILURE.equals(lineType) 
-                        || includeScheduleds && F_ADD.equals(lineType)) {
-                    try {
-                        CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
-                        if(scope!=null) {
-                            //TODO:SPRINGY
-///                            caUri.setStateProvider(controller.getSheetManager());
-                            // skip out-of-scope URIs if so configured
-                            if(!scope.accepts(caUri)) {
-                                continue;
-                            }
-                        }
-                        frontier.considerIncluded(caUri);
-                        if (newJournal != null) {
-                            // write same line as read
-                            newJournal.writeLine(read);
-                        }
-                    } catch (URIException e) {
-                        LOGGER.log(Level.WARNING,"bad hopsViaString: "+read.substring(3),e);
-                    }
-                }
-                if((lines%PROGRESS_INTERVAL)==0) {
-                    // every 1 million lines, print progress
-                    LOGGER.info(
-                            "at line " + lines 
-                            + " alreadyIncluded count = " +
-                            frontier.discoveredUriCount());
-                }
-            }
-        } catch (EOFException e) {
-            // expected in some uncleanly-closed recovery logs; ignore
-        } finally {
-            br.close();
-        }
-        return lines;
-    }
-
-    /**
-     * Import all ADDs from given recovery log into the frontier's queues
-     * (excepting those the frontier drops as already having been included)
-     * 
-     * @param source recovery log file to use
-     * @param controller CrawlController of crawl to update
-     * @param params Map of options to apply
-     * @param enough latch signalling 'enough' URIs queued to begin crawling
-     */
-    private static void importQueuesFromLog(File source, Frontier frontier,
-            JSONObject params, int lines, CountDownLatch enough) {
-        BufferedReader br;
-        String read;
-        
-        long queuedAtStart = frontier.queuedUriCount();
-        long queuedDuringRecovery = 0;
-        int qLines = 0;
-        
-        boolean scheduleSuccesses = !params.isNull("scheduleSuccesses");
-        boolean scheduleFailures = !params.isNull("scheduleFailures");
-        boolean scheduleScheduleds = !params.isNull("scheduleScheduleds");
-        boolean scopeScheduleds = !params.isNull("scopeScheduleds");
-        boolean forceRevisit = !params.isNull("forceRevisit");
-        
-        DecideRule scope = (scopeScheduleds) ? frontier.getScope() : null;
-        
-        try {
-            // Scan log for all 'F+' lines: if not alreadyIncluded, schedule for
-            // visitation
-            br = ArchiveUtils.getBufferedReader(source);
-            try {
-                while ((read = br.readLine())!=null) {
-                    qLines++;
-                    if(read.length()<4) {
-                        continue;
-                    }
-                    String lineType = read.substring(0, 3);
-                    if(scheduleSuccesses && F_SUCCESS.equals(lineType) 
-                            || scheduleFailures && F_FAILURE.equals(lineType) 
-                            || scheduleScheduleds && F_ADD.equals(lineType)) {
-                        
-                        try {
-                            CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
-                            
-                            //TODO:SPRINGY
-//                            caUri.setStateProvider(controller.getSheetManager());
-                            if(scope!=null) {
-                                // skip out-of-scope URIs if so configured
-                                if(!scope.accepts(caUri)) {
-                                    continue;
-                                }
-                            }
-                            
-                            caUri.setForceFetch(forceRevisit);
-                            
-                            frontier.schedule(caUri);
-                            
-                            queuedDuringRecovery =
-                                frontier.queuedUriCount() - queuedAtStart;
-                            if(((queuedDuringRecovery + 1) %
-                                    ENOUGH_TO_START_CRAWLING) == 0) {
-                                enough.countDown();
-                            }
-                        } catch (URIException e) {
-                            LOGGER.log(Level.WARNING, "bad URI during " +
-                                "log-recovery of queue contents ",e);
-                            // and continue...
-                        } catch (RuntimeException e) {
-                            LOGGER.log(Level.SEVERE, "exception during " +
-                                    "log-recovery of queue contents ",e);
-                            // and continue, though this may be risky
-                            // if the exception wasn't a trivial NPE 
-                            // or wrapped interrupted-exception...
-                        }
-                    }
-                    if((qLines%PROGRESS_INTERVAL)==0) {
-                        // every 1 million lines, print progress
-                        LOGGER.info(
-                                "through line " 
-                                + qLines + "/" + lines 
-                                + " queued count = " +
-                                frontier.queuedUriCount());
-                    }
-                }
-            } catch (EOFException e) {
-                // no problem: untidy end of recovery journal
-            } finally {
-        	    br.close(); 
-            }
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING,"problem importQueuesFromLog",e);
-        }
-        LOGGER.info("finished recovering frontier from "+source+" "
-                +qLines+" lines processed");
-        enough.countDown();
-    }
 }
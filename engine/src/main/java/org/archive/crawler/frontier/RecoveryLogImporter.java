@@ -0,0 +1,532 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import static org.archive.crawler.frontier.FrontierJournal.F_ADD;
+import static org.archive.crawler.frontier.FrontierJournal.F_FAILURE;
+import static org.archive.crawler.frontier.FrontierJournal.F_SUCCESS;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.util.ArchiveUtils;
+import org.json.JSONObject;
+
+/**
+ * Imports a frontier recovery journal, decompressing it only once and
+ * parsing its lines on a pool of worker threads.
+ *
+ * The journal is read in a single pass: lines of the types to be
+ * considered-included are parsed in chunks by the workers, sorted by
+ * URI (so that lines for the same host, and thus queue, are applied
+ * together), and handed in those batches to a single loader thread.
+ * Lines of the types to be scheduled are copied aside to a
+ * quickly-compressed spill file, as they may only be scheduled once all
+ * completions are known. Then, the spill file is read and its lines
+ * parsed by the workers concurrently, and scheduled by a single
+ * scheduler thread in journal order, so each queue receives its URIs
+ * in their original order.
+ *
+ * Fingerprints reach the UriUniqFilter one considerIncluded() at a
+ * time; a BdbUriUniqFilter with a batchSize set gathers them and
+ * applies each batch in fingerprint order (see
+ * BdbUriUniqFilter.setBatchSize()).
+ *
+ * A RuntimeException while parsing (for example, from the scope) ends
+ * the import of completions and is rethrown to the caller, wrapped.
+ * importQueues() usually runs on a thread of its own, with no caller to
+ * rethrow to; there, such an exception is logged at SEVERE, and the
+ * lines of its chunk skipped, and recovery continues.
+ *
+ * Honors the same import parameters as the original two-pass import
+ * (see Frontier.importURIs()), plus "recoveryThreads" (default: number
+ * of processors) and "spillDir" (default: the journal's directory).
+ */
+public class RecoveryLogImporter {
+    private static final Logger LOGGER = Logger.getLogger(
+            RecoveryLogImporter.class.getName());
+
+    /**
+     * Destination of recovered URIs.
+     */
+    public interface Target {
+        /** consider the URI included; only called from one thread at a time */
+        public void include(CrawlURI curi, String line);
+        /** all includes have been made */
+        public void includesDone();
+        /** schedule the URI; only called from one thread, in journal order */
+        public void schedule(CrawlURI curi);
+        /** current count of queued URIs */
+        public long queuedCount();
+    }
+
+    //  show recovery progress every this many lines
+    protected final static int PROGRESS_INTERVAL = 1000000;
+
+    // lines parsed by a worker at a time
+    protected final static int CHUNK_LINES = 4096;
+
+    /** a parsed line to include */
+    protected static class Parsed {
+        final CrawlURI curi;
+        final String line;
+        Parsed(CrawlURI curi, String line) {
+            this.curi = curi;
+            this.line = line;
+        }
+    }
+
+    protected static final Comparator<Parsed> BY_URI =
+        new Comparator<Parsed>() {
+            public int compare(Parsed a, Parsed b) {
+                return a.curi.getURI().compareTo(b.curi.getURI());
+            }
+        };
+
+    protected final Target target;
+    protected final DecideRule includeScope;
+    protected final DecideRule scheduleScope;
+
+    protected final boolean includeSuccesses;
+    protected final boolean includeFailures;
+    protected final boolean includeScheduleds;
+    protected final boolean scheduleSuccesses;
+    protected final boolean scheduleFailures;
+    protected final boolean scheduleScheduleds;
+    protected final boolean forceRevisit;
+
+    protected final int threads;
+    protected final File spillDir;
+    protected final ExecutorService pool;
+    /** bounds chunks read ahead of the workers */
+    protected final Semaphore chunksInFlight;
+    /** first exception thrown by a worker, if any */
+    protected final AtomicReference<Throwable> failure =
+        new AtomicReference<Throwable>();
+
+    protected File spillFile;
+    protected long lines = 0;
+    protected long spilledLines = 0;
+    protected final AtomicLong included = new AtomicLong(0);
+    protected final AtomicLong parseErrors = new AtomicLong(0);
+
+    /**
+     * @param params JSONObject of import parameters; see Frontier.importURIs()
+     * @param scope crawl scope, applied if the params so request
+     * @param target destination of recovered URIs
+     */
+    public RecoveryLogImporter(JSONObject params, DecideRule scope,
+            Target target) {
+        this.target = target;
+        this.includeSuccesses = !params.isNull("includeSuccesses");
+        this.includeFailures = !params.isNull("includeFailures");
+        this.includeScheduleds = !params.isNull("includeScheduleds");
+        this.scheduleSuccesses = !params.isNull("scheduleSuccesses");
+        this.scheduleFailures = !params.isNull("scheduleFailures");
+        this.scheduleScheduleds = !params.isNull("scheduleScheduleds");
+        this.forceRevisit = !params.isNull("forceRevisit");
+        this.includeScope = params.isNull("scopeIncludes") ? null : scope;
+        this.scheduleScope = params.isNull("scopeScheduleds") ? null : scope;
+        this.threads = params.optInt("recoveryThreads",
+                Runtime.getRuntime().availableProcessors());
+        String dir = params.optString("spillDir", null);
+        this.spillDir = (dir == null) ? null : new File(dir);
+        this.chunksInFlight = new Semaphore(threads * 4);
+        final AtomicInteger serial = new AtomicInteger(0);
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "recoveryWorker-" + serial.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Read the whole journal once, considering-included the URIs of
+     * lines of included types, and setting aside lines of scheduled
+     * types for importQueues(). If this throws, the worker pool is shut
+     * down and nothing is set aside.
+     *
+     * @param source recovery journal (may be .gz compressed)
+     * @return number of lines in the journal
+     * @throws IOException
+     */
+    public long importCompletions(File source) throws IOException {
+        final BlockingQueue<List<Parsed>> batches =
+            new ArrayBlockingQueue<List<Parsed>>(threads * 2);
+        final List<Parsed> endOfBatches = new ArrayList<Parsed>(0);
+        Thread loader = new Thread("recoveryLoader") {
+            public void run() {
+                try {
+                    List<Parsed> batch;
+                    while ((batch = batches.take()) != endOfBatches) {
+                        for (Parsed parsed : batch) {
+                            try {
+                                target.include(parsed.curi, parsed.line);
+                            } catch (RuntimeException e) {
+                                LOGGER.log(Level.SEVERE, "exception during " +
+                                        "log-recovery of completions ", e);
+                            }
+                        }
+                        included.addAndGet(batch.size());
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "interrupted", e);
+                }
+            }
+        };
+        loader.setDaemon(true);
+        loader.start();
+
+        long startMs = System.currentTimeMillis();
+        boolean completed = false;
+        try {
+            File dir = (spillDir != null) ? spillDir : source.getAbsoluteFile().getParentFile();
+            spillFile = File.createTempFile(source.getName() + ".", ".spill.gz", dir);
+            Writer spill = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(spillFile), 64 * 1024) {
+                        {
+                            def.setLevel(Deflater.BEST_SPEED);
+                        }
+                    }), 64 * 1024);
+            List<String> chunk = new ArrayList<String>(CHUNK_LINES);
+            try {
+                BufferedReader br = ArchiveUtils.getBufferedReader(source);
+                try {
+                    String read;
+                    while ((read = br.readLine()) != null) {
+                        lines++;
+                        if (read.length() >= 4) {
+                            String lineType = read.substring(0, 3);
+                            if (includeSuccesses && F_SUCCESS.equals(lineType)
+                                    || includeFailures && F_FAILURE.equals(lineType)
+                                    || includeScheduleds && F_ADD.equals(lineType)) {
+                                chunk.add(read);
+                                if (chunk.size() == CHUNK_LINES) {
+                                    submitIncludes(chunk, batches);
+                                    chunk = new ArrayList<String>(CHUNK_LINES);
+                                }
+                            }
+                            if (scheduleSuccesses && F_SUCCESS.equals(lineType)
+                                    || scheduleFailures && F_FAILURE.equals(lineType)
+                                    || scheduleScheduleds && F_ADD.equals(lineType)) {
+                                spill.write(read);
+                                spill.write('\n');
+                                spilledLines++;
+                            }
+                        }
+                        if ((lines % PROGRESS_INTERVAL) == 0) {
+                            LOGGER.info("at line " + lines + " alreadyIncluded count = "
+                                    + included.get() + " ("
+                                    + (lines * 1000 / Math.max(1, System.currentTimeMillis() - startMs))
+                                    + " lines/sec)");
+                        }
+                    }
+                } catch (EOFException e) {
+                    // expected in some uncleanly-closed recovery logs; ignore
+                } finally {
+                    br.close();
+                }
+            } finally {
+                spill.close();
+            }
+            if (!chunk.isEmpty()) {
+                submitIncludes(chunk, batches);
+            }
+            // wait for all chunks to be parsed
+            acquireAllChunks();
+            checkFailure();
+            completed = true;
+        } finally {
+            if (!completed) {
+                pool.shutdownNow();
+                if (spillFile != null) {
+                    spillFile.delete();
+                }
+            }
+            // let the loader finish what was parsed, and end
+            try {
+                batches.put(endOfBatches);
+                loader.join();
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "interrupted", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        target.includesDone();
+        LOGGER.info("read " + lines + " lines, considered-included "
+                + included.get() + ", set aside " + spilledLines
+                + " to schedule, in "
+                + (System.currentTimeMillis() - startMs) + "ms");
+        return lines;
+    }
+
+    protected void submitIncludes(final List<String> chunk,
+            final BlockingQueue<List<Parsed>> batches) {
+        checkFailure();
+        acquireChunk();
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    List<Parsed> batch = new ArrayList<Parsed>(chunk.size());
+                    for (String read : chunk) {
+                        CrawlURI curi = parse(read, includeScope);
+                        if (curi != null) {
+                            batch.add(new Parsed(curi, read));
+                        }
+                    }
+                    Collections.sort(batch, BY_URI);
+                    batches.put(batch);
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "interrupted", e);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    chunksInFlight.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedule the URIs of all set-aside lines, parsed on the worker
+     * threads and scheduled, in journal order, by one scheduler thread.
+     * Counts down the latch each time a multiple of 'enough' URIs have
+     * been queued, and at the end (however it ends).
+     *
+     * @param enough latch signalling 'enough' URIs queued to begin crawling
+     * @param enoughCount number of queued URIs considered 'enough'
+     */
+    public void importQueues(final CountDownLatch enough, final long enoughCount) {
+        final long queuedAtStart = target.queuedCount();
+        final AtomicLong scheduled = new AtomicLong(0);
+        final AtomicLong failedChunks = new AtomicLong(0);
+        // parsed chunks, in journal order; bounds chunks read ahead
+        final BlockingQueue<Future<List<CrawlURI>>> chunks =
+            new ArrayBlockingQueue<Future<List<CrawlURI>>>(threads * 4);
+        final Future<List<CrawlURI>> endOfChunks =
+            new FutureTask<List<CrawlURI>>(new Callable<List<CrawlURI>>() {
+                public List<CrawlURI> call() {
+                    return null;
+                }
+            });
+        Thread scheduler = new Thread("recoveryScheduler") {
+            public void run() {
+                try {
+                    Future<List<CrawlURI>> next;
+                    while ((next = chunks.take()) != endOfChunks) {
+                        List<CrawlURI> curis;
+                        try {
+                            curis = next.get();
+                        } catch (ExecutionException e) {
+                            failedChunks.incrementAndGet();
+                            LOGGER.log(Level.SEVERE, "exception during " +
+                                    "log-recovery of queue contents; " +
+                                    "skipping chunk", e.getCause());
+                            continue;
+                        }
+                        for (CrawlURI curi : curis) {
+                            try {
+                                target.schedule(curi);
+                            } catch (RuntimeException e) {
+                                LOGGER.log(Level.SEVERE, "exception during " +
+                                        "log-recovery of queue contents ",e);
+                                // and continue, though this may be risky
+                                // if the exception wasn't a trivial NPE
+                                // or wrapped interrupted-exception...
+                                continue;
+                            }
+                            scheduled.incrementAndGet();
+                        }
+                        if (target.queuedCount() - queuedAtStart >= enoughCount) {
+                            enough.countDown();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "interrupted", e);
+                }
+            }
+        };
+        scheduler.setDaemon(true);
+        scheduler.start();
+
+        long qLines = 0;
+        long startMs = System.currentTimeMillis();
+        try {
+            BufferedReader br = ArchiveUtils.getBufferedReader(spillFile);
+            List<String> chunk = new ArrayList<String>(CHUNK_LINES);
+            try {
+                String read;
+                while ((read = br.readLine()) != null) {
+                    qLines++;
+                    chunk.add(read);
+                    if (chunk.size() == CHUNK_LINES) {
+                        submitSchedules(chunk, chunks);
+                        chunk = new ArrayList<String>(CHUNK_LINES);
+                    }
+                    if ((qLines % PROGRESS_INTERVAL) == 0) {
+                        LOGGER.info("through line " + qLines + "/" + spilledLines
+                                + " queued count = " + target.queuedCount());
+                    }
+                }
+            } catch (EOFException e) {
+                // no problem: untidy end of spill
+            } finally {
+                br.close();
+            }
+            if (!chunk.isEmpty()) {
+                submitSchedules(chunk, chunks);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "problem importing queues", e);
+        } finally {
+            // let the scheduler finish what was submitted, and end
+            try {
+                chunks.put(endOfChunks);
+                scheduler.join();
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "interrupted", e);
+                Thread.currentThread().interrupt();
+            }
+            pool.shutdownNow();
+            spillFile.delete();
+            enough.countDown();
+        }
+        if (failedChunks.get() > 0) {
+            LOGGER.severe("recovering queues skipped " + failedChunks.get()
+                    + " chunk(s) of up to " + CHUNK_LINES + " lines each, "
+                    + "after exceptions logged above");
+        }
+        LOGGER.info("finished recovering queues: " + qLines
+                + " lines processed, " + scheduled.get() + " scheduled, in "
+                + (System.currentTimeMillis() - startMs) + "ms");
+    }
+
+    protected void submitSchedules(final List<String> chunk,
+            BlockingQueue<Future<List<CrawlURI>>> chunks) {
+        Future<List<CrawlURI>> parsed = pool.submit(
+                new Callable<List<CrawlURI>>() {
+            public List<CrawlURI> call() {
+                List<CrawlURI> curis = new ArrayList<CrawlURI>(chunk.size());
+                for (String read : chunk) {
+                    CrawlURI curi = parse(read, scheduleScope);
+                    if (curi != null) {
+                        curi.setForceFetch(forceRevisit);
+                        curis.add(curi);
+                    }
+                }
+                return curis;
+            }
+        });
+        try {
+            chunks.put(parsed);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected void acquireChunk() {
+        try {
+            chunksInFlight.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wait until no chunk is still being parsed.
+     */
+    protected void acquireAllChunks() {
+        try {
+            chunksInFlight.acquire(threads * 4);
+            chunksInFlight.release(threads * 4);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Rethrow, wrapped, the first exception thrown by a worker, if any.
+     */
+    protected void checkFailure() {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new RuntimeException("problem in recovery worker", t);
+        }
+    }
+
+    /**
+     * Parse the URI of a journal line, returning null if unparseable or
+     * (given a scope) out of scope.
+     */
+    protected CrawlURI parse(String read, DecideRule scope) {
+        try {
+            CrawlURI curi = CrawlURI.fromHopsViaString(read.substring(3));
+            if (scope != null && !scope.accepts(curi)) {
+                return null;
+            }
+            return curi;
+        } catch (URIException e) {
+            parseErrors.incrementAndGet();
+            LOGGER.log(Level.WARNING,"bad hopsViaString: "+read.substring(3),e);
+            return null;
+        }
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getIncluded() {
+        return included.get();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.util.iterator.CompositeIterator;
+
+/**
+ * A queue of ready WorkQueue keys split into several independently-locked
+ * shards, chosen by classKey hash. Each ToeThread polls starting from its
+ * own 'home' shard, falling through to the others only when that shard is
+ * empty, so that hundreds of threads taking ready queues do not all
+ * serialize on a single LinkedBlockingQueue take-lock.
+ *
+ * Strict FIFO order holds only within a shard; across shards, order is
+ * approximate, which is fine for ready queues (all of which are at the
+ * same, highest-waiting precedence when placed here).
+ */
+public class ShardedReadyQueues extends AbstractQueue<String>
+implements BlockingQueue<String> {
+
+    /** shards; each holds a subset of ready queue keys */
+    protected LinkedBlockingQueue<String>[] shards;
+
+    /** source of home-shard assignments for polling threads */
+    protected AtomicInteger nextHome = new AtomicInteger(0);
+    protected ThreadLocal<Integer> homeShard = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return (nextHome.getAndIncrement() & Integer.MAX_VALUE) % shards.length;
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    public ShardedReadyQueues(int shardCount) {
+        if(shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: "+shardCount);
+        }
+        shards = new LinkedBlockingQueue[shardCount];
+        for(int i = 0; i < shardCount; i++) {
+            shards[i] = new LinkedBlockingQueue<String>();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    protected LinkedBlockingQueue<String> shardFor(String key) {
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    public boolean offer(String key) {
+        return shardFor(key).offer(key);
+    }
+
+    public void put(String key) throws InterruptedException {
+        shardFor(key).put(key);
+    }
+
+    public boolean offer(String key, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return shardFor(key).offer(key, timeout, unit);
+    }
+
+    /**
+     * Poll each shard in turn, starting from the calling thread's home
+     * shard.
+     *
+     * @see java.util.Queue#poll()
+     */
+    public String poll() {
+        int home = homeShard.get();
+        for(int i = 0; i < shards.length; i++) {
+            LinkedBlockingQueue<String> shard = shards[(home + i) % shards.length];
+            if(shard.isEmpty()) {
+                // cheap unlocked check skips contention on empty shards
+                continue;
+            }
+            String key = shard.poll();
+            if(key != null) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    public String take() throws InterruptedException {
+        String key;
+        while((key = poll(1, TimeUnit.SECONDS)) == null) {
+            // keep waiting
+        }
+        return key;
+    }
+
+    /**
+     * Poll all shards; if nothing available, wait on the home shard only
+     * (in slices, to notice keys arriving on other shards).
+     *
+     * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+     */
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        LinkedBlockingQueue<String> home = shards[homeShard.get()];
+        while(true) {
+            String key = poll();
+            if(key != null) {
+                return key;
+            }
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) {
+                return null;
+            }
+            key = home.poll(
+                    Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)),
+                    TimeUnit.NANOSECONDS);
+            if(key != null) {
+                return key;
+            }
+        }
+    }
+
+    public String peek() {
+        int home = homeShard.get();
+        for(int i = 0; i < shards.length; i++) {
+            String key = shards[(home + i) % shards.length].peek();
+            if(key != null) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if(!(o instanceof String)) {
+            return false;
+        }
+        return shardFor((String)o).remove(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if(!(o instanceof String)) {
+            return false;
+        }
+        return shardFor((String)o).contains(o);
+    }
+
+    public int remainingCapacity() {
+        long total = 0;
+        for(LinkedBlockingQueue<String> shard : shards) {
+            total += shard.remainingCapacity();
+        }
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super String> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super String> c, int maxElements) {
+        int drained = 0;
+        for(int i = 0; i < shards.length && drained < maxElements; i++) {
+            drained += shards[i].drainTo(c, maxElements - drained);
+        }
+        return drained;
+    }
+
+    /**
+     * Weakly consistent iterator over all shards in turn (as used for
+     * reports and checkpointing). Does not support remove().
+     *
+     * @see java.util.AbstractCollection#iterator()
+     */
+    @Override
+    public Iterator<String> iterator() {
+        CompositeIterator<String> iter = new CompositeIterator<String>();
+        for(LinkedBlockingQueue<String> shard : shards) {
+            iter.add(shard.iterator());
+        }
+        return iter;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for(LinkedBlockingQueue<String> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for(LinkedBlockingQueue<String> shard : shards) {
+            if(!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -44,8 +44,12 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -170,6 +174,42 @@ implements Closeable,
         this.precedenceFloor = floor;
     }
 
+    /**
+     * Number of independently-locked shards to split the ready queues
+     * into. The default of 1 keeps the classic single ready queue. Values
+     * greater than 1 enable a concurrent mode suited to hundreds of 
+     * ToeThreads: ready queue keys are spread over shards by classKey hash, 
+     * only one thread at a time performs snoozed-queue waking and future-URI
+     * checks (others go straight to taking ready queues), inactive queues
+     * are activated in batches (see activationBatchSize), and queues are 
+     * deactivated without any frontier-wide lock. (The set of in-process
+     * queues is a concurrent set in either mode, updated without locking
+     * the frontier.) Must be set before the frontier is started.
+     */
+    protected int readyQueueShards = 1; 
+    public int getReadyQueueShards() {
+        return this.readyQueueShards;
+    }
+    public void setReadyQueueShards(int shards) {
+        this.readyQueueShards = shards;
+    }
+
+    /**
+     * In sharded mode (readyQueueShards greater than 1), the most inactive
+     * queues activated at once by a thread finding no ready queues. Larger
+     * batches mean fewer trips through the activation lock for crawls 
+     * with many ToeThreads, at the cost of activating queues sooner than
+     * strictly necessary. Ignored in classic mode, which activates one 
+     * queue at a time.
+     */
+    protected int activationBatchSize = 8; 
+    public int getActivationBatchSize() {
+        return this.activationBatchSize;
+    }
+    public void setActivationBatchSize(int size) {
+        this.activationBatchSize = size;
+    }
+
     /** truncate reporting of queues at this large but not unbounded number */
     protected int maxQueuesPerReportCategory = 2000; 
     public int getMaxQueuesPerReportCategory() {
@@ -217,7 +257,32 @@ implements Closeable,
         largestQueues.setMaxSize(count);
     }
     
-    protected int highestPrecedenceWaiting = Integer.MAX_VALUE;
+    /**
+     * Hint as to the highest precedence (lowest value) of any inactive 
+     * queue: never higher than the true value, though perhaps lower. The 
+     * low 32 bits hold the precedence; the high 32 bits a version, bumped
+     * on every change, so that a recalculation racing with a deactivation
+     * (in sharded mode, where no lock is held) cannot overwrite the lower
+     * value the deactivation set. See lowerHighestWaiting() and 
+     * updateHighestWaiting().
+     */
+    protected AtomicLong highestPrecedenceWaiting = 
+        new AtomicLong(Integer.MAX_VALUE);
+    
+    /**
+     * @return highest precedence (lowest value) of any inactive queue, or
+     * Integer.MAX_VALUE if none
+     */
+    protected int getHighestPrecedenceWaiting() {
+        return (int) highestPrecedenceWaiting.get();
+    }
+    
+    /** whether some thread is already waking queues/checking futures 
+     * (only consulted in sharded mode) */
+    protected AtomicBoolean housekeepingInProgress = new AtomicBoolean(false);
+    
+    /** held while activating a batch of inactive queues (sharded mode) */
+    protected ReentrantLock activationLock = new ReentrantLock();
 
     /** The UriUniqFilter to use, tracking those UURIs which are 
      * already in-process (or processed), and thus should not be 
@@ -279,6 +344,19 @@ implements Closeable,
         }
     }
     
+    /**
+     * Create the queue of ready queue keys: a plain LinkedBlockingQueue, or
+     * a ShardedReadyQueues if readyQueueShards is greater than 1.
+     * 
+     * @return BlockingQueue<String> for names of ready queues
+     */
+    protected BlockingQueue<String> createReadyClassQueues() {
+        if(getReadyQueueShards() > 1) {
+            return new ShardedReadyQueues(getReadyQueueShards());
+        }
+        return new LinkedBlockingQueue<String>();
+    }
+    
     /**
      * Initialize the allQueues field in an implementation-appropriate
      * way.
@@ -447,10 +525,16 @@ implements Closeable,
                 System.err.println("deactivate empty queue?");
             }
 
-            synchronized (getInactiveQueuesByPrecedence()) {
+            if(getReadyQueueShards() > 1) {
+                // no frontier-wide lock: the inactive queues accept 
+                // concurrent adds, and the versioned hint tolerates a 
+                // concurrent recalculation
                 getInactiveQueuesForPrecedence(precedence).add(wq.getClassKey());
-                if(wq.getPrecedence() < highestPrecedenceWaiting ) {
-                    highestPrecedenceWaiting = wq.getPrecedence();
+                lowerHighestWaiting(wq.getPrecedence());
+            } else {
+                synchronized (getInactiveQueuesByPrecedence()) {
+                    getInactiveQueuesForPrecedence(precedence).add(wq.getClassKey());
+                    lowerHighestWaiting(wq.getPrecedence());
                 }
             }
 
@@ -473,8 +557,14 @@ implements Closeable,
             getInactiveQueuesByPrecedence();
         Queue<String> candidate = inactiveQueuesByPrecedence.get(precedence);
         if(candidate==null) {
-            candidate = createInactiveQueueForPrecedence(precedence);
-            inactiveQueuesByPrecedence.put(precedence,candidate);
+            // rare; lock only to avoid creating the same queue twice
+            synchronized (inactiveQueuesByPrecedence) {
+                candidate = inactiveQueuesByPrecedence.get(precedence);
+                if(candidate==null) {
+                    candidate = createInactiveQueueForPrecedence(precedence);
+                    inactiveQueuesByPrecedence.put(precedence,candidate);
+                }
+            }
         }
         return candidate;
     }
@@ -578,10 +668,8 @@ implements Closeable,
      * @see org.archive.crawler.framework.Frontier#next()
      */
     protected CrawlURI findEligibleURI() {
-            // wake any snoozed queues
-            wakeQueues();
-            // consider rescheduled URIS
-            checkFutures();
+            // wake any snoozed queues, consider rescheduled URIs
+            wakeQueuesAndCheckFutures();
                    
             // find a non-empty ready queue, if any 
             // TODO: refactor to untangle these loops, early-exits, etc!
@@ -592,8 +680,8 @@ implements Closeable,
                     if(key==null) {
                         // no ready queues; try to activate one
                         if(!getInactiveQueuesByPrecedence().isEmpty() 
-                            && highestPrecedenceWaiting < getPrecedenceFloor()) {
-                            activateInactiveQueue();
+                            && getHighestPrecedenceWaiting() < getPrecedenceFloor()) {
+                            activateInactiveQueues();
                             continue findaqueue;
                         } else {
                             // nothing ready or readyable
@@ -712,7 +800,7 @@ implements Closeable,
                 }
             }
                 
-            if(inProcessQueues.size()==0) {
+            if(inProcessQueues.isEmpty()) {
                 // Nothing was ready or in progress or imminent to wake; ensure 
                 // any piled-up pending-scheduled URIs are considered
                 uriUniqFilter.requestFlush();
@@ -733,6 +821,57 @@ implements Closeable,
             return null; 
     }
 
+    /**
+     * Wake any snoozed queues whose time has come, and consider any 
+     * rescheduled URIs now due. In sharded mode, only one thread at a time
+     * does this housekeeping; others skip it and go straight to taking 
+     * ready queues, rather than all piling up on the same monitors.
+     */
+    protected void wakeQueuesAndCheckFutures() {
+        if(getReadyQueueShards() <= 1) {
+            wakeQueues();
+            checkFutures();
+            return;
+        }
+        if(!housekeepingInProgress.compareAndSet(false, true)) {
+            // another thread is already on it
+            return;
+        }
+        try {
+            wakeQueues();
+            checkFutures();
+        } finally {
+            housekeepingInProgress.set(false);
+        }
+    }
+
+    /**
+     * Activate inactive queues when none are ready. In sharded mode, 
+     * threads finding no ready queues wait their turn on a single lock; the 
+     * first activates a batch of up to activationBatchSize queues, and those
+     * following find ready queues already available and activate nothing.
+     */
+    protected void activateInactiveQueues() {
+        if(getReadyQueueShards() <= 1) {
+            activateInactiveQueue();
+            return;
+        }
+        activationLock.lock();
+        try {
+            if(!readyClassQueues.isEmpty()) {
+                // another thread activated queues while we waited
+                return;
+            }
+            for(int i = 0; i < getActivationBatchSize(); i++) {
+                if(!activateInactiveQueue()) {
+                    break;
+                }
+            }
+        } finally {
+            activationLock.unlock();
+        }
+    }
+
     /**
      * Check for any future-scheduled URIs now eligible for reenqueuing
      */
@@ -765,12 +904,22 @@ implements Closeable,
 
             while (true) {
                 String workQueueKey;
-                synchronized (getInactiveQueuesByPrecedence()) {
+                if (getReadyQueueShards() > 1) {
+                    // StoredQueue.poll() is itself synchronized, and the
+                    // versioned hint tolerates concurrent deactivations
                     workQueueKey = queueOfWorkQueueKeys.poll();
                     if (workQueueKey == null) {
                         break;
                     }
                     updateHighestWaiting(expectedPrecedence);
+                } else {
+                    synchronized (getInactiveQueuesByPrecedence()) {
+                        workQueueKey = queueOfWorkQueueKeys.poll();
+                        if (workQueueKey == null) {
+                            break;
+                        }
+                        updateHighestWaiting(expectedPrecedence);
+                    }
                 }
 
                 WorkQueue candidateQ = (WorkQueue) this.allQueues.get(workQueueKey);
@@ -801,15 +950,45 @@ implements Closeable,
      * @param startFrom start looking at this precedence value
      */
     protected void updateHighestWaiting(int startFrom) {
+        long before = highestPrecedenceWaiting.get();
         // probe for new highestWaiting
+        int highest = Integer.MAX_VALUE; // nothing waiting
         for(int precedenceKey : getInactiveQueuesByPrecedence().tailMap(startFrom).keySet()) {
             if(!getInactiveQueuesByPrecedence().get(precedenceKey).isEmpty()) {
-                highestPrecedenceWaiting = precedenceKey;
+                highest = precedenceKey;
+                break;
+            }
+        }
+        // if a deactivation changed the hint meanwhile, keep its value
+        highestPrecedenceWaiting.compareAndSet(before, 
+                nextHighestWaiting(before, highest));
+    }
+
+    /**
+     * Note that a queue of the given precedence has become inactive, 
+     * lowering the highest-waiting hint if necessary. Always bumps the 
+     * hint's version, so any recalculation begun before the queue was
+     * added will not be stored. 
+     * 
+     * @param precedence precedence of newly inactive queue
+     */
+    protected void lowerHighestWaiting(int precedence) {
+        while(true) {
+            long before = highestPrecedenceWaiting.get();
+            int highest = Math.min((int) before, precedence);
+            if(highestPrecedenceWaiting.compareAndSet(before, 
+                    nextHighestWaiting(before, highest))) {
                 return;
             }
         }
-        // nothing waiting
-        highestPrecedenceWaiting = Integer.MAX_VALUE;
+    }
+    
+    /**
+     * @return hint value holding given precedence, with version following
+     * that of the given prior hint value
+     */
+    protected static long nextHighestWaiting(long before, int precedence) {
+        return ((before >>> 32) + 1) << 32 | (precedence & 0xFFFFFFFFL);
     }
 
     /**
@@ -823,7 +1002,7 @@ implements Closeable,
             logger.fine("queue reenqueued: " +
                 wq.getClassKey());
         }
-        if(highestPrecedenceWaiting < wq.getPrecedence() 
+        if(getHighestPrecedenceWaiting() < wq.getPrecedence() 
             || wq.getPrecedence() >= getPrecedenceFloor()) {
             // if still over budget, deactivate
             deactivateQueue(wq);
@@ -1274,6 +1453,11 @@ implements Closeable,
         writer.print("\n");
         writer.print("                         Ready: ");
         writer.print(readyCount);
+        if(getReadyQueueShards() > 1) {
+            writer.print(" (");
+            writer.print(getReadyQueueShards());
+            writer.print(" shards)");
+        }
         writer.print("\n");
         writer.print("                       Snoozed: ");
         writer.print(snoozedCount);
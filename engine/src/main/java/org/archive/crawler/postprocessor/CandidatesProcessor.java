@@ -144,6 +144,17 @@ public class CandidatesProcessor extends Processor {
         return true;
     }
 
+    /**
+     * Scheduling outlinks neither reads what archive writers record about
+     * a URI nor changes what they write, so can overlap asynchronous writes.
+     * 
+     * @see org.archive.modules.Processor#allowsPendingWork()
+     */
+    @Override
+    public boolean allowsPendingWork() {
+        return true;
+    }
+
     /**
      * Run candidatesChain on a single candidate CrawlURI; if its
      * reported status is nonnegative, schedule to frontier. 
@@ -220,6 +231,8 @@ public class CandidatesProcessor extends Processor {
         // Only consider candidate links of error pages if configured to do so
         if (!getProcessErrorOutlinks() 
                 && (curi.getFetchStatus() < 200 || curi.getFetchStatus() >= 400)) {
+            // outlinks may still be in use by a pending metadata write
+            curi.awaitPendingWork();
             curi.getOutLinks().clear();
             return;
         }
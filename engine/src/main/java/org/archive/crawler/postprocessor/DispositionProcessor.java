@@ -27,7 +27,6 @@ import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_LOST;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEEMED_NOT_FOUND;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEFERRED;
 
-import java.util.Map;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
@@ -229,9 +228,8 @@ public class DispositionProcessor extends Processor {
      */
     protected long politenessDelayFor(CrawlURI curi) {
         long durationToWait = 0;
-        Map<String,Object> cdata = curi.getData();
-        if (cdata.containsKey(A_FETCH_BEGAN_TIME)
-                && cdata.containsKey(A_FETCH_COMPLETED_TIME)) {
+        if (curi.containsDataKey(A_FETCH_BEGAN_TIME)
+                && curi.containsDataKey(A_FETCH_COMPLETED_TIME)) {
 
             long completeTime = curi.getFetchCompletedTime();
             long durationTaken = (completeTime - curi.getFetchBeginTime());
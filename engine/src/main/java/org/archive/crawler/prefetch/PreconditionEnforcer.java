@@ -35,6 +35,7 @@ import org.archive.modules.ProcessResult;
 import org.archive.modules.Processor;
 import org.archive.modules.credential.Credential;
 import org.archive.modules.credential.CredentialStore;
+import org.archive.modules.fetcher.AsyncDnsResolver;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.RobotsPolicy;
@@ -144,6 +145,20 @@ public class PreconditionEnforcer extends Processor  {
         this.loggerModule = loggerModule;
     }
     
+    /**
+     * If present, started on each host's lookup as soon as its dns:
+     * prerequisite is scheduled, so the lookup is usually complete by
+     * the time FetchDNS processes that URI.
+     */
+    protected AsyncDnsResolver asyncResolver;
+    public AsyncDnsResolver getAsyncResolver() {
+        return this.asyncResolver;
+    }
+    @Autowired(required=false)
+    public void setAsyncResolver(AsyncDnsResolver asyncResolver) {
+        this.asyncResolver = asyncResolver;
+    }
+    
     public PreconditionEnforcer() {
         super();
     }
@@ -312,6 +327,9 @@ public class PreconditionEnforcer extends Processor  {
             } catch (URIException e) {
                 throw new RuntimeException(e); // shouldn't ever happen
             }
+            if (getAsyncResolver() != null) {
+                getAsyncResolver().prefetch(ch.getHostName());
+            }
             return true;
         }
         
@@ -74,13 +74,14 @@ public class CrawlStatSnapshot {
     public void collect(CrawlController controller, StatisticsTracker stats) {
         // TODO: reconsider names of these methods, inline?    
         downloadedUriCount = controller.getFrontier().succeededFetchCount();
-        bytesProcessed = stats.crawledBytes.getTotalBytes();
+        CrawledBytesHistotable crawledBytes = stats.getCrawledBytes();
+        bytesProcessed = crawledBytes.getTotalBytes();
         timestamp = System.currentTimeMillis();
         
-        novelBytes = stats.crawledBytes.get(CrawledBytesHistotable.NOVEL);
-        novelUriCount = stats.crawledBytes.get(CrawledBytesHistotable.NOVELCOUNT);
-        warcNovelBytes = stats.crawledBytes.get(CrawledBytesHistotable.WARC_NOVEL_CONTENT_BYTES);
-        warcNovelUriCount = stats.crawledBytes.get(CrawledBytesHistotable.WARC_NOVEL_URLS);
+        novelBytes = crawledBytes.get(CrawledBytesHistotable.NOVEL);
+        novelUriCount = crawledBytes.get(CrawledBytesHistotable.NOVELCOUNT);
+        warcNovelBytes = crawledBytes.get(CrawledBytesHistotable.WARC_NOVEL_CONTENT_BYTES);
+        warcNovelUriCount = crawledBytes.get(CrawledBytesHistotable.WARC_NOVEL_URLS);
         
         elapsedMilliseconds = stats.getCrawlElapsedTime();
         discoveredUriCount = controller.getFrontier().discoveredUriCount();
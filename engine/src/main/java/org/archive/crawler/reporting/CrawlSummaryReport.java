@@ -34,6 +34,7 @@ public class CrawlSummaryReport extends Report {
     @Override
     public void write(PrintWriter writer, StatisticsTracker stats) {
         CrawlStatSnapshot snapshot = stats.getLastSnapshot(); 
+        CrawledBytesHistotable crawledBytes = stats.getCrawledBytes();
         writer.println("crawl name: " + stats.getCrawlController().getMetadata().getJobName());
         writer.println("crawl status: " + stats.getCrawlController().getCrawlExitStatus().desc);
         writer.println("duration: " +
@@ -58,18 +59,18 @@ public class CrawlSummaryReport extends Report {
         writer.println();
         
         // novel/duplicate/not-modified URI counts
-        writer.println("novel URIs: " + stats.crawledBytes.get(
+        writer.println("novel URIs: " + crawledBytes.get(
                 CrawledBytesHistotable.NOVELCOUNT));
-        if(stats.crawledBytes.containsKey(CrawledBytesHistotable.
+        if(crawledBytes.containsKey(CrawledBytesHistotable.
                 DUPLICATECOUNT)) {
             writer.println("duplicate-by-hash URIs: " + 
-                    stats.crawledBytes.get(CrawledBytesHistotable.
+                    crawledBytes.get(CrawledBytesHistotable.
                             DUPLICATECOUNT));
         }
-        if(stats.crawledBytes.containsKey(CrawledBytesHistotable.
+        if(crawledBytes.containsKey(CrawledBytesHistotable.
                 NOTMODIFIEDCOUNT)) {
             writer.println("not-modified URIs: " +
-                    stats.crawledBytes.get(CrawledBytesHistotable.
+                    crawledBytes.get(CrawledBytesHistotable.
                             NOTMODIFIEDCOUNT)); 
         }
         writer.println();
@@ -81,22 +82,22 @@ public class CrawlSummaryReport extends Report {
                 ") ");
         // novel/duplicate/not-modified byte counts
         writer.println("novel crawled bytes: " 
-                + stats.crawledBytes.get(CrawledBytesHistotable.NOVEL)
+                + crawledBytes.get(CrawledBytesHistotable.NOVEL)
                 + " (" + ArchiveUtils.formatBytesForDisplay(
-                        stats.crawledBytes.get(CrawledBytesHistotable.NOVEL))
+                        crawledBytes.get(CrawledBytesHistotable.NOVEL))
                 +  ")");
-        if(stats.crawledBytes.containsKey(CrawledBytesHistotable.DUPLICATE)) {
+        if(crawledBytes.containsKey(CrawledBytesHistotable.DUPLICATE)) {
             writer.println("duplicate-by-hash crawled bytes: " 
-                    + stats.crawledBytes.get(CrawledBytesHistotable.DUPLICATE)
+                    + crawledBytes.get(CrawledBytesHistotable.DUPLICATE)
                     + " (" + ArchiveUtils.formatBytesForDisplay(
-                            stats.crawledBytes.get(CrawledBytesHistotable.DUPLICATE))
+                            crawledBytes.get(CrawledBytesHistotable.DUPLICATE))
                     +  ") ");
         }
-        if(stats.crawledBytes.containsKey(CrawledBytesHistotable.NOTMODIFIED)) {
+        if(crawledBytes.containsKey(CrawledBytesHistotable.NOTMODIFIED)) {
             writer.println("not-modified crawled bytes: " 
-                    + stats.crawledBytes.get(CrawledBytesHistotable.NOTMODIFIED)
+                    + crawledBytes.get(CrawledBytesHistotable.NOTMODIFIED)
                     + " (" + ArchiveUtils.formatBytesForDisplay(
-                            stats.crawledBytes.get(CrawledBytesHistotable.NOTMODIFIED))
+                            crawledBytes.get(CrawledBytesHistotable.NOTMODIFIED))
                     +  ") ");
         }
         writer.println();
@@ -40,6 +40,8 @@ import org.archive.crawler.io.StatisticsLogFormatter;
 import org.archive.crawler.io.UriErrorFormatter;
 import org.archive.crawler.io.UriProcessingFormatter;
 import org.archive.crawler.util.Logs;
+import org.archive.io.AsyncLogHandler;
+import org.archive.io.AsyncLogWriter;
 import org.archive.io.GenerationFileHandler;
 import org.archive.modules.SimpleFileLoggerProvider;
 import org.archive.modules.extractor.UriErrorLoggerModule;
@@ -84,6 +86,45 @@ public class CrawlerLoggerModule
     public void setLogExtraInfo(boolean logExtraInfo) {
         this.logExtraInfo = logExtraInfo;
     }
+
+    /**
+     * Whether to write crawl.log through a dedicated background writer
+     * thread, rather than a synchronized FileHandler. Each ToeThread then
+     * formats its own line and hands off the bytes without contending
+     * for a lock; the writer makes large sequential writes.
+     */
+    protected boolean asyncCrawlLog = false;
+    public boolean getAsyncCrawlLog() {
+        return asyncCrawlLog;
+    }
+    public void setAsyncCrawlLog(boolean asyncCrawlLog) {
+        this.asyncCrawlLog = asyncCrawlLog;
+    }
+
+    /**
+     * When asyncCrawlLog is enabled, whether to gzip crawl.log as it is
+     * written. ".gz" is appended to the crawl log filename if not already
+     * present. (The web UI's log viewer cannot display gzipped logs.)
+     */
+    protected boolean asyncCrawlLogGzip = false;
+    public boolean getAsyncCrawlLogGzip() {
+        return asyncCrawlLogGzip;
+    }
+    public void setAsyncCrawlLogGzip(boolean asyncCrawlLogGzip) {
+        this.asyncCrawlLogGzip = asyncCrawlLogGzip;
+    }
+
+    /**
+     * When asyncCrawlLog is enabled, how many lines may be waiting for
+     * the writer thread before logging threads must wait.
+     */
+    protected int asyncCrawlLogCapacity = AsyncLogWriter.DEFAULT_CAPACITY;
+    public int getAsyncCrawlLogCapacity() {
+        return asyncCrawlLogCapacity;
+    }
+    public void setAsyncCrawlLogCapacity(int asyncCrawlLogCapacity) {
+        this.asyncCrawlLogCapacity = asyncCrawlLogCapacity;
+    }
     
     // manifest support
     /** abbreviation label for config files in manifest */
@@ -200,6 +241,12 @@ public class CrawlerLoggerModule
      */
     transient private Map<Logger,FileHandler> fileHandlers;
 
+    /**
+     * Handler for crawl.log when asyncCrawlLog is enabled (in which case
+     * it is not among the fileHandlers), else null.
+     */
+    transient private AsyncLogHandler asyncCrawlLogHandler;
+
     private StringBuffer manifest = new StringBuffer();
     
     private transient AlertThreadGroup atg;
@@ -246,9 +293,13 @@ public class CrawlerLoggerModule
             logsPath);
 
         this.fileHandlers = new HashMap<Logger,FileHandler>();
-        setupLogFile(uriProcessing,
-            getCrawlLogPath().getFile().getAbsolutePath(),
-            new UriProcessingFormatter(getLogExtraInfo()), true);
+        if (getAsyncCrawlLog()) {
+            setupAsyncCrawlLog();
+        } else {
+            setupLogFile(uriProcessing,
+                getCrawlLogPath().getFile().getAbsolutePath(),
+                new UriProcessingFormatter(getLogExtraInfo()), true);
+        }
 
         setupLogFile(runtimeErrors,
             getRuntimeErrorsLogPath().getFile().getAbsolutePath(),
@@ -281,6 +332,22 @@ public class CrawlerLoggerModule
         this.fileHandlers.put(logger, fh);
     }
     
+    private void setupAsyncCrawlLog() throws IOException {
+        String filename = getCrawlLogPath().getFile().getAbsolutePath();
+        if (getAsyncCrawlLogGzip() && !filename.endsWith(".gz")) {
+            filename += ".gz";
+        }
+        AsyncLogWriter writer = new AsyncLogWriter(new File(filename),
+                getAsyncCrawlLogGzip(), getAsyncCrawlLogCapacity(),
+                AsyncLogWriter.DEFAULT_BUFFER_SIZE);
+        asyncCrawlLogHandler = new AsyncLogHandler(writer,
+                new UriProcessingFormatter(getLogExtraInfo()));
+        uriProcessing.setLevel(Level.INFO);
+        uriProcessing.addHandler(asyncCrawlLogHandler);
+        addToManifest(filename, MANIFEST_LOG_FILE, true);
+        uriProcessing.setUseParentHandlers(false);
+    }
+
     public Logger setupSimpleLog(String logName) {
         Logger logger = Logger.getLogger(logName + ".log");
         
@@ -340,6 +407,11 @@ public class CrawlerLoggerModule
             l.addHandler(newGfh);
             fileHandlers.put(l, newGfh);
         }
+        if (asyncCrawlLogHandler != null) {
+            File stored = asyncCrawlLogHandler.rotate(generationSuffix,
+                    mergeOld);
+            addToManifest(stored.getAbsolutePath(), MANIFEST_LOG_FILE, true);
+        }
     }
     
     /**
@@ -354,6 +426,12 @@ public class CrawlerLoggerModule
                 l.removeHandler(gfh);
             }
         }
+        if (asyncCrawlLogHandler != null) {
+            // remove first, so no new lines go to the closing writer
+            uriProcessing.removeHandler(asyncCrawlLogHandler);
+            asyncCrawlLogHandler.close();
+            asyncCrawlLogHandler = null;
+        }
     }
 
     
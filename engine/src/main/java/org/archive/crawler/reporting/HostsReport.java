@@ -20,13 +20,17 @@
 package org.archive.crawler.reporting;
 
 import java.io.PrintWriter;
-import java.util.Collection;
+import java.io.StringWriter;
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.collections.Transformer;
 import org.archive.bdb.DisposableStoredSortedMap;
 import org.archive.modules.net.CrawlHost;
 
+import com.sleepycat.collections.StoredIterator;
+
 /**
  * The "Hosts Report", tallies by host.
  * 
@@ -76,40 +80,60 @@ public class HostsReport extends Report {
 	
 	@Override
     public void write(final PrintWriter writer, StatisticsTracker stats) {
-    	Collection<String> keys = null;
-    	DisposableStoredSortedMap<Long, String> hd = null;
+        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes]\n"); 
     	if (maxSortSize<0 || maxSortSize>stats.serverCache.hostKeys().size()) {
-    		hd = stats.calcReverseSortedHostsDistribution();
-        	keys = hd.values();
+    	    // whole lines sorted on disk, in one pass over the hosts
+    		DisposableStoredSortedMap<Long, String> hd = 
+    		    stats.calcReverseSortedHostsDistribution(new Transformer() {
+    		        @Override
+    		        public Object transform(Object host) {
+    		            return reportLine((CrawlHost) host);
+    		        }
+    		    });
+    		Iterator<String> iter = hd.values().iterator();
+    		while (iter.hasNext()) {
+    		    writer.print(iter.next());
+    		}
+    		StoredIterator.close(iter);
+        	hd.dispose();
         } else {
-        	keys = stats.serverCache.hostKeys();
-        }
-        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes]\n"); 
-        for (String key : keys) {
-            // key is -count, value is hostname
-            try {
-                CrawlHost host = stats.serverCache.getHostFor(key);
-                long fetchSuccesses = host.getSubstats().getFetchSuccesses();
-                if (!suppressEmptyHosts || fetchSuccesses>0) {
-	                writeReportLine(writer,
-	                        fetchSuccesses,
-	                        host.getSubstats().getTotalBytes(),
-	                        host.fixUpName(),
-	                        host.getSubstats().getRobotsDenials(),
-	                        host.getSubstats().getRemaining(), 
-	                        host.getSubstats().getNovelUrls(),
-	                        host.getSubstats().getNovelBytes(),
-	                        host.getSubstats().getDupByHashUrls(),
-	                        host.getSubstats().getDupByHashBytes(),
-	                        host.getSubstats().getNotModifiedUrls(),
-	                        host.getSubstats().getNotModifiedBytes());
+            for (String key : stats.serverCache.hostKeys()) {
+                String line = reportLine(stats.serverCache.getHostFor(key));
+                if (line != null) {
+                    writer.print(line);
                 }
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "unable to tally host stats for " + key, e);
             }
         }
-        if (hd!=null) {
-        	hd.dispose();
+    }
+
+    /**
+     * @param host
+     * @return report line for host, or null if suppressed (or unavailable)
+     */
+    protected String reportLine(CrawlHost host) {
+        try {
+            long fetchSuccesses = host.getSubstats().getFetchSuccesses();
+            if (suppressEmptyHosts && fetchSuccesses<=0) {
+                return null;
+            }
+            StringWriter line = new StringWriter();
+            writeReportLine(new PrintWriter(line),
+                    fetchSuccesses,
+                    host.getSubstats().getTotalBytes(),
+                    host.fixUpName(),
+                    host.getSubstats().getRobotsDenials(),
+                    host.getSubstats().getRemaining(), 
+                    host.getSubstats().getNovelUrls(),
+                    host.getSubstats().getNovelBytes(),
+                    host.getSubstats().getDupByHashUrls(),
+                    host.getSubstats().getDupByHashBytes(),
+                    host.getSubstats().getNotModifiedUrls(),
+                    host.getSubstats().getNotModifiedBytes());
+            return line.toString();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "unable to tally host stats for " 
+                    + (host == null ? null : host.getHostName()), e);
+            return null;
         }
     }
 
@@ -0,0 +1,117 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.archive.util.IdentityCacheable;
+import org.archive.util.ObjectIdentityCache;
+
+import com.esotericsoftware.kryo.CustomSerialization;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.serialize.LongSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+
+/**
+ * Count of URIs from one host under one source tag (usually a seed),
+ * kept one per (source,host) pair in an ObjectIdentityCache, so that
+ * a broad crawl's many pairs may spill to disk.
+ *
+ * Keys are the source, a space, then the host; as neither contains
+ * spaces, a sorted iteration of keys visits each source's hosts
+ * together.
+ */
+public class SourceHostRecord implements IdentityCacheable, CustomSerialization {
+    private static final long serialVersionUID = 1L;
+
+    private static final AtomicLongFieldUpdater<SourceHostRecord> COUNT =
+        AtomicLongFieldUpdater.newUpdater(SourceHostRecord.class, "count");
+
+    protected String source;
+    protected String host;
+    protected volatile long count;
+
+    public SourceHostRecord(String source, String host) {
+        this.source = source;
+        this.host = host;
+    }
+
+    /* needed for kryo serialization */
+    protected SourceHostRecord() {
+    }
+
+    public static String keyFor(String source, String host) {
+        return source + " " + host;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Add to the count, and mark this record as needing to be written.
+     */
+    public void tally(long increment) {
+        COUNT.addAndGet(this, increment);
+        makeDirty();
+    }
+
+    @Override
+    public void writeObjectData(Kryo kryo, ByteBuffer buffer) {
+        StringSerializer.put(buffer, source);
+        StringSerializer.put(buffer, host);
+        LongSerializer.put(buffer, count, true);
+    }
+
+    @Override
+    public void readObjectData(Kryo kryo, ByteBuffer buffer) {
+        source = StringSerializer.get(buffer);
+        host = StringSerializer.get(buffer);
+        count = LongSerializer.get(buffer, true);
+    }
+
+    //
+    // IdentityCacheable support
+    //
+    transient private ObjectIdentityCache<?> cache;
+    @Override
+    public String getKey() {
+        return keyFor(source, host);
+    }
+
+    @Override
+    public void makeDirty() {
+        cache.dirtyKey(getKey());
+    }
+
+    @Override
+    public void setIdentityCache(ObjectIdentityCache<?> cache) {
+        this.cache = cache;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.archive.crawler.util.CrawledBytesHistotable;
+import org.archive.modules.CrawlURI;
+import org.archive.util.ConcurrentHistotable;
+import org.archive.util.Histotable;
+import org.archive.util.IdentityCacheable;
+import org.archive.util.ObjectIdentityCache;
+
+import com.esotericsoftware.kryo.CustomSerialization;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.LongSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+
+/**
+ * Crawled-bytes tallies (as in {@link CrawledBytesHistotable}) for one
+ * source tag (usually a seed), kept one per source in an
+ * ObjectIdentityCache, so that crawls with many seeds may spill to disk.
+ */
+public class SourceStatsRecord implements IdentityCacheable, CustomSerialization {
+    private static final long serialVersionUID = 1L;
+
+    protected String source;
+    protected ConcurrentHistotable<String> tallies =
+        new ConcurrentHistotable<String>();
+
+    public SourceStatsRecord(String source) {
+        this.source = source;
+    }
+
+    /* needed for kryo serialization */
+    protected SourceStatsRecord() {
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return live tallies
+     */
+    public ConcurrentHistotable<String> getTallies() {
+        return tallies;
+    }
+
+    /**
+     * Tally the given URI's bytes, and mark this record as needing to
+     * be written.
+     */
+    public void accumulate(CrawlURI curi) {
+        CrawledBytesHistotable.accumulate(curi, tallies);
+        makeDirty();
+    }
+
+    @Override
+    public void writeObjectData(Kryo kryo, ByteBuffer buffer) {
+        StringSerializer.put(buffer, source);
+        Histotable<String> totals = tallies.snapshot();
+        IntSerializer.put(buffer, totals.size(), true);
+        for (Map.Entry<String,Long> entry : totals.entrySet()) {
+            StringSerializer.put(buffer, entry.getKey());
+            LongSerializer.put(buffer, entry.getValue(), false);
+        }
+    }
+
+    @Override
+    public void readObjectData(Kryo kryo, ByteBuffer buffer) {
+        source = StringSerializer.get(buffer);
+        tallies = new ConcurrentHistotable<String>();
+        int size = IntSerializer.get(buffer, true);
+        for (int i = 0; i < size; i++) {
+            String key = StringSerializer.get(buffer);
+            tallies.tally(key, LongSerializer.get(buffer, false));
+        }
+    }
+
+    //
+    // IdentityCacheable support
+    //
+    transient private ObjectIdentityCache<?> cache;
+    @Override
+    public String getKey() {
+        return source;
+    }
+
+    @Override
+    public void makeDirty() {
+        cache.dirtyKey(getKey());
+    }
+
+    @Override
+    public void setIdentityCache(ObjectIdentityCache<?> cache) {
+        this.cache = cache;
+    }
+}
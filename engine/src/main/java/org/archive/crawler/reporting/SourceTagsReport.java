@@ -19,12 +19,13 @@
 package org.archive.crawler.reporting;
 
 import java.io.PrintWriter;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.archive.bdb.DisposableStoredSortedMap;
 
+import com.sleepycat.collections.StoredIterator;
+
 /**
  * The "Source Report", tallies of source tags (usually seeds) by host.
  * 
@@ -35,32 +36,30 @@ public class SourceTagsReport extends Report {
     @Override
     public void write(PrintWriter writer, StatisticsTracker stats) {
 
-        Set<String> sourceTags = stats.sourceHostDistribution.keySet();
+        // sorted on disk: by source, then hosts by #urls
+        DisposableStoredSortedMap<String,String> sortedHostCounts = 
+            stats.calcSourceHostCountsSorted();
         
-        if(sourceTags.isEmpty()) {
+        if(sortedHostCounts.isEmpty()) {
+            sortedHostCounts.dispose();
             writer.println("No source tag information. (Is 'sourceTagSeeds' enabled?)");
             return; 
         }
         
         writer.print("[source] [host] [#urls]\n");
-        // for each source
-        for (String sourceKey : sourceTags) {
-            Map<String,AtomicLong> hostCounts = 
-                (Map<String,AtomicLong>)stats.sourceHostDistribution.get(sourceKey);
-            // sort hosts by #urls
-            DisposableStoredSortedMap<Long,String> sortedHostCounts = 
-                stats.getReverseSortedHostCounts(hostCounts);
-            // for each host
-            for (Map.Entry<Long, String> entry : sortedHostCounts.entrySet()) {
-                writer.print(sourceKey.toString());
-                writer.print(" ");
-                writer.print(entry.getValue());
-                writer.print(" ");
-                writer.print(Math.abs(entry.getKey()));
-                writer.print("\n");
-            }
-            sortedHostCounts.dispose();
+        Iterator<Map.Entry<String,String>> iter = 
+            sortedHostCounts.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String,String> entry = iter.next();
+            // key is source then inverted count; value is host then count
+            String key = entry.getKey();
+            writer.print(key.substring(0, key.lastIndexOf(' ')));
+            writer.print(" ");
+            writer.print(entry.getValue());
+            writer.print("\n");
         }
+        StoredIterator.close(iter);
+        sortedHostCounts.dispose();
     }
 
     @Override
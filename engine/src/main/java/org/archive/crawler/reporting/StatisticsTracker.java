@@ -30,7 +30,6 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -40,6 +39,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.collections.Closure;
+import org.apache.commons.collections.Transformer;
 import org.archive.bdb.BdbModule;
 import org.archive.bdb.DisposableStoredSortedMap;
 import org.archive.checkpointing.Checkpoint;
@@ -57,7 +57,9 @@ import org.archive.modules.seeds.SeedListener;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.spring.ConfigPath;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.ConcurrentHistotable;
 import org.archive.util.FileUtils;
+import org.archive.util.Histotable;
 import org.archive.util.JSONUtils;
 import org.archive.util.MimetypeUtils;
 import org.archive.util.ObjectIdentityCache;
@@ -265,34 +267,44 @@ public class StatisticsTracker
     /*
      * Cumulative data
      */
+    // tallies below are updated by every ToeThread for every finished URI,
+    // so are ConcurrentHistotables: lock-free, striped under contention
+
     /** tally sizes novel, verified (same hash), vouched (not-modified) */ 
-    protected CrawledBytesHistotable crawledBytes = new CrawledBytesHistotable();
+    protected ConcurrentHistotable<String> crawledBytes =
+        new ConcurrentHistotable<String>();
     
+    /**
+     * @return snapshot copy of crawled-bytes tallies
+     */
     public CrawledBytesHistotable getCrawledBytes() {
-        return crawledBytes;
+        return crawledBytes.snapshot(new CrawledBytesHistotable());
     }
 
     // TODO: fortify these against key explosion with bigmaps like other tallies
     /** Keep track of the file types we see (mime type -> count) */
-    protected ConcurrentMap<String,AtomicLong> mimeTypeDistribution
-     = new ConcurrentHashMap<String, AtomicLong>();
-    protected ConcurrentMap<String,AtomicLong> mimeTypeBytes
-    = new ConcurrentHashMap<String, AtomicLong>();
+    protected ConcurrentHistotable<String> mimeTypeDistribution =
+        new ConcurrentHistotable<String>();
+    protected ConcurrentHistotable<String> mimeTypeBytes =
+        new ConcurrentHistotable<String>();
     
     /** Keep track of fetch status codes */
-    protected ConcurrentMap<String,AtomicLong> statusCodeDistribution
-    = new ConcurrentHashMap<String, AtomicLong>();
+    protected ConcurrentHistotable<String> statusCodeDistribution =
+        new ConcurrentHistotable<String>();
     
-    /** Keep track of URL counts per host per seed */
-    // TODO: restore spill-to-disk, like with processedSeedsRecords
-    protected ConcurrentHashMap<String, ConcurrentMap<String, AtomicLong>> sourceHostDistribution = 
-        new ConcurrentHashMap<String, ConcurrentMap<String,AtomicLong>>(); 
+    /** 
+     * Keep track of URL counts per host per seed; like processedSeedsRecords,
+     * spills to disk once started 
+     */
+    protected ObjectIdentityCache<SourceHostRecord> sourceHostDistribution = 
+        new ObjectIdentityMemCache<SourceHostRecord>();
     
-    /** Keep track of crawled bytes stats per seed */
-    // TODO: spill-to-disk (requires bdb replacement for Histotable, or some
-    // other refactoring)
-    protected ConcurrentHashMap<String, CrawledBytesHistotable> statsBySource =
-            new ConcurrentHashMap<String, CrawledBytesHistotable>();
+    /** 
+     * Keep track of crawled bytes stats per seed; like processedSeedsRecords,
+     * spills to disk once started 
+     */
+    protected ObjectIdentityCache<SourceStatsRecord> statsBySource =
+        new ObjectIdentityMemCache<SourceStatsRecord>();
 
     /**
      * Record of seeds and latest results
@@ -349,6 +361,10 @@ public class StatisticsTracker
         try {
             this.processedSeedsRecords = bdb.getObjectCache("processedSeedsRecords",
                     isRecover, SeedRecord.class);
+            this.sourceHostDistribution = bdb.getObjectCache("sourceHostDistribution",
+                    isRecover, SourceHostRecord.class);
+            this.statsBySource = bdb.getObjectCache("statsBySource",
+                    isRecover, SourceStatsRecord.class);
             
             if(isRecover) {
                 JSONObject json = recoveryCheckpoint.loadJson(beanName);
@@ -359,39 +375,46 @@ public class StatisticsTracker
                 crawlPauseStarted = json.getLong("crawlPauseStarted");
                 tallyCurrentPause();
                 
-                JSONUtils.putAllAtomicLongs(
+                JSONUtils.tallyAllLongs(
                     mimeTypeDistribution,
                     json.getJSONObject("mimeTypeDistribution"));
-                JSONUtils.putAllAtomicLongs(
+                JSONUtils.tallyAllLongs(
                     mimeTypeBytes,
                     json.getJSONObject("mimeTypeBytes"));
-                JSONUtils.putAllAtomicLongs(
+                JSONUtils.tallyAllLongs(
                     statusCodeDistribution,
                     json.getJSONObject("statusCodeDistribution"));
           
 
-                JSONObject shd = json.getJSONObject("sourceHostDistribution");
-                Iterator<String> keyIter = shd.keys();
-                for(; keyIter.hasNext();) {
-                    String source = keyIter.next();
-                    ConcurrentHashMap<String, AtomicLong> hostUriCount = new ConcurrentHashMap<String, AtomicLong>();
-                    JSONUtils.putAllAtomicLongs(hostUriCount,shd.getJSONObject(source));
-                    sourceHostDistribution.put(source, hostUriCount);
+                // per-source stats are now checkpointed with the bdb caches;
+                // only checkpoints from earlier versions of heritrix have these
+                JSONObject shd = json.optJSONObject("sourceHostDistribution");
+                if (shd != null) {
+                    Iterator<String> keyIter = shd.keys();
+                    for(; keyIter.hasNext();) {
+                        String source = keyIter.next();
+                        JSONObject hostCounts = shd.getJSONObject(source);
+                        Iterator<String> hostIter = hostCounts.keys();
+                        for(; hostIter.hasNext();) {
+                            String host = hostIter.next();
+                            getSourceHostRecord(source, host).tally(
+                                    hostCounts.getLong(host));
+                        }
+                    }
                 }
-                
-                // optional so we can still recover checkpoints from earlier versions of heritrix
                 JSONObject ss = json.optJSONObject("statsBySource");
                 if (ss != null) {
-                    keyIter = ss.keys();
+                    Iterator<String> keyIter = ss.keys();
                     for(; keyIter.hasNext();) {
                         String source = keyIter.next();
-                        CrawledBytesHistotable cb = new CrawledBytesHistotable();
-                        JSONUtils.putAllLongs(cb, ss.getJSONObject(source));
-                        statsBySource.put(source, cb);
+                        SourceStatsRecord ssr = getSourceStatsRecord(source);
+                        JSONUtils.tallyAllLongs(ssr.getTallies(),
+                            ss.getJSONObject(source));
+                        ssr.makeDirty();
                     }
                 }
                 
-                JSONUtils.putAllLongs(
+                JSONUtils.tallyAllLongs(
                     crawledBytes,
                     json.getJSONObject("crawledBytes"));
             }
@@ -462,15 +485,18 @@ public class StatisticsTracker
      * part
      * @param e Progress statistics event.
      */
-    protected synchronized void progressStatisticsEvent() {
+    protected void progressStatisticsEvent() {
+        // collected without holding any lock: tallies are all concurrent
         CrawlStatSnapshot snapshot = getSnapshot();
        
         if (this.controller != null) {
             this.controller.logProgressStatistics(snapshot.getProgressStatisticsLine());
         }
-        snapshots.addFirst(snapshot);
-        while(snapshots.size()>getKeepSnapshotsCount()) {
-            snapshots.removeLast();
+        synchronized (snapshots) {
+            snapshots.addFirst(snapshot);
+            while(snapshots.size()>getKeepSnapshotsCount()) {
+                snapshots.removeLast();
+            }
         }
         
         // publish app event 
@@ -576,15 +602,15 @@ public class StatisticsTracker
              - crawlStartTime;
     }
 
-    /** Returns a HashMap that contains information about distributions of
+    /** Returns a Map that contains information about distributions of
      *  encountered mime types.  Key/value pairs represent
      *  mime type -> count.
      * <p>
-     * <b>Note:</b> All the values are wrapped with a {@link AtomicLong AtomicLong}
+     * <b>Note:</b> This is a snapshot copy, not updated by further tallies.
      * @return mimeTypeDistribution
      */
-    public Map<String, AtomicLong> getFileDistribution() {
-        return mimeTypeDistribution;
+    public Histotable<String> getFileDistribution() {
+        return mimeTypeDistribution.snapshot();
     }
 
 
@@ -632,9 +658,35 @@ public class StatisticsTracker
         lw.addAndGet(increment);
     }
 
+    /**
+     * Get the record of URI count for the given host under the given
+     * source, creating it if necessary.
+     */
+    protected SourceHostRecord getSourceHostRecord(final String source,
+            final String host) {
+        return sourceHostDistribution.getOrUse(
+                SourceHostRecord.keyFor(source, host),
+                new Supplier<SourceHostRecord>() {
+                    public SourceHostRecord get() {
+                        return new SourceHostRecord(source, host);
+                    }});
+    }
+
+    /**
+     * Get the record of crawled-bytes tallies for the given source,
+     * creating it if necessary.
+     */
+    protected SourceStatsRecord getSourceStatsRecord(final String source) {
+        return statsBySource.getOrUse(source,
+                new Supplier<SourceStatsRecord>() {
+                    public SourceStatsRecord get() {
+                        return new SourceStatsRecord(source);
+                    }});
+    }
+
     /**
      * Sort the entries of the given Map in descending order by their
-     * values, which must be longs wrapped with <code>AtomicLong</code>.
+     * values, which may be Longs or AtomicLongs.
      * <p>
      * Elements are sorted by value from largest to smallest. Equal values are
      * sorted by their keys. The returned map is a StoredSortedMap, and
@@ -644,11 +696,11 @@ public class StatisticsTracker
      * should ensure this synchronization. 
      * 
      * @param mapOfAtomicLongValues
-     *            Assumes values are wrapped with AtomicLong.
+     *            map of Number (typically Long or AtomicLong) values
      * @return a sorted set containing the same elements as the map.
      */
     public DisposableStoredSortedMap<Long,String> getReverseSortedCopy(
-            final Map<String,AtomicLong> mapOfAtomicLongValues) {
+            final Map<String,? extends Number> mapOfAtomicLongValues) {
         DisposableStoredSortedMap<Long,String> sortedMap = 
             bdb.getStoredMap(
                     null,
@@ -665,18 +717,16 @@ public class StatisticsTracker
 
 
     /**
-     * Return a objectCache representing the distribution of status codes for
-     * successfully fetched curis, as represented by a cache where key -&gt;
-     * val represents (string)code -&gt; (integer)count.
+     * Return a Map representing the distribution of status codes for
+     * successfully fetched curis, where key -&gt; val represents 
+     * (string)code -&gt; (long)count.
      * 
-     * <b>Note: </b> All the values are wrapped with a
-     * {@link AtomicLong AtomicLong}
-     * @return 
+     * <b>Note: </b> This is a snapshot copy, not updated by further tallies.
      * 
      * @return statusCodeDistribution
      */
-    public Map<String, AtomicLong> getStatusCodeDistribution() {
-        return statusCodeDistribution;
+    public Histotable<String> getStatusCodeDistribution() {
+        return statusCodeDistribution.snapshot();
     }
     
     /**
@@ -720,7 +770,7 @@ public class StatisticsTracker
     }
             
     public String crawledBytesSummary() {
-        return crawledBytes.summary();
+        return getCrawledBytes().summary();
     }
     
     /**
@@ -746,16 +796,15 @@ public class StatisticsTracker
     public void crawledURISuccessful(CrawlURI curi) {
         handleSeed(curi,"Seed successfully crawled");
         // save crawled bytes tally
-        crawledBytes.accumulate(curi);
+        CrawledBytesHistotable.accumulate(curi, crawledBytes);
 
         // Save status codes
-        incrementMapCount(statusCodeDistribution,
-            Integer.toString(curi.getFetchStatus()));
+        statusCodeDistribution.tally(Integer.toString(curi.getFetchStatus()));
 
         // Save mime types
         String mime = MimetypeUtils.truncate(curi.getContentType());
-        incrementMapCount(mimeTypeDistribution, mime);
-        incrementMapCount(mimeTypeBytes, mime, curi.getContentSize());
+        mimeTypeDistribution.tally(mime);
+        mimeTypeBytes.tally(mime, curi.getContentSize());
 
         ServerCache sc = serverCache;
         if (getTrackSources() && curi.getData().containsKey(A_SOURCE_TAG)) {
@@ -766,25 +815,14 @@ public class StatisticsTracker
     }
          
     protected void saveSourceStats(String source, String hostname) {
-        ConcurrentMap<String,AtomicLong> hostUriCount = sourceHostDistribution.get(source); 
-        if(hostUriCount == null) {
-            hostUriCount = new ConcurrentHashMap<String,AtomicLong>();
-            ConcurrentMap<String,AtomicLong> prevVal = sourceHostDistribution.putIfAbsent(source, hostUriCount);
-            if (prevVal!=null) {
-                hostUriCount = prevVal; 
-            }
+        if (hostname == null) {
+            hostname = "unknown";
         }
-        incrementMapCount(hostUriCount, hostname);
+        getSourceHostRecord(source, hostname).tally(1);
     }
 
     protected void tallySourceStats(CrawlURI curi) {
-        String source = curi.getSourceTag();
-        CrawledBytesHistotable sourceStats = statsBySource.get(source);
-        if (sourceStats == null) {
-            sourceStats = new CrawledBytesHistotable();
-            statsBySource.put(source, sourceStats);
-        }
-        sourceStats.accumulate(curi);
+        getSourceStatsRecord(curi.getSourceTag()).accumulate(curi);
     }
     
     public void crawledURINeedRetry(CrawlURI curi) {
@@ -842,7 +880,7 @@ public class StatisticsTracker
      * @return SortedMap of hosts distribution
      */
     public DisposableStoredSortedMap<Long,String> getReverseSortedHostCounts(
-            Map<String,AtomicLong> hostCounts) {
+            Map<String,? extends Number> hostCounts) {
         synchronized(hostCounts){
             return getReverseSortedCopy(hostCounts);
         }
@@ -854,6 +892,26 @@ public class StatisticsTracker
      * @return SortedMap of hosts distribution
      */
     public DisposableStoredSortedMap<Long,String> calcReverseSortedHostsDistribution() {
+        return calcReverseSortedHostsDistribution(new Transformer() {
+            @Override
+            public Object transform(Object hostObj) {
+                return ((CrawlHost) hostObj).getHostName();
+            }
+        });
+    }
+
+    /**
+     * Return, in a single pass over all hosts, a value for every host in
+     * reverse-sorted (largest first) order of URIs fetched. The values
+     * are whatever the given Transformer makes of each CrawlHost (often
+     * a whole report line, so no host need be revisited); hosts for which
+     * it returns null are skipped.
+     * 
+     * @param hostToValue Transformer of CrawlHost to String
+     * @return SortedMap of hosts distribution
+     */
+    public DisposableStoredSortedMap<Long,String> calcReverseSortedHostsDistribution(
+            final Transformer hostToValue) {
         final DisposableStoredSortedMap<Long,String> sortedMap = 
             bdb.getStoredMap(
                     null,
@@ -865,12 +923,52 @@ public class StatisticsTracker
             @Override
             public void execute(Object hostObj) {
                 CrawlHost host = (CrawlHost) hostObj; 
-                sortedMap.put(-host.getSubstats().getFetchSuccesses(), host.getHostName());
+                String value = (String) hostToValue.transform(host);
+                if (value != null) {
+                    sortedMap.put(-host.getSubstats().getFetchSuccesses(), value);
+                }
             }
         });
         return sortedMap;
     }
 
+    /**
+     * Return URI counts for every host under every source, sorted by
+     * source and then largest count first, from a single pass over the
+     * (possibly mostly on-disk) per-source host counts. 
+     * 
+     * Keys are the source, a space, and the count subtracted from 
+     * Long.MAX_VALUE as fixed-width digits (so descending counts sort
+     * ascending); values are the host, a space, and the count.
+     * 
+     * @return SortedMap of host counts by source
+     */
+    public DisposableStoredSortedMap<String,String> calcSourceHostCountsSorted() {
+        DisposableStoredSortedMap<String,String> sortedMap = 
+            bdb.getStoredMap(
+                    null,
+                    String.class,
+                    String.class,
+                    true,
+                    false);
+        StringBuilder key = new StringBuilder();
+        for (String k : sourceHostDistribution.keySet()) {
+            SourceHostRecord shr = sourceHostDistribution.get(k);
+            if (shr == null) {
+                continue;
+            }
+            String inverted = Long.toString(Long.MAX_VALUE - shr.getCount());
+            key.setLength(0);
+            key.append(shr.getSource()).append(' ');
+            for (int i = inverted.length(); i < 19; i++) {
+                key.append('0');
+            }
+            key.append(inverted);
+            sortedMap.put(key.toString(), shr.getHost() + " " + shr.getCount());
+        }
+        return sortedMap;
+    }
+
     public File writeReportFile(String reportName) {
         for(Report report: getReports()) {
             if (report.getClass().getSimpleName().equals(reportName)) {
@@ -936,19 +1034,14 @@ public class StatisticsTracker
         logNote("CRAWL CHECKPOINTING TO " + cpDir.toString());
     }
   
-    private long getReportValue(Map<String,AtomicLong> map, String key) {
+    private long getReportValue(ConcurrentHistotable<String> tallies, String key) {
         if (key == null) {
             return -1;
         }
-        Object o = map.get(key);
-        if (o == null) {
+        if (!tallies.keySet().contains(key)) {
             return -2;
         }
-        if (!(o instanceof AtomicLong)) {
-            throw new IllegalStateException("Expected AtomicLong but got " 
-                    + o.getClass() + " for " + key);
-        }
-        return ((AtomicLong)o).get();
+        return tallies.get(key);
     }
     
     public void onApplicationEvent(ApplicationEvent event) {
@@ -1062,14 +1155,13 @@ public class StatisticsTracker
             json.put("crawlPauseStarted",virtualCrawlPauseStarted);
             json.put("crawlTotalPausedTime",crawlTotalPausedTime);
             
-            json.put("mimeTypeDistribution", mimeTypeDistribution);
-            json.put("mimeTypeBytes", mimeTypeBytes);
-            json.put("statusCodeDistribution", statusCodeDistribution);
+            json.put("mimeTypeDistribution", mimeTypeDistribution.snapshot());
+            json.put("mimeTypeBytes", mimeTypeBytes.snapshot());
+            json.put("statusCodeDistribution", statusCodeDistribution.snapshot());
 
-            json.put("sourceHostDistribution", sourceHostDistribution);
-            json.put("statsBySource", statsBySource);
+            // (sourceHostDistribution, statsBySource checkpointed by BdbModule)
             
-            json.put("crawledBytes", crawledBytes);
+            json.put("crawledBytes", crawledBytes.snapshot());
 
             // TODO: save crawledBytesHistotable
             checkpointInProgress.saveJson(beanName, json);
@@ -1084,8 +1176,22 @@ public class StatisticsTracker
         this.recoveryCheckpoint = recoveryCheckpoint;
     }
     
+    /**
+     * @return snapshot copy of crawled-bytes tallies for source, or null
+     * if none
+     */
     public CrawledBytesHistotable getSourceStats(String source) {
-        return statsBySource.get(source);
+        SourceStatsRecord ssr = statsBySource.get(source);
+        return ssr == null 
+            ? null : ssr.getTallies().snapshot(new CrawledBytesHistotable());
+    }
+
+    /**
+     * @return live crawled-bytes tallies for source, or null if none
+     */
+    public ConcurrentHistotable<String> getSourceTallies(String source) {
+        SourceStatsRecord ssr = statsBySource.get(source);
+        return ssr == null ? null : ssr.getTallies();
     }
     
     
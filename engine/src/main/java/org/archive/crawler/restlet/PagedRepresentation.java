@@ -33,7 +33,7 @@ import java.util.List;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.LongRange;
-import org.archive.util.FileUtils;
+import org.archive.crawler.util.IndexedLogFile;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.Form;
 import org.restlet.data.MediaType;
@@ -102,19 +102,23 @@ public class PagedRepresentation extends CharacterRepresentation {
      * If at file start, refuses to show fewer lines than are possible
      * ('bounces' against start). 
      * 
+     * Lines are found through the file's shared IndexedLogFile, so paging
+     * anywhere in even a very large log reads only the lines shown.
+     * 
      * @throws IOException
      */
     protected void loadLines() throws IOException {
         this.file = fileRepresentation.getFile();
+        IndexedLogFile indexed = IndexedLogFile.forFile(file);
         this.lines = new LinkedList<String>();
-        this.range = FileUtils.pagedLines(file, position, lineCount, lines, 128);
+        this.range = indexed.pagedLines(position, lineCount, lines);
         // bounce against the front of the file: don't show runt (fewer
         // lines than requested) unless absolutely necessary)
         if(lines.size()<Math.abs(lineCount) 
                 && range.getMinimumLong() == 0 
-                && range.getMaximumLong()<file.length()) {
+                && range.getMaximumLong()<indexed.getLength()) {
             this.lines = new LinkedList<String>();
-            this.range = FileUtils.pagedLines(file, 0, Math.abs(lineCount), lines, 128);
+            this.range = indexed.pagedLines(0, Math.abs(lineCount), lines);
         }
         if(reversedOrder) {
             Collections.reverse(lines);
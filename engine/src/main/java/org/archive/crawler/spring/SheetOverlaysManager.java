@@ -19,6 +19,8 @@
  
 package org.archive.crawler.spring;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -30,10 +32,13 @@ import java.util.SortedSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
 import org.archive.spring.OverlayMapsSource;
 import org.archive.spring.Sheet;
 import org.archive.util.PrefixFinder;
@@ -67,6 +72,77 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
     /** all sheets by (bean)name*/
     protected Map<String,Sheet> sheetsByName = new ConcurrentHashMap<String, Sheet>();
     
+    /**
+     * Maximum number of SURT authorities whose resolved SURT-based sheet 
+     * names are remembered. When exceeded, the cache is simply emptied and
+     * refilled as URIs arrive. 0 disables caching. 
+     */
+    protected int maxCachedSurtAuthorities = 10000;
+    public int getMaxCachedSurtAuthorities() {
+        return maxCachedSurtAuthorities;
+    }
+    public void setMaxCachedSurtAuthorities(int max) {
+        this.maxCachedSurtAuthorities = max;
+    }
+    
+    /** SURT-based sheet names, by the SURT authority (through ')') they 
+     * apply to; only covers associations whose prefixes don't extend 
+     * past the authority */
+    protected ConcurrentHashMap<String,CachedSheetNames> sheetNamesBySurtAuthority = 
+        new ConcurrentHashMap<String,CachedSheetNames>();
+
+    /**
+     * Sheet names cached for a SURT authority, with the associations 
+     * generation they were looked up under: an entry from an earlier 
+     * generation (perhaps put after the cache was cleared for a change) 
+     * is stale, and ignored. 
+     */
+    protected static class CachedSheetNames {
+        final long generation;
+        final List<String> names;
+        CachedSheetNames(long generation, List<String> names) {
+            this.generation = generation;
+            this.names = names;
+        }
+    }
+    protected AtomicInteger cachedSurtAuthorities = new AtomicInteger(0);
+    
+    /** whether any SURT association prefix extends past the authority 
+     * (into the path), requiring a per-URI lookup for those prefixes */
+    protected volatile boolean havePathSurtPrefixes = false;
+    
+    /** bumped whenever associations or sheets change, so that overlay 
+     * names resolved earlier are known to be stale */
+    protected AtomicLong associationsGeneration = new AtomicLong(0);
+    
+    protected AtomicLong surtCacheHits = new AtomicLong(0);
+    protected AtomicLong surtCacheMisses = new AtomicLong(0);
+    protected AtomicLong surtCacheFlushes = new AtomicLong(0);
+    protected AtomicLong reapplicationsSkipped = new AtomicLong(0);
+    
+    /** @return number of URIs whose SURT-based sheets came from cache */
+    public long getSurtCacheHits() {
+        return surtCacheHits.get();
+    }
+    /** @return number of URIs whose SURT-based sheets had to be looked up */
+    public long getSurtCacheMisses() {
+        return surtCacheMisses.get();
+    }
+    /** @return number of times the cache was emptied for being full */
+    public long getSurtCacheFlushes() {
+        return surtCacheFlushes.get();
+    }
+    /** @return number of applyOverlaysTo() calls skipped as redundant */
+    public long getReapplicationsSkipped() {
+        return reapplicationsSkipped.get();
+    }
+    /** @return fraction of SURT-based lookups satisfied from cache */
+    public double getSurtCacheHitRatio() {
+        long hits = surtCacheHits.get();
+        long total = hits + surtCacheMisses.get();
+        return (total == 0) ? 0 : ((double) hits) / total;
+    }
+    
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
         this.beanFactory = beanFactory;
     }
@@ -115,10 +191,12 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         // always keep sorted by order
         this.ruleAssociations.clear();
         this.ruleAssociations.addAll(associations);
+        associationsChanged();
     }
     
     public void addRuleAssociation(DecideRuledSheetAssociation assoc) {
         this.ruleAssociations.add(assoc); 
+        associationsChanged();
     }
 
     /**
@@ -141,6 +219,7 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         }
         sheetNames.add(sheetName); 
         sheetNamesBySurt.put(prefix, sheetNames); 
+        associationsChanged();
     }
     
     public boolean removeSurtAssociation(String prefix, String sheetName) {
@@ -149,7 +228,38 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
             // no such association
             return false; 
         }
-        return sheetNames.remove(sheetName); 
+        boolean removed = sheetNames.remove(sheetName); 
+        associationsChanged();
+        return removed;
+    }
+    
+    /**
+     * Note that associations (or sheets) have changed: forget all cached 
+     * SURT-based resolutions, and mark any overlay names already resolved
+     * on CrawlURIs as stale. 
+     */
+    protected void associationsChanged() {
+        boolean pathPrefixes = false; 
+        for(String prefix : sheetNamesBySurt.keySet()) {
+            if(extendsPastAuthority(prefix)) {
+                pathPrefixes = true;
+                break; 
+            }
+        }
+        havePathSurtPrefixes = pathPrefixes;
+        associationsGeneration.incrementAndGet();
+        sheetNamesBySurtAuthority.clear();
+        cachedSurtAuthorities.set(0);
+    }
+    
+    /**
+     * @param prefix SURT prefix
+     * @return true if the prefix has any characters after the authority's
+     * closing ')'
+     */
+    protected static boolean extendsPastAuthority(String prefix) {
+        int authorityEnd = prefix.indexOf(')');
+        return authorityEnd >= 0 && authorityEnd < prefix.length() - 1;
     }
 
     /** 
@@ -273,6 +383,7 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
             anyDeleted |= sheetNames.remove(sheetName);            
         }
         anyDeleted |= (null != sheetsByName.remove(sheetName)); 
+        associationsChanged();
         return anyDeleted;
     }
     
@@ -310,20 +421,33 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
      * Apply the proper overlays (by Sheet beanName) to the given CrawlURI,
      * according to configured associations.  
      * 
-     * TODO: add guard against redundant application more than once? 
+     * Skips all work if the CrawlURI's overlay names were already resolved
+     * by this manager, against the same policy-basis URI, since the last
+     * change to associations or sheets -- unless there are any 
+     * DecideRule-based associations, whose results may depend on other 
+     * CrawlURI state, in which case only the SURT-based part is reused.
+     * 
      * TODO: add mechanism for reapplying overlays after settings change? 
      * @param curi
      */
     public void applyOverlaysTo(CrawlURI curi) {
+        long generation = associationsGeneration.get();
+        UURI basis = curi.getPolicyBasisUURI();
+        if(curi.haveOverlayNamesBeenSet()
+                && curi.getOverlayNamesGeneration() == generation
+                && curi.getOverlayNamesBasis() == basis
+                && ruleAssociations.isEmpty()) {
+            // already resolved against current associations
+            curi.setOverlayMapsSource(this); 
+            reapplicationsSkipped.incrementAndGet();
+            return;
+        }
         curi.setOverlayMapsSource(this); 
         // apply SURT-based overlays
         curi.getOverlayNames().clear(); // clear previous info
-        String effectiveSurt = SurtPrefixSet.getCandidateSurt(curi.getPolicyBasisUURI());
-        List<String> foundPrefixes = PrefixFinder.findKeys(sheetNamesBySurt, effectiveSurt);       
-        for(String prefix : foundPrefixes) {
-            for(String name : sheetNamesBySurt.get(prefix)) {
-                curi.getOverlayNames().add(name);
-            }
+        if(!sheetNamesBySurt.isEmpty()) {
+            String effectiveSurt = SurtPrefixSet.getCandidateSurt(basis);
+            curi.getOverlayNames().addAll(getSurtSheetNames(effectiveSurt));
         }
         // apply deciderule-based overlays
         for(DecideRuledSheetAssociation assoc : ruleAssociations) {
@@ -338,5 +462,84 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         // even if no overlays set, let creation of empty list signal
         // step has occurred -- helps ensure overlays added once-only
         curi.getOverlayNames();
+        curi.setOverlayNamesResolution(generation, basis);
+    }
+    
+    /**
+     * Get the names of sheets associated by SURT prefix with the given 
+     * SURT, shortest prefix first. The part determined by the SURT 
+     * authority alone comes from (or is added to) a cache keyed by that
+     * authority; any associations with longer, path-including prefixes 
+     * are looked up per call. 
+     * 
+     * @param surt SURT to look up
+     * @return list of sheet names; not to be modified
+     */
+    protected List<String> getSurtSheetNames(String surt) {
+        int authorityEnd = (surt == null) ? -1 : surt.indexOf(')');
+        if(authorityEnd < 0 || maxCachedSurtAuthorities <= 0) {
+            return findSurtSheetNames(surt, 0);
+        }
+        String authority = surt.substring(0, authorityEnd + 1);
+        long generation = associationsGeneration.get();
+        CachedSheetNames cached = sheetNamesBySurtAuthority.get(authority);
+        List<String> names;
+        if(cached == null || cached.generation != generation) {
+            surtCacheMisses.incrementAndGet();
+            names = findSurtSheetNames(authority, 0);
+            if(cached == null 
+                    && cachedSurtAuthorities.incrementAndGet() > maxCachedSurtAuthorities) {
+                // full: start over rather than track recency
+                sheetNamesBySurtAuthority.clear();
+                cachedSurtAuthorities.set(1);
+                surtCacheFlushes.incrementAndGet();
+            }
+            // if associations change meanwhile, this entry is already stale
+            sheetNamesBySurtAuthority.put(authority, 
+                    new CachedSheetNames(generation, names));
+        } else {
+            surtCacheHits.incrementAndGet();
+            names = cached.names;
+        }
+        if(!havePathSurtPrefixes || surt.length() == authority.length()) {
+            return names;
+        }
+        List<String> pathNames = findSurtSheetNames(surt, authority.length() + 1);
+        if(pathNames.isEmpty()) {
+            return names;
+        }
+        List<String> all = new ArrayList<String>(names.size() + pathNames.size());
+        all.addAll(names);
+        all.addAll(pathNames);
+        return all;
+    }
+    
+    /**
+     * Look up sheet names for all SURT prefixes of the given string at 
+     * least minPrefixLength long, shortest prefix first. 
+     * 
+     * @param surt SURT (or SURT authority) to look up
+     * @param minPrefixLength shortest prefix to consider
+     * @return list of sheet names
+     */
+    protected List<String> findSurtSheetNames(String surt, int minPrefixLength) {
+        if(surt == null) {
+            return Collections.emptyList();
+        }
+        List<String> foundPrefixes = PrefixFinder.findKeys(sheetNamesBySurt, surt);
+        if(foundPrefixes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>();
+        for(String prefix : foundPrefixes) {
+            if(prefix.length() < minPrefixLength) {
+                continue;
+            }
+            List<String> prefixNames = sheetNamesBySurt.get(prefix);
+            if(prefixNames != null) {
+                names.addAll(prefixNames);
+            }
+        }
+        return names;
     }
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ package org.archive.crawler.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -27,6 +28,7 @@ import java.util.logging.Logger;
 import org.archive.bdb.BdbModule;
 import org.archive.checkpointing.Checkpoint;
 import org.archive.checkpointing.Checkpointable;
+import org.archive.modules.CrawlURI;
 import org.archive.util.FileUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -63,6 +65,11 @@ import com.sleepycat.je.OperationStatus;
  * actually concatenates scheme + host in first 24 bits and path + query in
  * trailing 40 bits).
  * 
+ * <p>Optionally (see {@link #setBatchSize(int)}), added URIs are held
+ * pending in a batch, and checked against/inserted into the database
+ * together, in key order, in a single cursor pass -- turning random B-tree
+ * I/O into mostly-sequential access once the set outgrows the BDB cache.
+ * 
  * @author stack
  * @version $Date$, $Revision$
  */
@@ -96,6 +103,45 @@ implements Lifecycle, Checkpointable, BeanNameAware, DisposableBean {
     public void setBeanName(String name) {
         this.beanName = name;
     }
+
+    /**
+     * Number of added URIs to accumulate before checking them all against
+     * the database at once, in key order. Pending URIs reach the frontier
+     * only when their batch is applied: when full, or when the frontier
+     * requests a flush because it has nothing else to do. Default 0: check
+     * each URI as it is added.
+     */
+    protected int batchSize = 0;
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Longest time, in milliseconds, a URI may be held pending in a batch
+     * before the batch is applied early (at the next add), so a slow
+     * trickle of discoveries still reaches the frontier promptly. Default
+     * 1000.
+     */
+    protected long maxPendingMs = 1000;
+    public long getMaxPendingMs() {
+        return maxPendingMs;
+    }
+    public void setMaxPendingMs(long maxPendingMs) {
+        this.maxPendingMs = maxPendingMs;
+    }
+
+    /** fingerprints of pending URIs, in order added */
+    protected transient long[] pendingKeys;
+    /** pending URIs (null for note()d keys), parallel to pendingKeys */
+    protected transient CrawlURI[] pendingUris;
+    protected transient int pendingCount = 0;
+    /** time (ms) of the oldest pending add */
+    protected transient long pendingSince = 0;
+    /** held while applying a batch, so batches apply one at a time */
+    protected Object batchLock = new Object[0]; // serializable
     
     public BdbUriUniqFilter() {
     }
@@ -232,7 +278,13 @@ implements Lifecycle, Checkpointable, BeanNameAware, DisposableBean {
         this.value = new DatabaseEntry("".getBytes());
     }
     
-    public synchronized void close() {
+    public void close() {
+        // pending URIs not lost (nor their keys unrecorded) at close
+        flushPending();
+        closeDatabase();
+    }
+
+    protected synchronized void closeDatabase() {
         logger.fine("Count of alreadyseen on close " + count.get());
         Environment env = null;
         if (this.alreadySeen != null) {
@@ -356,6 +408,162 @@ implements Lifecycle, Checkpointable, BeanNameAware, DisposableBean {
         return count.get();
     }
 
+    @Override
+    public void add(String key, CrawlURI value) {
+        if (batchSize <= 0) {
+            super.add(key, value);
+            return;
+        }
+        profileLog(key);
+        pend(createKey(key), value);
+    }
+
+    @Override
+    public void note(String key) {
+        if (batchSize <= 0) {
+            super.note(key);
+            return;
+        }
+        profileLog(key);
+        pend(createKey(key), null);
+    }
+
+    @Override
+    public long pending() {
+        return pendingCount;
+    }
+
+    @Override
+    public long requestFlush() {
+        return flushPending();
+    }
+
+    /**
+     * Add a fingerprint (and its URI, if any) to the current batch,
+     * applying the batch if now full, or if its oldest add is older than
+     * maxPendingMs.
+     */
+    protected void pend(long fp, CrawlURI value) {
+        boolean full;
+        synchronized (this) {
+            if (pendingKeys == null || pendingKeys.length != batchSize) {
+                if (pendingCount > 0) {
+                    // batch size changed mid-batch; keep what's pending
+                    long[] oldKeys = pendingKeys;
+                    CrawlURI[] oldUris = pendingUris;
+                    pendingKeys = new long[Math.max(batchSize, pendingCount + 1)];
+                    pendingUris = new CrawlURI[pendingKeys.length];
+                    System.arraycopy(oldKeys, 0, pendingKeys, 0, pendingCount);
+                    System.arraycopy(oldUris, 0, pendingUris, 0, pendingCount);
+                } else {
+                    pendingKeys = new long[batchSize];
+                    pendingUris = new CrawlURI[batchSize];
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (pendingCount == 0) {
+                pendingSince = now;
+            }
+            pendingKeys[pendingCount] = fp;
+            pendingUris[pendingCount] = value;
+            pendingCount++;
+            full = pendingCount >= pendingKeys.length
+                || now - pendingSince >= maxPendingMs;
+        }
+        if (full) {
+            flushPending();
+        }
+    }
+
+    /**
+     * Apply all pending fingerprints to the database in one key-ordered
+     * cursor pass, then pass newly-added URIs to the receiver.
+     * 
+     * @return number of URIs passed to receiver
+     */
+    public long flushPending() {
+        synchronized (batchLock) {
+            long[] keys;
+            CrawlURI[] uris;
+            int n;
+            synchronized (this) {
+                if (pendingCount == 0) {
+                    return 0;
+                }
+                keys = pendingKeys;
+                uris = pendingUris;
+                n = pendingCount;
+                // adds during this flush go to a fresh batch
+                pendingKeys = null;
+                pendingUris = null;
+                pendingCount = 0;
+            }
+            // apply in key order, for cursor locality
+            long[] sorted = Arrays.copyOf(keys, n);
+            Arrays.sort(sorted);
+            boolean[] newlySeen = new boolean[n];
+            int unique = 0;
+            int newCount = 0;
+            boolean applied = false;
+            DatabaseEntry key = new DatabaseEntry();
+            Cursor cursor = null;
+            try {
+                cursor = alreadySeen.openCursor(null, null);
+                for (int i = 0; i < n; i++) {
+                    if (unique > 0 && sorted[i] == sorted[unique - 1]) {
+                        // duplicate within batch
+                        continue;
+                    }
+                    sorted[unique] = sorted[i];
+                    LongBinding.longToEntry(sorted[i], key);
+                    OperationStatus status = 
+                        cursor.putNoOverwrite(key, ZERO_LENGTH_ENTRY);
+                    if (status == OperationStatus.SUCCESS) {
+                        newlySeen[unique] = true;
+                        newCount++;
+                    }
+                    unique++;
+                }
+                applied = true;
+            } catch (DatabaseException e) {
+                logger.log(Level.SEVERE, "problem applying batch", e);
+            } finally {
+                if (cursor != null) {
+                    try {
+                        cursor.close();
+                    } catch (DatabaseException e) {
+                        logger.severe(e.getMessage());
+                    }
+                }
+            }
+            count.addAndGet(newCount);
+            // receive in order added, outside any cursor (which might
+            // otherwise hold locks); of duplicates, the first added wins
+            long added = 0;
+            for (int i = 0; i < n; i++) {
+                int k = Arrays.binarySearch(sorted, 0, unique, keys[i]);
+                if (k >= 0 && newlySeen[k]) {
+                    newlySeen[k] = false;
+                    if (uris[i] != null) {
+                        added++;
+                        receiver.receive(uris[i]);
+                    }
+                } else if (!applied && k < 0 && uris[i] != null) {
+                    // not checked before a failure; pass along regardless
+                    added++;
+                    receiver.receive(uris[i]);
+                } else {
+                    duplicateCount++;
+                }
+            }
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("applied batch of " + n + ": " + newCount
+                        + " new keys, " + added + " URIs received");
+            }
+            return added;
+        }
+    }
+
     protected boolean setRemove(CharSequence uri) {
         DatabaseEntry key = new DatabaseEntry();
         LongBinding.longToEntry(createKey(uri), key);
@@ -384,6 +592,8 @@ implements Lifecycle, Checkpointable, BeanNameAware, DisposableBean {
     // being recovered
     public void startCheckpoint(Checkpoint checkpointInProgress) {}
     public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+        // pending URIs aren't otherwise checkpointed
+        flushPending();
         JSONObject json = new JSONObject();
         try {
             json.put("count", setCount());
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Random;
 
 import org.archive.crawler.datamodel.UriUniqFilter;
 import org.archive.modules.CrawlURI;
@@ -40,6 +41,12 @@ public class BenchmarkUriUniqFilters implements UriUniqFilter.CrawlUriReceiver {
     
     private BufferedWriter out; // optional to dump uniq items
     protected String current; // current line/URI being checked
+    protected Random synthetic; // source of generated URIs, if any
+    protected long syntheticRange;
+    protected long syntheticCount;
+    
+    /** adds between progress reports */
+    protected static final int REPORT_INTERVAL = 1000000;
     
     /**
      * Test the UriUniqFilter implementation (MemUriUniqFilter,
@@ -47,6 +54,13 @@ public class BenchmarkUriUniqFilters implements UriUniqFilter.CrawlUriReceiver {
      * argument against the file of one-per-line URIs named
      * in the second argument. 
      * 
+     * A BdbUriUniqFilter may be given a batch size, as in 
+     * "BdbUriUniqFilter:10000", to test batched, key-ordered inserts. 
+     * In place of a filename, "synthetic:N" generates N URIs (about 10% 
+     * of them repeats), so that sets of 100M+ URIs -- well beyond the 
+     * BDB cache -- need no input file. Progress in adds/sec is reported 
+     * every million adds.
+     * 
      * @param args from cmd-line
      * @throws IOException
      */
@@ -60,35 +74,87 @@ public class BenchmarkUriUniqFilters implements UriUniqFilter.CrawlUriReceiver {
         long start = System.currentTimeMillis();
         UriUniqFilter uniq = createUriUniqFilter(testClass);
         long created = System.currentTimeMillis();
-        BufferedReader br = new BufferedReader(new FileReader(inputFilename));
+        BufferedReader br = null;
+        if(inputFilename.startsWith("synthetic:")) {
+            syntheticCount = Long.parseLong(
+                    inputFilename.substring("synthetic:".length()));
+            syntheticRange = Math.max(1, syntheticCount * 9 / 10);
+            synthetic = new Random(0);
+        } else {
+            br = new BufferedReader(new FileReader(inputFilename));
+        }
         if(args.length>2) {
             String outputFilename = args[2];
             out = new BufferedWriter(new FileWriter(outputFilename));
         }
-        int added = 0;
-        while((current=br.readLine())!=null) {
+        long added = 0;
+        long lastReport = created;
+        while((current=nextUri(br, added))!=null) {
             added++;
             uniq.add(current,null);
+            if(added % REPORT_INTERVAL == 0) {
+                long now = System.currentTimeMillis();
+                System.out.println(added+" adds, "+uniq.count()+" retained, "
+                        + (REPORT_INTERVAL*1000L/Math.max(1,now-lastReport))
+                        + " adds/sec recent, "
+                        + (added*1000L/Math.max(1,now-created))
+                        + " adds/sec overall");
+                lastReport = now;
+            }
+        }
+        if(br!=null) {
+            br.close();
+        }
+        if(uniq instanceof BdbUriUniqFilter) {
+            // apply any partial batch within the timing
+            ((BdbUriUniqFilter)uniq).flushPending();
         }
-        uniq.close();
         long finished = System.currentTimeMillis();
+        long retained = uniq.count();
+        uniq.close();
         if(out!=null) {
             out.close();
         }
         System.out.println(added+" adds");
-        System.out.println(uniq.count()+" retained");
+        System.out.println(retained+" retained");
         System.out.println((created-start)+"ms to setup UUF");
         System.out.println((finished-created)+"ms to perform all adds");
+        System.out.println((added*1000L/Math.max(1,finished-created))
+                + " adds/sec");
+    }
+    
+    /**
+     * @return next URI from the input file, or generated, or null if done
+     */
+    protected String nextUri(BufferedReader br, long added) throws IOException {
+        if(synthetic==null) {
+            return br.readLine();
+        }
+        if(added>=syntheticCount) {
+            return null;
+        }
+        // spread over hosts like a broad crawl; repeats where ids collide
+        long id = (synthetic.nextLong() & Long.MAX_VALUE) % syntheticRange;
+        return "http://www" + (id % 100003) + ".example" + (id % 7) 
+            + ".com/path/" + (id / 100003) + "/page" + id + ".html";
     }
     
     private UriUniqFilter createUriUniqFilter(String testClass) throws IOException {
         UriUniqFilter uniq = null;
+        int batchSize = 0;
+        int colon = testClass.indexOf(':');
+        if(colon>=0) {
+            batchSize = Integer.parseInt(testClass.substring(colon+1));
+            testClass = testClass.substring(0,colon);
+        }
         if(BdbUriUniqFilter.class.getName().endsWith(testClass)) {;
             // BDB setup
             File tmpDir = File.createTempFile("uuf","benchmark");
             tmpDir.delete();
             tmpDir.mkdir();
-            uniq = new BdbUriUniqFilter(tmpDir, 50);
+            BdbUriUniqFilter bdb = new BdbUriUniqFilter(tmpDir, 50);
+            bdb.setBatchSize(batchSize);
+            uniq = bdb;
         } else if(BloomUriUniqFilter.class.getName().endsWith(testClass)) {
             // bloom setup
             uniq = new BloomUriUniqFilter();
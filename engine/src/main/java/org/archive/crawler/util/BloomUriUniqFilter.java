@@ -25,13 +25,21 @@
 */
 package org.archive.crawler.util;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
 import org.archive.modules.CrawlURI;
 import org.archive.util.BloomFilter;
 import org.archive.util.BloomFilter64bit;
+import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.Lifecycle;
 
 
 /**
@@ -48,13 +56,20 @@ import org.springframework.beans.factory.InitializingBean;
  * about 495MB in size. 
  * 
  * You may swap in an differently-configured BloomFilter class to alter
- * these tradeoffs. 
+ * these tradeoffs. For very large filters, consider an OffHeapBloomFilter,
+ * which keeps its bitfield out of the Java heap (optionally in a mapped file,
+ * synced at close) and needs no locking for concurrent adds.
+ * 
+ * At each checkpoint, a Serializable bloom filter (such as either of the
+ * above) is written to the checkpoint directory, and it is read back when
+ * recovering from that checkpoint. 
  * 
  * @author gojomo
  * @version $Date$, $Revision$
  */
 public class BloomUriUniqFilter extends SetBasedUriUniqFilter
-implements Serializable, InitializingBean {
+implements Serializable, InitializingBean, Checkpointable, Lifecycle,
+           BeanNameAware {
 	private static final long serialVersionUID = 1061526253773091309L;
 
 	private static Logger LOGGER =
@@ -90,6 +105,40 @@ implements Serializable, InitializingBean {
         }
     }
 
+    protected String beanName;
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+
+    protected boolean isRunning = false;
+    public void start() {
+        if(isRunning()) {
+            return;
+        }
+        if(recoveryCheckpoint != null) {
+            try {
+                BloomFilter recovered = CheckpointUtils.readObjectFromFile(
+                        bloom.getClass(), beanName, 
+                        recoveryCheckpoint.getCheckpointDir().getFile());
+                closeBloom();
+                bloom = recovered;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        isRunning = true;
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public void stop() {
+        isRunning = false;
+    }
+
     public void forget(String canonical, CrawlURI item) {
         // TODO? could use in-memory exception list of currently-forgotten items
         LOGGER.severe("forget(\""+canonical+"\",CrawlURI) not supported");
@@ -115,4 +164,37 @@ implements Serializable, InitializingBean {
     protected boolean setRemove(CharSequence uri) {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    public void close() {
+        super.close();
+        closeBloom();
+    }
+
+    protected void closeBloom() {
+        if (bloom instanceof Closeable) {
+            try {
+                ((Closeable) bloom).close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "problem closing bloom filter", e);
+            }
+        }
+    }
+
+    // Checkpointable
+    public void startCheckpoint(Checkpoint checkpointInProgress) {}
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+        if(!(bloom instanceof Serializable)) {
+            LOGGER.warning("bloom filter " + bloom.getClass().getName()
+                    + " not Serializable, so not checkpointed");
+            return;
+        }
+        File dir = checkpointInProgress.getCheckpointDir().getFile();
+        CheckpointUtils.writeObjectToFile(bloom, beanName, dir);
+    }
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {}
+    protected Checkpoint recoveryCheckpoint;
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+        this.recoveryCheckpoint = recoveryCheckpoint;
+    }
 }
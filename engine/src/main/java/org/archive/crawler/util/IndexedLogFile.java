@@ -0,0 +1,712 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.math.LongRange;
+
+/**
+ * Random access by line to a (possibly very large, possibly growing)
+ * newline-delimited log file.
+ *
+ * <p>A sparse index records the byte offset of every
+ * {@link #getIndexInterval()}th line; it is extended incrementally, to
+ * cover only bytes appended since the last {@link #refresh()}, and large
+ * extensions (as when a big log is first opened) are scanned in parallel.
+ * The file is read through read-only memory mappings (see {@link Mapping}),
+ * so finding any line by number or by byte position costs at most one
+ * index interval's scan, independent of file size.
+ *
+ * <p>{@link #forEachMatch(Pattern, MatchVisitor)} searches the file in
+ * line-aligned chunks on all cores, delivering matches to the caller in
+ * file order.
+ *
+ * <p>Instances are shared per path through {@link #forFile(File)}, so
+ * repeated views of the same log reuse its index. A file found replaced
+ * (as after rotation: a different file key, or where the platform has no
+ * file keys, a different creation time) or shorter than before is
+ * reindexed from scratch.
+ */
+public class IndexedLogFile {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_INDEX_INTERVAL = 1024;
+    /** how many recently-used files keep their indexes */
+    protected static final int MAX_SHARED = 16;
+
+    /** mapping segment size: 1GiB, safely below the 2GiB mapping limit */
+    protected static final int SEGMENT_SHIFT = 30;
+    /** mapping window size, within a partly-written segment: 4MiB */
+    protected static final int WINDOW_SHIFT = 22;
+
+    protected static final Map<String,IndexedLogFile> SHARED =
+        new LinkedHashMap<String,IndexedLogFile>(MAX_SHARED, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String,IndexedLogFile> eldest) {
+                return size() > MAX_SHARED;
+            }
+    };
+
+    /**
+     * @return shared, refreshed instance for the given file
+     */
+    public static IndexedLogFile forFile(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        String key = file.getAbsolutePath();
+        IndexedLogFile indexed;
+        synchronized (SHARED) {
+            indexed = SHARED.get(key);
+            if (indexed == null) {
+                indexed = new IndexedLogFile(file, DEFAULT_INDEX_INTERVAL);
+                SHARED.put(key, indexed);
+            }
+        }
+        indexed.refresh();
+        return indexed;
+    }
+
+    private static ForkJoinPool sharedPool;
+    /**
+     * @return pool, sized to available processors, used for indexing and
+     * searching
+     */
+    public static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool();
+        }
+        return sharedPool;
+    }
+
+    protected final File file;
+    protected final int indexInterval;
+
+    /** unindexed bytes beyond which a refresh scans in parallel */
+    protected long parallelIndexThreshold = 64L * 1024 * 1024;
+    /** index intervals per search chunk */
+    protected int searchChunkIntervals = 16;
+
+    /** offsets of lines 0, interval, 2*interval, ...; only ever appended */
+    protected long[] lineStarts = new long[1024];
+    protected int indexEntries = 1;
+    /** count of complete (newline-terminated) lines indexed */
+    protected long lineCount = 0;
+    /** offset just past the last indexed newline */
+    protected long indexedLength = 0;
+    /** file length at last refresh */
+    protected long length = 0;
+    protected int segmentShift = SEGMENT_SHIFT;
+    protected int windowShift = WINDOW_SHIFT;
+    protected Mapping mapping = Mapping.EMPTY;
+    /** identity of the file indexed: fileKey, or creation time if none */
+    protected Object fileIdentity = null;
+
+    public IndexedLogFile(File file, int indexInterval) {
+        this.file = file;
+        this.indexInterval = indexInterval;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getIndexInterval() {
+        return indexInterval;
+    }
+
+    /**
+     * @return file length as of last refresh
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * @return count of lines as of last refresh, including any final
+     * line not yet terminated by a newline
+     */
+    public synchronized long getLineCount() {
+        return lineCount + (length > indexedLength ? 1 : 0);
+    }
+
+    /**
+     * Bring the mappings and index up to date with the file's current
+     * length, scanning only bytes not yet indexed.
+     */
+    public synchronized void refresh() throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                BasicFileAttributes.class);
+        long newLength = attrs.size();
+        Object identity = attrs.fileKey();
+        if (identity == null) {
+            identity = attrs.creationTime();
+        }
+        if (!identity.equals(fileIdentity) || newLength < length) {
+            // new, or replaced: start over
+            fileIdentity = identity;
+            lineStarts = new long[1024];
+            indexEntries = 1;
+            lineCount = 0;
+            indexedLength = 0;
+            length = 0;
+            mapping = Mapping.EMPTY;
+        } else if (newLength == length) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            mapping = mapping.extend(raf.getChannel(), newLength,
+                    segmentShift, windowShift);
+        } finally {
+            // mappings remain valid after close
+            raf.close();
+        }
+        length = newLength;
+        if (length - indexedLength > parallelIndexThreshold) {
+            indexParallel();
+        } else {
+            Scan scan = scanNewlines(indexedLength, length, lineCount, true);
+            appendScan(scan);
+        }
+    }
+
+    /**
+     * Immutable read-only view of a file's first length bytes.
+     *
+     * <p>Whole segments are each mapped once. Within the last,
+     * partly-written segment, whole windows are each mapped once, and
+     * the remaining bytes (less than a window) are read into the heap.
+     * So as the file grows, {@link #extend(FileChannel, long, int, int)}
+     * maps only new windows, never remapping bytes already mapped, except
+     * when a segment fills: then its windows are dropped for one mapping
+     * of the whole segment. So a file holds at most its segments plus one
+     * segment's windows, however often it is refreshed.
+     */
+    protected static class Mapping {
+        static final Mapping EMPTY = new Mapping(new MappedByteBuffer[0],
+                0, new MappedByteBuffer[0], 0, new byte[0]);
+
+        final MappedByteBuffer[] segments;
+        final int segmentShift;
+        final MappedByteBuffer[] windows;
+        final int windowShift;
+        final long windowsStart;
+        final long tailStart;
+        final ByteBuffer tail;
+        final long length;
+
+        Mapping(MappedByteBuffer[] segments, int segmentShift,
+                MappedByteBuffer[] windows, int windowShift, byte[] tail) {
+            this.segments = segments;
+            this.segmentShift = segmentShift;
+            this.windows = windows;
+            this.windowShift = windowShift;
+            this.windowsStart = (long) segments.length << segmentShift;
+            this.tailStart = windowsStart + ((long) windows.length << windowShift);
+            this.tail = ByteBuffer.wrap(tail);
+            this.length = tailStart + tail.length;
+        }
+
+        /**
+         * @return mapping of the first newLength bytes of the channel's
+         * file, reusing this mapping's segments and windows
+         */
+        Mapping extend(FileChannel channel, long newLength, int segmentShift,
+                int windowShift) throws IOException {
+            int segmentCount = (int) (newLength >>> segmentShift);
+            MappedByteBuffer[] segs = Arrays.copyOf(segments, segmentCount);
+            for (int i = segments.length; i < segmentCount; i++) {
+                segs[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        (long) i << segmentShift, 1L << segmentShift);
+            }
+            long newWindowsStart = (long) segmentCount << segmentShift;
+            int windowCount = (int) ((newLength - newWindowsStart) >>> windowShift);
+            boolean sameSegment = newWindowsStart == windowsStart;
+            MappedByteBuffer[] wins = sameSegment
+                ? Arrays.copyOf(windows, windowCount)
+                : new MappedByteBuffer[windowCount];
+            for (int i = sameSegment ? windows.length : 0; i < windowCount; i++) {
+                wins[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        newWindowsStart + ((long) i << windowShift),
+                        1L << windowShift);
+            }
+            long newTailStart = newWindowsStart + ((long) windowCount << windowShift);
+            byte[] newTail = new byte[(int) (newLength - newTailStart)];
+            int reused = 0;
+            if (newTailStart == tailStart) {
+                // already read
+                reused = Math.min(tail.capacity(), newTail.length);
+                System.arraycopy(tail.array(), 0, newTail, 0, reused);
+            }
+            ByteBuffer dst = ByteBuffer.wrap(newTail, reused,
+                    newTail.length - reused);
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, newTailStart + dst.position()) < 0) {
+                    throw new EOFException("file shrank while mapping");
+                }
+            }
+            return new Mapping(segs, segmentShift, wins, windowShift, newTail);
+        }
+
+        /**
+         * @return offset in the file of the start of the buffer holding
+         * the byte at pos
+         */
+        long bufferStart(long pos) {
+            if (pos < windowsStart) {
+                return pos >>> segmentShift << segmentShift;
+            }
+            if (pos < tailStart) {
+                return pos >>> windowShift << windowShift;
+            }
+            return tailStart;
+        }
+
+        /**
+         * @return buffer holding the byte at pos; its index 0 is at
+         * {@link #bufferStart(long)}
+         */
+        ByteBuffer buffer(long pos) {
+            if (pos < windowsStart) {
+                return segments[(int) (pos >>> segmentShift)];
+            }
+            if (pos < tailStart) {
+                return windows[(int) ((pos - windowsStart) >>> windowShift)];
+            }
+            return tail;
+        }
+
+        /**
+         * @return offset of first b in [from, to), or -1 if none
+         */
+        long indexOf(byte b, long from, long to) {
+            long pos = from;
+            while (pos < to) {
+                ByteBuffer buf = buffer(pos);
+                long bufStart = bufferStart(pos);
+                int end = (int) Math.min(buf.limit(), to - bufStart);
+                for (int i = (int) (pos - bufStart); i < end; i++) {
+                    if (buf.get(i) == b) {
+                        return bufStart + i;
+                    }
+                }
+                pos = bufStart + end;
+            }
+            return -1;
+        }
+
+        /**
+         * Copy len bytes starting at pos into dst.
+         */
+        void copy(long pos, byte[] dst, int len) {
+            int copied = 0;
+            while (copied < len) {
+                ByteBuffer buf = buffer(pos).duplicate();
+                int offset = (int) (pos - bufferStart(pos));
+                int n = Math.min(len - copied, buf.limit() - offset);
+                buf.position(offset);
+                buf.get(dst, copied, n);
+                copied += n;
+                pos += n;
+            }
+        }
+    }
+
+    /** result of scanning a byte range for newlines */
+    protected static class Scan {
+        long newlines = 0;
+        /** offset after the last newline found, or -1 if none */
+        long lastLineEnd = -1;
+        /** offsets of interval-aligned line starts found */
+        long[] starts = new long[16];
+        int startCount = 0;
+    }
+
+    /**
+     * Scan [from, to) for newlines, optionally recording the offset of
+     * every line whose number (given that the line starting at from is
+     * number baseLine) is a multiple of the index interval.
+     */
+    protected Scan scanNewlines(long from, long to, long baseLine,
+            boolean record) {
+        Mapping mapped = mapping;
+        Scan scan = new Scan();
+        long line = baseLine;
+        long pos = from;
+        while (pos < to) {
+            long nl = mapped.indexOf((byte) '\n', pos, to);
+            if (nl < 0) {
+                break;
+            }
+            line++;
+            scan.newlines++;
+            pos = nl + 1;
+            scan.lastLineEnd = pos;
+            if (record && line % indexInterval == 0) {
+                if (scan.startCount == scan.starts.length) {
+                    scan.starts = Arrays.copyOf(scan.starts,
+                            scan.startCount * 2);
+                }
+                scan.starts[scan.startCount++] = pos;
+            }
+        }
+        return scan;
+    }
+
+    protected void appendScan(Scan scan) {
+        if (scan.newlines == 0) {
+            return;
+        }
+        if (indexEntries + scan.startCount > lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, Math.max(
+                    lineStarts.length * 2, indexEntries + scan.startCount));
+        }
+        System.arraycopy(scan.starts, 0, lineStarts, indexEntries,
+                scan.startCount);
+        indexEntries += scan.startCount;
+        lineCount += scan.newlines;
+        indexedLength = scan.lastLineEnd;
+    }
+
+    /**
+     * Extend the index over a large range in two parallel passes: first
+     * counting each chunk's newlines, then (with each chunk's starting
+     * line number known) recording its interval-aligned line starts.
+     */
+    protected void indexParallel() throws IOException {
+        ForkJoinPool pool = getSharedPool();
+        int chunks = pool.getParallelism() * 4;
+        final long from = indexedLength;
+        long chunkSize = (length - from + chunks - 1) / chunks;
+        final long[] bounds = new long[chunks + 1];
+        for (int i = 0; i <= chunks; i++) {
+            bounds[i] = Math.min(length, from + i * chunkSize);
+        }
+        List<Future<Scan>> counts = new ArrayList<Future<Scan>>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int chunk = i;
+            counts.add(pool.submit(new Callable<Scan>() {
+                public Scan call() {
+                    return scanNewlines(bounds[chunk], bounds[chunk + 1], 0,
+                            false);
+                }
+            }));
+        }
+        List<Future<Scan>> scans = new ArrayList<Future<Scan>>(chunks);
+        long base = lineCount;
+        for (int i = 0; i < chunks; i++) {
+            final int chunk = i;
+            final long chunkBase = base;
+            scans.add(pool.submit(new Callable<Scan>() {
+                public Scan call() {
+                    return scanNewlines(bounds[chunk], bounds[chunk + 1],
+                            chunkBase, true);
+                }
+            }));
+            base += get(counts.get(i)).newlines;
+        }
+        for (Future<Scan> scan : scans) {
+            appendScan(get(scan));
+        }
+    }
+
+    protected static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return text of the bytes [start, end), less any trailing newline
+     * or carriage return
+     */
+    protected static String decodeLine(Mapping mapped, long start,
+            long end, byte[][] scratch) {
+        int len = (int) (end - start);
+        if (scratch[0].length < len) {
+            scratch[0] = new byte[Math.max(len, scratch[0].length * 2)];
+        }
+        byte[] buf = scratch[0];
+        mapped.copy(start, buf, len);
+        if (len > 0 && buf[len - 1] == '\n') {
+            len--;
+        }
+        if (len > 0 && buf[len - 1] == '\r') {
+            len--;
+        }
+        return new String(buf, 0, len, UTF8);
+    }
+
+    /**
+     * @return offset just past the line starting at start (past its
+     * newline, or at end of file)
+     */
+    protected long lineEnd(long start) {
+        long nl = mapping.indexOf((byte) '\n', start, length);
+        return nl < 0 ? length : nl + 1;
+    }
+
+    /**
+     * @param line 0-based line number, no greater than the line count
+     * @return byte offset at which that line starts (the file length, for
+     * the line count)
+     */
+    public synchronized long offsetOfLine(long line) {
+        if (line >= lineCount) {
+            return line == lineCount ? indexedLength : length;
+        }
+        long pos = lineStarts[(int) (line / indexInterval)];
+        for (long skip = line % indexInterval; skip > 0; skip--) {
+            pos = lineEnd(pos);
+        }
+        return pos;
+    }
+
+    /**
+     * @param position byte offset into file
+     * @return 0-based number of the line containing that offset (the line
+     * count, for offsets past the last complete line)
+     */
+    public synchronized long lineContaining(long position) {
+        if (position >= indexedLength) {
+            return lineCount;
+        }
+        int entry = Arrays.binarySearch(lineStarts, 0, indexEntries, position);
+        if (entry < 0) {
+            entry = -entry - 2;
+        }
+        long line = (long) entry * indexInterval;
+        long end = lineEnd(lineStarts[entry]);
+        while (end <= position) {
+            line++;
+            end = lineEnd(end);
+        }
+        return line;
+    }
+
+    /**
+     * Read up to n lines starting at the given offset (which should be
+     * a line start) into lines.
+     *
+     * @return offset just past the last line read
+     */
+    protected synchronized long readLines(long start, long n,
+            List<String> lines) {
+        byte[][] scratch = { new byte[256] };
+        long pos = start;
+        for (long i = 0; i < n && pos < length; i++) {
+            long end = lineEnd(pos);
+            lines.add(decodeLine(mapping, pos, end, scratch));
+            pos = end;
+        }
+        return pos;
+    }
+
+    /**
+     * @param firstLine 0-based number of first line to get
+     * @param n maximum number of lines
+     * @return up to n lines, starting with firstLine
+     */
+    public synchronized List<String> getLines(long firstLine, int n) {
+        List<String> lines = new LinkedList<String>();
+        if (firstLine <= getLineCount()) {
+            readLines(offsetOfLine(firstLine), n, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * @return the raw text of bytes [start, end)
+     */
+    public synchronized String getText(long start, long end) {
+        byte[] buf = new byte[(int) (end - start)];
+        mapping.copy(start, buf, buf.length);
+        return new String(buf, UTF8);
+    }
+
+    /**
+     * Load lines around the given position, with the same meaning as
+     * FileUtils.pagedLines(): for a positive count, lines starting at or
+     * after position; for a negative count, lines ending with the one
+     * containing position.
+     *
+     * @param position byte offset; negative counts from end of file
+     * @param signedDesiredLineCount line count; negative to go backward
+     * @param lines list to receive lines
+     * @return range [start-of-first-line, past-end-of-last-line] in file
+     */
+    public synchronized LongRange pagedLines(long position,
+            int signedDesiredLineCount, List<String> lines) {
+        if (position < 0) {
+            position = length + position;
+        }
+        position = Math.max(0, Math.min(length, position));
+        long totalLines = getLineCount();
+        if (totalLines == 0) {
+            return new LongRange(0, 0);
+        }
+        long first;
+        long count = Math.abs((long) signedDesiredLineCount);
+        if (signedDesiredLineCount > 0) {
+            first = lineContaining(position);
+            if (offsetOfLine(first) < position) {
+                first++;
+            }
+            if (first >= totalLines) {
+                return new LongRange(length, length);
+            }
+        } else {
+            long last = Math.min(lineContaining(position), totalLines - 1);
+            first = Math.max(0, last - count + 1);
+            count = last - first + 1;
+        }
+        long start = offsetOfLine(first);
+        long end = readLines(start, count, lines);
+        return new LongRange(start, end);
+    }
+
+    /**
+     * Receiver of search matches, in file order.
+     */
+    public interface MatchVisitor {
+        /**
+         * @param line 0-based line number
+         * @param text line text
+         * @return true to continue, false to end the search
+         */
+        boolean match(long line, String text);
+    }
+
+    /** matches found in one chunk */
+    protected static class ChunkMatches {
+        long[] lines = new long[16];
+        List<String> texts = new ArrayList<String>();
+    }
+
+    /**
+     * Find all lines wholly matching pattern, searching line-aligned
+     * chunks of the file in parallel, and deliver them to the visitor on
+     * the calling thread in file order. Only a bounded number of chunks
+     * are searched ahead of delivery, so memory use is independent of
+     * file size, and ending the search early skips the remaining chunks.
+     */
+    public void forEachMatch(final Pattern pattern, MatchVisitor visitor)
+    throws IOException {
+        final Mapping mapped;
+        final long[] starts;
+        final long lines;
+        final long fileLength;
+        synchronized (this) {
+            mapped = mapping;
+            starts = lineStarts;
+            lines = getLineCount();
+            fileLength = length;
+        }
+        ForkJoinPool pool = getSharedPool();
+        final long chunkLines = (long) indexInterval * searchChunkIntervals;
+        long chunks = (lines + chunkLines - 1) / chunkLines;
+        int window = pool.getParallelism() * 2;
+        LinkedList<Future<ChunkMatches>> inFlight =
+            new LinkedList<Future<ChunkMatches>>();
+        long nextChunk = 0;
+        try {
+            while (nextChunk < chunks || !inFlight.isEmpty()) {
+                while (nextChunk < chunks && inFlight.size() < window) {
+                    final long firstLine = nextChunk * chunkLines;
+                    final long lastLine = Math.min(lines,
+                            firstLine + chunkLines);
+                    inFlight.add(pool.submit(new Callable<ChunkMatches>() {
+                        public ChunkMatches call() {
+                            return searchChunk(mapped, fileLength, pattern,
+                                    starts[(int) (firstLine / indexInterval)],
+                                    firstLine, lastLine);
+                        }
+                    }));
+                    nextChunk++;
+                }
+                ChunkMatches found = get(inFlight.removeFirst());
+                for (int i = 0; i < found.texts.size(); i++) {
+                    if (!visitor.match(found.lines[i], found.texts.get(i))) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            for (Future<ChunkMatches> future : inFlight) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    protected static ChunkMatches searchChunk(Mapping mapped,
+            long fileLength, Pattern pattern, long start, long firstLine,
+            long lastLine) {
+        ChunkMatches found = new ChunkMatches();
+        Matcher m = pattern.matcher("");
+        byte[][] scratch = { new byte[256] };
+        long pos = start;
+        for (long line = firstLine; line < lastLine; line++) {
+            long nl = mapped.indexOf((byte) '\n', pos, fileLength);
+            long end = nl < 0 ? fileLength : nl + 1;
+            String text = decodeLine(mapped, pos, end, scratch);
+            if (m.reset(text).matches()) {
+                int n = found.texts.size();
+                if (n == found.lines.length) {
+                    found.lines = Arrays.copyOf(found.lines, n * 2);
+                }
+                found.lines[n] = line;
+                found.texts.add(text);
+            }
+            pos = end;
+        }
+        return found;
+    }
+}
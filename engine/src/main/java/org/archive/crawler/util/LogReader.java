@@ -28,6 +28,7 @@ import java.io.RandomAccessFile;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -39,7 +40,10 @@ import org.archive.util.ArchiveUtils;
  * This class contains a variety of methods for reading log files (or other text 
  * files containing repeated lines with similar information).
  * <p>
- * All methods are static.
+ * All methods are static. Methods given a single file's name (rather than
+ * a reader or a numbered series) read it through a shared
+ * {@link IndexedLogFile}, so that positioning by line number and tailing
+ * take constant time and regular expression searches use all cores.
  *
  * @author Kristinn Sigurdsson
  */
@@ -105,11 +109,17 @@ public class LogReader
      */
     public static String[] get(String aFileName, int lineNumber, int n)
     {
-        File f = new File(aFileName);
-        long logsize = f.length();
         try {
-            return get(new FileReader(aFileName),lineNumber,n,logsize);
-        } catch (FileNotFoundException e) {
+            IndexedLogFile log = IndexedLogFile.forFile(new File(aFileName));
+            StringBuffer ret = new StringBuffer();
+            for (String line : log.getLines(Math.max(0, lineNumber - 1), n)) {
+                ret.append(line);
+                ret.append('\n');
+            }
+            String[] tmp = {ret.toString(),
+                    buildDisplayingHeader(ret.length(), log.getLength())};
+            return tmp;
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
@@ -220,12 +230,21 @@ public class LogReader
      */
     public static int findFirstLineContaining(String aFileName, String regex)
     {
+        Pattern p = Pattern.compile(regex);
+        final long[] found = {-1};
         try {
-            return findFirstLineContaining(new FileReader(aFileName), regex);
-        } catch (FileNotFoundException e) {
+            IndexedLogFile.forFile(new File(aFileName)).forEachMatch(p,
+                    new IndexedLogFile.MatchVisitor() {
+                public boolean match(long line, String text) {
+                    found[0] = line;
+                    return false;
+                }
+            });
+        } catch (IOException e) {
             e.printStackTrace();
             return -1;
         }
+        return found[0] < 0 ? -1 : (int) (found[0] + 1);
     }
 
     /**
@@ -373,20 +392,8 @@ public class LogReader
                                         boolean prependLineNumbers,
                                         int skipFirstMatches,
                                         int numberOfMatches) {
-        try {
-            File f = new File(aFileName);
-            return getByRegex(
-                    new FileReader(f), 
-                    regex, 
-                    addLines, 
-                    prependLineNumbers,
-                    skipFirstMatches,
-                    numberOfMatches,
-                    f.length());
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
-        }
+        return getByRegexIndexed(aFileName, regex, addLines, null,
+                prependLineNumbers, skipFirstMatches, numberOfMatches);
     }
 
     /**
@@ -516,6 +523,7 @@ public class LogReader
                         }
                         ret.append(line);
                         ret.append("\n");
+                        addCount++;
                     }else{
                         doAdd = false;
                         addCount = 0;
@@ -568,20 +576,89 @@ public class LogReader
                                         boolean prependLineNumbers,
                                         int skipFirstMatches,
                                         int numberOfMatches){
+        return getByRegexIndexed(aFileName, regex, 0, addLines,
+                prependLineNumbers, skipFirstMatches, numberOfMatches);
+    }
+
+    /**
+     * Implementation of the single-file getByRegex variants: matches are
+     * found by a parallel IndexedLogFile search, then (in file order)
+     * counted, skipped, and extended with following lines exactly as the
+     * reader-based variants do.
+     *
+     * @param addLines count of following lines to add, if addPrefix null
+     * @param addPrefix prefix of following lines to add, or null
+     */
+    private static String[] getByRegexIndexed(String aFileName,
+                                              String regex,
+                                              final int addLines,
+                                              final String addPrefix,
+                                              final boolean prependLineNumbers,
+                                              final int skipFirstMatches,
+                                              final int numberOfMatches) {
+        final StringBuffer ret = new StringBuffer();
+        String info = "";
         try {
-            File f = new File(aFileName);
-            return getByRegex(
-                    new FileReader(f),
-                    regex,
-                    addLines,
-                    prependLineNumbers,
-                    skipFirstMatches,
-                    numberOfMatches,
-                    f.length());
-        } catch (FileNotFoundException e) {
+            final Pattern p = Pattern.compile(regex);
+            final IndexedLogFile log =
+                IndexedLogFile.forFile(new File(aFileName));
+            final long[] linesMatched = {0};
+            log.forEachMatch(p, new IndexedLogFile.MatchVisitor() {
+                Matcher m = p.matcher("");
+                List<String> following = new LinkedList<String>();
+                public boolean match(long line, String text) {
+                    if(numberOfMatches > 0 &&
+                            linesMatched[0] >= skipFirstMatches + numberOfMatches){
+                        // Ok, we are done.
+                        return false;
+                    }
+                    linesMatched[0]++;
+                    if(linesMatched[0] <= skipFirstMatches){
+                        return true;
+                    }
+                    appendLine(ret, line + 1, text, prependLineNumbers);
+                    // add following lines, up to the next match
+                    long pos = log.offsetOfLine(line + 1);
+                    for(long i = line + 2; 
+                            addPrefix != null || i - line - 2 < addLines; i++) {
+                        following.clear();
+                        pos = log.readLines(pos, 1, following);
+                        if(following.isEmpty()) {
+                            break;
+                        }
+                        String next = following.get(0);
+                        if(m.reset(next).matches() || (addPrefix != null
+                                && next.indexOf(addPrefix) != 0)) {
+                            break;
+                        }
+                        linesMatched[0]++;
+                        appendLine(ret, i, next, prependLineNumbers);
+                    }
+                    return true;
+                }
+            });
+            info = buildDisplayingHeader(ret.length(), log.getLength());
+        }catch(FileNotFoundException e){
+            return null;
+        }catch(IOException e){
             e.printStackTrace();
             return null;
+        }catch(PatternSyntaxException e){
+            ret.setLength(0);
+            ret.append(e.getMessage());
         }
+        String[] tmp = {ret.toString(),info};
+        return tmp;
+    }
+
+    private static void appendLine(StringBuffer ret, long lineNumber,
+            String line, boolean prependLineNumbers) {
+        if(prependLineNumbers){
+            ret.append(lineNumber);
+            ret.append(". ");
+        }
+        ret.append(line);
+        ret.append("\n");
     }
 
     /**
@@ -751,8 +828,16 @@ public class LogReader
      */
     public static String[] tail(String aFileName, int n) {
         try {
-            return tail(new RandomAccessFile(new File(aFileName),"r"),n);
-        } catch (FileNotFoundException e) {
+            IndexedLogFile log = IndexedLogFile.forFile(new File(aFileName));
+            String text;
+            synchronized (log) {
+                long first = Math.max(0, log.getLineCount() - n);
+                text = log.getText(log.offsetOfLine(first), log.getLength());
+            }
+            String[] tmp = {text,
+                    buildDisplayingHeader(text.length(), log.getLength())};
+            return tmp;
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
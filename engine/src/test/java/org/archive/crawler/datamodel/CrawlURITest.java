@@ -24,15 +24,27 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 import org.apache.commons.httpclient.URIException;
+import org.archive.bdb.AutoKryo;
+import org.archive.bdb.KryoBinding;
+import org.archive.modules.CoreAttributeConstants;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.SchedulingConstants;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.LinkContext;
 import org.archive.modules.extractor.LinkContext.SimpleLinkContext;
+import org.archive.modules.recrawl.RecrawlAttributeConstants;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.TmpDirTestCase;
 
+import com.sleepycat.je.DatabaseEntry;
+
 /**
  * Tests related to CrawlURI
  *
@@ -215,4 +227,129 @@ public class CrawlURITest extends TmpDirTestCase {
         assertEquals(0, a.compareTo(b));
         assertEquals(0, b.compareTo(a));
     }
+
+    /**
+     * Test attributes held in typed fields remain visible by key, and
+     * follow the same persistence rules as data map entries did.
+     */
+    public void testTypedAttributes() throws URIException {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/"));
+        assertFalse(curi.containsDataKey(
+                CoreAttributeConstants.A_FETCH_BEGAN_TIME));
+        assertEquals(-1, curi.getFetchDuration());
+        curi.setFetchBeginTime(1000L);
+        curi.setFetchCompletedTime(1500L);
+        curi.getAnnotations().add("3t");
+        curi.getNonFatalFailures().add(new Exception("test"));
+        assertTrue(curi.containsDataKey(
+                CoreAttributeConstants.A_FETCH_BEGAN_TIME));
+        assertTrue(curi.containsDataKey(
+                CoreAttributeConstants.A_FETCH_COMPLETED_TIME));
+        assertTrue(curi.containsDataKey(CoreAttributeConstants.A_ANNOTATIONS));
+        assertTrue(curi.containsDataKey(
+                CoreAttributeConstants.A_NONFATAL_ERRORS));
+        assertEquals(500L, curi.getFetchDuration());
+        assertNull("typed attributes in data map", 
+                curi.getData().get(CoreAttributeConstants.A_FETCH_BEGAN_TIME));
+        assertEquals(curi.getAnnotations(), curi.getPersistentDataMap().get(
+                CoreAttributeConstants.A_ANNOTATIONS));
+
+        curi.processingCleanup();
+        assertFalse(curi.containsDataKey(
+                CoreAttributeConstants.A_FETCH_BEGAN_TIME));
+        assertFalse(curi.containsDataKey(
+                CoreAttributeConstants.A_NONFATAL_ERRORS));
+        assertEquals(1, curi.getAnnotations().size());
+
+        // as from persist-load, or an older serialized CrawlURI
+        HashSet<String> loaded = new HashSet<String>();
+        loaded.add("loaded");
+        curi.getData().put(CoreAttributeConstants.A_ANNOTATIONS, loaded);
+        curi.getData().put(CoreAttributeConstants.A_FETCH_BEGAN_TIME, 2000L);
+        assertTrue(curi.getAnnotations().contains("3t"));
+        assertTrue(curi.getAnnotations().contains("loaded"));
+        assertFalse(curi.getData().containsKey(
+                CoreAttributeConstants.A_ANNOTATIONS));
+        assertEquals(2000L, curi.getFetchBeginTime());
+
+        curi.stripToMinimal();
+        assertFalse(curi.containsDataKey(CoreAttributeConstants.A_ANNOTATIONS));
+        assertNull(curi.getPersistentDataMap());
+    }
+
+    /**
+     * Test frontier-queue (Kryo) serialization of typical CrawlURIs needs
+     * no class not registered by CrawlURI.
+     */
+    @SuppressWarnings("unchecked")
+    public void testKryoSerialization() throws URIException {
+        KryoBinding<CrawlURI> binding = 
+            new KryoBinding<CrawlURI>(CrawlURI.class, true);
+        DatabaseEntry entry = new DatabaseEntry();
+
+        this.seed.setSourceTag("source");
+        this.seed.makeHeritable(CoreAttributeConstants.A_SOURCE_TAG);
+        binding.objectToEntry(this.seed, entry);
+        CrawlURI seedCopy = binding.entryToObject(entry);
+        assertEquals(this.seed.toString(), seedCopy.toString());
+        assertEquals("source", seedCopy.getSourceTag());
+
+        CrawlURI outlink = this.seed.createCrawlURI(
+                "http://www.dh.gov.uk/page.html", 
+                LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+        outlink.getAnnotations().add("1t");
+        outlink.getDataList(CoreAttributeConstants.A_WARC_RESPONSE_HEADERS)
+            .add("header: value");
+        HashMap<String,Object> fetch = new HashMap<String,Object>();
+        fetch.put(CoreAttributeConstants.A_FETCH_BEGAN_TIME, 1000L);
+        fetch.put(RecrawlAttributeConstants.A_CONTENT_DIGEST, "sha1:ABCD");
+        outlink.getData().put(RecrawlAttributeConstants.A_FETCH_HISTORY, 
+                new HashMap[] {fetch, null});
+        binding.objectToEntry(outlink, entry);
+        assertFalse("class name in entry", 
+                new String(entry.getData(), 0, entry.getSize()).contains("java."));
+        CrawlURI outlinkCopy = binding.entryToObject(entry);
+        assertEquals(outlink.toString(), outlinkCopy.toString());
+        assertEquals(outlink.getPathFromSeed(), outlinkCopy.getPathFromSeed());
+        assertEquals(outlink.getVia(), outlinkCopy.getVia());
+        assertEquals("source", outlinkCopy.getSourceTag());
+        assertTrue(outlinkCopy.getAnnotations().contains("1t"));
+        assertEquals("header: value", outlinkCopy.getDataList(
+                CoreAttributeConstants.A_WARC_RESPONSE_HEADERS).get(0));
+        HashMap<String,Object>[] history = (HashMap<String,Object>[]) 
+            outlinkCopy.getData().get(RecrawlAttributeConstants.A_FETCH_HISTORY);
+        assertEquals(1000L, history[0].get(
+                CoreAttributeConstants.A_FETCH_BEGAN_TIME));
+    }
+
+    /**
+     * Class IDs in stored queue entries follow registration order; check
+     * it is unchanged (new registrations must come last).
+     */
+    public void testKryoClassTable() {
+        AutoKryo kryo = new KryoBinding<CrawlURI>(CrawlURI.class).getKryo();
+        List<Class<?>> expected = Arrays.<Class<?>>asList(
+            CrawlURI.class,
+            byte[].class,
+            java.util.HashSet.class,
+            java.util.HashMap.class,
+            UURI.class,
+            org.archive.modules.extractor.HTMLLinkContext.class,
+            SimpleLinkContext.class,
+            HashMap[].class,
+            org.archive.modules.credential.HttpAuthenticationCredential.class,
+            org.archive.modules.credential.HtmlFormCredential.class,
+            org.apache.commons.httpclient.NameValuePair.class,
+            org.apache.commons.httpclient.NameValuePair[].class,
+            CrawlURI.FetchType.class,
+            java.util.ArrayList.class,
+            java.util.LinkedList.class,
+            java.util.LinkedHashSet.class,
+            String[].class,
+            char[].class,
+            org.archive.modules.forms.HTMLForm.NameValue.class,
+            org.json.JSONObject.class);
+        assertEquals(expected, kryo.getRegisteredClasses());
+    }
 }
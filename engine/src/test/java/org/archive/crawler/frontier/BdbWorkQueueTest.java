@@ -0,0 +1,88 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import junit.framework.TestCase;
+
+import org.archive.bdb.KryoBinding;
+import org.archive.crawler.frontier.precedence.HighestUriQueuePrecedencePolicy;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStats.Stage;
+import org.archive.net.UURIFactory;
+
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * BdbWorkQueue tests
+ */
+public class BdbWorkQueueTest extends TestCase {
+
+    protected BdbWorkQueue makeQueue(String classKey) throws Exception {
+        final BdbMultipleWorkQueues queues = new BdbMultipleWorkQueues(null, null) {
+            @Override
+            public void addCap(byte[] origin) {
+                // no database
+            }
+        };
+        BdbFrontier frontier = new BdbFrontier() {
+            @Override
+            protected BdbMultipleWorkQueues getWorkQueues() {
+                return queues;
+            }
+        };
+        return new BdbWorkQueue(classKey, frontier);
+    }
+
+    protected BdbWorkQueue roundTrip(BdbWorkQueue wq) {
+        KryoBinding<BdbWorkQueue> binding =
+            new KryoBinding<BdbWorkQueue>(BdbWorkQueue.class, true);
+        DatabaseEntry entry = new DatabaseEntry();
+        binding.objectToEntry(wq, entry);
+        return binding.entryToObject(entry);
+    }
+
+    /**
+     * Test queue (Kryo) serialization, as in the 'allqueues' cache, needs
+     * no class not registered by BdbWorkQueue, with either kind of
+     * precedence provider.
+     */
+    public void testKryoSerialization() throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                "http://www.example.com/page.html"));
+        curi.setPrecedence(3);
+
+        BdbWorkQueue wq = makeQueue("www.example.com");
+        wq.tally(curi, Stage.SCHEDULED);
+        BdbWorkQueue copy = roundTrip(wq);
+        assertEquals("www.example.com", copy.getClassKey());
+        assertEquals(wq.getPrecedence(), copy.getPrecedence());
+        assertEquals(1, copy.getSubstats().getTotalScheduled());
+
+        wq = makeQueue("www.example.org");
+        wq.setPrecedenceProvider(new HighestUriQueuePrecedencePolicy()
+                .new HighestUriPrecedenceProvider(1));
+        wq.tally(curi, Stage.SCHEDULED);
+        copy = roundTrip(wq);
+        assertEquals(4, wq.getPrecedence());
+        assertEquals(4, copy.getPrecedence());
+        assertEquals(wq.getPrecedenceProvider().getClass(),
+                copy.getPrecedenceProvider().getClass());
+    }
+}
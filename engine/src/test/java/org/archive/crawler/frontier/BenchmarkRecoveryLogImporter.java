@@ -0,0 +1,142 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.archive.crawler.datamodel.UriUniqFilter.CrawlUriReceiver;
+import org.archive.crawler.util.BloomUriUniqFilter;
+import org.archive.modules.CrawlURI;
+import org.archive.util.OffHeapBloomFilter;
+import org.json.JSONObject;
+
+/**
+ * Benchmark of RecoveryLogImporter over a synthetic recovery journal
+ * (by default of 100 million lines, generated on first use and then
+ * reused), recovering into a BloomUriUniqFilter: every URI is scheduled
+ * ('F+'), and two of every three later succeed ('Fs'). Reports lines/sec
+ * for each phase at 1 worker thread and at the given thread count.
+ *
+ * Usage: BenchmarkRecoveryLogImporter [lines] [threads] [dir]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkRecoveryLogImporter {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkRecoveryLogImporter()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        long lines = (args.length > 0) ? Long.parseLong(args[0]) : 100000000L;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        File dir = (args.length > 2) ? new File(args[2])
+            : new File(System.getProperty("java.io.tmpdir"));
+        File log = new File(dir, "synthetic-" + lines + ".recover.gz");
+        if (!log.exists()) {
+            System.out.println("generating " + log);
+            generate(log, lines);
+        }
+        System.out.println("lines=" + lines + " threads=" + threads
+                + " logMb=" + (log.length() >> 20));
+        test(log, lines, 1);
+        test(log, lines, threads);
+    }
+
+    protected void generate(File log, long lines) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(log), 64 * 1024)),
+                64 * 1024);
+        long written = 0;
+        for (long i = 0; written < lines; i++) {
+            String host = "http://www" + (i % 100000) + ".example" + (i % 7)
+                    + ".com/";
+            out.write(FrontierJournal.F_ADD + host + "dir/page" + i
+                    + ".html LLX " + host + " L\n");
+            written++;
+            // successes trail their additions, as in a real crawl
+            long done = i - 1000;
+            if (done >= 0 && done % 3 != 0 && written < lines) {
+                String doneHost = "http://www" + (done % 100000) + ".example"
+                        + (done % 7) + ".com/";
+                out.write(FrontierJournal.F_SUCCESS + doneHost + "dir/page"
+                        + done + ".html LLX " + doneHost + " L\n");
+                written++;
+            }
+        }
+        out.close();
+    }
+
+    protected void test(File log, long lines, int threads) throws Exception {
+        final BloomUriUniqFilter filter = new BloomUriUniqFilter();
+        OffHeapBloomFilter bloom = new OffHeapBloomFilter(lines, 22);
+        filter.setBloomFilter(bloom);
+        final AtomicLong queued = new AtomicLong(0);
+        filter.setDestination(new CrawlUriReceiver() {
+            public void receive(CrawlURI item) {
+                queued.incrementAndGet();
+            }
+        });
+
+        JSONObject params = new JSONObject();
+        params.put("includeSuccesses", true);
+        params.put("scheduleScheduleds", true);
+        params.put("recoveryThreads", threads);
+        RecoveryLogImporter importer = new RecoveryLogImporter(params, null,
+                new RecoveryLogImporter.Target() {
+            public void include(CrawlURI curi, String line) {
+                filter.note(curi.getURI());
+            }
+            public void includesDone() {
+            }
+            public void schedule(CrawlURI curi) {
+                filter.add(curi.getURI(), curi);
+            }
+            public long queuedCount() {
+                return queued.get();
+            }
+        });
+
+        long startMs = System.currentTimeMillis();
+        importer.importCompletions(log);
+        long completionsMs = System.currentTimeMillis() - startMs;
+        startMs = System.currentTimeMillis();
+        importer.importQueues(new CountDownLatch(1), Long.MAX_VALUE);
+        long queuesMs = System.currentTimeMillis() - startMs;
+        System.out.println("threads=" + threads + ": completions "
+                + (lines * 1000 / Math.max(1, completionsMs)) + " lines/sec ("
+                + importer.getIncluded() + " included), queues "
+                + queuesMs + "ms (" + queued.get() + " queued), total "
+                + (completionsMs + queuesMs) + "ms");
+        bloom.close();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.crawler.framework.Frontier.State;
+import org.archive.crawler.prefetch.FrontierPreparer;
+import org.archive.crawler.spring.SheetOverlaysManager;
+import org.archive.crawler.util.BloomUriUniqFilter;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+import org.springframework.context.support.StaticApplicationContext;
+
+/**
+ * Simple benchmarking of a real BdbFrontier's next()/finished() cycle,
+ * comparing the classic single ready queue against the sharded concurrent
+ * mode (see WorkQueueFrontier.readyQueueShards) as ToeThread counts grow.
+ * Each simulated ToeThread repeatedly takes a URI with next(), marks it
+ * fetched, and hands it back with finished(), so that queue activation,
+ * deactivation, in-process tracking and BDB-backed queue access are all
+ * exercised, as in a crawl with no politeness delay. Only the
+ * CrawlController notifications and crawl.log lines are left out.
+ *
+ * Usage: BenchmarkWorkQueueFrontier [queue-count] [uris-per-queue] [shards]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkWorkQueueFrontier {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkWorkQueueFrontier()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int queueCount =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        int urisPerQueue =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        int shards =
+            (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+        System.out.println("queues="+queueCount+" uris/queue="+urisPerQueue
+                +" shards="+shards);
+        int[] threadCounts = {1, 4, 16, 64, 256};
+        for(int threads : threadCounts) {
+            testFrontier("single", 1, queueCount, urisPerQueue, threads);
+            testFrontier("sharded", shards, queueCount, urisPerQueue, threads);
+        }
+    }
+
+    protected void testFrontier(String label, int shards, int queueCount,
+            int urisPerQueue, int threadCount) throws Exception {
+        File dir = new File(TmpDirTestCase.tmpDir(),
+                "BenchmarkWorkQueueFrontier");
+        FileUtils.deleteDirectory(dir);
+        BdbModule bdb = new BdbModule();
+        bdb.setDir(new ConfigPath("bdb", dir.getAbsolutePath()));
+        bdb.start();
+        final BdbFrontier frontier = makeFrontier(bdb, shards);
+
+        for(int u = 0; u < urisPerQueue; u++) {
+            for(int q = 0; q < queueCount; q++) {
+                frontier.schedule(new CrawlURI(UURIFactory.getInstance(
+                        "http://host" + q + ".example.com/page" + u + ".html")));
+            }
+        }
+        frontier.run();
+
+        final int cyclesPerThread = queueCount * urisPerQueue / threadCount;
+        final AtomicLong cycles = new AtomicLong(0);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        System.gc();
+        long startNs = System.nanoTime();
+        for(int t = 0; t < threadCount; t++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for(int i = 0; i < cyclesPerThread; i++) {
+                            CrawlURI curi = frontier.next();
+                            // as by FetchHTTP and DispositionProcessor
+                            curi.setFetchStatus(200);
+                            curi.setPolitenessDelay(0);
+                            frontier.finished(curi);
+                        }
+                        cycles.addAndGet(cyclesPerThread);
+                    } catch (InterruptedException e) {
+                        // end early
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        long elapsedNs = System.nanoTime() - startNs;
+        System.out.println(label + " threads=" + threadCount + ": "
+                + (cycles.get() * 1000000000L / Math.max(1, elapsedNs))
+                + " next/finished cycles/sec");
+
+        frontier.terminate();
+        frontier.managerThread.join();
+        frontier.close();
+        bdb.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    protected BdbFrontier makeFrontier(BdbModule bdb, int shards)
+    throws Exception {
+        BdbFrontier frontier = new BdbFrontier() {
+            @Override
+            protected void reachedState(State justReached) {
+                // no CrawlController to notify
+            }
+            @Override
+            protected void log(CrawlURI curi) {
+                // no crawl.log
+            }
+        };
+        frontier.setBdbModule(bdb);
+        frontier.setBeanName("frontier");
+        frontier.setServerCache(new DefaultServerCache());
+        frontier.setSheetOverlaysManager(new SheetOverlaysManager());
+        frontier.setFrontierPreparer(new FrontierPreparer());
+        BloomUriUniqFilter uniq = new BloomUriUniqFilter();
+        uniq.afterPropertiesSet();
+        frontier.setUriUniqFilter(uniq);
+        frontier.setRecoveryLogEnabled(false);
+        StaticApplicationContext appCtx = new StaticApplicationContext();
+        appCtx.refresh();
+        frontier.setApplicationContext(appCtx);
+        frontier.setReadyQueueShards(shards);
+        frontier.start();
+        return frontier;
+    }
+}
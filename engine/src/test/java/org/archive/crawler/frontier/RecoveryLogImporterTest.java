@@ -0,0 +1,222 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.util.TmpDirTestCase;
+import org.json.JSONObject;
+
+/**
+ * RecoveryLogImporter tests
+ */
+public class RecoveryLogImporterTest extends TmpDirTestCase {
+
+    protected File writeLog() throws Exception {
+        File log = new File(getTmpDir(), "RecoveryLogImporterTest.recover.gz");
+        Writer out = new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(log)));
+        for (int i = 0; i < 20000; i++) {
+            out.write("F+ http://www" + (i % 50) + ".example.com/" + i
+                    + ".html L http://www.example.com/ L\n");
+            if (i % 2 == 0) {
+                out.write("Fe http://www" + (i % 50) + ".example.com/" + i
+                        + ".html\n");
+                out.write("Fs http://www" + (i % 50) + ".example.com/" + i
+                        + ".html L http://www.example.com/ L\n");
+            }
+        }
+        out.write("T 20100101000000\n");
+        out.close();
+        return log;
+    }
+
+    public void testImport() throws Exception {
+        File log = writeLog();
+
+        final Set<String> included =
+            Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> includedLines =
+            Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> scheduled =
+            Collections.synchronizedSet(new HashSet<String>());
+        // last page number scheduled, per host
+        final Map<String, Integer> lastScheduled =
+            new HashMap<String, Integer>();
+        final AtomicBoolean includesDone = new AtomicBoolean(false);
+        // checked here, as assertion failures on other threads go unseen
+        final AtomicBoolean misordered = new AtomicBoolean(false);
+        JSONObject params = new JSONObject();
+        params.put("includeSuccesses", true);
+        params.put("scheduleScheduleds", true);
+        params.put("recoveryThreads", 4);
+        RecoveryLogImporter importer = new RecoveryLogImporter(params, null,
+                new RecoveryLogImporter.Target() {
+            public void include(CrawlURI curi, String line) {
+                if (includesDone.get()) {
+                    misordered.set(true);
+                }
+                included.add(curi.getURI());
+                includedLines.add(line);
+            }
+            public void includesDone() {
+                includesDone.set(true);
+            }
+            public void schedule(CrawlURI curi) {
+                if (!includesDone.get() || !"L".equals(curi.getPathFromSeed())) {
+                    misordered.set(true);
+                }
+                scheduled.add(curi.getURI());
+                String uri = curi.getURI();
+                String host = uri.substring(0, uri.lastIndexOf('/'));
+                int page = Integer.parseInt(uri.substring(
+                        uri.lastIndexOf('/') + 1, uri.lastIndexOf('.')));
+                Integer last = lastScheduled.put(host, page);
+                if (last != null && last > page) {
+                    // out of journal order within a queue
+                    misordered.set(true);
+                }
+            }
+            public long queuedCount() {
+                return scheduled.size();
+            }
+        });
+
+        assertEquals(40001, importer.importCompletions(log));
+        assertEquals(10000, included.size());
+        assertTrue(included.contains("http://www2.example.com/2.html"));
+        assertFalse(included.contains("http://www3.example.com/3.html"));
+        assertTrue(includedLines.contains(
+                "Fs http://www2.example.com/2.html L http://www.example.com/ L"));
+
+        CountDownLatch enough = new CountDownLatch(1);
+        importer.importQueues(enough, 1000);
+        assertEquals(0, enough.getCount());
+        assertEquals(20000, scheduled.size());
+        assertFalse(misordered.get());
+        assertFalse(importer.spillFile.exists());
+        log.delete();
+    }
+
+    /**
+     * A worker's exception ends the import and reaches the caller, and
+     * the loader thread, worker pool and spill file are cleaned up.
+     */
+    public void testWorkerFailure() throws Exception {
+        File log = writeLog();
+        JSONObject params = new JSONObject();
+        params.put("includeSuccesses", true);
+        params.put("scheduleScheduleds", true);
+        params.put("scopeIncludes", true);
+        params.put("recoveryThreads", 4);
+        DecideRule failing = new DecideRule() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected DecideResult innerDecide(CrawlURI uri) {
+                throw new IllegalStateException("broken scope");
+            }
+        };
+        RecoveryLogImporter importer = new RecoveryLogImporter(params,
+                failing, new RecoveryLogImporter.Target() {
+            public void include(CrawlURI curi, String line) {
+            }
+            public void includesDone() {
+            }
+            public void schedule(CrawlURI curi) {
+            }
+            public long queuedCount() {
+                return 0;
+            }
+        });
+        try {
+            importer.importCompletions(log);
+            fail("worker exception not passed back");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(importer.pool.isShutdown());
+        assertFalse(importer.spillFile.exists());
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            assertFalse(t.getName().equals("recoveryLoader") && t.isAlive());
+        }
+        log.delete();
+    }
+
+    /**
+     * A worker's exception while recovering queues, typically run on a
+     * thread of its own, skips that chunk but not the rest of the queues.
+     */
+    public void testQueuesWorkerFailure() throws Exception {
+        File log = writeLog();
+        JSONObject params = new JSONObject();
+        params.put("includeSuccesses", true);
+        params.put("scheduleScheduleds", true);
+        params.put("scopeScheduleds", true);
+        params.put("recoveryThreads", 4);
+        DecideRule failing = new DecideRule() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected DecideResult innerDecide(CrawlURI uri) {
+                if (uri.getURI().equals("http://www0.example.com/0.html")) {
+                    throw new IllegalStateException("broken scope");
+                }
+                return DecideResult.ACCEPT;
+            }
+        };
+        final Set<String> scheduled =
+            Collections.synchronizedSet(new HashSet<String>());
+        RecoveryLogImporter importer = new RecoveryLogImporter(params,
+                failing, new RecoveryLogImporter.Target() {
+            public void include(CrawlURI curi, String line) {
+            }
+            public void includesDone() {
+            }
+            public void schedule(CrawlURI curi) {
+                scheduled.add(curi.getURI());
+            }
+            public long queuedCount() {
+                return scheduled.size();
+            }
+        });
+        importer.importCompletions(log);
+        CountDownLatch enough = new CountDownLatch(1);
+        importer.importQueues(enough, 1000);
+        assertEquals(0, enough.getCount());
+        assertFalse(scheduled.contains("http://www0.example.com/0.html"));
+        assertTrue(scheduled.contains("http://www2.example.com/19998.html"));
+        assertEquals(20000 - RecoveryLogImporter.CHUNK_LINES, scheduled.size());
+        assertFalse(importer.spillFile.exists());
+        log.delete();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ShardedReadyQueues.
+ */
+public class ShardedReadyQueuesTest extends TestCase {
+
+    public void testOfferPoll() {
+        ShardedReadyQueues q = new ShardedReadyQueues(8);
+        assertTrue("should start empty", q.isEmpty());
+        assertNull("poll of empty", q.poll());
+        for(int i = 0; i < 100; i++) {
+            q.offer("queue"+i);
+        }
+        assertEquals("wrong size", 100, q.size());
+        assertTrue("missing contained", q.contains("queue42"));
+        Set<String> seen = new HashSet<String>();
+        for(String key : q) {
+            seen.add(key);
+        }
+        assertEquals("iterator missed keys", 100, seen.size());
+        seen.clear();
+        String key;
+        while((key = q.poll()) != null) {
+            assertTrue("duplicate key "+key, seen.add(key));
+        }
+        assertEquals("poll missed keys", 100, seen.size());
+        assertTrue("should end empty", q.isEmpty());
+    }
+    
+    public void testDrainAndTimedPoll() throws InterruptedException {
+        ShardedReadyQueues q = new ShardedReadyQueues(4);
+        q.put("a");
+        q.put("b");
+        q.put("c");
+        ArrayList<String> drained = new ArrayList<String>();
+        assertEquals("wrong drain count", 2, q.drainTo(drained, 2));
+        assertEquals("wrong remaining", 1, q.size());
+        assertNotNull("timed poll should find last key", 
+                q.poll(100, TimeUnit.MILLISECONDS));
+        assertNull("timed poll of empty", q.poll(20, TimeUnit.MILLISECONDS));
+    }
+    
+    public void testConcurrentCycling() throws InterruptedException {
+        final ShardedReadyQueues q = new ShardedReadyQueues(16);
+        for(int i = 0; i < 500; i++) {
+            q.offer("queue"+i);
+        }
+        final ConcurrentHashMap<String,Boolean> held = 
+            new ConcurrentHashMap<String,Boolean>();
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[32];
+        for(int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for(int i = 0; i < 2000; i++) {
+                            String key = q.poll();
+                            if(key == null) {
+                                continue;
+                            }
+                            if(held.putIfAbsent(key, Boolean.TRUE) != null) {
+                                throw new IllegalStateException(
+                                        "key handed out twice: "+key);
+                            }
+                            held.remove(key);
+                            q.put(key);
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        assertNull("failure in cycling thread", failure[0]);
+        assertEquals("keys lost or duplicated", 500, q.size());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.archive.bdb.AutoKryo;
+import org.archive.crawler.util.CrawledBytesHistotable;
+import org.archive.util.ObjectIdentityMemCache;
+
+/**
+ * Tests for the spillable per-source (and per-seed) statistics records,
+ * whose Kryo serialization must need no unregistered class.
+ */
+public class SourceStatsRecordTest extends TestCase {
+
+    public void testSourceHostRecordKryo() throws Exception {
+        ObjectIdentityMemCache<SourceHostRecord> cache =
+            new ObjectIdentityMemCache<SourceHostRecord>();
+        SourceHostRecord shr0 = new SourceHostRecord(
+                "http://example.com/seed", "www.example.org");
+        shr0.setIdentityCache(cache);
+        shr0.tally(1);
+        shr0.tally(41);
+        assertEquals("http://example.com/seed www.example.org", shr0.getKey());
+
+        AutoKryo kryo = new AutoKryo();
+        kryo.setStrictRegistration(true);
+        kryo.autoregister(SourceHostRecord.class);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        kryo.writeObject(buffer, shr0);
+        buffer.flip();
+        SourceHostRecord shr1 = kryo.readObject(buffer, SourceHostRecord.class);
+
+        assertEquals(shr0.getKey(), shr1.getKey());
+        assertEquals("www.example.org", shr1.getHost());
+        assertEquals(42, shr1.getCount());
+    }
+
+    public void testSourceStatsRecordKryo() throws Exception {
+        SourceStatsRecord ssr0 = new SourceStatsRecord("http://example.com/seed");
+        ssr0.getTallies().tally(CrawledBytesHistotable.NOVEL, 12345);
+        ssr0.getTallies().tally(CrawledBytesHistotable.NOVELCOUNT, 3);
+        ssr0.getTallies().tally(CrawledBytesHistotable.DUPLICATE, 1L << 40);
+
+        AutoKryo kryo = new AutoKryo();
+        kryo.setStrictRegistration(true);
+        kryo.autoregister(SourceStatsRecord.class);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        kryo.writeObject(buffer, ssr0);
+        buffer.flip();
+        SourceStatsRecord ssr1 = kryo.readObject(buffer, SourceStatsRecord.class);
+
+        assertEquals("http://example.com/seed", ssr1.getKey());
+        assertEquals(ssr0.getTallies().snapshot(), ssr1.getTallies().snapshot());
+        // still tallies after a round trip
+        ssr1.getTallies().tally(CrawledBytesHistotable.NOVELCOUNT, 1);
+        assertEquals(4, ssr1.getTallies().get(CrawledBytesHistotable.NOVELCOUNT));
+    }
+
+    public void testSeedRecordKryo() throws Exception {
+        SeedRecord sr0 = new SeedRecord("http://example.com/seed", 
+                "Redirected", 301, "http://example.com/seed/");
+
+        AutoKryo kryo = new AutoKryo();
+        kryo.setStrictRegistration(true);
+        kryo.autoregister(SeedRecord.class);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        kryo.writeObject(buffer, sr0);
+        buffer.flip();
+        SeedRecord sr1 = kryo.readObject(buffer, SeedRecord.class);
+
+        assertEquals("http://example.com/seed", sr1.getKey());
+        assertEquals("Redirected", sr1.getDisposition());
+        assertEquals(301, sr1.getStatusCode());
+        assertEquals("http://example.com/seed/", sr1.getRedirectUri());
+    }
+}
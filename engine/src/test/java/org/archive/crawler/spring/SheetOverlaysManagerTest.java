@@ -0,0 +1,115 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.spring;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests for SheetOverlaysManager's cached SURT-based overlay resolution.
+ */
+public class SheetOverlaysManagerTest extends TestCase {
+
+    protected CrawlURI curi(String uri) throws URIException {
+        return new CrawlURI(UURIFactory.getInstance(uri));
+    }
+    
+    public void testSurtAuthorityCache() throws URIException {
+        SheetOverlaysManager manager = new SheetOverlaysManager();
+        manager.addSurtAssociation("http://(com,example,", "exampleSheet");
+        
+        CrawlURI first = curi("http://example.com/one");
+        manager.applyOverlaysTo(first);
+        assertEquals("wrong sheets", Arrays.asList("exampleSheet"), first.getOverlayNames());
+        assertEquals("expected miss", 1, manager.getSurtCacheMisses());
+        
+        CrawlURI second = curi("http://example.com/two");
+        manager.applyOverlaysTo(second);
+        assertEquals("wrong sheets", Arrays.asList("exampleSheet"), second.getOverlayNames());
+        assertEquals("expected hit", 1, manager.getSurtCacheHits());
+        
+        CrawlURI other = curi("http://example.org/");
+        manager.applyOverlaysTo(other);
+        assertTrue("unexpected sheets", other.getOverlayNames().isEmpty());
+    }
+    
+    public void testPathPrefixes() throws URIException {
+        SheetOverlaysManager manager = new SheetOverlaysManager();
+        manager.addSurtAssociation("http://(com,example,", "exampleSheet");
+        manager.addSurtAssociation("http://(com,example,)/private", "privateSheet");
+        
+        CrawlURI plain = curi("http://example.com/public/page");
+        manager.applyOverlaysTo(plain);
+        assertEquals("wrong sheets", Arrays.asList("exampleSheet"), plain.getOverlayNames());
+        
+        CrawlURI priv = curi("http://example.com/private/page");
+        manager.applyOverlaysTo(priv);
+        assertEquals("wrong sheets, or wrong order", 
+                Arrays.asList("exampleSheet", "privateSheet"), priv.getOverlayNames());
+    }
+    
+    public void testInvalidationAndSkip() throws URIException {
+        SheetOverlaysManager manager = new SheetOverlaysManager();
+        manager.addSurtAssociation("http://(com,example,", "exampleSheet");
+        
+        CrawlURI curi = curi("http://example.com/");
+        manager.applyOverlaysTo(curi);
+        manager.applyOverlaysTo(curi);
+        assertEquals("second application should be skipped", 
+                1, manager.getReapplicationsSkipped());
+        
+        manager.addSurtAssociation("http://(com,example,", "laterSheet");
+        manager.applyOverlaysTo(curi);
+        assertEquals("stale overlays not refreshed", 
+                Arrays.asList("exampleSheet", "laterSheet"), curi.getOverlayNames());
+        
+        manager.deleteSheet("exampleSheet");
+        manager.applyOverlaysTo(curi(("http://example.com/")));
+        manager.applyOverlaysTo(curi);
+        assertEquals("deleted sheet still applied", 
+                Arrays.asList("laterSheet"), curi.getOverlayNames());
+    }
+    
+    /**
+     * A cache entry put by a reader that looked up sheets before a change
+     * to associations, but put them after the change cleared the cache,
+     * is not used.
+     */
+    public void testStaleEntryAfterChange() throws URIException {
+        SheetOverlaysManager manager = new SheetOverlaysManager();
+        manager.addSurtAssociation("http://(com,example,", "exampleSheet");
+        long before = manager.associationsGeneration.get();
+        manager.addSurtAssociation("http://(com,example,", "laterSheet");
+        manager.sheetNamesBySurtAuthority.put("http://(com,example,)", 
+                new SheetOverlaysManager.CachedSheetNames(before, 
+                        Arrays.asList("exampleSheet")));
+        
+        CrawlURI curi = curi("http://example.com/");
+        manager.applyOverlaysTo(curi);
+        assertEquals("stale cache entry used", 
+                Arrays.asList("exampleSheet", "laterSheet"), curi.getOverlayNames());
+        assertEquals("expected miss", 1, manager.getSurtCacheMisses());
+    }
+}
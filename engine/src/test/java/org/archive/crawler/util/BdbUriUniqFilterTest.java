@@ -174,6 +174,84 @@ implements UriUniqFilter.CrawlUriReceiver {
             this.filter.count() == max);
     }
     
+    public void testBatchedAdding() throws URIException {
+        final ArrayList<CrawlURI> receivedUris = new ArrayList<CrawlURI>();
+        BdbUriUniqFilter bdbFilter = (BdbUriUniqFilter) this.filter;
+        bdbFilter.setBatchSize(100);
+        bdbFilter.setMaxPendingMs(Long.MAX_VALUE);
+        bdbFilter.setDestination(new UriUniqFilter.CrawlUriReceiver() {
+            public void receive(CrawlURI item) {
+                receivedUris.add(item);
+            }
+        });
+        // first batch: 100 distinct
+        for (int i = 0; i < 100; i++) {
+            addBatched(bdbFilter, i);
+        }
+        assertEquals(0, bdbFilter.pending());
+        assertEquals(100, receivedUris.size());
+        assertEquals(100, bdbFilter.count());
+        // second batch: 50 more distinct, 30 already-seen, 10 repeated
+        // within the batch
+        for (int i = 100; i < 150; i++) {
+            addBatched(bdbFilter, i);
+        }
+        for (int i = 0; i < 30; i++) {
+            addBatched(bdbFilter, i);
+        }
+        for (int i = 100; i < 110; i++) {
+            addBatched(bdbFilter, i);
+        }
+        assertEquals(90, bdbFilter.pending());
+        assertEquals(100, receivedUris.size());
+
+        bdbFilter.note("http://noted.archive.org/");
+        assertEquals(91, bdbFilter.pending());
+        assertEquals(50, bdbFilter.requestFlush());
+        assertEquals(0, bdbFilter.pending());
+        assertEquals(150, receivedUris.size());
+        assertEquals(151, bdbFilter.count());
+
+        HashSet<String> distinct = new HashSet<String>();
+        for (CrawlURI curi : receivedUris) {
+            assertTrue("received twice: " + curi, distinct.add(curi.toString()));
+        }
+        bdbFilter.add("http://noted.archive.org/", 
+                new CrawlURI(UURIFactory.getInstance("http://noted.archive.org/")));
+        bdbFilter.requestFlush();
+        assertEquals(150, receivedUris.size());
+    }
+
+    public void testPendingAgeBound() throws Exception {
+        final ArrayList<CrawlURI> receivedUris = new ArrayList<CrawlURI>();
+        BdbUriUniqFilter bdbFilter = (BdbUriUniqFilter) this.filter;
+        bdbFilter.setBatchSize(100);
+        bdbFilter.setMaxPendingMs(50);
+        bdbFilter.setDestination(new UriUniqFilter.CrawlUriReceiver() {
+            public void receive(CrawlURI item) {
+                receivedUris.add(item);
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            addBatched(bdbFilter, i);
+        }
+        assertEquals(10, bdbFilter.pending());
+        Thread.sleep(100);
+        // batch now too old, so applied at next add, in order added
+        addBatched(bdbFilter, 10);
+        assertEquals(0, bdbFilter.pending());
+        assertEquals(11, receivedUris.size());
+        for (int i = 0; i < 11; i++) {
+            assertTrue(receivedUris.get(i).toString().endsWith("/" + i + ".html"));
+        }
+    }
+
+    protected void addBatched(BdbUriUniqFilter bdbFilter, int i) 
+    throws URIException {
+        String uri = "http://www" + (i / 10) + ".archive.org/" + i + ".html";
+        bdbFilter.add(uri, new CrawlURI(UURIFactory.getInstance(uri)));
+    }
+
     public void testNote() {
     	this.filter.note(this.getUri());
         assertFalse("Receiver was called", this.received);
@@ -0,0 +1,305 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.math.LongRange;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for {@link IndexedLogFile}, and for LogReader's use of it, against
+ * straightforward sequential reading.
+ */
+public class IndexedLogFileTest extends TmpDirTestCase {
+
+    protected List<String> expected = new ArrayList<String>();
+    protected List<Long> expectedStarts = new ArrayList<Long>();
+    protected long expectedLength = 0;
+
+    protected void append(File file, int from, int to, String partial)
+    throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            StringBuilder line = new StringBuilder("line " + i);
+            for (int j = 0; j < i % 7; j++) {
+                line.append(" pad").append(j);
+            }
+            if (i % 10 == 0) {
+                line.append(" \u00e9t\u00e9");
+            }
+            text.append(line).append('\n');
+        }
+        text.append(partial);
+        out.write(text.toString().getBytes("UTF-8"));
+        out.close();
+        // recompute expectations from the whole file
+        expected.clear();
+        expectedStarts.clear();
+        byte[] all = readAll(file);
+        expectedLength = all.length;
+        int start = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (all[i] == '\n') {
+                expected.add(new String(all, start, i - start, "UTF-8"));
+                expectedStarts.add((long) start);
+                start = i + 1;
+            }
+        }
+        if (start < all.length) {
+            expected.add(new String(all, start, all.length - start, "UTF-8"));
+            expectedStarts.add((long) start);
+        }
+    }
+
+    protected byte[] readAll(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] all = new byte[(int) raf.length()];
+        raf.readFully(all);
+        raf.close();
+        return all;
+    }
+
+    protected InputStreamReader utf8Reader(File file) throws IOException {
+        return new InputStreamReader(new FileInputStream(file), "UTF-8");
+    }
+
+    protected File freshFile(String name) {
+        File file = new File(getTmpDir(), name);
+        file.delete();
+        expected.clear();
+        expectedStarts.clear();
+        expectedLength = 0;
+        return file;
+    }
+
+    protected void checkIndex(IndexedLogFile log) {
+        assertEquals(expected.size(), log.getLineCount());
+        assertEquals(expectedLength, log.getLength());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expectedStarts.get(i).longValue(), log.offsetOfLine(i));
+            assertEquals(i, log.lineContaining(expectedStarts.get(i)));
+        }
+        for (int i = 0; i < expected.size(); i += 5) {
+            assertEquals(expected.subList(i, Math.min(i + 3, expected.size())),
+                    log.getLines(i, 3));
+        }
+    }
+
+    public void testIndexAndGrowth() throws Exception {
+        File file = freshFile("IndexedLogFileTest-growth.log");
+        append(file, 0, 100, "partial");
+        IndexedLogFile log = new IndexedLogFile(file, 4);
+        log.refresh();
+        checkIndex(log);
+        // complete the partial line and grow, enough to index in parallel
+        log.parallelIndexThreshold = 100;
+        append(file, 100, 1000, "");
+        log.refresh();
+        checkIndex(log);
+        // a replacement shorter file is reindexed from scratch
+        file.delete();
+        expected.clear();
+        expectedStarts.clear();
+        append(file, 0, 10, "");
+        log.refresh();
+        checkIndex(log);
+    }
+
+    /**
+     * A file rotated away and replaced by a longer one (as at a
+     * checkpoint) is reindexed, though not shorter than already indexed.
+     */
+    public void testReplacedByLonger() throws Exception {
+        File file = freshFile("IndexedLogFileTest-rotated.log");
+        File rotated = new File(file.getPath() + ".cp00001");
+        rotated.delete();
+        append(file, 0, 100, "");
+        IndexedLogFile log = new IndexedLogFile(file, 4);
+        log.refresh();
+        checkIndex(log);
+        assertTrue(file.renameTo(rotated));
+        expected.clear();
+        expectedStarts.clear();
+        append(file, 500, 700, "");
+        log.refresh();
+        checkIndex(log);
+        assertEquals(expected.get(0), log.getLines(0, 1).get(0));
+        rotated.delete();
+    }
+
+    /**
+     * With tiny segments and windows, growth across many refreshes maps
+     * each window once, reads only the remainder into the heap, and
+     * finds lines spanning segments, windows and the remainder.
+     */
+    public void testSmallMappings() throws Exception {
+        File file = freshFile("IndexedLogFileTest-mappings.log");
+        IndexedLogFile log = new IndexedLogFile(file, 4);
+        log.segmentShift = 12;
+        log.windowShift = 8;
+        append(file, 0, 10, "part");
+        log.refresh();
+        checkIndex(log);
+        for (int i = 1; i < 40; i++) {
+            append(file, i * 10, i * 10 + 10, "part");
+            IndexedLogFile.Mapping before = log.mapping;
+            log.refresh();
+            checkIndex(log);
+            IndexedLogFile.Mapping after = log.mapping;
+            assertTrue(after.windows.length < 1 << (12 - 8));
+            assertTrue(after.length - after.tailStart < 1 << 8);
+            if (after.segments.length == before.segments.length) {
+                // windows already mapped are reused
+                for (int w = 0; w < before.windows.length; w++) {
+                    assertSame(before.windows[w], after.windows[w]);
+                }
+            }
+            for (int s = 0; s < before.segments.length; s++) {
+                assertSame(before.segments[s], after.segments[s]);
+            }
+        }
+        assertTrue(log.mapping.segments.length > 1);
+    }
+
+    public void testPagedLines() throws Exception {
+        File file = freshFile("IndexedLogFileTest-paged.log");
+        append(file, 0, 200, "");
+        IndexedLogFile log = new IndexedLogFile(file, 8);
+        log.refresh();
+
+        // forward from exactly a line start
+        List<String> lines = new LinkedList<String>();
+        LongRange range = log.pagedLines(expectedStarts.get(50), 10, lines);
+        assertEquals(expected.subList(50, 60), lines);
+        assertEquals(expectedStarts.get(50).longValue(), range.getMinimumLong());
+        assertEquals(expectedStarts.get(60).longValue(), range.getMaximumLong());
+
+        // forward from mid-line starts at the next line
+        lines.clear();
+        log.pagedLines(expectedStarts.get(50) + 2, 10, lines);
+        assertEquals(expected.subList(51, 61), lines);
+
+        // backward ends with the line containing position
+        lines.clear();
+        range = log.pagedLines(expectedStarts.get(50) + 2, -10, lines);
+        assertEquals(expected.subList(41, 51), lines);
+        assertEquals(expectedStarts.get(51).longValue(), range.getMaximumLong());
+
+        // backward from end of file
+        lines.clear();
+        range = log.pagedLines(file.length(), -5, lines);
+        assertEquals(expected.subList(195, 200), lines);
+        assertEquals(file.length(), range.getMaximumLong());
+
+        // short at the start
+        lines.clear();
+        range = log.pagedLines(expectedStarts.get(3), -10, lines);
+        assertEquals(expected.subList(0, 4), lines);
+        assertEquals(0, range.getMinimumLong());
+
+        // forward past the end
+        lines.clear();
+        range = log.pagedLines(file.length(), 10, lines);
+        assertEquals(0, lines.size());
+    }
+
+    public void testForEachMatch() throws Exception {
+        File file = freshFile("IndexedLogFileTest-match.log");
+        append(file, 0, 5000, "line 5000 partial");
+        IndexedLogFile log = new IndexedLogFile(file, 4);
+        // many small chunks
+        log.searchChunkIntervals = 2;
+        log.refresh();
+
+        final List<Long> found = new ArrayList<Long>();
+        log.forEachMatch(Pattern.compile("line \\d*0 .*"),
+                new IndexedLogFile.MatchVisitor() {
+            public boolean match(long line, String text) {
+                found.add(line);
+                return true;
+            }
+        });
+        List<Long> naive = new ArrayList<Long>();
+        Pattern p = Pattern.compile("line \\d*0 .*");
+        for (int i = 0; i < expected.size(); i++) {
+            if (p.matcher(expected.get(i)).matches()) {
+                naive.add((long) i);
+            }
+        }
+        assertEquals(naive, found);
+        assertTrue(found.contains(5000L));
+
+        // stop early
+        found.clear();
+        log.forEachMatch(Pattern.compile("line \\d*0 .*"),
+                new IndexedLogFile.MatchVisitor() {
+            public boolean match(long line, String text) {
+                found.add(line);
+                return found.size() < 3;
+            }
+        });
+        assertEquals(naive.subList(0, 3), found);
+    }
+
+    public void testLogReaderParity() throws Exception {
+        File file = freshFile("IndexedLogFileTest-reader.log");
+        append(file, 0, 3000, "");
+        String name = file.getAbsolutePath();
+        String regex = "line \\d*[05]( .*)?";
+
+        for (int addLines : new int[] {0, 1, 3}) {
+            for (int skip : new int[] {0, 7}) {
+                for (int count : new int[] {0, 20}) {
+                    String[] indexed = LogReader.getByRegex(name, regex,
+                            addLines, true, skip, count);
+                    String[] sequential = LogReader.getByRegex(
+                            utf8Reader(file), regex, addLines, true,
+                            skip, count, file.length());
+                    assertEquals(sequential[0], indexed[0]);
+                }
+            }
+        }
+        String[] indexed = LogReader.getByRegex(name, "line \\d*0 .*", "line",
+                false, 2, 10);
+        String[] sequential = LogReader.getByRegex(utf8Reader(file),
+                "line \\d*0 .*", "line", false, 2, 10, file.length());
+        assertEquals(sequential[0], indexed[0]);
+
+        assertEquals(LogReader.findFirstLineContaining(utf8Reader(file),
+                "line 2\\d\\d .*"),
+                LogReader.findFirstLineContaining(name, "line 2\\d\\d .*"));
+        assertEquals(LogReader.get(utf8Reader(file), 1500, 12,
+                file.length())[0], LogReader.get(name, 1500, 12)[0]);
+        // (sequential tail decodes in the platform charset: stay ASCII)
+        assertEquals(LogReader.tail(new RandomAccessFile(file, "r"), 5)[0],
+                LogReader.tail(name, 5)[0]);
+    }
+}
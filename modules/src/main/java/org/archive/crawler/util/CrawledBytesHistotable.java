@@ -28,6 +28,7 @@ import org.archive.modules.revisit.IdenticalPayloadDigestRevisit;
 import org.archive.modules.revisit.ServerNotModifiedRevisit;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.Histotable;
+import org.archive.util.Tallier;
 
 public class CrawledBytesHistotable extends Histotable<String> 
 implements CoreAttributeConstants {
@@ -51,27 +52,36 @@ implements CoreAttributeConstants {
         super();
     }
 
-    @SuppressWarnings("unchecked")
     public void accumulate(CrawlURI curi) {
+        accumulate(curi, this);
+    }
+
+    /**
+     * Tally the given CrawlURI's contribution to each of this class's
+     * keys into any Tallier, such as a ConcurrentHistotable shared by
+     * many threads.
+     */
+    @SuppressWarnings("unchecked")
+    public static void accumulate(CrawlURI curi, Tallier<String> tallies) {
         if (curi.getRevisitProfile() instanceof ServerNotModifiedRevisit) {
-            tally(NOTMODIFIED, curi.getContentSize());
-            tally(NOTMODIFIEDCOUNT,1);
+            tallies.tally(NOTMODIFIED, curi.getContentSize());
+            tallies.tally(NOTMODIFIEDCOUNT,1);
         } else if (curi.getRevisitProfile() instanceof IdenticalPayloadDigestRevisit) {
-            tally(DUPLICATE,curi.getContentSize());
-            tally(DUPLICATECOUNT,1);
+            tallies.tally(DUPLICATE,curi.getContentSize());
+            tallies.tally(DUPLICATECOUNT,1);
         } else if (curi.getRevisitProfile() != null) {
-            tally(OTHERDUPLICATE, curi.getContentSize());
-            tally(OTHERDUPLICATECOUNT, 1);
+            tallies.tally(OTHERDUPLICATE, curi.getContentSize());
+            tallies.tally(OTHERDUPLICATECOUNT, 1);
         } else {
-            tally(NOVEL,curi.getContentSize());
-            tally(NOVELCOUNT,1);
+            tallies.tally(NOVEL,curi.getContentSize());
+            tallies.tally(NOVELCOUNT,1);
         }
         Map<String,Map<String,Long>> warcStats = (Map<String,Map<String,Long>>) curi.getData().get(A_WARC_STATS);
         if (warcStats != null) {
-            tally(WARC_NOVEL_CONTENT_BYTES,
+            tallies.tally(WARC_NOVEL_CONTENT_BYTES,
                     WARCWriter.getStat(warcStats, "response", "contentBytes")
                     + WARCWriter.getStat(warcStats, "resource", "contentBytes"));
-            tally(WARC_NOVEL_URLS,
+            tallies.tally(WARC_NOVEL_URLS,
                     WARCWriter.getStat(warcStats, "response", "numRecords")
                     + WARCWriter.getStat(warcStats, "resource", "numRecords"));
         }
@@ -22,6 +22,7 @@ package org.archive.modules;
 import static org.archive.modules.CoreAttributeConstants.A_ANNOTATIONS;
 import static org.archive.modules.CoreAttributeConstants.A_CREDENTIALS_KEY;
 import static org.archive.modules.CoreAttributeConstants.A_DNS_SERVER_IP_LABEL;
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
 import static org.archive.modules.CoreAttributeConstants.A_FETCH_COMPLETED_TIME;
 import static org.archive.modules.CoreAttributeConstants.A_FORCE_RETIRE;
 import static org.archive.modules.CoreAttributeConstants.A_HERITABLE_KEYS;
@@ -77,6 +78,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -206,9 +209,24 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
      * {@link CoreAttributeConstants} interface.  Use this list to carry
      * data or state produced by custom processors rather change the
      * classes {@link CrawlURI} or this class, CrawlURI.
+     * <p>
+     * A few hot, well-known attributes (fetch times, annotations, nonfatal
+     * errors) are instead held in the typed fields below, saving boxing,
+     * map entries, and serialized key strings for every URI. They remain
+     * visible by key to {@link #containsDataKey(String)}, but not in this
+     * map; use their accessors.
      */
     protected Map<String,Object> data;
 
+    /** A_FETCH_BEGAN_TIME; UNCALCULATED if unset */
+    transient protected long fetchBeginTime = UNCALCULATED;
+    /** A_FETCH_COMPLETED_TIME; UNCALCULATED if unset */
+    transient protected long fetchCompletedTime = UNCALCULATED;
+    /** A_ANNOTATIONS; persists across processings, so not transient */
+    protected Collection<String> annotations;
+    /** A_NONFATAL_ERRORS */
+    transient protected List<Throwable> nonFatalFailures;
+
     private boolean forceRevisit = false; // even if already visited
 
     
@@ -336,12 +354,32 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
 
     
     public boolean containsDataKey(String key) {
+        if (fieldHolds(key)) {
+            return true;
+        }
         if (data == null) {
             return false;
         }
         return data.containsKey(key);
     }
 
+    /**
+     * @return true if key is one of the attributes held in a typed field,
+     * and that field is set
+     */
+    protected boolean fieldHolds(String key) {
+        if (A_FETCH_BEGAN_TIME.equals(key)) {
+            return fetchBeginTime != UNCALCULATED;
+        } else if (A_FETCH_COMPLETED_TIME.equals(key)) {
+            return fetchCompletedTime != UNCALCULATED;
+        } else if (A_ANNOTATIONS.equals(key)) {
+            return annotations != null;
+        } else if (A_NONFATAL_ERRORS.equals(key)) {
+            return nonFatalFailures != null;
+        }
+        return false;
+    }
+
 
     /**
      * Takes a status code and converts it into a human readable string.
@@ -645,6 +683,8 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
      */
     public void stripToMinimal() {
         data = null;
+        annotations = null;
+        nonFatalFailures = null;
     }
 
     /**
@@ -668,11 +708,18 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
      * @return the annotations set for this uri.
      */
     public Collection<String> getAnnotations() {
-        @SuppressWarnings("unchecked")
-        Collection<String> annotations = (Collection<String>)getData().get(A_ANNOTATIONS);
         if (annotations == null) {
             annotations = new LinkedHashSet<String>();
-            getData().put(A_ANNOTATIONS, annotations);
+        }
+        if (data != null && data.containsKey(A_ANNOTATIONS)) {
+            // as loaded from a persisted data map, or an older serialized 
+            // CrawlURI
+            @SuppressWarnings("unchecked")
+            Collection<String> loaded = 
+                (Collection<String>)data.remove(A_ANNOTATIONS);
+            if (loaded != null) {
+                annotations.addAll(loaded);
+            }
         }
         return annotations;
     }
@@ -853,6 +900,51 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         this.httpRecorder = httpRecorder;
     }
 
+    /**
+     * Work begun for this URI on other threads (such as an asynchronous
+     * archive-file write), which may still be reading its recorded content.
+     * Each result is a Runnable that finishes the work on this URI's own
+     * thread, for example by noting where the URI was written.
+     */
+    transient protected List<Future<? extends Runnable>> pendingWork = null;
+
+    public void addPendingWork(Future<? extends Runnable> work) {
+        if (pendingWork == null) {
+            pendingWork = new ArrayList<Future<? extends Runnable>>(1);
+        }
+        pendingWork.add(work);
+    }
+
+    public boolean hasPendingWork() {
+        return pendingWork != null && !pendingWork.isEmpty();
+    }
+
+    /**
+     * Wait for any work added by {@link #addPendingWork(Future)} to finish,
+     * running each result on the calling thread. Failures of the work
+     * itself are added to the nonfatal failures.
+     * 
+     * @throws InterruptedException
+     */
+    public void awaitPendingWork() throws InterruptedException {
+        while (hasPendingWork()) {
+            // removed only once done, so still awaited after an interrupt
+            Future<? extends Runnable> work = pendingWork.get(0);
+            Runnable completion;
+            try {
+                completion = work.get();
+            } catch (ExecutionException e) {
+                pendingWork.remove(0);
+                getNonFatalFailures().add(e.getCause());
+                continue;
+            }
+            pendingWork.remove(0);
+            if (completion != null) {
+                completion.run();
+            }
+        }
+    }
+
     /**
      * Return true if this is a http transaction.
      *
@@ -877,7 +969,13 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         // Clear 'links extracted' flag.
         this.linkExtractorFinished = false;
         // Clean the data map of all but registered permanent members.
-        this.data = getPersistentDataMap();
+        this.data = persistentDataEntries();
+        this.fetchBeginTime = UNCALCULATED;
+        this.fetchCompletedTime = UNCALCULATED;
+        this.nonFatalFailures = null;
+        if (!persistentKeys.contains(A_ANNOTATIONS)) {
+            this.annotations = null;
+        }
         
         extraInfo = null;
         outLinks = null;
@@ -889,19 +987,41 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
     }
     
     public Map<String,Object> getPersistentDataMap() {
-        if (data == null) {
+        if (data == null && annotations == null) {
             return null;
         }
-        Map<String,Object> result = new HashMap<String,Object>(getData());
-        Set<String> retain = new HashSet<String>(persistentKeys);
-        
-        if (containsDataKey(A_HERITABLE_KEYS)) {
-            @SuppressWarnings("unchecked")
-            HashSet<String> heritable = (HashSet<String>)getData().get(A_HERITABLE_KEYS);
-            retain.addAll(heritable);
+        Map<String,Object> result = persistentDataEntries();
+        if (result == null) {
+            result = new HashMap<String,Object>();
+        }
+        if (annotations != null && persistentKeys.contains(A_ANNOTATIONS)) {
+            result.put(A_ANNOTATIONS, annotations);
+        }
+        return result;
+    }
+
+    /**
+     * @return new map of only those data map entries which persist across
+     * processings (registered persistent or heritable keys), or null if
+     * there are none
+     */
+    protected Map<String,Object> persistentDataEntries() {
+        if (data == null || data.isEmpty()) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        HashSet<String> heritable = (HashSet<String>)data.get(A_HERITABLE_KEYS);
+        Map<String,Object> result = null;
+        for (Map.Entry<String,Object> entry : data.entrySet()) {
+            String key = entry.getKey();
+            if (persistentKeys.contains(key)
+                    || (heritable != null && heritable.contains(key))) {
+                if (result == null) {
+                    result = new HashMap<String,Object>();
+                }
+                result.put(key, entry.getValue());
+            }
         }
-        
-        result.keySet().retainAll(retain);
         return result;
     }
 
@@ -1178,6 +1298,8 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         @SuppressWarnings("unchecked")
         Map<String,Object> temp = (Map<String,Object>)stream.readObject();
         this.data = temp;
+        this.fetchBeginTime = UNCALCULATED;
+        this.fetchCompletedTime = UNCALCULATED;
     }
 
     /**
@@ -1222,16 +1344,22 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
     }
 
     public long getFetchBeginTime() {
-        if (containsDataKey(CoreAttributeConstants.A_FETCH_BEGAN_TIME)) {
-            return (Long)getData().get(CoreAttributeConstants.A_FETCH_BEGAN_TIME);
+        if (fetchBeginTime != UNCALCULATED) {
+            return fetchBeginTime;
+        } else if (data != null && data.containsKey(A_FETCH_BEGAN_TIME)) {
+            // set by key, by some other code
+            return (Long)data.get(A_FETCH_BEGAN_TIME);
         } else {
             return 1L;
         }
     }
 
     public long getFetchCompletedTime() {
-        if (containsDataKey(A_FETCH_COMPLETED_TIME)) {
-            return (Long)getData().get(A_FETCH_COMPLETED_TIME);
+        if (fetchCompletedTime != UNCALCULATED) {
+            return fetchCompletedTime;
+        } else if (data != null && data.containsKey(A_FETCH_COMPLETED_TIME)) {
+            // set by key, by some other code
+            return (Long)data.get(A_FETCH_COMPLETED_TIME);
         } else {
             return 0L;
         }
@@ -1252,16 +1380,20 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
     }
     
     public Collection<Throwable> getNonFatalFailures() {
-        @SuppressWarnings("unchecked")
-        List<Throwable> list = (List<Throwable>)getData().get(A_NONFATAL_ERRORS);
-        if (list == null) {
-            list = new ArrayList<Throwable>();
-            getData().put(A_NONFATAL_ERRORS, list);
+        if (nonFatalFailures == null) {
+            nonFatalFailures = new ArrayList<Throwable>();
         }
         
         // FIXME: Previous code automatically added annotation when "localized error"
         // was added, override collection to implement that?
-        return list;
+        return nonFatalFailures;
+    }
+
+    /**
+     * Discard any nonfatal failures, for example once logged.
+     */
+    public void clearNonFatalFailures() {
+        nonFatalFailures = null;
     }
 
 
@@ -1275,11 +1407,11 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
     }
 
     public void setFetchBeginTime(long time) {
-        getData().put(CoreAttributeConstants.A_FETCH_BEGAN_TIME, time);
+        fetchBeginTime = time;
     }
 
     public void setFetchCompletedTime(long time) {
-        getData().put(A_FETCH_COMPLETED_TIME, time);
+        fetchCompletedTime = time;
     }
 
     public void setFetchType(FetchType type) {
@@ -1581,7 +1713,10 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
      * @param ancestor
      */
     protected void inheritFrom(CrawlURI ancestor) {
-        Map<String,Object> adata = ancestor.getData();
+        Map<String,Object> adata = ancestor.data;
+        if (adata == null) {
+            return;
+        }
         @SuppressWarnings("unchecked")
         HashSet<String> heritableKeys = (HashSet<String>)adata.get(A_HERITABLE_KEYS);
         Map<String,Object> thisData = getData();
@@ -1732,6 +1867,24 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         this.overlayMapsSource = overrideMapsSource;
     }
 
+    /** 
+     * Identify the state from which overlayNames were last resolved: an
+     * OverlayMapsSource-defined generation number, and the policy-basis
+     * UURI used. Lets the resolver skip redundant re-resolution. 
+     */
+    transient protected long overlayNamesGeneration = -1;
+    transient protected UURI overlayNamesBasis = null;
+    public void setOverlayNamesResolution(long generation, UURI basis) {
+        this.overlayNamesGeneration = generation;
+        this.overlayNamesBasis = basis;
+    }
+    public long getOverlayNamesGeneration() {
+        return overlayNamesGeneration;
+    }
+    public UURI getOverlayNamesBasis() {
+        return overlayNamesBasis;
+    }
+
     protected String canonicalString; 
     public void setCanonicalString(String canonical) {
         this.canonicalString = canonical; 
@@ -1828,6 +1981,15 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         kryo.autoregister(org.apache.commons.httpclient.NameValuePair.class);
         kryo.autoregister(org.apache.commons.httpclient.NameValuePair[].class);
         kryo.autoregister(FetchType.class);
+        // registration order fixes class IDs in already-stored queue 
+        // entries: only append, below
+        kryo.autoregister(java.util.ArrayList.class);
+        kryo.autoregister(java.util.LinkedList.class);
+        kryo.autoregister(java.util.LinkedHashSet.class);
+        kryo.autoregister(String[].class);
+        kryo.autoregister(char[].class);
+        kryo.autoregister(org.archive.modules.forms.HTMLForm.NameValue.class);
+        kryo.autoregister(org.json.JSONObject.class);
         kryo.setRegistrationOptional(true);
     }
     
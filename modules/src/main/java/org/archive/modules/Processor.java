@@ -157,6 +157,19 @@ implements HasKeyedProperties,
         return uriCount.get();
     }
 
+    /**
+     * Whether this processor may run while work begun for the URI by earlier
+     * processors on other threads (see {@link CrawlURI#addPendingWork}) is
+     * still in progress. By default false, so the chain waits for such work
+     * first; processors that neither read its results nor change what it
+     * may be reading can return true, to overlap with it.
+     * 
+     * @return true if this processor may overlap pending work
+     */
+    public boolean allowsPendingWork() {
+        return false;
+    }
+
 
     /**
      * Determines whether the given uri should be processed by this 
@@ -118,27 +118,44 @@ implements Iterable<Processor>,
         assert KeyedProperties.overridesActiveFrom(curi);
         String skipToProc = null; 
         
-        ploop: for(Processor curProc : this ) {
-            if(skipToProc!=null && !curProc.getBeanName().equals(skipToProc)) {
-                continue;
-            } else {
-                skipToProc = null; 
-            }
-            if(thread!=null) {
-                thread.atProcessor(curProc);
-            }
-            ArchiveUtils.continueCheck();
-            ProcessResult pr = curProc.process(curi);
-            switch (pr.getProcessStatus()) {
-                case PROCEED:
-                    continue;
-                case FINISH:
-                    break ploop;
-                case JUMP:
-                    skipToProc = pr.getJumpTarget();
+        try {
+            ploop: for(Processor curProc : this ) {
+                if(skipToProc!=null && !curProc.getBeanName().equals(skipToProc)) {
                     continue;
+                } else {
+                    skipToProc = null; 
+                }
+                if(thread!=null) {
+                    thread.atProcessor(curProc);
+                }
+                ArchiveUtils.continueCheck();
+                if(curi.hasPendingWork() && !curProc.allowsPendingWork()) {
+                    // finish (eg) asynchronous writes before processors
+                    // that may depend on their results
+                    curi.awaitPendingWork();
+                }
+                ProcessResult pr = curProc.process(curi);
+                switch (pr.getProcessStatus()) {
+                    case PROCEED:
+                        continue;
+                    case FINISH:
+                        break ploop;
+                    case JUMP:
+                        skipToProc = pr.getJumpTarget();
+                        continue;
+                }
+            }
+        } catch (Throwable t) {
+            // never leave a chain with work still reading the URI's
+            // recorder, but without hiding the original failure
+            try {
+                curi.awaitPendingWork();
+            } catch (Throwable t2) {
+                t.addSuppressed(t2);
             }
+            throw t;
         }
+        curi.awaitPendingWork();
     }
     
     public interface ChainStatusReceiver {
@@ -23,9 +23,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
+import org.archive.util.MultiPatternMatcher;
 
 /**
  * URI Canonicalizatioon Policy
@@ -53,6 +55,28 @@ public class RulesCanonicalizationPolicy
     }
     public void setRules(List<CanonicalizationRule> rules) {
         kp.put("rules", rules);
+        plan = null;
+    }
+
+    /**
+     * Rules as applied when no sheet overlays are active: disabled rules
+     * dropped, and each run of adjacent RegexRules replaced by a 
+     * RegexRuleRun. Rules' settings are captured when compiled, so 
+     * changing them other than by sheet requires setting 'rules' again.
+     */
+    protected transient volatile CompiledPlan plan;
+
+    /**
+     * A plan and the rules list it was compiled from, published together.
+     */
+    protected static class CompiledPlan {
+        final List<CanonicalizationRule> rules;
+        final List<CanonicalizationRule> steps;
+        CompiledPlan(List<CanonicalizationRule> rules,
+                List<CanonicalizationRule> steps) {
+            this.rules = rules;
+            this.steps = steps;
+        }
     }
     
     /**
@@ -65,10 +89,18 @@ public class RulesCanonicalizationPolicy
      */
     public String canonicalize(String before) {
         String canonical = before;
+        List<CanonicalizationRule> rules = getRules();
+        if (!logger.isLoggable(Level.FINER)
+                && !KeyedProperties.overlaysActive()) {
+            for (CanonicalizationRule rule : getPlan(rules)) {
+                canonical = rule.canonicalize(canonical);
+            }
+            return canonical;
+        }
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("Canonicalizing: "+before);
         }
-        for (CanonicalizationRule rule : getRules()) {
+        for (CanonicalizationRule rule : rules) {
             if(rule.getEnabled()) {
                 canonical = rule.canonicalize(canonical);
             }
@@ -82,6 +114,71 @@ public class RulesCanonicalizationPolicy
         return canonical;
     }
     
+    protected List<CanonicalizationRule> getPlan(List<CanonicalizationRule> rules) {
+        CompiledPlan compiled = plan;
+        if (compiled != null && compiled.rules == rules) {
+            return compiled.steps;
+        }
+        List<CanonicalizationRule> p = 
+            new ArrayList<CanonicalizationRule>(rules.size());
+        List<RegexRule> run = new ArrayList<RegexRule>();
+        for (CanonicalizationRule rule : rules) {
+            if (!rule.getEnabled()) {
+                continue;
+            }
+            if (rule.getClass() == RegexRule.class) {
+                run.add((RegexRule) rule);
+                continue;
+            }
+            if (!run.isEmpty()) {
+                p.add(new RegexRuleRun(run));
+                run.clear();
+            }
+            p.add(rule);
+        }
+        if (!run.isEmpty()) {
+            p.add(new RegexRuleRun(run));
+        }
+        plan = new CompiledPlan(rules, p);
+        return p;
+    }
+
+    /**
+     * Adjacent RegexRules, applied in order as if individually, but 
+     * finding the next to match with one MultiPatternMatcher rather than
+     * testing each in turn.
+     */
+    protected static class RegexRuleRun implements CanonicalizationRule {
+        protected RegexRule[] rules;
+        protected MultiPatternMatcher matcher;
+
+        public RegexRuleRun(List<RegexRule> run) {
+            rules = run.toArray(new RegexRule[run.size()]);
+            List<Pattern> patterns = new ArrayList<Pattern>(rules.length);
+            for (RegexRule rule : rules) {
+                patterns.add(rule.getRegex());
+            }
+            matcher = new MultiPatternMatcher(patterns);
+        }
+
+        public String canonicalize(String url) {
+            int next = 0;
+            while (next < rules.length) {
+                int i = matcher.firstMatch(url, next);
+                if (i < 0) {
+                    break;
+                }
+                url = rules[i].canonicalize(url);
+                next = i + 1;
+            }
+            return url;
+        }
+
+        public boolean getEnabled() {
+            return true;
+        }
+    }
+
     /**
      * A reasonable set of default rules to use, if no others are
      * provided by operator configuration.
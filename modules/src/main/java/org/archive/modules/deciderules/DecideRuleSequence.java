@@ -19,20 +19,32 @@
 
 package org.archive.modules.deciderules;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import org.archive.modules.CrawlURI;
 import org.archive.modules.SimpleFileLoggerProvider;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.ServerCache;
+import org.archive.spring.KeyedProperties;
+import org.archive.util.MultiPatternMatcher;
+import org.archive.util.ReportUtils;
+import org.archive.util.Reporter;
 import org.json.JSONObject;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
-public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lifecycle {
+public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lifecycle, Reporter {
     final private static Logger LOGGER = 
             Logger.getLogger(DecideRuleSequence.class.getName());
     private static final long serialVersionUID = 3L;
@@ -89,8 +101,56 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
     }
     public void setRules(List<DecideRule> rules) {
         kp.put("rules", rules);
+        plan = null;
+        ruleEvaluations = null;
+        ruleNanos = null;
     }
 
+    /**
+     * If enabled, decide using a plan compiled from the rules rather than
+     * by visiting every rule in order. As the last rule returning other
+     * than NONE wins, the plan visits rules from the last backward and
+     * stops at the first to decide; rules before it cannot change the
+     * result, and are never evaluated. Runs of adjacent plain
+     * MatchesRegexDecideRule/MatchesListRegexDecideRule (OR) rules with
+     * the same decision are tested together, by one MultiPatternMatcher. 
+     * 
+     * Decisions are identical to in-order evaluation, provided rules have
+     * no side effects that later rules depend on. (The decisive rule 
+     * named in the logToFile log may differ when several rules would 
+     * give the same decision.) The rules' own settings are captured when
+     * the plan is compiled; whenever sheet overlays apply to a URI, 
+     * grouped rules are evaluated individually instead, so sheets still
+     * take effect. Changing a rule's settings other than by sheet requires
+     * setting 'rules' (or 'compiled') again.
+     */
+    protected boolean compiled = false;
+    public boolean getCompiled() {
+        return compiled;
+    }
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+        plan = null;
+    }
+
+    /**
+     * If enabled, count evaluations of, and time spent in, each rule, for
+     * reportTo(). (Adds two System.nanoTime() calls per rule evaluated.)
+     * A run of rules tested together by a compiled plan is counted and
+     * reported as one unit, apart from its rules' individual evaluations.
+     */
+    protected boolean timeRules = false;
+    public boolean getTimeRules() {
+        return timeRules;
+    }
+    public void setTimeRules(boolean timeRules) {
+        this.timeRules = timeRules;
+    }
+
+    protected transient volatile CompiledPlan plan;
+    protected transient volatile AtomicLongArray ruleEvaluations;
+    protected transient volatile AtomicLongArray ruleNanos;
+
     protected ServerCache serverCache;
     public ServerCache getServerCache() {
         return this.serverCache;
@@ -101,20 +161,23 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
     }
 
     public DecideResult innerDecide(CrawlURI uri) {
+        List<DecideRule> rules = getRules();
+        if (compiled) {
+            CompiledPlan p = getPlan(rules);
+            if (p != null) {
+                return decideCompiled(uri, p);
+            }
+        }
+        
         DecideRule decisiveRule = null;
         int decisiveRuleNumber = -1;
         DecideResult result = DecideResult.NONE;
-        List<DecideRule> rules = getRules();
         int max = rules.size();
 
         for (int i = 0; i < max; i++) {
             DecideRule rule = rules.get(i);
             if (rule.onlyDecision(uri) != result) {
-                DecideResult r = rule.decisionFor(uri);
-                if (LOGGER.isLoggable(Level.FINEST)) {
-                    LOGGER.finest("DecideRule #" + i + " " + 
-                            rule.getClass().getName() + " returned " + r + " for url: " + uri);
-                }
+                DecideResult r = evaluate(rule, i, uri);
                 if (r != DecideResult.NONE) {
                     result = r;
                     decisiveRule = rule;
@@ -128,6 +191,199 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
         return result;
     }
 
+    /**
+     * Get decision of rule number i, timing it if so configured.
+     */
+    protected DecideResult evaluate(DecideRule rule, int i, CrawlURI uri) {
+        DecideResult r;
+        if (timeRules) {
+            long start = System.nanoTime();
+            r = rule.decisionFor(uri);
+            tallyTime(i, start);
+        } else {
+            r = rule.decisionFor(uri);
+        }
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("DecideRule #" + i + " " + 
+                    rule.getClass().getName() + " returned " + r + " for url: " + uri);
+        }
+        return r;
+    }
+
+    protected void tallyTime(int i, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        AtomicLongArray evaluations = ruleEvaluations;
+        AtomicLongArray nanos = ruleNanos;
+        if (evaluations == null) {
+            synchronized (this) {
+                if (ruleEvaluations == null) {
+                    ruleNanos = new AtomicLongArray(getRules().size());
+                    ruleEvaluations = new AtomicLongArray(getRules().size());
+                }
+                evaluations = ruleEvaluations;
+                nanos = ruleNanos;
+            }
+        }
+        // (a sheet-overridden rules list may be longer)
+        if (i < evaluations.length()) {
+            evaluations.incrementAndGet(i);
+            nanos.addAndGet(i, elapsed);
+        }
+    }
+
+    /**
+     * Decide by compiled plan: visit steps from last to first, returning
+     * the first decision other than NONE. 
+     */
+    protected DecideResult decideCompiled(CrawlURI uri, CompiledPlan p) {
+        boolean overlays = KeyedProperties.overlaysActive();
+        List<DecideRule> rules = p.rules;
+        String uriString = null;
+        for (int s = p.steps.length - 1; s >= 0; s--) {
+            Step step = p.steps[s];
+            if (step.combined != null && !overlays) {
+                if (uriString == null) {
+                    uriString = uri.toString();
+                }
+                long start = timeRules ? System.nanoTime() : 0;
+                boolean matched = step.combined.matchesAny(uriString);
+                if (timeRules) {
+                    step.evaluations.incrementAndGet();
+                    step.nanos.addAndGet(System.nanoTime() - start);
+                }
+                if (matched) {
+                    int decisive = step.last;
+                    if (fileLogger != null) {
+                        // name the rule that would have been decisive
+                        while (decisive > step.first 
+                                && rules.get(decisive).decisionFor(uri) == DecideResult.NONE) {
+                            decisive--;
+                        }
+                    }
+                    decisionMade(uri, rules.get(decisive), decisive, step.decision);
+                    return step.decision;
+                }
+                continue;
+            }
+            for (int i = step.last; i >= step.first; i--) {
+                DecideRule rule = rules.get(i);
+                DecideResult r = evaluate(rule, i, uri);
+                if (r != DecideResult.NONE) {
+                    decisionMade(uri, rule, i, r);
+                    return r;
+                }
+            }
+        }
+        decisionMade(uri, null, -1, DecideResult.NONE);
+        return DecideResult.NONE;
+    }
+
+    /**
+     * A run of rules visited together by a compiled plan: either a single
+     * rule, or adjacent rules all deciding 'decision' when 'combined' 
+     * matches.
+     */
+    protected static class Step {
+        int first;
+        int last;
+        DecideResult decision;
+        List<Pattern> patterns;
+        MultiPatternMatcher combined;
+        /** tests by 'combined', and time in them, if timing rules */
+        final AtomicLong evaluations = new AtomicLong(0);
+        final AtomicLong nanos = new AtomicLong(0);
+    }
+
+    protected static class CompiledPlan {
+        List<DecideRule> rules;
+        Step[] steps;
+    }
+
+    /**
+     * Get the plan compiled from the given rules, compiling it if 
+     * necessary; null if the given rules aren't the local rules (as when
+     * overridden by sheet).
+     */
+    protected CompiledPlan getPlan(List<DecideRule> rules) {
+        CompiledPlan p = plan;
+        if (p != null && p.rules == rules) {
+            return p;
+        }
+        if (p != null || KeyedProperties.overlaysActive()) {
+            // rules from a sheet: not compiled
+            return null;
+        }
+        p = compile(rules);
+        plan = p;
+        return p;
+    }
+
+    protected CompiledPlan compile(List<DecideRule> rules) {
+        List<Step> steps = new ArrayList<Step>();
+        Step run = null;
+        for (int i = 0; i < rules.size(); i++) {
+            DecideRule rule = rules.get(i);
+            List<Pattern> patterns = combinablePatterns(rule);
+            DecideResult decision = (patterns == null) 
+                    ? null : ((PredicatedDecideRule) rule).getDecision();
+            if (run != null && run.patterns != null && patterns != null
+                    && run.decision == decision) {
+                // extend run of same-decision regex rules
+                run.last = i;
+                run.patterns.addAll(patterns);
+                continue;
+            }
+            if (run != null) {
+                steps.add(finish(run));
+            }
+            run = new Step();
+            run.first = run.last = i;
+            run.decision = decision;
+            run.patterns = (patterns == null) ? null : new ArrayList<Pattern>(patterns);
+        }
+        if (run != null) {
+            steps.add(finish(run));
+        }
+        CompiledPlan p = new CompiledPlan();
+        p.rules = rules;
+        p.steps = steps.toArray(new Step[steps.size()]);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(getBeanName() + ": compiled " + rules.size() 
+                    + " rules into " + p.steps.length + " steps");
+        }
+        return p;
+    }
+
+    protected Step finish(Step step) {
+        if (step.patterns == null || step.patterns.isEmpty()) {
+            return step;
+        }
+        step.combined = new MultiPatternMatcher(step.patterns);
+        return step;
+    }
+
+    /**
+     * @return patterns which, if any matches the whole URI, mean the rule
+     * decides its decision (and otherwise NONE); or null if the rule is 
+     * not so simple
+     */
+    protected List<Pattern> combinablePatterns(DecideRule rule) {
+        if (!rule.getEnabled()) {
+            return null;
+        }
+        List<Pattern> patterns;
+        if (rule.getClass() == MatchesRegexDecideRule.class) {
+            patterns = Collections.singletonList(
+                    ((MatchesRegexDecideRule) rule).getRegex());
+        } else if (rule.getClass() == MatchesListRegexDecideRule.class
+                && ((MatchesListRegexDecideRule) rule).getListLogicalOr()) {
+            patterns = ((MatchesListRegexDecideRule) rule).getRegexList();
+        } else {
+            return null;
+        }
+        return patterns;
+    }
+
     protected void decisionMade(CrawlURI uri, DecideRule decisiveRule,
             int decisiveRuleNumber, DecideResult result) {
         if (fileLogger != null) {
@@ -179,4 +435,106 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
     public void stop() {
         isRunning = false;
     }
+
+    //
+    // Reporter
+    //
+    @Override
+    public void reportTo(PrintWriter writer) {
+        writer.print("[#] [rule] [evaluations] [total-ms] [avg-ns] [step]\n");
+        List<DecideRule> rules = getRules();
+        AtomicLongArray evaluations = ruleEvaluations;
+        AtomicLongArray nanos = ruleNanos;
+        CompiledPlan p = plan;
+        for (int i = 0; i < rules.size(); i++) {
+            long count = (evaluations == null || i >= evaluations.length()) 
+                    ? 0 : evaluations.get(i);
+            long ns = (nanos == null || i >= nanos.length()) ? 0 : nanos.get(i);
+            String step = "-";
+            if (p != null && p.rules == rules) {
+                for (Step candidate : p.steps) {
+                    if (candidate.combined != null 
+                            && candidate.first <= i && i <= candidate.last) {
+                        step = candidate.first + "-" + candidate.last;
+                    }
+                }
+            }
+            reportLine(writer, Integer.toString(i), 
+                    rules.get(i).getClass().getSimpleName(), count, ns, step);
+        }
+        if (p != null && p.rules == rules) {
+            // runs tested together, each timed as a unit
+            for (Step step : p.steps) {
+                if (step.combined != null) {
+                    String range = step.first + "-" + step.last;
+                    reportLine(writer, range, "combined", 
+                            step.evaluations.get(), step.nanos.get(), range);
+                }
+            }
+        }
+    }
+
+    protected void reportLine(PrintWriter writer, String number, String rule,
+            long count, long ns, String step) {
+        writer.print(number);
+        writer.print(" ");
+        writer.print(rule);
+        writer.print(" ");
+        writer.print(count);
+        writer.print(" ");
+        writer.print(ns / 1000000);
+        writer.print(" ");
+        writer.print(count == 0 ? 0 : ns / count);
+        writer.print(" ");
+        writer.print(step);
+        writer.print("\n");
+    }
+
+    @Override
+    public String shortReportLegend() {
+        return "rules compiled timeRules evaluations totalMs";
+    }
+
+    @Override
+    public String shortReportLine() {
+        return ReportUtils.shortReportLine(this);
+    }
+
+    @Override
+    public Map<String, Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String, Object>();
+        map.put("rules", getRules().size());
+        map.put("compiled", compiled);
+        map.put("timeRules", timeRules);
+        long count = 0;
+        long ns = 0;
+        AtomicLongArray evaluations = ruleEvaluations;
+        AtomicLongArray nanos = ruleNanos;
+        if (evaluations != null) {
+            for (int i = 0; i < evaluations.length(); i++) {
+                count += evaluations.get(i);
+                ns += nanos.get(i);
+            }
+        }
+        CompiledPlan p = plan;
+        if (p != null) {
+            for (Step step : p.steps) {
+                count += step.evaluations.get();
+                ns += step.nanos.get();
+            }
+        }
+        map.put("evaluations", count);
+        map.put("totalMs", ns / 1000000);
+        return map;
+    }
+
+    @Override
+    public void shortReportLineTo(PrintWriter writer) {
+        String separator = "";
+        for (Object value : shortReportMap().values()) {
+            writer.print(separator);
+            writer.print(value);
+            separator = " ";
+        }
+    }
 }
@@ -19,18 +19,26 @@
 package org.archive.modules.deciderules;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import org.archive.modules.CrawlURI;
+import org.archive.util.MultiPatternMatcher;
 
 /**
  * Rule applies configured decision to any CrawlURIs whose String URI
  * matches the supplied regexs.
  * <p>
  * The list of regular expressions can be considered logically AND or OR.
+ * <p>
+ * The regexes are tested together, by a MultiPatternMatcher built for
+ * each list (the rule's own, or one set by sheet) when first used. A
+ * list changed in place, rather than replaced, may not be noticed.
  *
  * @author Kristinn Sigurdsson
  * 
@@ -53,6 +61,7 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
     }
     public void setRegexList(List<Pattern> patterns) {
         kp.put("regexList", patterns);
+        matchers = null;
     }
 
     /**
@@ -70,12 +79,41 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
         kp.put("listLogicalOr",listLogicalOr);
     }
 
+    /**
+     * Matchers by regexList (compared by identity); replaced rather than
+     * modified when a matcher is added, so may be read without locking.
+     */
+    protected transient volatile Map<List<Pattern>,MultiPatternMatcher> matchers;
+
     /**
      * Usual constructor. 
      */
     public MatchesListRegexDecideRule() {
     }
 
+    protected MultiPatternMatcher getMatcher(List<Pattern> regexes) {
+        Map<List<Pattern>,MultiPatternMatcher> current = matchers;
+        MultiPatternMatcher matcher = (current == null) ? null : current.get(regexes);
+        if (matcher != null && matcher.size() == regexes.size()) {
+            return matcher;
+        }
+        synchronized (this) {
+            // another thread may have built it while this one waited
+            current = matchers;
+            matcher = (current == null) ? null : current.get(regexes);
+            if (matcher != null && matcher.size() == regexes.size()) {
+                return matcher;
+            }
+            Map<List<Pattern>,MultiPatternMatcher> updated = (current == null)
+                ? new IdentityHashMap<List<Pattern>,MultiPatternMatcher>()
+                : new IdentityHashMap<List<Pattern>,MultiPatternMatcher>(current);
+            matcher = new MultiPatternMatcher(regexes);
+            updated.put(regexes, matcher);
+            matchers = Collections.unmodifiableMap(updated);
+            return matcher;
+        }
+    }
+
     /**
      * Evaluate whether given object's string version
      * matches configured regexes
@@ -90,6 +128,19 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
         String str = uri.toString();
         boolean listLogicOR = getListLogicalOr();
 
+        if (!logger.isLoggable(Level.FINER)) {
+            MultiPatternMatcher matcher = getMatcher(regexes);
+            if (!listLogicOR) {
+                return matcher.matchesAll(str);
+            }
+            if (matcher.matchesAny(str)) {
+                logger.fine("Matched: " + str);
+                return true;
+            }
+            return false;
+        }
+
+        // test one by one, logging each
         for (Pattern p: regexes) {
             boolean matches = p.matcher(str).matches();
 
@@ -316,6 +316,24 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
     public void setIgnoreUnexpectedHtml(boolean ignoreUnexpectedHtml) {
         kp.put("ignoreUnexpectedHtml",ignoreUnexpectedHtml);
     }
+
+    /**
+     * If true, tags and attributes are found by hand-written scanners
+     * (see {@link HTMLTokenizer}) rather than by the RELEVANT_TAG_EXTRACTOR
+     * and EACH_ATTRIBUTE_EXTRACTOR regular expressions. The scanners find
+     * the same tags and attributes, in time linear in the length of the
+     * page, without the backtracking that makes the regular expressions
+     * slow on some malformed pages. Default is false.
+     */
+    {
+        setUseTokenizer(false);
+    }
+    public boolean getUseTokenizer() {
+        return (Boolean) kp.get("useTokenizer");
+    }
+    public void setUseTokenizer(boolean useTokenizer) {
+        kp.put("useTokenizer",useTokenizer);
+    }
     
     /**
      * CrawlMetadata provides the robots honoring policy to use when 
@@ -363,12 +381,33 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
                     Integer.toString(getMaxAttributeValLength()));
         this.eachAttributePattern = regex;
     }
+
+    /**
+     * @return successive tags in cs, as by RELEVANT_TAG_EXTRACTOR
+     */
+    protected HTMLTokenizer tags(CharSequence cs) {
+        if (getUseTokenizer()) {
+            return new HTMLTokenizer.Tags(cs, getMaxElementLength());
+        }
+        return HTMLTokenizer.regex(relevantTagPattern, cs);
+    }
+
+    /**
+     * @return successive attributes in cs, as by EACH_ATTRIBUTE_EXTRACTOR
+     */
+    protected HTMLTokenizer attributes(CharSequence cs) {
+        if (getUseTokenizer()) {
+            return new HTMLTokenizer.Attributes(cs,
+                    getMaxAttributeNameLength(), getMaxAttributeValLength());
+        }
+        return HTMLTokenizer.regex(eachAttributePattern, cs);
+    }
     
 
     protected void processGeneralTag(CrawlURI curi, CharSequence element,
             CharSequence cs) {
 
-        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+        HTMLTokenizer attr = attributes(cs);
 
         // Just in case it's an OBJECT or APPLET tag
         String codebase = null;
@@ -395,6 +434,8 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         
         final String elementStr = element.toString();
 
+        final boolean useTokenizer = getUseTokenizer();
+
         while (attr.find()) {
             int valueGroup =
                 (attr.start(14) > -1) ? 14 : (attr.start(15) > -1) ? 15 : 16;
@@ -408,7 +449,9 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             if (attr.start(2) > -1) {
                 CharSequence context;
                 // HREF
-                if ("a".equals(element) && TextUtils.matches("(?i).*data-remote\\s*=\\s*([\"'])true.*\\1", cs)) {
+                if ("a".equals(element) && (useTokenizer
+                        ? HTMLTokenizer.hasDataRemoteTrue(cs)
+                        : TextUtils.matches("(?i).*data-remote\\s*=\\s*([\"'])true.*\\1", cs))) {
                     context = "a[data-remote='true']/@href";
                 } else {
                     context = elementContext(element, attr.group(2));
@@ -520,7 +563,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
                 // and/or symptomatic of page bugs
             }
         }
-        TextUtils.recycleMatcher(attr);
+        attr.recycle();
 
         // handle codebase/resources
         if (resources != null) {
@@ -642,7 +685,9 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
      */
     protected void processLink(CrawlURI curi, final CharSequence value,
             CharSequence context) {
-        if (TextUtils.matches(JAVASCRIPT, value)) {
+        if (getUseTokenizer()
+                ? HTMLTokenizer.isJavascriptUri(value)
+                : TextUtils.matches(JAVASCRIPT, value)) {
             processScriptCode(curi, value. subSequence(11, value.length()));
         } else {    
             if (logger.isLoggable(Level.FINEST)) {
@@ -750,6 +795,9 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             curi.getNonFatalFailures().add(e);
             logger.log(Level.WARNING,"Failed get of replay char sequence in " +
                 Thread.currentThread().getName(), e);
+        } finally {
+            // inline scripts' CPU time is tallied only while extracting
+            ExtractorJS.clearCpuTally(curi);
         }
         return false;
     }
@@ -806,7 +854,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
      * of this extractors' lifetime.
      */
     protected void extract(CrawlURI curi, CharSequence cs) {
-        Matcher tags = TextUtils.getMatcher(relevantTagPattern,cs);
+        HTMLTokenizer tags = tags(cs);
         while(tags.find()) {
             if(Thread.interrupted()){
                 break;
@@ -870,7 +918,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
                     tags.end(4) - start);
             }
         }
-        TextUtils.recycleMatcher(tags);
+        tags.recycle();
     }
 
 
@@ -927,7 +975,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
      * @return True robots exclusion metatag.
      */
     protected boolean processMeta(CrawlURI curi, CharSequence cs) {
-        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+        HTMLTokenizer attr = attributes(cs);
         String name = null;
         String httpEquiv = null;
         String content = null;
@@ -946,7 +994,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             }            
             // TODO: handle other stuff
         }
-        TextUtils.recycleMatcher(attr);
+        attr.recycle();
 
         // Look for the 'robots' meta-tag
         if("robots".equalsIgnoreCase(name) && content != null ) {
@@ -22,6 +22,8 @@ import static org.archive.modules.extractor.Hop.SPECULATIVE;
 import static org.archive.modules.extractor.LinkContext.JS_MISC;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -73,6 +75,77 @@ public class ExtractorJS extends ContentExtractor {
     // (G1) ' or " with optional leading backslashes
     // (G2) whitespace-free string delimited on boths ends by G1
 
+    /**
+     * If true, strings are found by a hand-written scanner (see
+     * {@link JSStringScanner}) rather than by the JAVASCRIPT_STRING_EXTRACTOR
+     * regular expression. The scanner finds the same strings, so yields the
+     * same outlinks, in time linear in the length of the script, without
+     * the backtracking that makes the regular expression slow on large
+     * minified scripts. Default is false.
+     */
+    {
+        setUseScanner(false);
+    }
+    public boolean getUseScanner() {
+        return (Boolean) kp.get("useScanner");
+    }
+    public void setUseScanner(boolean useScanner) {
+        kp.put("useScanner",useScanner);
+    }
+
+    /**
+     * If true, and useScanner is set, also consider the text of backquoted
+     * template literals: whole, if without substitutions, else up to the
+     * first substitution. Default is false.
+     */
+    {
+        setExtractTemplateLiterals(false);
+    }
+    public boolean getExtractTemplateLiterals() {
+        return (Boolean) kp.get("extractTemplateLiterals");
+    }
+    public void setExtractTemplateLiterals(boolean extractTemplateLiterals) {
+        kp.put("extractTemplateLiterals",extractTemplateLiterals);
+    }
+
+    /**
+     * Most CPU time, in milliseconds, to spend considering the strings of
+     * any one document (summed over all its scripts, for an HTML page).
+     * Strings remaining when the time is spent are skipped, and the URI
+     * annotated "jsBudgetExceeded". Zero (the default) means no limit.
+     */
+    {
+        setMaxCpuMsPerDocument(0L);
+    }
+    public long getMaxCpuMsPerDocument() {
+        return (Long) kp.get("maxCpuMsPerDocument");
+    }
+    public void setMaxCpuMsPerDocument(long maxCpuMsPerDocument) {
+        kp.put("maxCpuMsPerDocument",maxCpuMsPerDocument);
+    }
+
+    protected static final String BUDGET_EXCEEDED_ANNOTATION = "jsBudgetExceeded";
+
+    /** strings considered between checks of the CPU time spent */
+    protected static final int BUDGET_CHECK_INTERVAL = 64;
+
+    /**
+     * characters read by the regular expression between checks of the
+     * CPU time spent, so a single long search can be stopped
+     */
+    protected static final int BUDGET_CHECK_CHARS = 4096;
+
+    /**
+     * Key, in a document's CrawlURI data, of the CPU nanoseconds spent on
+     * it so far, for a limit summed over several calls (as for each
+     * inline script of a page). Removed, by {@link #clearCpuTally}, once
+     * extraction of the document finishes.
+     */
+    protected static final String A_JS_CPU_NANOS = "jsCpuNanos";
+
+    protected static final ThreadMXBean THREAD_MX_BEAN = 
+        ManagementFactory.getThreadMXBean();
+
     protected long numberOfCURIsHandled = 0;
 
     protected boolean shouldExtract(CrawlURI uri) {
@@ -121,6 +194,8 @@ public class ExtractorJS extends ContentExtractor {
                 numberOfLinksExtracted.addAndGet(considerStrings(curi, cs));
             } catch (StackOverflowError e) {
                 DevUtils.warnHandle(e, "ExtractorJS StackOverflowError");
+            } finally {
+                clearCpuTally(curi);
             }
             // Set flag to indicate that link extraction is completed.
             return true;
@@ -141,28 +216,199 @@ public class ExtractorJS extends ContentExtractor {
     
     public long considerStrings(Extractor ext, 
             CrawlURI curi, CharSequence cs, boolean handlingJSFile) {
+        if (getUseScanner()) {
+            return considerScannedStrings(ext, curi, cs, handlingJSFile);
+        }
         long foundLinks = 0;
+        long budgetStart = budgetStart(curi);
+        if (budgetExceeded(curi, budgetStart)) {
+            return 0;
+        }
         
+        // with a limit, the search itself checks the time, as one find()
+        // may backtrack for a long time over a large script
+        CharSequence searched = budgetStart == Long.MIN_VALUE ? cs
+            : new BudgetedCharSequence(cs,
+                    budgetStart + getMaxCpuMsPerDocument() * 1000000L);
         Matcher strings =
-            TextUtils.getMatcher(JAVASCRIPT_STRING_EXTRACTOR, cs);
+            TextUtils.getMatcher(JAVASCRIPT_STRING_EXTRACTOR, searched);
         
         int startIndex = 0;
-        while (strings.find(startIndex)) {
-            CharSequence subsequence =
-            		cs.subSequence(strings.start(2), strings.end(2));
-            
+        int considered = 0;
+        try {
+            while (strings.find(startIndex)) {
+                CharSequence subsequence =
+                        cs.subSequence(strings.start(2), strings.end(2));
+
+                if (UriUtils.isPossibleUri(subsequence)) {
+                    if (considerString(ext, curi, handlingJSFile, subsequence.toString())) {
+                        foundLinks++;
+                    }
+                }
+
+                startIndex = strings.end(1);
+                if (++considered % BUDGET_CHECK_INTERVAL == 0
+                        && budgetExceeded(curi, budgetStart)) {
+                    break;
+                }
+            }
+        } catch (BudgetSpentException e) {
+            // time ran out within a search; annotated below
+        } finally {
+            TextUtils.recycleMatcher(strings);
+        }
+        budgetExceeded(curi, budgetStart);
+        return foundLinks;
+    }
+
+    /**
+     * As considerStrings(), but finding strings with a
+     * {@link JSStringScanner}.
+     */
+    protected long considerScannedStrings(Extractor ext, 
+            CrawlURI curi, CharSequence cs, boolean handlingJSFile) {
+        long foundLinks = 0;
+        long budgetStart = budgetStart(curi);
+        if (budgetExceeded(curi, budgetStart)) {
+            return 0;
+        }
+
+        JSStringScanner strings = new JSStringScanner(cs, UURI.MAX_URL_LENGTH,
+                getExtractTemplateLiterals());
+        int considered = 0;
+        while (strings.find()) {
+            CharSequence subsequence = cs.subSequence(strings.start(), strings.end());
+
             if (UriUtils.isPossibleUri(subsequence)) {
                 if (considerString(ext, curi, handlingJSFile, subsequence.toString())) {
                     foundLinks++;
                 }
             }
 
-            startIndex = strings.end(1);
+            if (++considered % BUDGET_CHECK_INTERVAL == 0
+                    && budgetExceeded(curi, budgetStart)) {
+                break;
+            }
         }
-        TextUtils.recycleMatcher(strings);
+        budgetExceeded(curi, budgetStart);
         return foundLinks;
     }
 
+    /**
+     * Thrown from within a regular expression search when the document's
+     * CPU time is spent.
+     */
+    protected static class BudgetSpentException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        protected BudgetSpentException() {
+            super("javascript CPU time limit exceeded", null, false, false);
+        }
+    }
+
+    /**
+     * Wraps the script being searched, checking the CPU time spent every
+     * BUDGET_CHECK_CHARS characters read, and throwing
+     * BudgetSpentException once past the deadline.
+     */
+    protected static class BudgetedCharSequence implements CharSequence {
+        protected final CharSequence cs;
+        protected final long deadline;
+        protected int untilCheck = BUDGET_CHECK_CHARS;
+
+        /**
+         * @param deadline value of cpuNanos() at which time is spent
+         */
+        protected BudgetedCharSequence(CharSequence cs, long deadline) {
+            this.cs = cs;
+            this.deadline = deadline;
+        }
+
+        public char charAt(int index) {
+            if (--untilCheck <= 0) {
+                untilCheck = BUDGET_CHECK_CHARS;
+                if (cpuNanos() > deadline) {
+                    throw new BudgetSpentException();
+                }
+            }
+            return cs.charAt(index);
+        }
+
+        public int length() {
+            return cs.length();
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return cs.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return cs.toString();
+        }
+    }
+
+    /**
+     * End the tally of CPU time spent on the document, so it doesn't
+     * travel on with the URI. Called by each extractor which considers a
+     * document's strings, when done with the document.
+     */
+    public static void clearCpuTally(CrawlURI curi) {
+        curi.getData().remove(A_JS_CPU_NANOS);
+    }
+
+    /**
+     * @return CPU time, in nanoseconds, of the current thread (or, if
+     * unavailable, wall-clock time)
+     */
+    protected static long cpuNanos() {
+        if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+            long nanos = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+            if (nanos >= 0) {
+                return nanos;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Start timing a call for the given document, continuing the tally
+     * of any earlier calls for the same document.
+     * 
+     * @return current time less time already spent on the document, or
+     * Long.MIN_VALUE if there is no limit
+     */
+    protected long budgetStart(CrawlURI curi) {
+        if (getMaxCpuMsPerDocument() <= 0) {
+            return Long.MIN_VALUE;
+        }
+        Long spent = (Long) curi.getData().get(A_JS_CPU_NANOS);
+        return cpuNanos() - (spent == null ? 0L : spent);
+    }
+
+    /**
+     * Record time spent on the document since budgetStart (so later calls
+     * for the same document continue the tally), annotating the URI if
+     * over the limit.
+     * 
+     * @return whether the document's time is spent
+     */
+    protected boolean budgetExceeded(CrawlURI curi, long budgetStart) {
+        if (budgetStart == Long.MIN_VALUE) {
+            return false;
+        }
+        long nanos = cpuNanos() - budgetStart;
+        curi.getData().put(A_JS_CPU_NANOS, nanos);
+        if (nanos <= getMaxCpuMsPerDocument() * 1000000L) {
+            return false;
+        }
+        if (!curi.getAnnotations().contains(BUDGET_EXCEEDED_ANNOTATION)) {
+            LOGGER.fine("javascript CPU time limit exceeded for " + curi);
+            curi.getAnnotations().add(BUDGET_EXCEEDED_ANNOTATION);
+        }
+        return true;
+    }
+
 
     protected boolean considerString(Extractor ext, CrawlURI curi,
             boolean handlingJSFile, String candidate) {
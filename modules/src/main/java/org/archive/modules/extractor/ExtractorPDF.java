@@ -20,10 +20,12 @@ package org.archive.modules.extractor;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
+import org.apache.commons.io.IOUtils;
 import org.archive.io.SinkHandlerLogThread;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
@@ -58,6 +60,36 @@ public class ExtractorPDF extends ContentExtractor {
         kp.put("maxSizeToParse",threshold);
     }
 
+    /**
+     * Whether to find links by one bounded-memory pass over the recorded
+     * content (see {@link PDFStreamingParser}), rather than by copying it
+     * to a temporary file and parsing the whole document. Encrypted PDFs
+     * are still fully parsed.
+     */
+    {
+        setStreaming(false);
+    }
+    public boolean getStreaming() {
+        return (Boolean) kp.get("streaming");
+    }
+    public void setStreaming(boolean streaming) {
+        kp.put("streaming",streaming);
+    }
+
+    /**
+     * In streaming mode, the most bytes to inflate from any one compressed
+     * object stream within a PDF.
+     */
+    {
+        setMaxInflatedBytes(16*1024*1024L); // 16MB
+    }
+    public long getMaxInflatedBytes() {
+        return (Long) kp.get("maxInflatedBytes");
+    }
+    public void setMaxInflatedBytes(long max) {
+        kp.put("maxInflatedBytes",max);
+    }
+
     public ExtractorPDF() {
     }
     
@@ -74,27 +106,14 @@ public class ExtractorPDF extends ContentExtractor {
     
     
     protected boolean innerExtract(CrawlURI curi){
-        File tempFile;
-
-        int sn;
-	Thread thread = Thread.currentThread();
-        if (thread instanceof SinkHandlerLogThread) {
-            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
-        } else {
-            sn = System.identityHashCode(thread);
-        }
-        try {
-            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-        }
-
-        PDFParser parser;
-        ArrayList<String> uris;
+        ArrayList<String> uris = null;
         try {
-            curi.getRecorder().copyContentBodyTo(tempFile);
-            parser = new PDFParser(tempFile.getAbsolutePath());
-            uris = parser.extractURIs();
+            if (getStreaming()) {
+                uris = extractStreaming(curi);
+            }
+            if (uris == null) {
+                uris = extractFromTempFile(curi);
+            }
         } catch (IOException e) {
             curi.getNonFatalFailures().add(e);
             return false;
@@ -103,8 +122,6 @@ public class ExtractorPDF extends ContentExtractor {
             // other problems
             curi.getNonFatalFailures().add(e);
             return false;
-        } finally {
-            FileUtils.deleteSoonerOrLater(tempFile);
         }
         
         if (uris == null) {
@@ -131,4 +148,57 @@ public class ExtractorPDF extends ContentExtractor {
         // Set flag to indicate that link extraction is completed.
         return true;
     }
+
+    /**
+     * Scan the recorded content for URIs, without a temporary file.
+     *
+     * @return URIs, or null if the PDF is encrypted (and so must be
+     * fully parsed)
+     */
+    protected ArrayList<String> extractStreaming(CrawlURI curi)
+    throws IOException {
+        InputStream contentStream =
+            curi.getRecorder().getContentReplayInputStream();
+        if (contentStream == null) {
+            return new ArrayList<String>();
+        }
+        try {
+            PDFStreamingParser parser = new PDFStreamingParser(
+                    PDFStreamingParser.DEFAULT_MAX_TOKEN_LENGTH,
+                    getMaxInflatedBytes());
+            ArrayList<String> uris = parser.extractURIs(contentStream);
+            return parser.isEncrypted() ? null : uris;
+        } finally {
+            IOUtils.closeQuietly(contentStream);
+        }
+    }
+
+    /**
+     * Copy the recorded content to a temporary file, and fully parse it.
+     */
+    protected ArrayList<String> extractFromTempFile(CrawlURI curi)
+    throws IOException {
+        File tempFile;
+
+        int sn;
+	Thread thread = Thread.currentThread();
+        if (thread instanceof SinkHandlerLogThread) {
+            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
+        } else {
+            sn = System.identityHashCode(thread);
+        }
+        try {
+            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+
+        try {
+            curi.getRecorder().copyContentBodyTo(tempFile);
+            PDFParser parser = new PDFParser(tempFile.getAbsolutePath());
+            return parser.extractURIs();
+        } finally {
+            FileUtils.deleteSoonerOrLater(tempFile);
+        }
+    }
 }
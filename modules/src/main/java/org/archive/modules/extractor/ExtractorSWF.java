@@ -117,6 +117,7 @@ public class ExtractorSWF extends ContentExtractor {
         } catch (IOException e) {
             curi.getNonFatalFailures().add(e);
         } finally {
+            ExtractorJS.clearCpuTally(curi);
             try {
                 documentStream.close();
             } catch (IOException e) {
@@ -0,0 +1,565 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+
+import org.archive.util.TextUtils;
+
+/**
+ * Successive matches of ExtractorHTML's tag or attribute patterns over a
+ * CharSequence, with the same groups: either by the regular expressions
+ * themselves ({@link #regex(String, CharSequence)}), or by hand-written
+ * scanners ({@link Tags}, {@link Attributes}) that find exactly the same
+ * matches in one forward pass, without backtracking, in time linear in
+ * the length of the input.
+ */
+public abstract class HTMLTokenizer implements MatchResult {
+    protected CharSequence cs;
+    protected int[] starts;
+    protected int[] ends;
+    /** where the next find() starts */
+    protected int pos = 0;
+
+    protected HTMLTokenizer(CharSequence cs, int groupCount) {
+        this.cs = cs;
+        this.starts = new int[groupCount + 1];
+        this.ends = new int[groupCount + 1];
+    }
+
+    /**
+     * Find the next match, if any.
+     */
+    public abstract boolean find();
+
+    /**
+     * Release any resources; no use after.
+     */
+    public void recycle() {
+    }
+
+    public static HTMLTokenizer regex(String pattern, CharSequence cs) {
+        return new Regex(pattern, cs);
+    }
+
+    public int start() {
+        return start(0);
+    }
+
+    public int start(int group) {
+        return starts[group];
+    }
+
+    public int end() {
+        return end(0);
+    }
+
+    public int end(int group) {
+        return ends[group];
+    }
+
+    public String group() {
+        return group(0);
+    }
+
+    public String group(int group) {
+        return starts[group] < 0 ? null
+                : cs.subSequence(starts[group], ends[group]).toString();
+    }
+
+    public int groupCount() {
+        return starts.length - 1;
+    }
+
+    protected void clear() {
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = -1;
+            ends[i] = -1;
+        }
+    }
+
+    protected void set(int group, int start, int end) {
+        starts[group] = start;
+        ends[group] = end;
+    }
+
+    /** as regex \s */
+    protected static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
+    }
+
+    /** as regex \w */
+    protected static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+            || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /** chars regex '.' doesn't match (without DOTALL) */
+    protected static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+            || c == '\u2029';
+    }
+
+    protected static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * @param lower lowercase ASCII
+     * @return whether cs has lower at offset, ignoring ASCII case (as
+     * regex (?i))
+     */
+    protected static boolean regionMatches(CharSequence cs, int offset, String lower) {
+        if (offset < 0 || offset + lower.length() > cs.length()) {
+            return false;
+        }
+        for (int i = 0; i < lower.length(); i++) {
+            if (toLowerAscii(cs.charAt(offset + i)) != lower.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same result as TextUtils.matches("(?i)^javascript:.*", value).
+     */
+    public static boolean isJavascriptUri(CharSequence value) {
+        if (!regionMatches(value, 0, "javascript:")) {
+            return false;
+        }
+        for (int i = 11; i < value.length(); i++) {
+            if (isLineTerminator(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same result as
+     * TextUtils.matches("(?i).*data-remote\\s*=\\s*([\"'])true.*\\1", cs).
+     */
+    public static boolean hasDataRemoteTrue(CharSequence cs) {
+        int length = cs.length();
+        if (length == 0) {
+            return false;
+        }
+        char last = cs.charAt(length - 1);
+        if (last != '"' && last != '\'') {
+            return false;
+        }
+        // '.*' on either side can't span line terminators
+        int firstTerminator = length;
+        int lastTerminator = -1;
+        for (int i = 0; i < length - 1; i++) {
+            if (isLineTerminator(cs.charAt(i))) {
+                firstTerminator = Math.min(firstTerminator, i);
+                lastTerminator = i;
+            }
+        }
+        for (int p = 0; p < firstTerminator; p++) {
+            if (!regionMatches(cs, p, "data-remote")) {
+                continue;
+            }
+            int i = p + 11;
+            while (i < length && isWhitespace(cs.charAt(i))) {
+                i++;
+            }
+            if (i >= length || cs.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < length && isWhitespace(cs.charAt(i))) {
+                i++;
+            }
+            if (i < length && cs.charAt(i) == last && regionMatches(cs, i + 1, "true")) {
+                int afterTrue = i + 5;
+                if (afterTrue <= length - 1 && afterTrue > lastTerminator) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches of a regular expression, by a (recycled) Matcher.
+     */
+    protected static class Regex extends HTMLTokenizer {
+        protected Matcher matcher;
+
+        protected Regex(String pattern, CharSequence cs) {
+            super(cs, 0);
+            this.matcher = TextUtils.getMatcher(pattern, cs);
+        }
+
+        @Override
+        public boolean find() {
+            return matcher.find();
+        }
+
+        @Override
+        public int start(int group) {
+            return matcher.start(group);
+        }
+
+        @Override
+        public int end(int group) {
+            return matcher.end(group);
+        }
+
+        @Override
+        public String group(int group) {
+            return matcher.group(group);
+        }
+
+        @Override
+        public int groupCount() {
+            return matcher.groupCount();
+        }
+
+        @Override
+        public void recycle() {
+            TextUtils.recycleMatcher(matcher);
+            matcher = null;
+        }
+    }
+
+    /**
+     * Finds the next occurrence of a fixed string (ignoring ASCII case),
+     * remembering the last found, so that a series of searches from
+     * mostly-increasing positions takes linear time overall.
+     */
+    protected static class Occurrences {
+        protected CharSequence cs;
+        protected String lower;
+        /** no occurrence starts in [searchedFrom, found) */
+        protected int searchedFrom = -1;
+        /** next occurrence at or after searchedFrom, or -1 if none */
+        protected int found = -1;
+
+        protected Occurrences(CharSequence cs, String lower) {
+            this.cs = cs;
+            this.lower = lower;
+        }
+
+        protected int indexFrom(int from) {
+            if (searchedFrom >= 0 && from >= searchedFrom
+                    && (found < 0 || from <= found)) {
+                return found;
+            }
+            if (searchedFrom >= 0 && from < searchedFrom) {
+                // only [from, searchedFrom) not yet searched
+                int hit = search(from, searchedFrom);
+                if (hit >= 0) {
+                    found = hit;
+                }
+            } else {
+                found = search(from, cs.length());
+            }
+            searchedFrom = from;
+            return found;
+        }
+
+        protected int search(int from, int to) {
+            char first = lower.charAt(0);
+            int last = Math.min(to, cs.length() - lower.length() + 1);
+            for (int i = from; i < last; i++) {
+                if (toLowerAscii(cs.charAt(i)) == first && regionMatches(cs, i, lower)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Matches of ExtractorHTML.RELEVANT_TAG_EXTRACTOR:
+     * <pre>
+     * (?is)&lt;(?:((script[^>]*+)>.*?&lt;/script)|((style[^>]*+)>.*?&lt;/style)
+     * |(((meta)|(?:\w{1,MAX_ELEMENT}))\s+[^>]*+)|(!--(?!\[if|>).*?--))>
+     * </pre>
+     */
+    public static class Tags extends HTMLTokenizer {
+        protected int maxElementLength;
+        protected Occurrences tagEnds;
+        protected Occurrences scriptEnds;
+        protected Occurrences styleEnds;
+        protected Occurrences commentEnds;
+
+        public Tags(CharSequence cs, int maxElementLength) {
+            super(cs, 8);
+            this.maxElementLength = maxElementLength;
+            this.tagEnds = new Occurrences(cs, ">");
+            this.scriptEnds = new Occurrences(cs, "</script>");
+            this.styleEnds = new Occurrences(cs, "</style>");
+            this.commentEnds = new Occurrences(cs, "-->");
+        }
+
+        @Override
+        public boolean find() {
+            int length = cs.length();
+            for (int i = pos; i < length; i++) {
+                if (cs.charAt(i) != '<') {
+                    continue;
+                }
+                clear();
+                if (matchContainer(i, "script", scriptEnds, 1)
+                        || matchContainer(i, "style", styleEnds, 3)
+                        || matchOther(i) || matchComment(i)) {
+                    starts[0] = i;
+                    pos = ends[0];
+                    return true;
+                }
+            }
+            pos = length;
+            return false;
+        }
+
+        /**
+         * (name[^>]*+)>.*?&lt;/name
+         */
+        protected boolean matchContainer(int i, String name,
+                Occurrences closeTags, int group) {
+            if (!regionMatches(cs, i + 1, name)) {
+                return false;
+            }
+            int openEnd = tagEnds.indexFrom(i + 1 + name.length());
+            if (openEnd < 0) {
+                return false;
+            }
+            int close = closeTags.indexFrom(openEnd + 1);
+            if (close < 0) {
+                return false;
+            }
+            // close tag, less its '>'
+            int end = close + closeTags.lower.length() - 1;
+            set(group, i + 1, end);
+            set(group + 1, i + 1, openEnd);
+            ends[0] = end + 1;
+            return true;
+        }
+
+        /**
+         * ((meta)|(?:\w{1,MAX_ELEMENT}))\s+[^>]*+
+         */
+        protected boolean matchOther(int i) {
+            int length = cs.length();
+            int limit = Math.max(maxElementLength, 4) + 1;
+            int run = 0;
+            while (run < limit && i + 1 + run < length
+                    && isWordChar(cs.charAt(i + 1 + run))) {
+                run++;
+            }
+            int elementEnd = i + 1 + run;
+            if (elementEnd >= length || !isWhitespace(cs.charAt(elementEnd))) {
+                return false;
+            }
+            boolean meta = run == 4 && regionMatches(cs, i + 1, "meta");
+            if (!meta && (run < 1 || run > maxElementLength)) {
+                return false;
+            }
+            int tagEnd = tagEnds.indexFrom(elementEnd);
+            if (tagEnd < 0) {
+                return false;
+            }
+            set(5, i + 1, tagEnd);
+            set(6, i + 1, elementEnd);
+            if (meta) {
+                set(7, i + 1, elementEnd);
+            }
+            ends[0] = tagEnd + 1;
+            return true;
+        }
+
+        /**
+         * !--(?!\[if|>).*?--
+         */
+        protected boolean matchComment(int i) {
+            if (!regionMatches(cs, i + 1, "!--") || regionMatches(cs, i + 4, "[if")
+                    || regionMatches(cs, i + 4, ">")) {
+                return false;
+            }
+            int close = commentEnds.indexFrom(i + 4);
+            if (close < 0) {
+                return false;
+            }
+            set(8, i + 1, close + 2);
+            ends[0] = close + 3;
+            return true;
+        }
+    }
+
+    /**
+     * Matches of ExtractorHTML.EACH_ATTRIBUTE_EXTRACTOR: an attribute
+     * name (group 1, and one of groups 2-13 by name), '=', and a value
+     * (group 14 if double-quoted, 15 if single-quoted, else 16).
+     */
+    public static class Attributes extends HTMLTokenizer {
+        /** names of groups 2 to 12, other than 4 (on*) */
+        protected static final String[][] NAMES = {
+            {}, {}, {"href"}, {"action"}, {},
+            {"src", "lowsrc", "background", "cite", "longdesc", "usemap",
+                "profile", "datasrc"},
+            {"codebase"}, {"classid", "data"}, {"archive"}, {"code"},
+            {"value"}, {"style"}, {"method"},
+        };
+        protected static final int LONGEST_NAME = 10;
+
+        protected int maxNameLength;
+        protected int maxValueLength;
+        protected Occurrences doubleQuotes;
+        protected Occurrences singleQuotes;
+
+        public Attributes(CharSequence cs, int maxNameLength, int maxValueLength) {
+            super(cs, 16);
+            this.maxNameLength = maxNameLength;
+            this.maxValueLength = maxValueLength;
+            this.doubleQuotes = new Occurrences(cs, "\"");
+            this.singleQuotes = new Occurrences(cs, "'");
+        }
+
+        /** as regex [-\w] */
+        protected static boolean isNameChar(char c) {
+            return c == '-' || isWordChar(c);
+        }
+
+        protected int skipWhitespace(int i) {
+            while (i < cs.length() && isWhitespace(cs.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean find() {
+            int length = cs.length();
+            int k = pos;
+            while (k < length) {
+                if (!isNameChar(cs.charAt(k))) {
+                    k++;
+                    continue;
+                }
+                // name chars from k; a name starting anywhere in them ends
+                // at the same place, so shares what follows
+                int runEnd = k;
+                int lastDash = -1;
+                while (runEnd < length && isNameChar(cs.charAt(runEnd))) {
+                    if (cs.charAt(runEnd) == '-') {
+                        lastDash = runEnd;
+                    }
+                    runEnd++;
+                }
+                int equals = skipWhitespace(runEnd);
+                if (equals >= length || cs.charAt(equals) != '=') {
+                    k = runEnd;
+                    continue;
+                }
+                int value = skipWhitespace(equals + 1);
+                if (value >= length) {
+                    k = runEnd;
+                    continue;
+                }
+                for (; k < runEnd; k++) {
+                    int group = classify(k, runEnd - k, lastDash);
+                    if (group > 0) {
+                        clear();
+                        set(1, k, runEnd);
+                        set(group, k, runEnd);
+                        matchValue(value);
+                        starts[0] = k > pos && isWhitespace(cs.charAt(k - 1)) ? k - 1 : k;
+                        pos = ends[0];
+                        return true;
+                    }
+                }
+            }
+            pos = length;
+            return false;
+        }
+
+        /**
+         * @return the group for a name of the given length at k, or 0 if
+         * none can match there
+         */
+        protected int classify(int k, int length, int lastDash) {
+            if (length <= LONGEST_NAME) {
+                for (int group = 2; group < NAMES.length; group++) {
+                    for (String name : NAMES[group]) {
+                        if (name.length() == length && regionMatches(cs, k, name)) {
+                            return group;
+                        }
+                    }
+                }
+            }
+            if (length >= 2 && lastDash < k && regionMatches(cs, k, "on")) {
+                return 4;
+            }
+            return length <= maxNameLength ? 13 : 0;
+        }
+
+        /**
+         * (?:"(.{0,MAX}?)(?:"|$))|(?:'(.{0,MAX}?)(?:'|$))|(\S{1,MAX})
+         */
+        protected void matchValue(int value) {
+            int length = cs.length();
+            char quote = cs.charAt(value);
+            if (quote == '"' || quote == '\'') {
+                int close = (quote == '"' ? doubleQuotes : singleQuotes).indexFrom(value + 1);
+                int dollar = dollarFrom(value + 1);
+                int end = close < 0 ? dollar : Math.min(close, dollar);
+                if (end - (value + 1) <= maxValueLength) {
+                    set(quote == '"' ? 14 : 15, value + 1, end);
+                    ends[0] = end == close ? end + 1 : end;
+                    return;
+                }
+            }
+            int end = value;
+            while (end < length && end - value < maxValueLength
+                    && !isWhitespace(cs.charAt(end))) {
+                end++;
+            }
+            set(16, value, end);
+            ends[0] = end;
+        }
+
+        /**
+         * @return first position at or after from where regex '$'
+         * (without MULTILINE) matches: before a final line terminator,
+         * or at the end
+         */
+        protected int dollarFrom(int from) {
+            int length = cs.length();
+            if (length >= 2 && from <= length - 2 && cs.charAt(length - 2) == '\r'
+                    && cs.charAt(length - 1) == '\n') {
+                return length - 2;
+            }
+            if (length >= 1 && from <= length - 1) {
+                char c = cs.charAt(length - 1);
+                if ((c == '\n' && !(length >= 2 && cs.charAt(length - 2) == '\r'))
+                        || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                    return length - 1;
+                }
+            }
+            return length;
+        }
+    }
+}
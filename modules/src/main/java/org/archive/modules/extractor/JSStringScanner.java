@@ -0,0 +1,298 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.Arrays;
+
+/**
+ * Finds the strings ExtractorJS considers, exactly as its
+ * JAVASCRIPT_STRING_EXTRACTOR regular expression does (text between a
+ * pair of ' or " or ' or " delimiters, each with the same
+ * leading backslashes, resuming just after each opening delimiter), but
+ * in a forward pass without backtracking.
+ *
+ * The regular expression, on finding an opening delimiter, reads ahead up
+ * to the maximum string length and backtracks looking for the matching
+ * close, for each of the many delimiters in a large script. Here, the
+ * next quote character is remembered between searches, and escaped
+ * closes (', ") are indexed once, so the scan takes
+ * essentially linear time.
+ *
+ * Optionally, template literals (text between backquotes) are also
+ * found, in a separate later pass: each whole if without substitutions,
+ * else its text up to the first "${".
+ */
+public class JSStringScanner {
+    /** most backslashes a delimiter may have, as '\\{0,8}+' */
+    protected static final int MAX_BACKSLASHES = 8;
+
+    protected CharSequence cs;
+    protected int maxLength;
+    protected boolean templateLiterals;
+
+    /** where the next find() starts */
+    protected int pos = 0;
+    /** bounds of the latest string found */
+    protected int start = -1;
+    protected int end = -1;
+    /** whether now finding template literals */
+    protected boolean inTemplatePass = false;
+
+    /** no ' or " in [nextQuoteFrom, nextQuote) */
+    protected int nextQuoteFrom = -1;
+    protected int nextQuote = -1;
+
+    /**
+     * Positions of each "u0022" ([0]) and "u0027" ([1]), for closes of
+     * escaped delimiters: [kind][backslashes] lists (ascending) those
+     * preceded by at least that many backslashes. Built when first needed.
+     */
+    protected int[][][] escapedCloses;
+
+    public JSStringScanner(CharSequence cs, int maxLength, boolean templateLiterals) {
+        this.cs = cs;
+        this.maxLength = maxLength;
+        this.templateLiterals = templateLiterals;
+    }
+
+    /**
+     * @return whether another string was found
+     */
+    public boolean find() {
+        if (!inTemplatePass) {
+            if (findQuoted()) {
+                return true;
+            }
+            if (!templateLiterals) {
+                return false;
+            }
+            inTemplatePass = true;
+            pos = 0;
+        }
+        return findTemplate();
+    }
+
+    /**
+     * @return start of the latest string's text
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * @return end of the latest string's text
+     */
+    public int end() {
+        return end;
+    }
+
+    protected boolean findQuoted() {
+        int length = cs.length();
+        for (int i = pos; i < length; i++) {
+            char c = cs.charAt(i);
+            if ((c == '\\' || c == '\'' || c == '"' || c == 'u') && matchAt(i)) {
+                return true;
+            }
+        }
+        pos = length;
+        return false;
+    }
+
+    /**
+     * Try to match a string whose opening delimiter starts at i.
+     */
+    protected boolean matchAt(int i) {
+        int length = cs.length();
+        // backslashes, possessively
+        int backslashes = 0;
+        while (backslashes < MAX_BACKSLASHES && i + backslashes < length
+                && cs.charAt(i + backslashes) == '\\') {
+            backslashes++;
+        }
+        int delimiter = i + backslashes;
+        if (delimiter >= length) {
+            return false;
+        }
+        char quote = cs.charAt(delimiter);
+        if (quote == '\'' || quote == '"') {
+            int textStart = delimiter + 1;
+            // the text can't contain quotes, so the close (ending with
+            // the same quote) must end at the next quote
+            int close = nextQuote(textStart);
+            if (close < 0 || cs.charAt(close) != quote) {
+                return false;
+            }
+            int textEnd = close - backslashes;
+            if (textEnd < textStart || textEnd - textStart > maxLength) {
+                return false;
+            }
+            for (int j = textEnd; j < close; j++) {
+                if (cs.charAt(j) != '\\') {
+                    return false;
+                }
+            }
+            found(textStart, textEnd);
+            return true;
+        }
+        if (quote == 'u' && delimiter + 4 < length && cs.charAt(delimiter + 1) == '0'
+                && cs.charAt(delimiter + 2) == '0' && cs.charAt(delimiter + 3) == '2') {
+            char kind = cs.charAt(delimiter + 4);
+            if (kind != '2' && kind != '7') {
+                return false;
+            }
+            int textStart = delimiter + 5;
+            // close entirely before the next quote; text at most maxLength;
+            // greedy, so the last such close
+            int quoteLimit = nextQuote(textStart);
+            if (quoteLimit < 0) {
+                quoteLimit = length;
+            }
+            int maxTextEnd = Math.min(textStart + maxLength, quoteLimit - 5 - backslashes);
+            int close = lastEscapedClose(kind == '2' ? 0 : 1, backslashes,
+                    textStart + backslashes, maxTextEnd + backslashes);
+            if (close < 0) {
+                return false;
+            }
+            found(textStart, close - backslashes);
+            return true;
+        }
+        return false;
+    }
+
+    protected void found(int textStart, int textEnd) {
+        start = textStart;
+        end = textEnd;
+        // as ExtractorJS's find(end(1)): resume just after the opening
+        pos = textStart;
+    }
+
+    /**
+     * @return position of the first ' or " at or after from, or -1
+     */
+    protected int nextQuote(int from) {
+        if (nextQuoteFrom >= 0 && from >= nextQuoteFrom
+                && (nextQuote < 0 || from <= nextQuote)) {
+            return nextQuote;
+        }
+        nextQuote = -1;
+        for (int i = from; i < cs.length(); i++) {
+            char c = cs.charAt(i);
+            if (c == '\'' || c == '"') {
+                nextQuote = i;
+                break;
+            }
+        }
+        nextQuoteFrom = from;
+        return nextQuote;
+    }
+
+    /**
+     * @return the last position in [from, to] of "u002" plus the given
+     * kind's digit, preceded by at least the given count of backslashes;
+     * or -1 if none
+     */
+    protected int lastEscapedClose(int kind, int backslashes, int from, int to) {
+        if (to < from) {
+            return -1;
+        }
+        if (escapedCloses == null) {
+            indexEscapedCloses();
+        }
+        int[] positions = escapedCloses[kind][backslashes];
+        int index = Arrays.binarySearch(positions, to);
+        if (index < 0) {
+            // insertion point, less one: last below
+            index = -index - 2;
+        }
+        return index >= 0 && positions[index] >= from ? positions[index] : -1;
+    }
+
+    protected void indexEscapedCloses() {
+        int length = cs.length();
+        int[][] counts = new int[2][MAX_BACKSLASHES + 1];
+        int[][][] lists = new int[2][MAX_BACKSLASHES + 1][];
+        // two passes: count, then fill
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                for (int kind = 0; kind < 2; kind++) {
+                    for (int b = 0; b <= MAX_BACKSLASHES; b++) {
+                        lists[kind][b] = new int[counts[kind][b]];
+                        counts[kind][b] = 0;
+                    }
+                }
+            }
+            int run = 0;
+            for (int i = 0; i < length; i++) {
+                char c = cs.charAt(i);
+                if (c == 'u' && i + 4 < length && cs.charAt(i + 1) == '0'
+                        && cs.charAt(i + 2) == '0' && cs.charAt(i + 3) == '2'
+                        && (cs.charAt(i + 4) == '2' || cs.charAt(i + 4) == '7')) {
+                    int kind = cs.charAt(i + 4) == '2' ? 0 : 1;
+                    for (int b = 0; b <= Math.min(run, MAX_BACKSLASHES); b++) {
+                        if (pass == 1) {
+                            lists[kind][b][counts[kind][b]] = i;
+                        }
+                        counts[kind][b]++;
+                    }
+                }
+                run = c == '\\' ? run + 1 : 0;
+            }
+        }
+        escapedCloses = lists;
+    }
+
+    /**
+     * Find the next backquoted template literal (skipping escaped
+     * backquotes within), as its text up to any substitution.
+     */
+    protected boolean findTemplate() {
+        int length = cs.length();
+        for (int i = pos; i < length; i++) {
+            if (cs.charAt(i) != '`') {
+                continue;
+            }
+            int textEnd = -1;
+            int j = i + 1;
+            while (j < length && j - (i + 1) <= maxLength) {
+                char c = cs.charAt(j);
+                if (c == '\\') {
+                    j += 2;
+                    continue;
+                }
+                if (c == '`') {
+                    break;
+                }
+                if (c == '$' && j + 1 < length && cs.charAt(j + 1) == '{' && textEnd < 0) {
+                    textEnd = j;
+                }
+                j++;
+            }
+            if (j >= length || j - (i + 1) > maxLength || cs.charAt(j) != '`') {
+                // unclosed, or too long
+                continue;
+            }
+            start = i + 1;
+            end = textEnd < 0 ? j : textEnd;
+            pos = j + 1;
+            return true;
+        }
+        pos = length;
+        return false;
+    }
+}
@@ -0,0 +1,660 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Finds URIs (the string values of /URI or /URL keys, as in URI actions)
+ * in a PDF in one forward pass over its bytes, in bounded memory: no
+ * whole-document buffer, cross-reference table or object graph is built.
+ * Object streams (/Type /ObjStm), where PDF 1.5+ documents keep most
+ * dictionaries, are inflated on the fly and scanned in turn; other
+ * streams (page content, images, fonts) are skipped.
+ *
+ * Unlike {@link PDFParser}, which walks the graph from the document
+ * catalog, this also reports URIs in objects the catalog no longer
+ * reaches (such as those replaced by an incremental update), and
+ * doesn't resolve URIs given by indirect reference. Strings in
+ * encrypted documents can't be read; {@link #isEncrypted()} reports
+ * whether the document is, so callers may fall back to a full parse.
+ */
+public class PDFStreamingParser {
+    protected static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    protected static final Charset UTF16BE = Charset.forName("UTF-16BE");
+
+    /** token types */
+    protected static final int EOF = 0;
+    protected static final int NAME = 1;
+    protected static final int STRING = 2;
+    protected static final int NUMBER = 3;
+    protected static final int KEYWORD = 4;
+    protected static final int DICT_START = 5;
+    protected static final int DICT_END = 6;
+    protected static final int ARRAY_START = 7;
+    protected static final int ARRAY_END = 8;
+    protected static final int OTHER = 9;
+
+    protected static final byte[] ENDSTREAM = "endstream".getBytes(LATIN1);
+
+    public static final int DEFAULT_MAX_TOKEN_LENGTH = 8192;
+    public static final long DEFAULT_MAX_INFLATED_BYTES = 16 * 1024 * 1024;
+
+    /** longest string or name kept; longer (or unterminated) are skipped */
+    protected int maxTokenLength = DEFAULT_MAX_TOKEN_LENGTH;
+    /** most bytes inflated from any one object stream */
+    protected long maxInflatedBytes = DEFAULT_MAX_INFLATED_BYTES;
+
+    protected ArrayList<String> foundURIs = new ArrayList<String>();
+    protected boolean encrypted = false;
+    protected int objectStreams = 0;
+
+    public PDFStreamingParser() {
+    }
+
+    public PDFStreamingParser(int maxTokenLength, long maxInflatedBytes) {
+        this.maxTokenLength = maxTokenLength;
+        this.maxInflatedBytes = maxInflatedBytes;
+    }
+
+    /**
+     * Scan the given PDF for URIs.
+     *
+     * @param in PDF bytes; not closed
+     * @return URIs found, in order of appearance
+     */
+    public ArrayList<String> extractURIs(InputStream in) throws IOException {
+        scan(new Source(in), false);
+        return foundURIs;
+    }
+
+    public ArrayList<String> getURIs() {
+        return foundURIs;
+    }
+
+    /**
+     * @return whether the document declared encryption (so that any
+     * strings found, including URIs, are likely garbage)
+     */
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * @return count of object streams inflated and scanned
+     */
+    public int getObjectStreamCount() {
+        return objectStreams;
+    }
+
+    /**
+     * Buffered, forward-only view of the underlying bytes, with one-byte
+     * lookahead.
+     */
+    protected static class Source {
+        protected InputStream in;
+        protected byte[] buf = new byte[8192];
+        protected int pos = 0;
+        protected int limit = 0;
+
+        protected Source(InputStream in) {
+            this.in = in;
+        }
+
+        protected boolean fill() throws IOException {
+            if (pos < limit) {
+                return true;
+            }
+            int n = in.read(buf, 0, buf.length);
+            while (n == 0) {
+                n = in.read(buf, 0, buf.length);
+            }
+            if (n < 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+
+        protected int peek() throws IOException {
+            return fill() ? buf[pos] & 0xff : -1;
+        }
+
+        protected int read() throws IOException {
+            return fill() ? buf[pos++] & 0xff : -1;
+        }
+
+        protected long skip(long count) throws IOException {
+            long skipped = 0;
+            while (skipped < count && fill()) {
+                int n = (int) Math.min(count - skipped, limit - pos);
+                pos += n;
+                skipped += n;
+            }
+            return skipped;
+        }
+    }
+
+    /**
+     * Inflated bytes of a stream's data, read from a Source as needed, so
+     * the Source is left just past the compressed data.
+     */
+    protected class InflatingStream extends InputStream {
+        protected Source source;
+        protected Inflater inflater = new Inflater();
+        protected long inflated = 0;
+        protected byte[] one = new byte[1];
+
+        protected InflatingStream(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (inflated >= maxInflatedBytes) {
+                return -1;
+            }
+            len = (int) Math.min(len, maxInflatedBytes - inflated);
+            try {
+                while (true) {
+                    if (inflater.finished()) {
+                        return -1;
+                    }
+                    if (inflater.needsInput()) {
+                        if (!source.fill()) {
+                            return -1;
+                        }
+                        inflater.setInput(source.buf, source.pos, source.limit - source.pos);
+                    }
+                    int before = inflater.getRemaining();
+                    int n = inflater.inflate(b, off, len);
+                    // advance source past input consumed
+                    source.pos += before - inflater.getRemaining();
+                    if (n > 0) {
+                        inflated += n;
+                        return n;
+                    }
+                    if (inflater.needsDictionary()) {
+                        return -1;
+                    }
+                }
+            } catch (DataFormatException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+    }
+
+    /** scanner state for one top-level object */
+    protected Source source;
+    protected StringBuilder token = new StringBuilder();
+    protected byte[] stringBytes = new byte[256];
+    protected int stringLength;
+    protected boolean tokenTooLong;
+
+    /**
+     * Scan tokens from the source to its end, noting URIs and (unless
+     * within an object stream) handling stream data.
+     */
+    protected void scan(Source source, boolean inObjectStream) throws IOException {
+        Source outer = this.source;
+        this.source = source;
+        try {
+            int depth = 0;
+            int arrayDepth = 0;
+            boolean expectKey = false;
+            String key = null;
+            String pendingUriKey = null;
+            // facts about the latest top-level dictionary, for a following stream
+            boolean objStm = false;
+            int filters = 0;
+            boolean flate = false;
+            long length = -1;
+
+            while (true) {
+                int type = nextToken();
+                if (type == EOF) {
+                    return;
+                }
+                if (pendingUriKey != null && type == STRING && !tokenTooLong) {
+                    foundURIs.add(decodeString());
+                }
+                pendingUriKey = null;
+
+                switch (type) {
+                case DICT_START:
+                    depth++;
+                    if (depth == 1) {
+                        objStm = false;
+                        filters = 0;
+                        flate = false;
+                        length = -1;
+                        key = null;
+                        expectKey = true;
+                    }
+                    continue;
+                case DICT_END:
+                    if (depth > 0) {
+                        depth--;
+                    }
+                    if (depth == 1 && arrayDepth == 0) {
+                        expectKey = true;
+                    }
+                    continue;
+                case ARRAY_START:
+                    if (depth == 1) {
+                        arrayDepth++;
+                    }
+                    continue;
+                case ARRAY_END:
+                    if (depth == 1 && arrayDepth > 0) {
+                        arrayDepth--;
+                        if (arrayDepth == 0) {
+                            expectKey = true;
+                        }
+                    }
+                    continue;
+                case NAME:
+                    String name = token.toString();
+                    if (name.equals("URI") || name.equals("URL")) {
+                        pendingUriKey = name;
+                    } else if (name.equals("Encrypt")) {
+                        encrypted = true;
+                    }
+                    if (depth == 1) {
+                        if (arrayDepth == 0 && expectKey) {
+                            key = name;
+                            expectKey = false;
+                            continue;
+                        }
+                        if ("Type".equals(key) && name.equals("ObjStm")) {
+                            objStm = true;
+                        } else if ("Filter".equals(key)) {
+                            filters++;
+                            flate = name.equals("FlateDecode") || name.equals("Fl");
+                        }
+                        if (arrayDepth == 0) {
+                            expectKey = true;
+                        }
+                    }
+                    continue;
+                case NUMBER:
+                    if (depth == 1 && arrayDepth == 0 && !expectKey) {
+                        if ("Length".equals(key)) {
+                            try {
+                                length = Long.parseLong(token.toString());
+                            } catch (NumberFormatException e) {
+                                length = -1;
+                            }
+                        }
+                        expectKey = true;
+                    }
+                    continue;
+                case STRING:
+                    if (depth == 1 && arrayDepth == 0 && !expectKey) {
+                        expectKey = true;
+                    }
+                    continue;
+                case KEYWORD:
+                    String keyword = token.toString();
+                    if (keyword.equals("R")) {
+                        if (depth == 1 && "Length".equals(key)) {
+                            // indirect length: unknown here
+                            length = -1;
+                        }
+                    } else if (keyword.equals("stream") && depth == 0 && !inObjectStream) {
+                        streamData(objStm && filters <= 1 && (flate || filters == 0),
+                                flate, length);
+                        objStm = false;
+                        length = -1;
+                    } else if (keyword.equals("obj") || keyword.equals("endobj")) {
+                        // resynchronize after any malformed object
+                        depth = 0;
+                        arrayDepth = 0;
+                    }
+                    continue;
+                default:
+                    continue;
+                }
+            }
+        } finally {
+            this.source = outer;
+        }
+    }
+
+    /**
+     * Handle the data following a 'stream' keyword: scan it, if an object
+     * stream, else skip it; either way, leave the source past 'endstream'.
+     */
+    protected void streamData(boolean scan, boolean flate, long length)
+    throws IOException {
+        // data starts after CRLF or LF
+        if (source.peek() == '\r') {
+            source.read();
+        }
+        if (source.peek() == '\n') {
+            source.read();
+        }
+        if (scan) {
+            objectStreams++;
+            if (flate) {
+                InflatingStream inflating = new InflatingStream(source);
+                try {
+                    scan(new Source(inflating), true);
+                } finally {
+                    inflating.close();
+                }
+            } else if (length >= 0) {
+                scan(new Source(new BoundedStream(source, length)), true);
+                length = -1;
+            }
+            // compressed length now consumed (or unknown)
+        } else if (length >= 0) {
+            source.skip(length);
+        }
+        skipPastEndstream();
+    }
+
+    /**
+     * Uncompressed object stream data of known length.
+     */
+    protected static class BoundedStream extends InputStream {
+        protected Source source;
+        protected long remaining;
+
+        protected BoundedStream(Source source, long length) {
+            this.source = source;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return source.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0 || !source.fill()) {
+                return -1;
+            }
+            int n = (int) Math.min(Math.min(len, remaining), source.limit - source.pos);
+            System.arraycopy(source.buf, source.pos, b, off, n);
+            source.pos += n;
+            remaining -= n;
+            return n;
+        }
+    }
+
+    protected void skipPastEndstream() throws IOException {
+        // chars of 'endstream' matched so far, possibly in an earlier buffer
+        int matched = 0;
+        while (source.fill()) {
+            byte[] buf = source.buf;
+            int pos = source.pos;
+            int limit = source.limit;
+            if (matched == 0) {
+                // fast skip to the next 'e'
+                while (pos < limit && buf[pos] != 'e') {
+                    pos++;
+                }
+            }
+            while (pos < limit) {
+                byte b = buf[pos++];
+                if (b == ENDSTREAM[matched]) {
+                    if (++matched == ENDSTREAM.length) {
+                        source.pos = pos;
+                        return;
+                    }
+                } else {
+                    matched = b == 'e' ? 1 : 0;
+                    if (matched == 0) {
+                        while (pos < limit && buf[pos] != 'e') {
+                            pos++;
+                        }
+                    }
+                }
+            }
+            source.pos = pos;
+        }
+    }
+
+    protected static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+    }
+
+    protected static boolean isDelimiter(int c) {
+        return c == '(' || c == ')' || c == '<' || c == '>' || c == '['
+            || c == ']' || c == '{' || c == '}' || c == '/' || c == '%';
+    }
+
+    /**
+     * Read the next token; its text (for names, numbers and keywords)
+     * is left in token, and (for strings) its bytes in stringBytes.
+     */
+    protected int nextToken() throws IOException {
+        int c;
+        while (true) {
+            c = source.read();
+            if (c < 0) {
+                return EOF;
+            }
+            if (isWhitespace(c)) {
+                continue;
+            }
+            if (c == '%') {
+                // comment to end of line
+                while ((c = source.peek()) >= 0 && c != '\n' && c != '\r') {
+                    source.read();
+                }
+                continue;
+            }
+            break;
+        }
+        token.setLength(0);
+        tokenTooLong = false;
+        switch (c) {
+        case '/':
+            readName();
+            return NAME;
+        case '(':
+            readLiteralString();
+            return STRING;
+        case '<':
+            if (source.peek() == '<') {
+                source.read();
+                return DICT_START;
+            }
+            readHexString();
+            return STRING;
+        case '>':
+            if (source.peek() == '>') {
+                source.read();
+                return DICT_END;
+            }
+            return OTHER;
+        case '[':
+            return ARRAY_START;
+        case ']':
+            return ARRAY_END;
+        case ')':
+        case '{':
+        case '}':
+            return OTHER;
+        default:
+            appendToken(c);
+            while ((c = source.peek()) >= 0 && !isWhitespace(c) && !isDelimiter(c)) {
+                appendToken(source.read());
+            }
+            char first = token.length() > 0 ? token.charAt(0) : ' ';
+            return (first >= '0' && first <= '9') || first == '-' || first == '+'
+                || first == '.' ? NUMBER : KEYWORD;
+        }
+    }
+
+    protected void appendToken(int c) {
+        if (token.length() < maxTokenLength) {
+            token.append((char) c);
+        } else {
+            tokenTooLong = true;
+        }
+    }
+
+    protected void readName() throws IOException {
+        int c;
+        while ((c = source.peek()) >= 0 && !isWhitespace(c) && !isDelimiter(c)) {
+            source.read();
+            if (c == '#') {
+                int hi = Character.digit(source.peek(), 16);
+                if (hi >= 0) {
+                    source.read();
+                    int lo = Character.digit(source.peek(), 16);
+                    if (lo >= 0) {
+                        source.read();
+                        c = hi * 16 + lo;
+                    } else {
+                        c = hi;
+                    }
+                }
+            }
+            appendToken(c);
+        }
+    }
+
+    protected void appendString(int b) {
+        if (stringLength >= maxTokenLength) {
+            tokenTooLong = true;
+            return;
+        }
+        if (stringLength == stringBytes.length) {
+            byte[] grown = new byte[Math.min(maxTokenLength, stringBytes.length * 2)];
+            System.arraycopy(stringBytes, 0, grown, 0, stringLength);
+            stringBytes = grown;
+        }
+        stringBytes[stringLength++] = (byte) b;
+    }
+
+    protected void readLiteralString() throws IOException {
+        stringLength = 0;
+        int nesting = 1;
+        int c;
+        while ((c = source.read()) >= 0) {
+            if (c == '\\') {
+                c = source.read();
+                switch (c) {
+                case 'n': appendString('\n'); break;
+                case 'r': appendString('\r'); break;
+                case 't': appendString('\t'); break;
+                case 'b': appendString('\b'); break;
+                case 'f': appendString('\f'); break;
+                case '\r':
+                    // line continuation
+                    if (source.peek() == '\n') {
+                        source.read();
+                    }
+                    break;
+                case '\n':
+                    break;
+                case -1:
+                    tokenTooLong = true;
+                    return;
+                default:
+                    if (c >= '0' && c <= '7') {
+                        int octal = c - '0';
+                        for (int i = 0; i < 2 && source.peek() >= '0' && source.peek() <= '7'; i++) {
+                            octal = octal * 8 + (source.read() - '0');
+                        }
+                        appendString(octal & 0xff);
+                    } else {
+                        appendString(c);
+                    }
+                }
+            } else if (c == '(') {
+                nesting++;
+                appendString(c);
+            } else if (c == ')') {
+                if (--nesting == 0) {
+                    return;
+                }
+                appendString(c);
+            } else {
+                appendString(c);
+            }
+        }
+        // unterminated
+        tokenTooLong = true;
+    }
+
+    protected void readHexString() throws IOException {
+        stringLength = 0;
+        int hi = -1;
+        int c;
+        while ((c = source.read()) != '>') {
+            if (c < 0) {
+                // unterminated
+                tokenTooLong = true;
+                return;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                continue;
+            }
+            if (hi < 0) {
+                hi = digit;
+            } else {
+                appendString(hi * 16 + digit);
+                hi = -1;
+            }
+        }
+        if (hi >= 0) {
+            appendString(hi * 16);
+        }
+    }
+
+    /**
+     * @return latest string, as text: UTF-16 if it starts with that byte
+     * order mark, else bytes as chars (as PdfString.toString())
+     */
+    protected String decodeString() {
+        if (stringLength >= 2 && (stringBytes[0] & 0xff) == 0xfe
+                && (stringBytes[1] & 0xff) == 0xff) {
+            return new String(stringBytes, 2, stringLength - 2, UTF16BE);
+        }
+        return new String(stringBytes, 0, stringLength, LATIN1);
+    }
+}
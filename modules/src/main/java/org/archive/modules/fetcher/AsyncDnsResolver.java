@@ -0,0 +1,832 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.util.InetAddressUtil;
+import org.springframework.context.Lifecycle;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+/**
+ * Resolves host names to IPv4 addresses without blocking the requesting
+ * thread: queries from all threads are multiplexed, by a single I/O
+ * thread, over a few UDP sockets, with up to 'maxOutstanding' in flight
+ * at once. Results, positive and negative, are cached for their DNS TTL
+ * (negative results for the SOA minimum, if given), and concurrent
+ * requests for the same name share one query.
+ *
+ * Callers get a {@link Resolution} at once, and may wait on it or not;
+ * {@link #prefetch(String)} starts a lookup (if not cached or underway)
+ * for a name that will be needed soon.
+ *
+ * Only UDP is used: truncated responses are reported as such, for the
+ * caller to retry by other means.
+ *
+ * As results are shared by the whole crawl, responses are hard to spoof:
+ * query IDs are from a SecureRandom, each socket is bound to a random
+ * port and replaced after 'queriesPerSocket' queries, a response must
+ * come from the server asked and repeat the question, and only records
+ * for the name asked about and its chain of aliases are kept.
+ */
+public class AsyncDnsResolver implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(AsyncDnsResolver.class.getName());
+
+    /** lookup completed with an address */
+    public static final int RESOLVED = 0;
+    /** name authoritatively doesn't exist, or has no address */
+    public static final int NO_ADDRESS = 1;
+    /** no usable response from any server, after retries */
+    public static final int FAILED = 2;
+    /** response too large for UDP */
+    public static final int TRUNCATED = 3;
+
+    protected static final int MAX_CNAME_DEPTH = 8;
+    protected static final int MAX_RESPONSE_BYTES = 4096;
+    // room for bursts of responses (kernel may allow less)
+    protected static final int RECEIVE_BUFFER_BYTES = 1 << 20;
+
+    /**
+     * DNS servers to query, as 'host' or 'host:port'; if empty, those of
+     * the system configuration (as found by dnsjava). Retries go to the
+     * next server in turn.
+     */
+    protected List<String> servers = new ArrayList<String>();
+    public List<String> getServers() {
+        return servers;
+    }
+    public void setServers(List<String> servers) {
+        this.servers = servers;
+    }
+
+    /**
+     * Number of UDP sockets over which to spread queries.
+     */
+    protected int sockets = 8;
+    public int getSockets() {
+        return sockets;
+    }
+    public void setSockets(int sockets) {
+        this.sockets = sockets;
+    }
+
+    /**
+     * Queries sent from a socket before it is replaced by one on another
+     * random port (once its outstanding queries are answered or timed
+     * out). At most sockets * queriesPerSocket queries are outstanding
+     * at once.
+     */
+    protected int queriesPerSocket = 100;
+    public int getQueriesPerSocket() {
+        return queriesPerSocket;
+    }
+    public void setQueriesPerSocket(int queriesPerSocket) {
+        this.queriesPerSocket = queriesPerSocket;
+    }
+
+    /**
+     * Maximum queries awaiting response at once; further lookups wait
+     * their turn.
+     */
+    protected int maxOutstanding = 500;
+    public int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+    public void setMaxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * Milliseconds to await each query's response.
+     */
+    protected int timeoutMs = 2000;
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+    public void setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Times to retry a query that gets no usable response.
+     */
+    protected int retries = 2;
+    public int getRetries() {
+        return retries;
+    }
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Seconds to cache a negative result for which the server gave no
+     * SOA minimum.
+     */
+    protected int negativeTtlSeconds = 300;
+    public int getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+    public void setNegativeTtlSeconds(int negativeTtlSeconds) {
+        this.negativeTtlSeconds = negativeTtlSeconds;
+    }
+
+    /**
+     * Maximum seconds to cache any negative result.
+     */
+    protected int maxNegativeTtlSeconds = 3600;
+    public int getMaxNegativeTtlSeconds() {
+        return maxNegativeTtlSeconds;
+    }
+    public void setMaxNegativeTtlSeconds(int maxNegativeTtlSeconds) {
+        this.maxNegativeTtlSeconds = maxNegativeTtlSeconds;
+    }
+
+    /**
+     * Maximum names cached; past this, expired entries are dropped, then
+     * others.
+     */
+    protected int maxCacheEntries = 100000;
+    public int getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+    public void setMaxCacheEntries(int maxCacheEntries) {
+        this.maxCacheEntries = maxCacheEntries;
+    }
+
+    /**
+     * Outcome of the lookup of one name, completed (by the I/O thread) at
+     * some point after creation.
+     */
+    public static class Resolution {
+        protected final String name;
+        protected final CountDownLatch latch = new CountDownLatch(1);
+        protected volatile int status = -1;
+        protected volatile Record[] records = new Record[0];
+        protected volatile String server;
+        protected volatile long completedMs;
+        protected volatile long expiresMs;
+
+        protected Resolution(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Wait up to the given time for completion.
+         * @return true if complete
+         */
+        public boolean await(long ms) throws InterruptedException {
+            return latch.await(ms, TimeUnit.MILLISECONDS);
+        }
+
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        /**
+         * @return RESOLVED, NO_ADDRESS, FAILED or TRUNCATED; -1 if not done
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return address of the server which gave the result
+         */
+        public String getServer() {
+            return server;
+        }
+
+        /**
+         * @return answer records (including any CNAMEs followed), with TTLs
+         * reduced by time since the response
+         */
+        public Record[] getRecords() {
+            long elapsed = (System.currentTimeMillis() - completedMs) / 1000;
+            Record[] aged = records.clone();
+            if (elapsed > 0) {
+                for (int i = 0; i < aged.length; i++) {
+                    if (aged[i] instanceof ARecord) {
+                        ARecord a = (ARecord) aged[i];
+                        aged[i] = new ARecord(a.getName(), a.getDClass(),
+                                Math.max(0, a.getTTL() - elapsed), a.getAddress());
+                    }
+                }
+            }
+            return aged;
+        }
+
+        /**
+         * @return first address found, or null
+         */
+        public InetAddress getAddress() {
+            for (Record r : records) {
+                if (r instanceof ARecord) {
+                    return ((ARecord) r).getAddress();
+                }
+            }
+            return null;
+        }
+
+        protected void complete(int status, List<Record> records,
+                long ttlSeconds, String server) {
+            this.records = records.toArray(new Record[records.size()]);
+            this.server = server;
+            this.completedMs = System.currentTimeMillis();
+            this.expiresMs = completedMs + ttlSeconds * 1000;
+            this.status = status;
+            latch.countDown();
+        }
+
+        protected boolean isExpired(long now) {
+            return isDone() && expiresMs <= now;
+        }
+    }
+
+    /**
+     * One query in progress, for a name or (after a CNAME) its alias
+     * target; used only by the I/O thread.
+     */
+    protected static class Query {
+        Resolution resolution;
+        Name qname;
+        List<Record> chain = new ArrayList<Record>();
+        int attempt;
+        int depth;
+        int channel;
+        int id;
+        InetSocketAddress server;
+        long deadline;
+    }
+
+    protected volatile boolean running = false;
+    protected Thread ioThread;
+    protected Selector selector;
+    protected DatagramChannel[] channels;
+    protected InetSocketAddress[] serverAddresses;
+
+    protected ConcurrentHashMap<String, Resolution> cache =
+        new ConcurrentHashMap<String, Resolution>();
+    protected ConcurrentLinkedQueue<Query> submitted =
+        new ConcurrentLinkedQueue<Query>();
+
+    // I/O thread only
+    protected LinkedList<Query> waiting = new LinkedList<Query>();
+    protected List<Map<Integer, Query>> inflight;
+    protected int inflightCount = 0;
+    protected int[] sentOnChannel;
+    protected int nextChannel = 0;
+    protected SecureRandom random = new SecureRandom();
+    protected long lastTrim = 0;
+
+    protected AtomicLong lookups = new AtomicLong(0);
+    protected AtomicLong cacheHits = new AtomicLong(0);
+    protected AtomicLong queriesSent = new AtomicLong(0);
+    protected AtomicLong timeouts = new AtomicLong(0);
+    protected AtomicLong failures = new AtomicLong(0);
+
+    public AsyncDnsResolver() {
+    }
+
+    /**
+     * Get the resolution of the given name: from cache, already underway,
+     * or newly started.
+     *
+     * @param hostname name to resolve; a trailing '.' is assumed
+     */
+    public Resolution lookup(String hostname) {
+        String key = hostname.toLowerCase();
+        if (!key.endsWith(".")) {
+            key = key + ".";
+        }
+        lookups.incrementAndGet();
+        long now = System.currentTimeMillis();
+        while (true) {
+            Resolution r = cache.get(key);
+            if (r != null) {
+                if (!r.isExpired(now)) {
+                    if (r.isDone()) {
+                        cacheHits.incrementAndGet();
+                    }
+                    return r;
+                }
+                cache.remove(key, r);
+                continue;
+            }
+            Resolution fresh = new Resolution(key);
+            if (cache.putIfAbsent(key, fresh) == null) {
+                submit(fresh);
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * Start resolving the given name, if not already cached or underway
+     * (and not an IP address).
+     */
+    public void prefetch(String hostname) {
+        if (!InetAddressUtil.IPV4_QUADS.matcher(hostname).matches()) {
+            lookup(hostname);
+        }
+    }
+
+    /**
+     * @return milliseconds within which any lookup will complete (barring
+     * a backlog of more than maxOutstanding)
+     */
+    public long getMaxWaitMs() {
+        return (long) timeoutMs * (retries + 1) * 2;
+    }
+
+    protected void submit(Resolution resolution) {
+        if (!running) {
+            try {
+                start();
+            } catch (RuntimeException e) {
+                // don't leave later lookups of the name waiting on it
+                cache.remove(resolution.getName(), resolution);
+                resolution.complete(FAILED, new ArrayList<Record>(), 0, null);
+                failures.incrementAndGet();
+                throw e;
+            }
+        }
+        Query q = new Query();
+        q.resolution = resolution;
+        try {
+            q.qname = Name.fromString(resolution.getName());
+        } catch (TextParseException e) {
+            resolution.complete(NO_ADDRESS, new ArrayList<Record>(),
+                    negativeTtlSeconds, null);
+            return;
+        }
+        submitted.add(q);
+        if (running) {
+            selector.wakeup();
+        } else {
+            // the I/O thread closed (or began closing) after the check
+            // above, so may never see this query
+            failSubmitted();
+        }
+    }
+
+    /**
+     * Fail, and drop from cache, any queries still submitted: none will be
+     * sent once the I/O thread has closed.
+     */
+    protected void failSubmitted() {
+        Query q;
+        while ((q = submitted.poll()) != null) {
+            cache.remove(q.resolution.getName(), q.resolution);
+            fail(q, FAILED);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        try {
+            List<String> names = servers;
+            if (names == null || names.isEmpty()) {
+                String[] configured = ResolverConfig.getCurrentConfig().servers();
+                names = configured == null
+                    ? Arrays.asList("127.0.0.1") : Arrays.asList(configured);
+            }
+            serverAddresses = new InetSocketAddress[names.size()];
+            for (int i = 0; i < serverAddresses.length; i++) {
+                String server = names.get(i);
+                int port = 53;
+                int colon = server.lastIndexOf(':');
+                if (colon > 0 && server.indexOf(':') == colon) {
+                    port = Integer.parseInt(server.substring(colon + 1));
+                    server = server.substring(0, colon);
+                }
+                serverAddresses[i] = new InetSocketAddress(
+                        InetAddress.getByName(server), port);
+            }
+            selector = Selector.open();
+            channels = new DatagramChannel[Math.max(1, sockets)];
+            inflight = new ArrayList<Map<Integer, Query>>(channels.length);
+            sentOnChannel = new int[channels.length];
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = openChannel(i);
+                inflight.add(new HashMap<Integer, Query>());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to open DNS sockets", e);
+        }
+        running = true;
+        ioThread = new Thread("AsyncDnsResolver") {
+            public void run() {
+                ioLoop();
+            }
+        };
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Open a non-blocking UDP socket on a random unprivileged port (or,
+     * failing a few of those, any free port), registered for reading
+     * with the given channel index.
+     */
+    protected DatagramChannel openChannel(int index) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setReceiveBufferSize(RECEIVE_BUFFER_BYTES);
+            boolean bound = false;
+            for (int tries = 0; !bound && tries < 8; tries++) {
+                try {
+                    channel.socket().bind(new InetSocketAddress(
+                            1024 + random.nextInt(0x10000 - 1024)));
+                    bound = true;
+                } catch (IOException e) {
+                    // port in use: try another
+                }
+            }
+            if (!bound) {
+                channel.socket().bind(null);
+            }
+            channel.register(selector, SelectionKey.OP_READ, index);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * @return index of the channel on which to send the next query,
+     * replacing one that has sent its quota if nothing is outstanding on
+     * it; or -1 if every channel is awaiting responses before replacement
+     */
+    protected int pickChannel() {
+        for (int tries = 0; tries < channels.length; tries++) {
+            int i = nextChannel;
+            nextChannel = (nextChannel + 1) % channels.length;
+            if (sentOnChannel[i] < queriesPerSocket) {
+                return i;
+            }
+            if (inflight.get(i).isEmpty()) {
+                try {
+                    DatagramChannel fresh = openChannel(i);
+                    channels[i].close();
+                    channels[i] = fresh;
+                } catch (IOException e) {
+                    // keep using the old port rather than stall
+                    logger.log(Level.WARNING, "unable to replace DNS socket", e);
+                }
+                sentOnChannel[i] = 0;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = ioThread;
+        }
+        selector.wakeup();
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    protected void ioLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_RESPONSE_BYTES);
+        try {
+            while (running) {
+                selector.select(Math.min(100, Math.max(1, timeoutMs)));
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    receive((Integer) key.attachment(), buffer);
+                }
+                Query q;
+                while ((q = submitted.poll()) != null) {
+                    waiting.add(q);
+                }
+                long now = System.currentTimeMillis();
+                expire(now);
+                while (inflightCount < maxOutstanding && !waiting.isEmpty()) {
+                    int channel = pickChannel();
+                    if (channel < 0) {
+                        break;
+                    }
+                    send(waiting.removeFirst(), channel, now);
+                }
+                if (now - lastTrim > 1000) {
+                    trimCache(now);
+                    lastTrim = now;
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "DNS I/O thread failed", e);
+        } finally {
+            close();
+        }
+    }
+
+    protected void close() {
+        running = false;
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        // fail anything unfinished; submitted queries are taken (rather than
+        // read) as a lookup racing with this close may fail them too
+        List<Query> unfinished = new ArrayList<Query>(waiting);
+        for (Map<Integer, Query> m : inflight) {
+            unfinished.addAll(m.values());
+        }
+        for (Query q : unfinished) {
+            fail(q, FAILED);
+        }
+        failSubmitted();
+        cache.clear();
+    }
+
+    protected void send(Query q, int channel, long now) {
+        Map<Integer, Query> pending = inflight.get(channel);
+        q.channel = channel;
+        sentOnChannel[channel]++;
+        do {
+            q.id = random.nextInt(0x10000);
+        } while (pending.containsKey(q.id));
+        q.server = serverAddresses[q.attempt % serverAddresses.length];
+
+        Message query = Message.newQuery(Record.newRecord(q.qname, Type.A, DClass.IN));
+        query.getHeader().setID(q.id);
+        try {
+            channels[q.channel].send(ByteBuffer.wrap(query.toWire()), q.server);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "failed send to " + q.server, e);
+            retryOrFail(q, FAILED);
+            return;
+        }
+        queriesSent.incrementAndGet();
+        q.deadline = now + timeoutMs;
+        pending.put(q.id, q);
+        inflightCount++;
+    }
+
+    protected void receive(int channel, ByteBuffer buffer) throws IOException {
+        while (true) {
+            buffer.clear();
+            SocketAddress from = channels[channel].receive(buffer);
+            if (from == null) {
+                return;
+            }
+            Message response;
+            try {
+                response = new Message(Arrays.copyOf(buffer.array(), buffer.position()));
+            } catch (IOException e) {
+                logger.fine("malformed DNS response from " + from);
+                continue;
+            }
+            Map<Integer, Query> pending = inflight.get(channel);
+            Query q = pending.get(response.getHeader().getID());
+            Record question = response.getQuestion();
+            if (q == null || !q.server.equals(from)
+                    || !response.getHeader().getFlag(Flags.QR)
+                    || question == null || !q.qname.equals(question.getName())
+                    || question.getType() != Type.A
+                    || question.getDClass() != DClass.IN) {
+                // late, duplicate, or spoofed
+                continue;
+            }
+            pending.remove(q.id);
+            inflightCount--;
+            handle(q, response);
+        }
+    }
+
+    protected void handle(Query q, Message response) {
+        if (response.getHeader().getFlag(Flags.TC)) {
+            complete(q, TRUNCATED, 0);
+            return;
+        }
+        int rcode = response.getRcode();
+        if (rcode == Rcode.NXDOMAIN) {
+            complete(q, NO_ADDRESS, negativeTtl(response));
+            return;
+        }
+        if (rcode != Rcode.NOERROR) {
+            // SERVFAIL, REFUSED, etc.: maybe another server does better
+            retryOrFail(q, FAILED);
+            return;
+        }
+        // keep only the alias chain from the name asked about, and the
+        // addresses of its end; anything else in the answer is ignored
+        Record[] answers = response.getSectionArray(Section.ANSWER);
+        Name target = q.qname;
+        int depth = q.depth;
+        boolean followed = true;
+        while (followed && depth < MAX_CNAME_DEPTH) {
+            followed = false;
+            for (Record r : answers) {
+                if (r instanceof CNAMERecord && r.getDClass() == DClass.IN
+                        && r.getName().equals(target)) {
+                    q.chain.add(r);
+                    target = ((CNAMERecord) r).getTarget();
+                    depth++;
+                    followed = true;
+                    break;
+                }
+            }
+        }
+        boolean addressed = false;
+        for (Record r : answers) {
+            if (r instanceof ARecord && r.getDClass() == DClass.IN
+                    && r.getName().equals(target)) {
+                q.chain.add(r);
+                addressed = true;
+            }
+        }
+        if (addressed) {
+            long ttl = Long.MAX_VALUE;
+            for (Record r : q.chain) {
+                ttl = Math.min(ttl, r.getTTL());
+            }
+            complete(q, RESOLVED, ttl);
+        } else if (!target.equals(q.qname) && depth < MAX_CNAME_DEPTH) {
+            // alias given without its addresses: ask about its target
+            q.qname = target;
+            q.depth = depth;
+            q.attempt = 0;
+            waiting.addFirst(q);
+        } else {
+            complete(q, NO_ADDRESS, negativeTtl(response));
+        }
+    }
+
+    /**
+     * @return seconds to cache a negative response: the SOA minimum if
+     * given, capped
+     */
+    protected long negativeTtl(Message response) {
+        for (Record r : response.getSectionArray(Section.AUTHORITY)) {
+            if (r instanceof SOARecord) {
+                long ttl = Math.min(r.getTTL(), ((SOARecord) r).getMinimum());
+                return Math.min(ttl, maxNegativeTtlSeconds);
+            }
+        }
+        return Math.min(negativeTtlSeconds, maxNegativeTtlSeconds);
+    }
+
+    protected void expire(long now) {
+        for (Map<Integer, Query> pending : inflight) {
+            Iterator<Query> iter = pending.values().iterator();
+            while (iter.hasNext()) {
+                Query q = iter.next();
+                if (q.deadline <= now) {
+                    iter.remove();
+                    inflightCount--;
+                    timeouts.incrementAndGet();
+                    retryOrFail(q, FAILED);
+                }
+            }
+        }
+    }
+
+    protected void retryOrFail(Query q, int status) {
+        if (q.attempt < retries && running) {
+            q.attempt++;
+            waiting.addFirst(q);
+        } else {
+            fail(q, status);
+        }
+    }
+
+    protected void fail(Query q, int status) {
+        failures.incrementAndGet();
+        complete(q, status, 0);
+    }
+
+    protected void complete(Query q, int status, long ttlSeconds) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(q.resolution.getName() + " status " + status
+                    + " ttl " + ttlSeconds + " from " + q.server);
+        }
+        String server = q.server == null ? null
+            : q.server.getAddress().getHostAddress();
+        q.resolution.complete(status, q.chain, ttlSeconds, server);
+    }
+
+    /**
+     * Drop expired entries, then (if still too many) any completed ones.
+     */
+    protected void trimCache(long now) {
+        if (cache.size() <= maxCacheEntries) {
+            return;
+        }
+        Iterator<Resolution> iter = cache.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().isExpired(now)) {
+                iter.remove();
+            }
+        }
+        iter = cache.values().iterator();
+        while (cache.size() > maxCacheEntries && iter.hasNext()) {
+            if (iter.next().isDone()) {
+                iter.remove();
+            }
+        }
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+    public long getQueriesSent() {
+        return queriesSent.get();
+    }
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+    public long getFailures() {
+        return failures.get();
+    }
+    public int getCacheSize() {
+        return cache.size();
+    }
+}
@@ -94,6 +94,21 @@ public class FetchDNS extends Processor {
     public void setServerCache(ServerCache serverCache) {
         this.serverCache = serverCache;
     }
+
+    /**
+     * Optional resolver to use in place of dnsjava's blocking Lookup:
+     * queries from all threads share a few sockets, and lookups already
+     * started (as by a prefetch when the dns: prerequisite was scheduled)
+     * or cached are not repeated.
+     */
+    protected AsyncDnsResolver asyncResolver;
+    public AsyncDnsResolver getAsyncResolver() {
+        return this.asyncResolver;
+    }
+    @Autowired(required=false)
+    public void setAsyncResolver(AsyncDnsResolver asyncResolver) {
+        this.asyncResolver = asyncResolver;
+    }
     
     /**
      * Whether or not to perform an on-the-fly digest hash of retrieved
@@ -156,12 +171,34 @@ public class FetchDNS extends Processor {
         curi.setFetchBeginTime(System.currentTimeMillis());
 
         // Try to get the records for this host (assume domain name)
-        // TODO: Bug #935119 concerns potential hang here
         String lookupName = dnsName.endsWith(".") ? dnsName : dnsName + ".";
-        try {
-            rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
-        } catch (TextParseException e) {
-            rrecordSet = null;
+        AsyncDnsResolver.Resolution resolution = null;
+        if (getAsyncResolver() != null) {
+            resolution = getAsyncResolver().lookup(lookupName);
+            try {
+                // bounded wait: resolver gives up after its retries
+                resolution.await(getAsyncResolver().getMaxWaitMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (resolution != null && !resolution.isDone()
+                && logger.isLoggable(Level.FINE)) {
+            logger.fine("Async lookup of " + lookupName + " not done in "
+                    + getAsyncResolver().getMaxWaitMs() + "ms; retrying");
+        }
+        if (resolution != null && resolution.isDone()
+                && resolution.getStatus() != AsyncDnsResolver.TRUNCATED) {
+            rrecordSet = resolution.getStatus() == AsyncDnsResolver.RESOLVED
+                ? resolution.getRecords() : null;
+        } else {
+            // TODO: Bug #935119 concerns potential hang here
+            try {
+                rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
+            } catch (TextParseException e) {
+                rrecordSet = null;
+            }
+            resolution = null;
         }
         curi.setContentType("text/dns");
         if (rrecordSet != null) {
@@ -169,6 +206,10 @@ public class FetchDNS extends Processor {
                 logger.fine("Found recordset for " + lookupName);
             }
         	storeDNSRecord(curi, dnsName, targetHost, rrecordSet);
+            if (resolution != null && resolution.getServer() != null
+                    && curi.getFetchStatus() == S_DNS_SUCCESS) {
+                curi.setDNSServerIPLabel(resolution.getServer());
+            }
         } else {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("Failed find of recordset for " + lookupName);
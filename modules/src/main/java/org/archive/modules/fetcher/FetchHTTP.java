@@ -196,6 +196,73 @@ public class FetchHTTP extends Processor implements Lifecycle {
         kp.put("useHTTP11",useHTTP11);
     }
 
+    {
+        setReuseConnections(false);
+    }
+    public boolean getReuseConnections() {
+        return (Boolean) kp.get("reuseConnections");
+    }
+    /**
+     * Keep connections open after complete, length-delimited responses, and
+     * reuse them for later fetches from the same server, saving TCP and TLS
+     * handshakes. Only takes effect when sendConnectionClose is false, and is
+     * best paired with useHTTP11; never used for proxied fetches. An idle
+     * connection is only ever used by one fetch at a time, so reuse does not
+     * increase per-server concurrency.
+     */
+    public void setReuseConnections(boolean reuseConnections) {
+        kp.put("reuseConnections",reuseConnections);
+    }
+
+    protected int keepAliveMaxIdlePerServer = 1;
+    public int getKeepAliveMaxIdlePerServer() {
+        return keepAliveMaxIdlePerServer;
+    }
+    /**
+     * Maximum number of idle connections retained for any one server, when
+     * reuseConnections is enabled. Since each queue is usually fetched one
+     * URI at a time, 1 is usually sufficient.
+     */
+    public void setKeepAliveMaxIdlePerServer(int maxIdle) {
+        this.keepAliveMaxIdlePerServer = maxIdle;
+    }
+
+    protected int keepAliveMaxIdleTotal = 1000;
+    public int getKeepAliveMaxIdleTotal() {
+        return keepAliveMaxIdleTotal;
+    }
+    /**
+     * Maximum number of idle connections retained overall, when
+     * reuseConnections is enabled; least-recently-used servers' connections
+     * are closed first.
+     */
+    public void setKeepAliveMaxIdleTotal(int maxIdle) {
+        this.keepAliveMaxIdleTotal = maxIdle;
+    }
+
+    protected long keepAliveIdleTimeoutMs = 10000;
+    public long getKeepAliveIdleTimeoutMs() {
+        return keepAliveIdleTimeoutMs;
+    }
+    /**
+     * How long an idle connection may be retained for reuse. Should
+     * generally be shorter than typical server keep-alive timeouts, but
+     * longer than the politeness delay between fetches from one server.
+     */
+    public void setKeepAliveIdleTimeoutMs(long timeoutMs) {
+        this.keepAliveIdleTimeoutMs = timeoutMs;
+    }
+
+    protected transient KeepAliveSocketPool keepAliveSocketPool;
+    protected synchronized KeepAliveSocketPool keepAliveSocketPool() {
+        if (keepAliveSocketPool == null) {
+            keepAliveSocketPool = new KeepAliveSocketPool(
+                    getKeepAliveMaxIdlePerServer(), getKeepAliveMaxIdleTotal(),
+                    getKeepAliveIdleTimeoutMs());
+        }
+        return keepAliveSocketPool;
+    }
+
     protected ProtocolVersion getConfiguredHttpVersion() {
         if (getUseHTTP11()) {
             return HttpVersion.HTTP_1_1;
@@ -693,6 +760,8 @@ public class FetchHTTP extends Processor implements Lifecycle {
                 // Force read-to-end, so that any socket hangs occur here,
                 // not in later modules.
                 rec.getRecordedInput().readToEndOfContent(contentLength); 
+                // keep socket open past rec.close() if it can be reused
+                req.retainConnection(response, contentLength);
             }
         } catch (RecorderTimeoutException ex) {
             doAbort(curi, req.request, TIMER_TRUNC);
@@ -711,6 +780,8 @@ public class FetchHTTP extends Processor implements Lifecycle {
             rec.close();
             // ensure recording has stopped
             rec.closeRecorders();
+            // return connection to keep-alive pool, if retained above
+            req.releaseConnection();
             // Note completion time
             curi.setFetchCompletedTime(System.currentTimeMillis());
             
@@ -1082,6 +1153,23 @@ public class FetchHTTP extends Processor implements Lifecycle {
             getCookieStore().stop();
             setCookieStore(null);
         }
+        synchronized (this) {
+            if (keepAliveSocketPool != null) {
+                keepAliveSocketPool.clear();
+            }
+        }
+    }
+
+    @Override
+    public String report() {
+        StringBuilder ret = new StringBuilder();
+        ret.append(super.report());
+        synchronized (this) {
+            if (keepAliveSocketPool != null) {
+                keepAliveSocketPool.reportTo(ret);
+            }
+        }
+        return ret.toString();
     }
 
     protected static String getServerKey(CrawlURI uri) {
@@ -22,11 +22,14 @@ import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADE
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_LAST_MODIFIED_HEADER;
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
@@ -48,6 +51,7 @@ import javax.net.ssl.SSLSocket;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.Header;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHeaders;
@@ -88,6 +92,7 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.HttpClientBuilder;
@@ -170,6 +175,12 @@ public class FetchHTTPRequest {
     protected HttpHost proxyHost;
     // make this a member variable so it doesn't get gc'd prematurely
     protected HttpClientConnectionManager connMan;
+    // keep-alive pool, if connections may be reused for this request
+    protected KeepAliveSocketPool socketPool;
+    // most recently created connection, and the pool key of its socket
+    protected RecordingHttpClientConnection connection;
+    protected String socketPoolKey;
+    protected boolean socketPoolSecure;
 
     public FetchHTTPRequest(FetchHTTP fetcher, CrawlURI curi) throws URIException {
         this.fetcher = fetcher;
@@ -210,6 +221,9 @@ public class FetchHTTPRequest {
 
         if (proxyHost != null) {
             request.addHeader("Proxy-Connection", "close");
+        } else if (fetcher.getReuseConnections()
+                && !fetcher.getSendConnectionClose()) {
+            this.socketPool = fetcher.keepAliveSocketPool();
         }
         
         initHttpClientBuilder();
@@ -558,24 +572,28 @@ public class FetchHTTPRequest {
     }
 
     protected HttpClientConnectionManager buildConnectionManager() {
+        ConnectionSocketFactory httpSocketFactory = PlainConnectionSocketFactory.INSTANCE;
+        ConnectionSocketFactory httpsSocketFactory = new SSLConnectionSocketFactory(
+                fetcher.sslContext(), new AllowAllHostnameVerifier()) {
+
+            @Override
+            public Socket createLayeredSocket(
+                    final Socket socket, final String target,
+                    final int port, final HttpContext context)
+                    throws IOException {
+
+                return super.createLayeredSocket(socket,
+                        isDisableSNI() ? "" : target, port,
+                        context);
+            }
+        };
+        if (socketPool != null) {
+            httpSocketFactory = new PooledSocketFactory(httpSocketFactory, false);
+            httpsSocketFactory = new PooledSocketFactory(httpsSocketFactory, true);
+        }
         Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
-                .register("http", PlainConnectionSocketFactory.INSTANCE)
-                .register(
-                        "https",
-                        new SSLConnectionSocketFactory(fetcher.sslContext(),
-                                new AllowAllHostnameVerifier()) {
-
-                            @Override
-                            public Socket createLayeredSocket(
-                                    final Socket socket, final String target,
-                                    final int port, final HttpContext context)
-                                    throws IOException {
-
-                                return super.createLayeredSocket(socket,
-                                        isDisableSNI() ? "" : target, port,
-                                        context);
-                            }
-                        })
+                .register("http", httpSocketFactory)
+                .register("https", httpsSocketFactory)
                 .build();
 
         DnsResolver dnsResolver = new ServerCacheResolver(fetcher.getServerCache());
@@ -602,11 +620,12 @@ public class FetchHTTPRequest {
                     charencoder.onMalformedInput(malformedInputAction);
                     charencoder.onUnmappableCharacter(unmappableInputAction);
                 }
-                return new RecordingHttpClientConnection(DEFAULT_BUFSIZE,
+                connection = new RecordingHttpClientConnection(DEFAULT_BUFSIZE,
                         DEFAULT_BUFSIZE, chardecoder, charencoder,
                         cconfig.getMessageConstraints(), null, null,
                         DefaultHttpRequestWriterFactory.INSTANCE,
                         DefaultHttpResponseParserFactory.INSTANCE);
+                return connection;
             }
         };
         BasicHttpClientConnectionManager connMan = new BasicHttpClientConnectionManager(
@@ -618,12 +637,120 @@ public class FetchHTTPRequest {
         
         return connMan;
     }
+
+    /**
+     * Socket factory which hands out idle sockets from the keep-alive pool,
+     * when available for the route, in place of connecting new ones. (A
+     * fresh {@link RecordingHttpClientConnection} is bound to the socket
+     * either way, so recording streams and parse buffers are never shared
+     * between fetches.)
+     */
+    protected class PooledSocketFactory implements ConnectionSocketFactory {
+        protected ConnectionSocketFactory delegate;
+        protected boolean secure;
+
+        public PooledSocketFactory(ConnectionSocketFactory delegate, boolean secure) {
+            this.delegate = delegate;
+            this.secure = secure;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return delegate.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket,
+                HttpHost host, InetSocketAddress remoteAddress,
+                InetSocketAddress localAddress, HttpContext context)
+                throws IOException {
+            String key = host.getSchemeName() + "://" + host.getHostName()
+                    + ":" + remoteAddress.getPort() + "/"
+                    + remoteAddress.getAddress().getHostAddress()
+                    + (localAddress != null ? " from " + localAddress : "");
+            socketPoolKey = key;
+            socketPoolSecure = secure;
+
+            Socket pooled = socketPool.checkout(key);
+            if (pooled != null) {
+                if (socket != null) {
+                    pooled.setSoTimeout(socket.getSoTimeout());
+                    socket.close();
+                }
+                return pooled;
+            }
+
+            long startNanos = System.nanoTime();
+            Socket connected = delegate.connectSocket(connectTimeout, socket,
+                    host, remoteAddress, localAddress, context);
+            socketPool.noteConnectionOpened(secure, System.nanoTime() - startNanos);
+            return connected;
+        }
+    }
+
+    /**
+     * If the just-completed exchange leaves the connection reusable -- a
+     * keep-alive response with a Content-Length body read completely, and
+     * not aborted -- mark the connection so that closing the recorder
+     * leaves its socket open for {@link #releaseConnection()}.
+     * 
+     * @param response response just read
+     * @param contentLength declared content-length, or -1 if none
+     * @return true if connection retained
+     */
+    public boolean retainConnection(HttpResponse response, long contentLength) {
+        if (socketPool == null || connection == null || socketPoolKey == null
+                || request.isAborted() || contentLength < 0
+                || response.containsHeader(HTTP.TRANSFER_ENCODING)
+                || curi.getRecorder().getResponseContentLength() != contentLength) {
+            return false;
+        }
+        for (Header h: request.getHeaders(HTTP.CONN_DIRECTIVE)) {
+            if (HTTP.CONN_CLOSE.equalsIgnoreCase(h.getValue())) {
+                return false;
+            }
+        }
+        if (!DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, httpClientContext)) {
+            return false;
+        }
+        connection.setSocketRetained(true);
+        return true;
+    }
+
+    /**
+     * Return the socket of a connection retained by
+     * {@link #retainConnection(HttpResponse, long)} to the keep-alive pool.
+     * Otherwise does nothing; the socket will have been closed along with
+     * the recorder.
+     */
+    public void releaseConnection() {
+        if (connection == null || !connection.isSocketRetained()) {
+            return;
+        }
+        // the connection stays 'retained' so it never closes the socket
+        // itself, for example when its manager is finalized
+        Socket socket = connection.getSocket();
+        if (socket != null) {
+            if (request.isAborted()) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    logger.fine("problem closing aborted socket: " + e);
+                }
+            } else {
+                socketPool.checkin(socketPoolKey, socket, socketPoolSecure);
+            }
+        }
+        connection = null;
+    }
     
     protected static class RecordingHttpClientConnection extends DefaultBHttpClientConnection
     implements ManagedHttpClientConnection {
 
         private static final AtomicLong COUNTER = new AtomicLong();
         private String id;
+        // when true, socket outlives this connection (for reuse)
+        private volatile boolean socketRetained = false;
 
         public RecordingHttpClientConnection(
                 final int buffersize,
@@ -641,28 +768,74 @@ public class FetchHTTPRequest {
             id = "recording-http-connection-" + Long.toString(COUNTER.getAndIncrement());
         }
 
+        public boolean isSocketRetained() {
+            return socketRetained;
+        }
+
+        public void setSocketRetained(boolean socketRetained) {
+            this.socketRetained = socketRetained;
+        }
+
         @Override
         protected InputStream getSocketInputStream(final Socket socket) throws IOException {
+            // closing the recorder closes the socket stream, unless retained
+            InputStream socketIn = new FilterInputStream(super.getSocketInputStream(socket)) {
+                @Override
+                public void close() throws IOException {
+                    if (!socketRetained) {
+                        super.close();
+                    }
+                }
+            };
             Recorder recorder = Recorder.getHttpRecorder();
             if (recorder != null) {   // XXX || (isSecure() && isProxied())) {
-                return recorder.inputWrap(super.getSocketInputStream(socket));
+                return recorder.inputWrap(socketIn);
             } else {
-                return super.getSocketInputStream(socket);
+                return socketIn;
             }
         }
 
         @Override
         protected OutputStream getSocketOutputStream(final Socket socket) throws IOException {
+            OutputStream socketOut = new FilterOutputStream(super.getSocketOutputStream(socket)) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    // FilterOutputStream writes byte-by-byte otherwise
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (socketRetained) {
+                        flush();
+                    } else {
+                        super.close();
+                    }
+                }
+            };
             Recorder recorder = Recorder.getHttpRecorder();
             if (recorder != null) {   // XXX || (isSecure() && isProxied())) {
-                return recorder.outputWrap(super.getSocketOutputStream(socket));
+                return recorder.outputWrap(socketOut);
             } else {
-                return super.getSocketOutputStream(socket);
+                return socketOut;
             }
         }
         
+        @Override
+        public void shutdown() throws IOException {
+            if (socketRetained) {
+                // socket is handed on to the keep-alive pool, not closed
+                return;
+            }
+            super.shutdown();
+        }
+
         @Override
         public void close() throws IOException {
+            if (socketRetained) {
+                // socket is handed on to the keep-alive pool, not closed
+                return;
+            }
         	super.close();
         	
             /*
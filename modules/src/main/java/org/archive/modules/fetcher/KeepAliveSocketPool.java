@@ -0,0 +1,368 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of idle, already-connected (and for https, already
+ * handshaked) sockets, keyed by route, for reuse by subsequent fetches of
+ * the same server.
+ *
+ * <p>A socket is only ever in the pool while no fetch is using it; checking
+ * one out removes it, so pooling never allows more concurrent requests to a
+ * server than would happen without it. Idle sockets are discarded after
+ * {@link #getIdleTimeoutMs()}, when the per-route or total idle limits are
+ * exceeded, or when found closed or readable (stale) at checkout. Checkout
+ * never reads from a TLS socket, which could consume TLS records or block
+ * on a renegotiation; plain sockets idle a while are probed with a 1ms read.
+ *
+ * <p>TLS sessions are additionally resumable on new sockets through the
+ * client session cache of the shared SSLContext, so even a fresh https
+ * connection to a recently-visited server usually skips the full handshake.
+ */
+public class KeepAliveSocketPool {
+    private static final Logger logger =
+            Logger.getLogger(KeepAliveSocketPool.class.getName());
+
+    protected static class IdleSocket {
+        protected Socket socket;
+        protected long idleSince;
+        protected boolean secure;
+        protected IdleSocket(Socket socket, boolean secure, long idleSince) {
+            this.socket = socket;
+            this.secure = secure;
+            this.idleSince = idleSince;
+        }
+    }
+
+    /** route key -> idle sockets, most recently returned last; map in LRU order */
+    protected LinkedHashMap<String, LinkedList<IdleSocket>> idle =
+            new LinkedHashMap<String, LinkedList<IdleSocket>>(16, 0.75f, true);
+    protected int idleCount = 0;
+
+    protected int maxIdlePerRoute;
+    protected int maxIdleTotal;
+    protected long idleTimeoutMs;
+
+    /**
+     * Plain sockets idle at least this long are probed with a 1ms read at
+     * checkout, to notice a server close; those returned more recently
+     * are only checked without blocking.
+     */
+    protected long staleProbeMinIdleMs = 1000;
+
+    protected AtomicLong connectionsOpened = new AtomicLong(0);
+    protected AtomicLong secureConnectionsOpened = new AtomicLong(0);
+    protected AtomicLong connectionsReused = new AtomicLong(0);
+    protected AtomicLong secureConnectionsReused = new AtomicLong(0);
+    protected AtomicLong connectionsReturned = new AtomicLong(0);
+    protected AtomicLong connectionsDiscarded = new AtomicLong(0);
+    protected AtomicLong connectNanos = new AtomicLong(0);
+    protected AtomicLong secureConnectNanos = new AtomicLong(0);
+
+    public KeepAliveSocketPool(int maxIdlePerRoute, int maxIdleTotal,
+            long idleTimeoutMs) {
+        this.maxIdlePerRoute = maxIdlePerRoute;
+        this.maxIdleTotal = maxIdleTotal;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public int getMaxIdlePerRoute() {
+        return maxIdlePerRoute;
+    }
+    public int getMaxIdleTotal() {
+        return maxIdleTotal;
+    }
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+    public long getStaleProbeMinIdleMs() {
+        return staleProbeMinIdleMs;
+    }
+    public void setStaleProbeMinIdleMs(long staleProbeMinIdleMs) {
+        this.staleProbeMinIdleMs = staleProbeMinIdleMs;
+    }
+
+    /**
+     * Take a live idle socket for the given route, if any.
+     *
+     * @param key route key
+     * @return connected socket, or null if none available
+     */
+    public Socket checkout(String key) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            IdleSocket candidate;
+            synchronized (this) {
+                LinkedList<IdleSocket> sockets = idle.get(key);
+                if (sockets == null) {
+                    return null;
+                }
+                // most recently returned is least likely to have been
+                // closed by the server
+                candidate = sockets.removeLast();
+                idleCount--;
+                if (sockets.isEmpty()) {
+                    idle.remove(key);
+                }
+            }
+            if (now - candidate.idleSince < idleTimeoutMs
+                    && !isStale(candidate, now)) {
+                connectionsReused.incrementAndGet();
+                if (candidate.secure) {
+                    secureConnectionsReused.incrementAndGet();
+                }
+                return candidate.socket;
+            }
+            discard(candidate.socket);
+        }
+    }
+
+    /**
+     * Return a socket, positioned at the end of a complete response, for
+     * possible reuse.
+     *
+     * @param key route key
+     * @param socket socket to pool; closed instead if not poolable
+     * @param secure whether socket is an https (TLS) socket
+     */
+    public void checkin(String key, Socket socket, boolean secure) {
+        if (socket.isClosed() || socket.isInputShutdown()
+                || socket.isOutputShutdown() || idleTimeoutMs <= 0) {
+            discard(socket);
+            return;
+        }
+        LinkedList<Socket> evicted = new LinkedList<Socket>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            LinkedList<IdleSocket> sockets = idle.get(key);
+            if (sockets == null) {
+                sockets = new LinkedList<IdleSocket>();
+                idle.put(key, sockets);
+            }
+            sockets.addLast(new IdleSocket(socket, secure, now));
+            idleCount++;
+            while (sockets.size() > maxIdlePerRoute) {
+                evicted.add(sockets.removeFirst().socket);
+                idleCount--;
+            }
+            if (sockets.isEmpty()) {
+                idle.remove(key);
+            }
+            expireOrTrim(now, evicted);
+        }
+        connectionsReturned.incrementAndGet();
+        for (Socket s: evicted) {
+            discard(s);
+        }
+    }
+
+    /**
+     * Remove expired idle sockets, and least-recently-used routes' sockets
+     * beyond the total limit, into the evicted list. Must hold lock.
+     */
+    protected void expireOrTrim(long now, LinkedList<Socket> evicted) {
+        Iterator<Map.Entry<String, LinkedList<IdleSocket>>> routes =
+                idle.entrySet().iterator();
+        while (routes.hasNext()) {
+            LinkedList<IdleSocket> sockets = routes.next().getValue();
+            boolean removedAny = false;
+            Iterator<IdleSocket> iter = sockets.iterator();
+            while (iter.hasNext()) {
+                IdleSocket s = iter.next();
+                if (idleCount > maxIdleTotal
+                        || now - s.idleSince >= idleTimeoutMs) {
+                    iter.remove();
+                    idleCount--;
+                    evicted.add(s.socket);
+                    removedAny = true;
+                }
+            }
+            if (sockets.isEmpty()) {
+                routes.remove();
+            } else if (!removedAny && idleCount <= maxIdleTotal) {
+                // remaining routes were used more recently
+                break;
+            }
+        }
+    }
+
+    /**
+     * Note the time taken to establish a new connection, used to estimate
+     * handshake time saved by reuse.
+     */
+    public void noteConnectionOpened(boolean secure, long elapsedNanos) {
+        connectionsOpened.incrementAndGet();
+        connectNanos.addAndGet(elapsedNanos);
+        if (secure) {
+            secureConnectionsOpened.incrementAndGet();
+            secureConnectNanos.addAndGet(elapsedNanos);
+        }
+    }
+
+    /**
+     * Check whether an idle socket has been closed by the server (or has
+     * unexpected unread data). Never blocks on a TLS socket: its
+     * available() only counts already-decrypted bytes, and no read is
+     * attempted, so a server close of an idle TLS connection shows up
+     * instead as a failed fetch, retried as usual. Plain sockets idle at
+     * least {@link #getStaleProbeMinIdleMs()} are also probed with a 1ms
+     * read, which notices a server close.
+     */
+    protected boolean isStale(IdleSocket candidate, long now) {
+        Socket socket = candidate.socket;
+        if (socket.isClosed() || socket.isInputShutdown()
+                || socket.isOutputShutdown()) {
+            return true;
+        }
+        try {
+            // leftover bytes mean the socket isn't reusable
+            if (socket.getInputStream().available() > 0) {
+                return true;
+            }
+        } catch (IOException e) {
+            return true;
+        }
+        if (candidate.secure || now - candidate.idleSince < staleProbeMinIdleMs) {
+            return false;
+        }
+        int soTimeout = -1;
+        try {
+            soTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            InputStream in = socket.getInputStream();
+            // either EOF or leftover bytes mean the socket isn't reusable
+            in.read();
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        } finally {
+            if (soTimeout >= 0 && !socket.isClosed()) {
+                try {
+                    socket.setSoTimeout(soTimeout);
+                } catch (IOException e) {
+                    // stale-checked socket will fail on use
+                }
+            }
+        }
+    }
+
+    protected void discard(Socket socket) {
+        connectionsDiscarded.incrementAndGet();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "problem closing idle socket", e);
+        }
+    }
+
+    /**
+     * Close all idle sockets.
+     */
+    public void clear() {
+        LinkedList<Socket> closing = new LinkedList<Socket>();
+        synchronized (this) {
+            for (LinkedList<IdleSocket> sockets: idle.values()) {
+                for (IdleSocket s: sockets) {
+                    closing.add(s.socket);
+                }
+            }
+            idle.clear();
+            idleCount = 0;
+        }
+        for (Socket s: closing) {
+            discard(s);
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+    public long getConnectionsReused() {
+        return connectionsReused.get();
+    }
+    public long getSecureConnectionsReused() {
+        return secureConnectionsReused.get();
+    }
+    public long getConnectionsReturned() {
+        return connectionsReturned.get();
+    }
+    public long getConnectionsDiscarded() {
+        return connectionsDiscarded.get();
+    }
+
+    /**
+     * @return fraction of connections that were reused rather than opened
+     */
+    public float getReuseRatio() {
+        long reused = connectionsReused.get();
+        long total = reused + connectionsOpened.get();
+        return total == 0 ? 0f : (float) reused / total;
+    }
+
+    /**
+     * @return estimate of connect/handshake time avoided by reuse, based on
+     * the average time taken by new connections of the same kind
+     */
+    public long getEstimatedMsSaved() {
+        long opened = connectionsOpened.get();
+        long secureOpened = secureConnectionsOpened.get();
+        long plainOpened = opened - secureOpened;
+        long secureReused = secureConnectionsReused.get();
+        long plainReused = connectionsReused.get() - secureReused;
+        double nanosSaved = 0;
+        if (plainOpened > 0) {
+            nanosSaved += (double) (connectNanos.get() - secureConnectNanos.get())
+                    / plainOpened * plainReused;
+        }
+        if (secureOpened > 0) {
+            nanosSaved += (double) secureConnectNanos.get() / secureOpened
+                    * secureReused;
+        }
+        return (long) (nanosSaved / 1000000);
+    }
+
+    public void reportTo(StringBuilder buf) {
+        buf.append("  keep-alive: " + getConnectionsReused() + " reused ("
+                + getSecureConnectionsReused() + " https), "
+                + getConnectionsOpened() + " opened, "
+                + getConnectionsReturned() + " returned, "
+                + getConnectionsDiscarded() + " discarded, "
+                + getIdleCount() + " idle\n");
+        buf.append("  keep-alive reuse ratio: " + getReuseRatio()
+                + ", est. connect/handshake ms saved: "
+                + getEstimatedMsSaved() + "\n");
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.archive.bdb.AutoKryo;
+
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+
+/**
+ * Immutable, compiled form of one RobotsDirectives' allow and disallow
+ * paths, all packed into one array (of bytes, if all chars fit, else of
+ * chars): first the plain disallow and then the plain allow paths, each
+ * sorted, and each linked to the longest other path that prefixes it, so
+ * the longest prefixing a given path is found by one binary search and
+ * a short walk of those links; then any paths using the '*' (any
+ * characters) and '$' (end of path) wildcards, longest first.
+ *
+ * As with Google's interpretation, the longest (by pattern length)
+ * matching path decides; on a tie, allow wins.
+ *
+ * This is also the form in which RobotsDirectives are persisted (by
+ * Kryo; see autoregisterTo()): the packed paths, their lengths, and the
+ * flags of the wildcarded ones.
+ */
+public class CompactRobotsRules {
+
+    /** packed paths, if all chars are below 256; else null */
+    protected final byte[] bytes;
+    /** packed paths, if any char is 256 or above; else null */
+    protected final char[] chars;
+    /** end offset of each path (start is the previous end) */
+    protected final int[] ends;
+    /** paths [0, plainDisallows) are plain disallows */
+    protected final int plainDisallows;
+    /** paths [plainDisallows, plainCount) are plain allows; the rest wildcarded */
+    protected final int plainCount;
+    /** whether each wildcarded path (from plainCount) is an allow */
+    protected final boolean[] wildcardAllows;
+    /** for each plain path, index of the longest plain path of the same
+     * kind that prefixes it, or -1 */
+    protected final int[] parents;
+
+    public CompactRobotsRules(Collection<String> allows, Collection<String> disallows) {
+        List<String> plainDisallowList = new ArrayList<String>();
+        List<String> plainAllowList = new ArrayList<String>();
+        List<String> wild = new ArrayList<String>();
+        // mark kind of wildcarded paths by a trailing character
+        for (String path : disallows) {
+            if (isWildcarded(path)) {
+                wild.add(path + '\u0000');
+            } else {
+                plainDisallowList.add(path);
+            }
+        }
+        for (String path : allows) {
+            if (isWildcarded(path)) {
+                wild.add(path + '\u0001');
+            } else {
+                plainAllowList.add(path);
+            }
+        }
+        Collections.sort(plainDisallowList);
+        Collections.sort(plainAllowList);
+        Collections.sort(wild, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return b.length() != a.length() ? b.length() - a.length() : a.compareTo(b);
+            }
+        });
+
+        List<String> all = new ArrayList<String>(plainDisallowList);
+        all.addAll(plainAllowList);
+        plainDisallows = plainDisallowList.size();
+        plainCount = all.size();
+        wildcardAllows = new boolean[wild.size()];
+        for (int i = 0; i < wildcardAllows.length; i++) {
+            String marked = wild.get(i);
+            wildcardAllows[i] = marked.charAt(marked.length() - 1) == '\u0001';
+            all.add(marked.substring(0, marked.length() - 1));
+        }
+
+        StringBuilder packed = new StringBuilder();
+        ends = new int[all.size()];
+        for (int i = 0; i < ends.length; i++) {
+            packed.append(all.get(i));
+            ends[i] = packed.length();
+        }
+        char[] packedChars = packed.toString().toCharArray();
+        if (isLatin1(packedChars)) {
+            bytes = toLatin1(packedChars);
+            chars = null;
+        } else {
+            bytes = null;
+            chars = packedChars;
+        }
+        parents = computeParents();
+    }
+
+    protected CompactRobotsRules(String packed, int[] ends, int plainDisallows,
+            int plainCount, boolean[] wildcardAllows) {
+        char[] packedChars = packed.toCharArray();
+        if (isLatin1(packedChars)) {
+            this.bytes = toLatin1(packedChars);
+            this.chars = null;
+        } else {
+            this.bytes = null;
+            this.chars = packedChars;
+        }
+        this.ends = ends;
+        this.plainDisallows = plainDisallows;
+        this.plainCount = plainCount;
+        this.wildcardAllows = wildcardAllows;
+        this.parents = computeParents();
+    }
+
+    protected int[] computeParents() {
+        int[] computed = new int[plainCount];
+        int[] stack = new int[plainCount];
+        int depth = 0;
+        for (int i = 0; i < plainCount; i++) {
+            if (i == plainDisallows) {
+                // allows are linked only among themselves
+                depth = 0;
+            }
+            while (depth > 0 && !isPrefix(stack[depth - 1], i)) {
+                depth--;
+            }
+            computed[i] = depth > 0 ? stack[depth - 1] : -1;
+            stack[depth++] = i;
+        }
+        return computed;
+    }
+
+    /**
+     * @return whether path i is a prefix of path j
+     */
+    protected boolean isPrefix(int i, int j) {
+        int length = length(i);
+        if (length > length(j)) {
+            return false;
+        }
+        int startI = start(i);
+        int startJ = start(j);
+        for (int k = 0; k < length; k++) {
+            if (charAt(startI + k) != charAt(startJ + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean isWildcarded(String path) {
+        return path.indexOf('*') >= 0 || path.endsWith("$");
+    }
+
+    protected static boolean isLatin1(char[] packedChars) {
+        for (char c : packedChars) {
+            if (c > 0xff) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static byte[] toLatin1(char[] packedChars) {
+        byte[] latin1 = new byte[packedChars.length];
+        for (int i = 0; i < latin1.length; i++) {
+            latin1[i] = (byte) packedChars[i];
+        }
+        return latin1;
+    }
+
+    protected char charAt(int offset) {
+        return bytes != null ? (char) (bytes[offset] & 0xff) : chars[offset];
+    }
+
+    protected int start(int i) {
+        return i == 0 ? 0 : ends[i - 1];
+    }
+
+    protected int length(int i) {
+        return ends[i] - start(i);
+    }
+
+    public int size() {
+        return ends.length;
+    }
+
+    public String getPath(int i) {
+        StringBuilder path = new StringBuilder(length(i));
+        for (int offset = start(i); offset < ends[i]; offset++) {
+            path.append(charAt(offset));
+        }
+        return path.toString();
+    }
+
+    public boolean isAllow(int i) {
+        return i < plainCount ? i >= plainDisallows : wildcardAllows[i - plainCount];
+    }
+
+    public boolean allows(String path) {
+        int bestDisallow = longestPrefix(0, plainDisallows, path);
+        if (bestDisallow < 0 && plainCount == ends.length) {
+            // nothing to disallow
+            return true;
+        }
+        int bestAllow = longestPrefix(plainDisallows, plainCount, path);
+
+        // wildcarded paths, longest first, while they could change the outcome
+        for (int i = plainCount; i < ends.length; i++) {
+            int length = length(i);
+            if (length <= bestAllow && length <= bestDisallow) {
+                break;
+            }
+            boolean allow = wildcardAllows[i - plainCount];
+            if (length <= (allow ? bestAllow : bestDisallow)) {
+                continue;
+            }
+            if (wildcardMatches(start(i), ends[i], path)) {
+                if (allow) {
+                    bestAllow = length;
+                } else {
+                    bestDisallow = length;
+                }
+            }
+        }
+        return bestDisallow <= bestAllow;
+    }
+
+    /**
+     * @return length of the longest of the sorted paths [lo, hi) that
+     * prefixes path, or -1 if none do
+     */
+    protected int longestPrefix(int lo, int hi, String path) {
+        // any path prefixing the given path sorts at or below it, and so
+        // prefixes the greatest path that does (the floor)
+        int floor = -1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, path) <= 0) {
+                floor = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (floor < 0) {
+            return -1;
+        }
+        int start = start(floor);
+        int length = ends[floor] - start;
+        int common = 0;
+        int max = Math.min(length, path.length());
+        while (common < max && charAt(start + common) == path.charAt(common)) {
+            common++;
+        }
+        // the floor's longest prefix within what it shares with path
+        while (floor >= 0 && length(floor) > common) {
+            floor = parents[floor];
+        }
+        return floor < 0 ? -1 : length(floor);
+    }
+
+    protected int compare(int i, String path) {
+        int start = start(i);
+        int length = ends[i] - start;
+        int max = Math.min(length, path.length());
+        for (int k = 0; k < max; k++) {
+            int diff = charAt(start + k) - path.charAt(k);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - path.length();
+    }
+
+    /**
+     * Does the pattern in [from, to) match the start of (or, if it
+     * ends with '$', all of) path?
+     */
+    protected boolean wildcardMatches(int from, int to, String path) {
+        boolean anchored = to > from && charAt(to - 1) == '$';
+        if (anchored) {
+            to--;
+        }
+        int p = from;
+        int s = 0;
+        int starP = -1;
+        int starS = 0;
+        while (true) {
+            if (p == to) {
+                if (!anchored || s == path.length()) {
+                    return true;
+                }
+            } else if (charAt(p) == '*') {
+                starP = ++p;
+                starS = s;
+                continue;
+            } else if (s < path.length() && charAt(p) == path.charAt(s)) {
+                p++;
+                s++;
+                continue;
+            }
+            // mismatch: let the last '*' take one more character, if any
+            if (starP < 0 || starS >= path.length()) {
+                return false;
+            }
+            p = starP;
+            s = ++starS;
+        }
+    }
+
+    // Kryo support
+    public static void autoregisterTo(AutoKryo kryo) {
+        kryo.register(CompactRobotsRules.class, new Serializer() {
+            @Override
+            public void writeObjectData(ByteBuffer buffer, Object object) {
+                CompactRobotsRules rules = (CompactRobotsRules) object;
+                StringBuilder packed = new StringBuilder();
+                for (int i = 0; i < rules.size(); i++) {
+                    packed.append(rules.getPath(i));
+                }
+                StringSerializer.put(buffer, packed.toString());
+                IntSerializer.put(buffer, rules.ends.length, true);
+                IntSerializer.put(buffer, rules.plainDisallows, true);
+                IntSerializer.put(buffer, rules.plainCount, true);
+                for (int i = 0; i < rules.ends.length; i++) {
+                    IntSerializer.put(buffer, rules.length(i), true);
+                }
+                // wildcard allow flags, packed 8 per byte
+                int flags = 0;
+                for (int i = 0; i < rules.wildcardAllows.length; i++) {
+                    if (rules.wildcardAllows[i]) {
+                        flags |= 1 << (i % 8);
+                    }
+                    if (i % 8 == 7 || i == rules.wildcardAllows.length - 1) {
+                        buffer.put((byte) flags);
+                        flags = 0;
+                    }
+                }
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T readObjectData(ByteBuffer buffer, Class<T> type) {
+                String packed = StringSerializer.get(buffer);
+                int size = IntSerializer.get(buffer, true);
+                int plainDisallows = IntSerializer.get(buffer, true);
+                int plainCount = IntSerializer.get(buffer, true);
+                int[] ends = new int[size];
+                int end = 0;
+                for (int i = 0; i < size; i++) {
+                    end += IntSerializer.get(buffer, true);
+                    ends[i] = end;
+                }
+                boolean[] wildcardAllows = new boolean[size - plainCount];
+                int flags = 0;
+                for (int i = 0; i < wildcardAllows.length; i++) {
+                    if (i % 8 == 0) {
+                        flags = buffer.get();
+                    }
+                    wildcardAllows[i] = (flags & (1 << (i % 8))) != 0;
+                }
+                return (T) new CompactRobotsRules(packed, ends, plainDisallows,
+                        plainCount, wildcardAllows);
+            }
+        });
+    }
+}
@@ -22,6 +22,7 @@ package org.archive.modules.net;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.URLEncoder;
 import java.net.UnknownHostException;
@@ -245,11 +246,11 @@ public class CrawlHost implements Serializable, FetchStats.HasFetchStats, Identi
          * holds hostname, but heritrix doesn't use that; and retrieving it can
          * result in dns lookup, so we don't serialize it.
          */
-        kryo.register(Inet4Address.class, new Serializer() {
+        Serializer inetAddressSerializer = new Serializer() {
             @Override
             public void writeObjectData(ByteBuffer buffer, Object object) {
-                Inet4Address i4a = (Inet4Address) object;
-                kryo.writeObject(buffer, i4a.getAddress());
+                InetAddress ia = (InetAddress) object;
+                kryo.writeObject(buffer, ia.getAddress());
             }
             
             @Override
@@ -262,8 +263,11 @@ public class CrawlHost implements Serializable, FetchStats.HasFetchStats, Identi
                     throw new RuntimeException(e);
                 }
             }
-        });
+        };
+        kryo.register(Inet4Address.class, inetAddressSerializer);
         kryo.autoregister(byte[].class);
+        // registration order fixes class IDs: only append, below
+        kryo.register(Inet6Address.class, inetAddressSerializer);
         kryo.setRegistrationOptional(true);
     }
     
@@ -18,7 +18,13 @@
  */
 package org.archive.modules.net;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.archive.bdb.AutoKryo;
@@ -32,44 +38,99 @@ import com.esotericsoftware.kryo.serialize.ReferenceFieldSerializer;
 public class RobotsDirectives implements Serializable {
     private static final long serialVersionUID = 5386542759286155383L;
     
-    protected ConcurrentSkipListSet<String> disallows = new ConcurrentSkipListSet<String>();
-    protected ConcurrentSkipListSet<String> allows = new ConcurrentSkipListSet<String>();
+    /**
+     * The rules, in one of two forms. While being added to, and as read
+     * from records of earlier versions, 'allows' and 'disallows' are 
+     * ConcurrentSkipListSets of paths. Once compiled (after parsing, or
+     * on first use), 'allows' is the CompactRobotsRules for both, and
+     * 'disallows' is null, so only the compact form is kept, and 
+     * persisted.
+     * 
+     * Kryo's field serializer writes fields in name order, each with its
+     * class, so keeping these names keeps the layout of earlier versions'
+     * records, which thus still read, as the set form, and are compiled
+     * on reading. (Java serialization writes the set form, as before.)
+     */
+    protected volatile Object allows = new ConcurrentSkipListSet<String>();
+    protected Object disallows = new ConcurrentSkipListSet<String>();
     protected float crawlDelay = -1; 
     public transient boolean hasDirectives = false;
 
     public boolean allows(String path) {
-        return !(longestPrefixLength(disallows, path) > longestPrefixLength(allows, path));
+        Object compiled = allows;
+        if (!(compiled instanceof CompactRobotsRules)) {
+            compiled = compile();
+        }
+        return ((CompactRobotsRules) compiled).allows(path);
     }
 
     /**
-     * @param prefixSet
-     * @param str
-     * @return length of longest entry in {@code prefixSet} that prefixes {@code str}, or zero
-     *         if no entry prefixes {@code str}
+     * Replace the allow/disallow sets, as filled during parsing (or read
+     * from an earlier version's record), with their compact compiled form
+     * (if not already done).
+     * 
+     * @return compiled rules
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized CompactRobotsRules compile() {
+        if (!(allows instanceof CompactRobotsRules)) {
+            CompactRobotsRules rules = new CompactRobotsRules(
+                    (Collection<String>) allows,
+                    (Collection<String>) disallows);
+            disallows = null;
+            allows = rules;
+        }
+        return (CompactRobotsRules) allows;
+    }
+
+    /**
+     * @return the allow (or disallow) paths: the set itself if not 
+     * compiled, else a new set from the compiled rules
+     */
+    @SuppressWarnings("unchecked")
+    protected synchronized ConcurrentSkipListSet<String> getPaths(boolean allow) {
+        if (!(allows instanceof CompactRobotsRules)) {
+            return (ConcurrentSkipListSet<String>) (allow ? allows : disallows);
+        }
+        CompactRobotsRules rules = (CompactRobotsRules) allows;
+        ConcurrentSkipListSet<String> paths = new ConcurrentSkipListSet<String>();
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.isAllow(i) == allow) {
+                paths.add(rules.getPath(i));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Restore the allow/disallow sets from compiled rules, for more 
+     * additions.
      */
-    protected int longestPrefixLength(ConcurrentSkipListSet<String> prefixSet,
-            String str) {
-        String possiblePrefix = prefixSet.floor(str);
-        if (possiblePrefix != null && str.startsWith(possiblePrefix)) {
-            return possiblePrefix.length();
-        } else {
-            return 0;
+    protected synchronized void decompile() {
+        if (allows instanceof CompactRobotsRules) {
+            ConcurrentSkipListSet<String> disallowPaths = getPaths(false);
+            allows = getPaths(true);
+            disallows = disallowPaths;
         }
     }
 
-    public void addDisallow(String path) {
+    @SuppressWarnings("unchecked")
+    public synchronized void addDisallow(String path) {
         hasDirectives = true;
         if(path.length()==0) {
             // ignore empty-string disallows 
             // (they really mean allow, when alone)
             return;
         }
-        disallows.add(path);
+        decompile();
+        ((ConcurrentSkipListSet<String>) disallows).add(path);
     }
 
-    public void addAllow(String path) {
+    @SuppressWarnings("unchecked")
+    public synchronized void addAllow(String path) {
         hasDirectives = true;
-        allows.add(path);
+        decompile();
+        ((ConcurrentSkipListSet<String>) allows).add(path);
     }
 
     public void setCrawlDelay(float i) {
@@ -80,11 +141,47 @@ public class RobotsDirectives implements Serializable {
     public float getCrawlDelay() {
         return crawlDelay;
     }
+
+    // Java serialization: the set form, as in earlier versions
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("disallows", ConcurrentSkipListSet.class),
+        new ObjectStreamField("allows", ConcurrentSkipListSet.class),
+        new ObjectStreamField("crawlDelay", Float.TYPE),
+    };
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        synchronized (this) {
+            fields.put("disallows", getPaths(false));
+            fields.put("allows", getPaths(true));
+            fields.put("crawlDelay", crawlDelay);
+        }
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        disallows = fields.get("disallows", null);
+        allows = fields.get("allows", null);
+        crawlDelay = fields.get("crawlDelay", -1f);
+        compile();
+    }
     
     // Kryo support
     public static void autoregisterTo(AutoKryo kryo) {
-        kryo.register(RobotsDirectives.class, new ReferenceFieldSerializer(kryo, RobotsDirectives.class));
+        kryo.register(RobotsDirectives.class, new ReferenceFieldSerializer(kryo, RobotsDirectives.class) {
+            @Override
+            public <T> T readObjectData(ByteBuffer buffer, Class<T> type) {
+                T directives = super.readObjectData(buffer, type);
+                // as read from an earlier version's record, the set form
+                ((RobotsDirectives) directives).compile();
+                return directives;
+            }
+        });
         kryo.autoregister(ConcurrentSkipListSet.class); // now used instead of PrefixSet in RobotsDirectives
+        // registration order fixes class IDs: only append, below
+        kryo.autoregister(CompactRobotsRules.class);
         kryo.setRegistrationOptional(true); 
     }
 
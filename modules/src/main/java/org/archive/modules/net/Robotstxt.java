@@ -192,6 +192,14 @@ public class Robotstxt implements Serializable {
                 // unknown line; do nothing for now
             }
         }
+        // compile each (possibly shared) set of directives, for fast
+        // use from here on
+        if (wildcardDirectives != null) {
+            wildcardDirectives.compile();
+        }
+        for (RobotsDirectives directives : agentsToDirectives.values()) {
+            directives.compile();
+        }
     }
 
     /**
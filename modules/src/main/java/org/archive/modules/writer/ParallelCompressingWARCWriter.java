@@ -0,0 +1,101 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.io.ParallelGZIPOutputStream;
+import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPoolSettings;
+
+/**
+ * WARCWriter for compressed WARCs which gzips each record as a single
+ * member via {@link ParallelGZIPOutputStream}, so that large records
+ * compress on multiple cores (of the shared pool) rather than only the
+ * thread holding this writer. Output is interchangeable with that of a
+ * plain compressed WARCWriter.
+ */
+public class ParallelCompressingWARCWriter extends WARCWriter {
+    protected int chunkSize;
+
+    /** gzip member for the record in progress, if any */
+    protected ParallelGZIPOutputStream member = null;
+
+    /** compressed bytes go straight to the file */
+    protected OutputStream fileOut = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            ParallelCompressingWARCWriter.super.write(new byte[] {(byte) b}, 0, 1);
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ParallelCompressingWARCWriter.super.write(b, off, len);
+        }
+    };
+
+    public ParallelCompressingWARCWriter(AtomicInteger serialNo,
+            WARCWriterPoolSettings settings, int chunkSize) {
+        super(serialNo, settings);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Replaces the superclass's per-record GZIPOutputStream wrapping.
+     */
+    @Override
+    protected void preWriteRecordTasks() throws IOException {
+        if (getOutputStream() == null) {
+            // may itself write (and complete) a warcinfo record
+            createFile();
+        }
+        member = new ParallelGZIPOutputStream(fileOut,
+                ParallelGZIPOutputStream.getSharedPool(), chunkSize);
+    }
+
+    @Override
+    protected void postWriteRecordTasks() throws IOException {
+        ParallelGZIPOutputStream finishing = member;
+        member = null;
+        if (finishing != null) {
+            finishing.finish();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (member != null) {
+            member.write(b, off, len);
+        } else {
+            super.write(b, off, len);
+        }
+    }
+}
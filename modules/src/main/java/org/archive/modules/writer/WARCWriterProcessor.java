@@ -60,8 +60,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -70,7 +74,11 @@ import java.util.logging.Logger;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.io.ParallelGZIPOutputStream;
+import org.archive.io.RecordingInputStream;
+import org.archive.io.RecordingOutputStream;
 import org.archive.io.ReplayInputStream;
+import org.archive.io.WriterPoolMember;
 import org.archive.io.warc.WARCRecordInfo;
 import org.archive.io.warc.WARCWriter;
 import org.archive.io.warc.WARCWriterPool;
@@ -82,6 +90,8 @@ import org.archive.modules.ProcessResult;
 import org.archive.modules.revisit.IdenticalPayloadDigestRevisit;
 import org.archive.modules.revisit.RevisitProfile;
 import org.archive.spring.ConfigPath;
+import org.archive.spring.KeyedProperties;
+import org.archive.spring.OverlayContext;
 import org.archive.uid.RecordIDGenerator;
 import org.archive.uid.UUIDGenerator;
 import org.archive.util.ArchiveUtils;
@@ -167,6 +177,81 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         logger.warning("setting writeRevisitForNotModified is deprecated, value ignored");
     }
 
+    /**
+     * Number of dedicated threads to write records, off the ToeThreads. If
+     * positive, a ToeThread hands each fully-recorded URI to these threads,
+     * and continues with any following processors which allow it (such as
+     * outlink scheduling) while the records are compressed and written. The
+     * URI's recorded content stays untouched until the write completes, and
+     * its 'warcFilename', stats and write-tag are updated, on the ToeThread,
+     * before any later processor which could depend on them. Default 0:
+     * write on the ToeThread. This setting cannot be varied over the life
+     * of a crawl.
+     */
+    protected int writerThreads = 0;
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    /**
+     * Maximum number of URIs awaiting a writer thread, when writerThreads
+     * is positive. ToeThreads block (rather than fetch more) while the
+     * queue is full.
+     */
+    protected int writeQueueCapacity = 64;
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+    public void setWriteQueueCapacity(int writeQueueCapacity) {
+        this.writeQueueCapacity = writeQueueCapacity;
+    }
+
+    /**
+     * Whether, when compressing, to gzip each record in chunks spread over
+     * all cores (a pool shared by all writers), rather than only on the
+     * thread writing it. Records stay single, standard gzip members, with
+     * a compression ratio very close to that of normal compression. Helps
+     * most when large records (video, PDFs) would otherwise hold a writer
+     * for seconds. Default false. This setting cannot be varied over the
+     * life of a crawl.
+     */
+    protected boolean parallelCompression = false;
+    public boolean getParallelCompression() {
+        return parallelCompression;
+    }
+    public void setParallelCompression(boolean parallelCompression) {
+        this.parallelCompression = parallelCompression;
+    }
+
+    /**
+     * Size of the chunks compressed concurrently, when parallelCompression
+     * is enabled; records no larger are compressed as usual. Minimum 32KiB.
+     */
+    protected int parallelCompressionChunkSize = 
+        ParallelGZIPOutputStream.DEFAULT_CHUNK_SIZE;
+    public int getParallelCompressionChunkSize() {
+        return parallelCompressionChunkSize;
+    }
+    public void setParallelCompressionChunkSize(int parallelCompressionChunkSize) {
+        this.parallelCompressionChunkSize = parallelCompressionChunkSize;
+    }
+
+    /** URI writes awaiting a writer thread; null if writing on ToeThreads */
+    protected transient BlockingQueue<FutureTask<Runnable>> writeQueue;
+    protected transient List<Thread> writeThreads;
+    /** queue entry telling a writer thread to exit */
+    protected static final FutureTask<Runnable> END_OF_WRITES = 
+        new FutureTask<Runnable>(new Runnable() {
+            public void run() {
+            }
+        }, null);
+
+    private AtomicLong asyncWrites = new AtomicLong();
+    private AtomicLong queueFullWaits = new AtomicLong();
+
     private transient List<String> cachedMetadata;
 
     public WARCWriterProcessor() {
@@ -174,9 +259,87 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
 
     @Override
     protected void setupPool(final AtomicInteger serialNo) {
+        if (getCompress() && getParallelCompression()) {
+            setPool(new WARCWriterPool(serialNo, this, getPoolMaxActive(), getMaxWaitForIdleMs()) {
+                @Override
+                protected WriterPoolMember makeWriter() {
+                    return new ParallelCompressingWARCWriter(serialNo,
+                            WARCWriterProcessor.this,
+                            getParallelCompressionChunkSize());
+                }
+            });
+            return;
+        }
         setPool(new WARCWriterPool(serialNo, this, getPoolMaxActive(), getMaxWaitForIdleMs()));
     }
 
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        if (getWriterThreads() > 0) {
+            writeQueue = new ArrayBlockingQueue<FutureTask<Runnable>>(
+                    Math.max(1, getWriteQueueCapacity()));
+            writeThreads = new ArrayList<Thread>(getWriterThreads());
+            for (int i = 0; i < getWriterThreads(); i++) {
+                Thread t = new Thread(getBeanName() + " writer #" + i) {
+                    public void run() {
+                        drainWriteQueue();
+                    }
+                };
+                t.setDaemon(true);
+                t.start();
+                writeThreads.add(t);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        if (writeQueue != null) {
+            // queued writes finish before threads see end marker
+            try {
+                for (int i = 0; i < writeThreads.size(); i++) {
+                    writeQueue.put(END_OF_WRITES);
+                }
+                for (Thread t: writeThreads) {
+                    t.join();
+                }
+            } catch (InterruptedException e) {
+                logger.log(Level.WARNING, "interrupted awaiting writer threads", e);
+                Thread.currentThread().interrupt();
+            }
+            writeQueue = null;
+            writeThreads = null;
+        }
+        super.stop();
+    }
+
+    /**
+     * Body of writer threads: run queued writes until end marker.
+     */
+    protected void drainWriteQueue() {
+        while (true) {
+            FutureTask<Runnable> write;
+            try {
+                write = writeQueue.take();
+            } catch (InterruptedException e) {
+                logger.log(Level.WARNING, Thread.currentThread().getName()
+                        + " interrupted; exiting", e);
+                return;
+            }
+            if (write == END_OF_WRITES) {
+                return;
+            }
+            write.run();
+        }
+    }
+
     /**
      * Writes a CrawlURI and its associated data to store file.
      * 
@@ -187,11 +350,15 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
      * 
      */
     @Override
-    protected ProcessResult innerProcessResult(CrawlURI puri) {
+    protected ProcessResult innerProcessResult(CrawlURI puri) 
+    throws InterruptedException {
         CrawlURI curi = (CrawlURI)puri;
         String scheme = curi.getUURI().getScheme().toLowerCase();
         try {
             if (shouldWrite(curi)) {
+                if (writeQueue != null) {
+                    return writeAsync(scheme, curi);
+                }
                 return write(scheme, curi);
             } else {
                 copyForwardWriteTagIfDupe(curi);
@@ -204,9 +371,183 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         return ProcessResult.PROCEED;
     }
 
+    /**
+     * Queue the URI's records for writing by a writer thread, blocking while
+     * the queue is full. The URI's own metadata is updated by the chain, on
+     * this thread, once the write completes (see
+     * {@link CrawlURI#awaitPendingWork()}).
+     * 
+     * Everything the records need from the URI, and the URI's overlay
+     * settings, are read here, before queueing: the writer thread never
+     * touches the URI, which later processors may change during the write.
+     */
+    protected ProcessResult writeAsync(final String lowerCaseScheme, 
+            final CrawlURI curi) throws InterruptedException, IOException {
+        final RecordBatch batch = readRecords(lowerCaseScheme, curi);
+        final OverlayContext overlays = new OverlaySnapshot(curi);
+        FutureTask<Runnable> write = new FutureTask<Runnable>(new Callable<Runnable>() {
+            public Runnable call() {
+                KeyedProperties.loadOverridesFrom(overlays);
+                try {
+                    return writeRecords(batch, curi);
+                } catch (final IOException e) {
+                    logger.log(Level.SEVERE, "Failed write of Records: " +
+                            batch.uri, e);
+                    return new Runnable() {
+                        public void run() {
+                            curi.getNonFatalFailures().add(e);
+                        }
+                    };
+                } finally {
+                    KeyedProperties.clearOverridesFrom(overlays);
+                }
+            }
+        });
+        if (!writeQueue.offer(write)) {
+            queueFullWaits.incrementAndGet();
+            writeQueue.put(write);
+        }
+        curi.addPendingWork(write);
+        asyncWrites.incrementAndGet();
+        return checkBytesWritten();
+    }
+
     protected ProcessResult write(final String lowerCaseScheme, 
             final CrawlURI curi)
     throws IOException {
+        writeRecords(readRecords(lowerCaseScheme, curi), curi).run();
+        // XXX this looks wrong, check should happen *before* writing the
+        // record, the way checkBytesWritten() currently works
+        return checkBytesWritten();
+    }
+
+    /**
+     * The records to write for one URI, with everything they need read
+     * from the URI up front, so that they may be written on another thread
+     * while the URI goes on through later processors. Only recorded
+     * content is read at write time, from the URI's recorder, which stays
+     * untouched until the write completes.
+     */
+    protected static class RecordBatch {
+        protected final String uri;
+        protected final List<WARCRecordInfo> records = 
+            new ArrayList<WARCRecordInfo>();
+        /** per record, the recorded stream to replay as its content, or null */
+        protected final List<Object> replays = new ArrayList<Object>();
+
+        protected RecordBatch(String uri) {
+            this.uri = uri;
+        }
+
+        /** Add a record whose content (if any) is already set. */
+        protected void add(WARCRecordInfo recordInfo) {
+            records.add(recordInfo);
+            replays.add(null);
+        }
+
+        /** Add a record whose content is the given recorded input. */
+        protected void add(WARCRecordInfo recordInfo, RecordingInputStream replay) {
+            records.add(recordInfo);
+            replays.add(replay);
+        }
+
+        /** Add a record whose content is the given recorded output. */
+        protected void add(WARCRecordInfo recordInfo, RecordingOutputStream replay) {
+            records.add(recordInfo);
+            replays.add(replay);
+        }
+
+        protected void writeTo(WARCWriter w) throws IOException {
+            for (int i = 0; i < records.size(); i++) {
+                WARCRecordInfo recordInfo = records.get(i);
+                Object replay = replays.get(i);
+                ReplayInputStream ris = null;
+                if (replay instanceof RecordingInputStream) {
+                    ris = ((RecordingInputStream) replay).getReplayInputStream();
+                } else if (replay instanceof RecordingOutputStream) {
+                    ris = ((RecordingOutputStream) replay).getReplayInputStream();
+                }
+                if (ris != null) {
+                    recordInfo.setContentStream(ris);
+                }
+                try {
+                    w.writeRecord(recordInfo);
+                } finally {
+                    IOUtils.closeQuietly(ris);
+                }
+            }
+        }
+    }
+
+    /**
+     * A URI's overlay names and maps, as of creation, for applying its
+     * settings overrides on a writer thread without reading the URI.
+     */
+    protected static class OverlaySnapshot implements OverlayContext {
+        protected final boolean set;
+        protected final ArrayList<String> names;
+        protected final Map<String, Map<String, Object>> maps = 
+            new HashMap<String, Map<String, Object>>();
+
+        protected OverlaySnapshot(CrawlURI curi) {
+            set = curi.haveOverlayNamesBeenSet();
+            names = set ? new ArrayList<String>(curi.getOverlayNames())
+                    : new ArrayList<String>();
+            for (String name : names) {
+                maps.put(name, curi.getOverlayMap(name));
+            }
+        }
+
+        public boolean haveOverlayNamesBeenSet() {
+            return set;
+        }
+
+        public ArrayList<String> getOverlayNames() {
+            return names;
+        }
+
+        public Map<String, Object> getOverlayMap(String name) {
+            return maps.get(name);
+        }
+    }
+
+    /**
+     * Read from the URI everything its records need.
+     */
+    protected RecordBatch readRecords(final String lowerCaseScheme, 
+            final CrawlURI curi) throws IOException {
+        RecordBatch batch = new RecordBatch(curi.toString());
+        // Write a request, response, and metadata all in the one
+        // 'transaction'.
+        final URI baseid = getRecordID();
+        final String timestamp =
+            ArchiveUtils.getLog14Date(curi.getFetchBeginTime());
+        if (lowerCaseScheme.startsWith("http")) {
+            writeHttpRecords(curi, batch, baseid, timestamp); 
+        } else if (lowerCaseScheme.equals("dns")) {
+            writeDnsRecords(curi, batch, baseid, timestamp);
+        } else if (lowerCaseScheme.equals("ftp")) {
+            writeFtpRecords(batch, curi, baseid, timestamp);
+        } else if (lowerCaseScheme.equals("whois")) {
+            writeWhoisRecords(batch, curi, baseid, timestamp);
+        } else {
+            logger.warning("No handler for scheme " + lowerCaseScheme);
+        }
+        return batch;
+    }
+
+    /**
+     * Write the URI's records and tally this processor's stats.
+     * 
+     * @param batch records read from the URI by readRecords()
+     * @param curi the URI, only to be updated by the returned Runnable
+     * @return update of the URI's own metadata (filename, stats, history)
+     * from the write, to be run on the URI's processing thread
+     */
+    protected Runnable writeRecords(final RecordBatch batch, 
+            final CrawlURI curi)
+    throws IOException {
+        Runnable curiUpdate = null;
         WARCWriter writer = (WARCWriter) getPool().borrowFile();
 
         // Reset writer temp stats so they reflect only this set of records.
@@ -230,22 +571,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
                 position = writer.getPosition();
             }
 
-            // Write a request, response, and metadata all in the one
-            // 'transaction'.
-            final URI baseid = getRecordID();
-            final String timestamp =
-                ArchiveUtils.getLog14Date(curi.getFetchBeginTime());
-            if (lowerCaseScheme.startsWith("http")) {
-                writeHttpRecords(curi, writer, baseid, timestamp); 
-            } else if (lowerCaseScheme.equals("dns")) {
-                writeDnsRecords(curi, writer, baseid, timestamp);
-            } else if (lowerCaseScheme.equals("ftp")) {
-                writeFtpRecords(writer, curi, baseid, timestamp);
-            } else if (lowerCaseScheme.equals("whois")) {
-                writeWhoisRecords(writer, curi, baseid, timestamp);
-            } else {
-                logger.warning("No handler for scheme " + lowerCaseScheme);
-            }
+            batch.writeTo(writer);
         } catch (IOException e) {
             // Invalidate this file (It gets a '.invalid' suffix).
             getPool().invalidateFile(writer);
@@ -256,13 +582,12 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
             throw e;
         } finally {
             if (writer != null) {
-                updateMetadataAfterWrite(curi, writer, position);
+                updateStatsAfterWrite(batch.uri, writer, position);
+                curiUpdate = curiUpdateAfterWrite(curi, writer, position);
                 getPool().returnFile(writer);
             }
         }
-        // XXX this looks wrong, check should happen *before* writing the
-        // record, the way checkBytesWritten() currently works
-        return checkBytesWritten();
+        return curiUpdate;
     }
     
     protected Map<String, Map<String, Long>> copyStats(Map<String, Map<String, Long>> orig) {
@@ -275,6 +600,15 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
 
     protected void updateMetadataAfterWrite(final CrawlURI curi,
             WARCWriter writer, long startPosition) {
+        updateStatsAfterWrite(curi.toString(), writer, startPosition);
+        curiUpdateAfterWrite(curi, writer, startPosition).run();
+    }
+
+    /**
+     * Tally this processor's stats for a just-completed write.
+     */
+    protected void updateStatsAfterWrite(final String uri,
+            WARCWriter writer, long startPosition) {
         if (WARCWriter.getStat(writer.getTmpStats(), WARCWriter.TOTALS, WARCWriter.NUM_RECORDS) > 0l) {
              addStats(writer.getTmpStats());
              urlsWritten.incrementAndGet();
@@ -282,24 +616,46 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         if (logger.isLoggable(Level.FINE)) { 
             logger.fine("wrote " 
                 + WARCWriter.getStat(writer.getTmpStats(), WARCWriter.TOTALS, WARCWriter.SIZE_ON_DISK) 
-                + " bytes to " + writer.getFile().getName() + " for " + curi);
+                + " bytes to " + writer.getFile().getName() + " for " + uri);
         }
         setTotalBytesWritten(getTotalBytesWritten() + (writer.getPosition() - startPosition));
+    }
 
-        curi.addExtraInfo("warcFilename", writer.getFilenameWithoutOccupiedSuffix());
+    /**
+     * Capture what a just-completed write means for the URI's own metadata,
+     * while the writer is still held, as a Runnable which may be run later
+     * (and on another thread).
+     */
+    protected Runnable curiUpdateAfterWrite(final CrawlURI curi,
+            WARCWriter writer, final long startPosition) {
+        final String filename = writer.getFilenameWithoutOccupiedSuffix();
+        final Map<String, Map<String, Long>> tmpStats = copyStats(writer.getTmpStats());
+        final List<WARCRecordInfo> recordLog = 
+            new ArrayList<WARCRecordInfo>(writer.getTmpRecordLog());
+        return new Runnable() {
+            public void run() {
+                updateCuriAfterWrite(curi, filename, startPosition, tmpStats, recordLog);
+            }
+        };
+    }
+
+    protected void updateCuriAfterWrite(final CrawlURI curi, String filename,
+            long startPosition, Map<String, Map<String, Long>> tmpStats,
+            List<WARCRecordInfo> recordLog) {
+        curi.addExtraInfo("warcFilename", filename);
         curi.addExtraInfo("warcFileOffset", startPosition);
 
-        curi.getData().put(A_WARC_STATS, copyStats(writer.getTmpStats()));
+        curi.getData().put(A_WARC_STATS, tmpStats);
 
         // history for uri-based dedupe
         Map<String,Object>[] history = curi.getFetchHistory();
         if (history != null && history[0] != null) {
-            history[0].put(A_WRITE_TAG, writer.getFilenameWithoutOccupiedSuffix());
+            history[0].put(A_WRITE_TAG, filename);
         }
         
         // history for uri-agnostic, content digest based dedupe
         if (curi.getContentDigest() != null && curi.hasContentDigestHistory()) {
-            for (WARCRecordInfo warcRecord: writer.getTmpRecordLog()) {
+            for (WARCRecordInfo warcRecord: recordLog) {
                 if ((warcRecord.getType() == WARCRecordType.response 
                         || warcRecord.getType() == WARCRecordType.resource)
                         && warcRecord.getContentStream() != null
@@ -343,7 +699,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         }
     }
    
-    protected void writeDnsRecords(final CrawlURI curi, WARCWriter w,
+    protected void writeDnsRecords(final CrawlURI curi, RecordBatch batch,
             final URI baseid, final String timestamp) throws IOException {
         WARCRecordInfo recordInfo = new WARCRecordInfo();
         recordInfo.setType(WARCRecordType.response);
@@ -360,20 +716,10 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
             recordInfo.addExtraHeader(HEADER_KEY_IP, ip);
         }
         
-        ReplayInputStream ris =
-            curi.getRecorder().getRecordedInput().getReplayInputStream();
-        recordInfo.setContentStream(ris);
-        
-        try {
-            w.writeRecord(recordInfo);
-        } finally {
-            IOUtils.closeQuietly(ris);
-        }
-        
-        recordInfo.getRecordId();
+        batch.add(recordInfo, curi.getRecorder().getRecordedInput());
     }
 
-    protected void writeWhoisRecords(WARCWriter w, CrawlURI curi, URI baseid,
+    protected void writeWhoisRecords(RecordBatch batch, CrawlURI curi, URI baseid,
             String timestamp) throws IOException {
         WARCRecordInfo recordInfo = new WARCRecordInfo();
         recordInfo.setType(WARCRecordType.response);
@@ -389,19 +735,10 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
             recordInfo.addExtraHeader(HEADER_KEY_IP, whoisServerIP.toString());
         }
         
-        ReplayInputStream ris =
-            curi.getRecorder().getRecordedInput().getReplayInputStream();
-        recordInfo.setContentStream(ris);
-        
-        try {
-            w.writeRecord(recordInfo);
-        } finally {
-            IOUtils.closeQuietly(ris);
-        }
-        recordInfo.getRecordId();
+        batch.add(recordInfo, curi.getRecorder().getRecordedInput());
     }
 
-    protected void writeHttpRecords(final CrawlURI curi, WARCWriter w,
+    protected void writeHttpRecords(final CrawlURI curi, RecordBatch w,
             final URI baseid, final String timestamp) throws IOException {
         // Add named fields for ip, checksum, and relate the metadata
         // and request to the resource field.
@@ -450,7 +787,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         }
     }
 
-    protected void writeFtpRecords(WARCWriter w, final CrawlURI curi, final URI baseid,
+    protected void writeFtpRecords(RecordBatch w, final CrawlURI curi, final URI baseid,
             final String timestamp) throws IOException {
         ANVLRecord headers = new ANVLRecord();
         headers.addLabelValue(HEADER_KEY_IP, getHostAddress(curi));
@@ -498,7 +835,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         }
     }
 
-    protected URI writeFtpControlConversation(WARCWriter w, String timestamp,
+    protected URI writeFtpControlConversation(RecordBatch w, String timestamp,
             URI baseid, CrawlURI curi, ANVLRecord headers,
             String controlConversation) throws IOException {
         
@@ -517,12 +854,12 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         recordInfo.setContentStream(new ByteArrayInputStream(b));
         recordInfo.setContentLength((long) b.length);
         
-        w.writeRecord(recordInfo);
+        w.add(recordInfo);
         
         return recordInfo.getRecordId();
     }
 
-    protected URI writeRequest(final WARCWriter w,
+    protected URI writeRequest(final RecordBatch w,
             final String timestamp, final String mimetype,
             final URI baseid, final CrawlURI curi,
             final ANVLRecord namedFields) 
@@ -539,20 +876,12 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         final URI uid = qualifyRecordID(baseid, TYPE, WARCRecordType.request.toString());
         recordInfo.setRecordId(uid);
         
-        ReplayInputStream 
-            ris = curi.getRecorder().getRecordedOutput().getReplayInputStream();
-        recordInfo.setContentStream(ris);
-        
-        try {
-            w.writeRecord(recordInfo);
-        } finally {
-            IOUtils.closeQuietly(ris);
-        }
+        w.add(recordInfo, curi.getRecorder().getRecordedOutput());
         
         return recordInfo.getRecordId();
     }
     
-    protected URI writeResponse(final WARCWriter w,
+    protected URI writeResponse(final RecordBatch w,
             final String timestamp, final String mimetype,
             final URI baseid, final CrawlURI curi,
             final ANVLRecord suppliedFields) 
@@ -576,20 +905,12 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         recordInfo.setContentLength(curi.getRecorder().getRecordedInput().getSize());
         recordInfo.setEnforceLength(true);
         
-        ReplayInputStream ris =
-            curi.getRecorder().getRecordedInput().getReplayInputStream();
-        recordInfo.setContentStream(ris);
-        
-        try {
-            w.writeRecord(recordInfo);
-        } finally {
-            IOUtils.closeQuietly(ris);
-        }
+        w.add(recordInfo, curi.getRecorder().getRecordedInput());
         
         return recordInfo.getRecordId();
     }
     
-    protected URI writeResource(final WARCWriter w,
+    protected URI writeResource(final RecordBatch w,
             final String timestamp, final String mimetype,
             final URI baseid, final CrawlURI curi,
             final ANVLRecord namedFields) 
@@ -604,18 +925,12 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         recordInfo.setContentLength(curi.getRecorder().getRecordedInput().getSize());
         recordInfo.setEnforceLength(true);
         
-        ReplayInputStream ris = curi.getRecorder().getRecordedInput().getReplayInputStream();
-        recordInfo.setContentStream(ris);
-        try {
-            w.writeRecord(recordInfo);
-        } finally {
-            IOUtils.closeQuietly(ris);
-        }
+        w.add(recordInfo, curi.getRecorder().getRecordedInput());
         
         return recordInfo.getRecordId();
     }
 
-    protected URI writeRevisit(final WARCWriter w,
+    protected URI writeRevisit(final RecordBatch w,
             final String timestamp, final String mimetype,
             final URI baseid, final CrawlURI curi,
             final ANVLRecord headers)  
@@ -633,7 +948,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
                 headers, revisedLength);
     }
     
-    protected URI writeRevisit(final WARCWriter w,
+    protected URI writeRevisit(final RecordBatch w,
             final String timestamp, final String mimetype,
             final URI baseid, final CrawlURI curi,
             final ANVLRecord headers,
@@ -662,14 +977,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
 	        }
         }
         
-		ReplayInputStream ris = curi.getRecorder().getRecordedInput().getReplayInputStream();
-		recordInfo.setContentStream(ris);
-
-		try {
-			w.writeRecord(recordInfo);
-		} finally {
-			IOUtils.closeQuietly(ris);
-		}
+		w.add(recordInfo, curi.getRecorder().getRecordedInput());
 		return recordInfo.getRecordId();
     }
     
@@ -685,7 +993,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         }
     }
 
-	protected URI writeMetadata(final WARCWriter w,
+	protected URI writeMetadata(final RecordBatch w,
             final String timestamp,
             final URI baseid, final CrawlURI curi,
             final ANVLRecord namedFields) 
@@ -700,6 +1008,19 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
 	    
         recordInfo.setRecordId(qualifyRecordID(baseid, TYPE, WARCRecordType.metadata.toString()));
 
+        byte[] content = metadataContent(curi);
+        recordInfo.setContentStream(new ByteArrayInputStream(content));
+        recordInfo.setContentLength((long) content.length);
+        
+        w.add(recordInfo);
+        
+        return recordInfo.getRecordId();
+    }
+
+    /**
+     * @return body of the URI's metadata record
+     */
+    protected byte[] metadataContent(final CrawlURI curi) {
         // Get some metadata from the curi.
         // TODO: Get all curi metadata.
         // TODO: Use other than ANVL (or rename ANVL as NameValue or use
@@ -759,13 +1080,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         //
         // Annotations.
         
-        byte [] b = r.getUTF8Bytes();
-        recordInfo.setContentStream(new ByteArrayInputStream(b));
-        recordInfo.setContentLength((long) b.length);
-        
-        w.writeRecord(recordInfo);
-        
-        return recordInfo.getRecordId();
+        return r.getUTF8Bytes();
     }
     
     protected URI getRecordID() throws IOException {
@@ -902,6 +1217,14 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         
         buf.append("  Total size on disk ("+ (getCompress() ? "compressed" : "uncompressed") + "): "
                 + getTotalBytesWritten() + " (" + ArchiveUtils.formatBytesForDisplay(getTotalBytesWritten()) + ")\n");
+
+        if (getWriterThreads() > 0) {
+            BlockingQueue<FutureTask<Runnable>> queue = writeQueue;
+            buf.append("  Writer threads:    " + getWriterThreads() + " ("
+                    + asyncWrites + " writes, " + queueFullWaits 
+                    + " waits on full queue, " 
+                    + (queue == null ? 0 : queue.size()) + " queued)\n");
+        }
         
         return buf.toString();
     }
@@ -471,7 +471,8 @@ implements Lifecycle, Checkpointable, WriterPoolSettings {
     }
 
     @Override
-    protected abstract ProcessResult innerProcessResult(CrawlURI uri);
+    protected abstract ProcessResult innerProcessResult(CrawlURI uri)
+    throws InterruptedException;
 
     protected boolean shouldProcess(CrawlURI curi) {
         // If failure, or we haven't fetched the resource yet, return
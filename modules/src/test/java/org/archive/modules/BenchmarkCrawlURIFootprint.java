@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules;
+
+import static org.archive.modules.CoreAttributeConstants.A_ANNOTATIONS;
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_COMPLETED_TIME;
+
+import java.util.LinkedHashSet;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.bdb.KryoBinding;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Measures the memory and Kryo-serialized size (as stored in frontier
+ * queues) of queued CrawlURIs, with the well-known attributes held in
+ * CrawlURI's typed fields versus set by key into the data map, as all
+ * attributes were previously. Each URI is a discovered outlink; every
+ * third is a retry, carrying fetch times and annotations through a
+ * processingCleanup().
+ *
+ * Usage: BenchmarkCrawlURIFootprint [count]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkCrawlURIFootprint {
+
+    public static void main(String[] args) throws URIException {
+        (new BenchmarkCrawlURIFootprint()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws URIException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        System.out.println("count=" + count);
+        for (int round = 0; round < 2; round++) {
+            // first round includes warm-up
+            measure("by key (data map)", count, true);
+            measure("typed fields", count, false);
+        }
+    }
+
+    protected void measure(String label, int count, boolean byKey)
+    throws URIException {
+        KryoBinding<CrawlURI> binding =
+            new KryoBinding<CrawlURI>(CrawlURI.class);
+        DatabaseEntry entry = new DatabaseEntry();
+        CrawlURI via = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/index.html"));
+        CrawlURI[] curis = new CrawlURI[count];
+        long before = usedMemory();
+        long serialized = 0;
+        for (int i = 0; i < count; i++) {
+            CrawlURI curi = via.createCrawlURI(
+                    "http://www" + (i % 1000) + ".example.com/page" + i
+                    + ".html", LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+            if (i % 3 == 0) {
+                long now = System.currentTimeMillis();
+                if (byKey) {
+                    curi.getData().put(A_FETCH_BEGAN_TIME, now);
+                    curi.getData().put(A_FETCH_COMPLETED_TIME, now + 250);
+                    LinkedHashSet<String> annotations =
+                        new LinkedHashSet<String>();
+                    annotations.add("1t");
+                    curi.getData().put(A_ANNOTATIONS, annotations);
+                } else {
+                    curi.setFetchBeginTime(now);
+                    curi.setFetchCompletedTime(now + 250);
+                    curi.getAnnotations().add("1t");
+                }
+                curi.processingCleanup();
+            }
+            binding.objectToEntry(curi, entry);
+            serialized += entry.getSize();
+            curis[i] = curi;
+        }
+        long after = usedMemory();
+        System.out.println(label + ": " + ((after - before) / count)
+                + " heap bytes/CrawlURI, " + (serialized / count)
+                + " serialized bytes/CrawlURI");
+        // keep reachable through measurement
+        curis[count - 1].toString();
+    }
+
+    protected long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules;
+
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
+import static org.archive.modules.CoreAttributeConstants.A_WARC_RESPONSE_HEADERS;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_CONTENT_DIGEST;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_FETCH_HISTORY;
+
+import java.util.HashMap;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.bdb.KryoBinding;
+import org.archive.modules.extractor.HTMLLinkContext;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Simple benchmarking of KryoBinding as used for frontier queue entries,
+ * reporting bytes/entry and ns/op to write and to read CrawlURIs of the
+ * shapes the frontier actually stores, with optional (default) and strict
+ * class registration.
+ *
+ * Usage: BenchmarkKryoBinding [iterations]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkKryoBinding {
+
+    public static void main(String[] args) throws URIException {
+        (new BenchmarkKryoBinding()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws URIException {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        System.out.println("iterations=" + iterations);
+        CrawlURI seed = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/"));
+        seed.setSeed(true);
+        seed.setSourceTag("seeds.txt");
+        seed.makeHeritable(CoreAttributeConstants.A_SOURCE_TAG);
+
+        CrawlURI outlink = seed.createCrawlURI(
+                "http://www.example.com/section/page.html",
+                HTMLLinkContext.get("a/@href"), Hop.NAVLINK);
+
+        CrawlURI embed = outlink.createCrawlURI(
+                "http://static.example.com/img/logo.png",
+                LinkContext.EMBED_MISC, Hop.EMBED);
+
+        // as requeued for retry, or loaded with recrawl history
+        CrawlURI retry = seed.createCrawlURI(
+                "http://www.example.com/slow.html",
+                LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+        retry.getAnnotations().add("2t");
+        retry.getDataList(A_WARC_RESPONSE_HEADERS).add("WARC-Test: 1");
+        HashMap<String,Object> fetch = new HashMap<String,Object>();
+        fetch.put(A_FETCH_BEGAN_TIME, System.currentTimeMillis());
+        fetch.put(A_CONTENT_DIGEST, "sha1:3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ");
+        retry.getData().put(A_FETCH_HISTORY, new HashMap[] {fetch, null});
+
+        CrawlURI[] shapes = {seed, outlink, embed, retry};
+        String[] labels = {"seed", "outlink", "embed", "retry"};
+        for (int round = 0; round < 2; round++) {
+            // first round includes warm-up
+            for (boolean strict : new boolean[] {false, true}) {
+                KryoBinding<CrawlURI> binding =
+                    new KryoBinding<CrawlURI>(CrawlURI.class, strict);
+                for (int i = 0; i < shapes.length; i++) {
+                    test(binding, (strict ? "strict " : "optional ")
+                            + labels[i], shapes[i], iterations);
+                }
+            }
+        }
+    }
+
+    protected void test(KryoBinding<CrawlURI> binding, String label,
+            CrawlURI curi, int iterations) {
+        DatabaseEntry entry = new DatabaseEntry();
+        long startNs = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            binding.objectToEntry(curi, entry);
+        }
+        long writeNs = (System.nanoTime() - startNs) / iterations;
+        startNs = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            binding.entryToObject(entry);
+        }
+        long readNs = (System.nanoTime() - startNs) / iterations;
+        System.out.println(label + ": " + entry.getSize() + " bytes/entry, "
+                + writeNs + "ns/write, " + readNs + "ns/read");
+    }
+}
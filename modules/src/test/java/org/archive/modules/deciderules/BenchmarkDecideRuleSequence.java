@@ -0,0 +1,95 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.deciderules;
+
+import java.io.PrintWriter;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * Simple benchmarking of a scope-like DecideRuleSequence, evaluated in
+ * order versus by compiled plan, followed by a per-rule timing report
+ * of each.
+ *
+ * Usage: BenchmarkDecideRuleSequence [rounds]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkDecideRuleSequence {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkDecideRuleSequence()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        String[][] tests = DecideRuleSequenceTest.TEST_URIS;
+        CrawlURI[] uris = new CrawlURI[tests.length];
+        for (int i = 0; i < tests.length; i++) {
+            uris[i] = DecideRuleSequenceTest.makeUri(tests[i][0], tests[i][1]);
+        }
+        System.out.println("rounds=" + rounds + " uris=" + uris.length);
+
+        DecideRuleSequence inOrder = new DecideRuleSequence();
+        inOrder.setRules(DecideRuleSequenceTest.makeScopeRules());
+        DecideRuleSequence compiled = new DecideRuleSequence();
+        compiled.setRules(DecideRuleSequenceTest.makeScopeRules());
+        compiled.setCompiled(true);
+
+        for (int pass = 0; pass < 2; pass++) {
+            // first pass includes warm-up
+            test("in-order", inOrder, uris, rounds);
+            test("compiled", compiled, uris, rounds);
+        }
+
+        PrintWriter out = new PrintWriter(System.out);
+        for (DecideRuleSequence seq : new DecideRuleSequence[] {inOrder, compiled}) {
+            seq.setTimeRules(true);
+            for (int r = 0; r < rounds / 10; r++) {
+                for (CrawlURI uri : uris) {
+                    seq.decisionFor(uri);
+                }
+            }
+            out.println(seq.getCompiled() ? "compiled:" : "in-order:");
+            seq.reportTo(out);
+            out.flush();
+        }
+    }
+
+    protected void test(String label, DecideRuleSequence seq, CrawlURI[] uris,
+            int rounds) {
+        int accepts = 0;
+        long startNs = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (CrawlURI uri : uris) {
+                if (seq.decisionFor(uri) == DecideResult.ACCEPT) {
+                    accepts++;
+                }
+            }
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+        System.out.println(label + ": " + (elapsedNs / 1000000) + "ms, "
+                + (elapsedNs / ((long) rounds * uris.length)) + "ns/decision ("
+                + accepts + " accepts)");
+    }
+}
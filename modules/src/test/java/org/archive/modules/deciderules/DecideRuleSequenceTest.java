@@ -18,6 +18,16 @@
  */
 package org.archive.modules.deciderules;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
 import org.archive.state.ModuleTestBase;
 
 /**
@@ -27,5 +37,163 @@ import org.archive.state.ModuleTestBase;
  */
 public class DecideRuleSequenceTest extends ModuleTestBase {
 
-    // TODO TESTME
+    /**
+     * @return rules like a typical scope's, with several regex rules (some
+     * adjacent, with the same decision)
+     */
+    public static List<DecideRule> makeScopeRules() {
+        List<DecideRule> rules = new ArrayList<DecideRule>();
+        rules.add(new RejectDecideRule());
+        MatchesRegexDecideRule onSite = new MatchesRegexDecideRule();
+        onSite.setRegex(Pattern.compile("https?://([^/]+\\.)?(example\\.com|example\\.org)(/.*)?"));
+        onSite.setDecision(DecideResult.ACCEPT);
+        rules.add(onSite);
+        TooManyHopsDecideRule hops = new TooManyHopsDecideRule();
+        hops.setMaxHops(5);
+        rules.add(hops);
+        rules.add(new TransclusionDecideRule());
+        MatchesRegexDecideRule repeats = new MatchesRegexDecideRule();
+        repeats.setRegex(Pattern.compile(".*/([^/]+)/\\1/\\1/.*"));
+        repeats.setDecision(DecideResult.REJECT);
+        rules.add(repeats);
+        MatchesListRegexDecideRule traps = new MatchesListRegexDecideRule();
+        traps.setDecision(DecideResult.REJECT);
+        traps.setRegexList(Arrays.asList(
+                Pattern.compile(".*/calendar/\\d{4}/.*"),
+                Pattern.compile(".*[?&](sessionid|sid|phpsessid)=.*"),
+                Pattern.compile("(?i).*\\.(css|js)\\?v=\\d+"),
+                Pattern.compile(".*/(print|email)/.*"),
+                Pattern.compile(".*/search\\?.*")));
+        rules.add(traps);
+        MatchesRegexDecideRule moreTraps = new MatchesRegexDecideRule();
+        moreTraps.setRegex(Pattern.compile(".*/(login|logout|cart)(/.*)?"));
+        moreTraps.setDecision(DecideResult.REJECT);
+        rules.add(moreTraps);
+        MatchesRegexDecideRule yetMoreTraps = new MatchesRegexDecideRule();
+        yetMoreTraps.setRegex(Pattern.compile(".*\\.(exe|iso)"));
+        yetMoreTraps.setDecision(DecideResult.REJECT);
+        rules.add(yetMoreTraps);
+        NotMatchesRegexDecideRule notHttp = new NotMatchesRegexDecideRule("notHttp");
+        notHttp.setRegex(Pattern.compile("(https?|dns):.*"));
+        notHttp.setDecision(DecideResult.REJECT);
+        rules.add(notHttp);
+        rules.add(new PathologicalPathDecideRule());
+        TooManyPathSegmentsDecideRule segments = new TooManyPathSegmentsDecideRule();
+        segments.setMaxPathDepth(8);
+        rules.add(segments);
+        MatchesRegexDecideRule disabled = new MatchesRegexDecideRule();
+        disabled.setRegex(Pattern.compile(".*"));
+        disabled.setEnabled(false);
+        rules.add(disabled);
+        rules.add(new PrerequisiteAcceptDecideRule());
+        rules.add(new SchemeNotInSetDecideRule());
+        return rules;
+    }
+
+    public static final String[][] TEST_URIS = {
+        {"http://example.com/", ""},
+        {"http://www.example.com/a/b/c.html", "L"},
+        {"http://www.example.org/calendar/2014/01/", "LL"},
+        {"http://example.com/page?sid=1234", "L"},
+        {"http://example.com/STYLE.CSS?v=12", "LE"},
+        {"http://example.com/a/print/b", "L"},
+        {"http://example.com/x/y/y/y/z", "L"},
+        {"http://example.com/search?q=foo", "L"},
+        {"http://example.com/login", "L"},
+        {"http://example.com/big.iso", "L"},
+        {"http://example.com/a/b/c/d/e/f/g/h/i/j", "L"},
+        {"http://example.com/deep", "LLLLLLL"},
+        {"http://other.com/", "L"},
+        {"http://other.com/embed.js", "LLLLLLE"},
+        {"http://other.com/robots.txt", "LP"},
+        {"ftp://example.com/file", "L"},
+        {"dns:example.com", "P"},
+        {"https://sub.example.org/a/a/a/a/", "L"},
+        {"http://example.com.evil.com/", "L"},
+    };
+
+    public static CrawlURI makeUri(String uri, String pathFromSeed)
+    throws URIException {
+        return new CrawlURI(UURIFactory.getInstance(uri), pathFromSeed,
+                null, null);
+    }
+
+    protected DecideRuleSequence makeSequence(boolean compiled) {
+        DecideRuleSequence seq = new DecideRuleSequence();
+        seq.setRules(makeScopeRules());
+        seq.setCompiled(compiled);
+        return seq;
+    }
+
+    public void testCompiledParity() throws Exception {
+        DecideRuleSequence inOrder = makeSequence(false);
+        DecideRuleSequence compiled = makeSequence(true);
+        for (String[] test : TEST_URIS) {
+            CrawlURI uri = makeUri(test[0], test[1]);
+            assertEquals(test[0] + " " + test[1],
+                    inOrder.decisionFor(uri), compiled.decisionFor(uri));
+        }
+
+        // adjacent same-decision regex rules became one step; subclasses
+        // and disabled rules did not
+        DecideRuleSequence.CompiledPlan plan = compiled.plan;
+        assertNotNull(plan);
+        int combined = 0;
+        for (DecideRuleSequence.Step step : plan.steps) {
+            if (step.combined != null) {
+                combined++;
+                assertTrue(step.last - step.first <= 3);
+            }
+        }
+        // onSite alone; repeats, traps, moreTraps and yetMoreTraps together
+        assertEquals(2, combined);
+        assertEquals(makeScopeRules().size() - 3, plan.steps.length);
+    }
+
+    public void testRecompileOnChange() throws Exception {
+        DecideRuleSequence seq = makeSequence(true);
+        CrawlURI uri = makeUri("http://example.com/login", "L");
+        assertEquals(DecideResult.REJECT, seq.decisionFor(uri));
+        List<DecideRule> rules = new ArrayList<DecideRule>(seq.getRules());
+        rules.add(new AcceptDecideRule());
+        seq.setRules(rules);
+        assertEquals(DecideResult.ACCEPT, seq.decisionFor(uri));
+    }
+
+    public void testRuleTiming() throws Exception {
+        DecideRuleSequence seq = makeSequence(false);
+        seq.setTimeRules(true);
+        for (String[] test : TEST_URIS) {
+            seq.decisionFor(makeUri(test[0], test[1]));
+        }
+        // in order, the first rule is evaluated every time
+        assertEquals(TEST_URIS.length, seq.ruleEvaluations.get(0));
+        long evaluations = (Long) seq.shortReportMap().get("evaluations");
+        assertTrue(evaluations > TEST_URIS.length);
+
+        // compiled, rules before the decisive one are skipped
+        DecideRuleSequence compiled = makeSequence(true);
+        compiled.setTimeRules(true);
+        for (String[] test : TEST_URIS) {
+            compiled.decisionFor(makeUri(test[0], test[1]));
+        }
+        assertTrue((Long) compiled.shortReportMap().get("evaluations") < evaluations);
+        StringWriter report = new StringWriter();
+        seq.reportTo(new PrintWriter(report));
+        assertTrue(report.toString().contains("RejectDecideRule " + TEST_URIS.length));
+
+        // each combined run is tallied as a unit, not to its first rule
+        long combinedEvaluations = 0;
+        for (DecideRuleSequence.Step step : compiled.plan.steps) {
+            if (step.combined != null) {
+                combinedEvaluations += step.evaluations.get();
+                assertEquals(0, compiled.ruleEvaluations == null ? 0 
+                        : compiled.ruleEvaluations.get(step.first));
+            }
+        }
+        assertTrue(combinedEvaluations > 0);
+        report = new StringWriter();
+        compiled.reportTo(new PrintWriter(report));
+        assertTrue(report.toString().contains(" combined "));
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simple benchmarking of the tag and attribute scanning done by
+ * ExtractorHTML.extract(), by its regular expressions versus by
+ * HTMLTokenizer's scanners, in pages per second, over synthetic pages
+ * both well-formed and malformed (unclosed scripts, quotes and tags).
+ *
+ * Usage: BenchmarkHTMLTokenizer [passes] [pages]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkHTMLTokenizer {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkHTMLTokenizer()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int passes = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int pageCount = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+        System.out.println("passes=" + passes + " pages=" + pageCount);
+        String tagPattern = ExtractorHTML.RELEVANT_TAG_EXTRACTOR.replace(
+                "MAX_ELEMENT", "64");
+        String attributePattern = ExtractorHTML.EACH_ATTRIBUTE_EXTRACTOR
+            .replace("MAX_ATTR_NAME", "64").replace("MAX_ATTR_VAL", "2048");
+
+        Random random = new Random(1);
+        for (boolean malformed : new boolean[] {false, true}) {
+            List<String> pages = new ArrayList<String>();
+            long chars = 0;
+            for (int i = 0; i < pageCount; i++) {
+                String page = syntheticPage(random, 50 + random.nextInt(400), malformed);
+                pages.add(page);
+                chars += page.length();
+            }
+            String label = malformed ? "malformed" : "well-formed";
+            System.out.println(label + " pages, average chars=" + (chars / pageCount));
+            for (int pass = 0; pass < passes; pass++) {
+                // first pass includes warm-up
+                long startNs = System.nanoTime();
+                long found = 0;
+                for (String page : pages) {
+                    found += scan(page, HTMLTokenizer.regex(tagPattern, page),
+                            attributePattern, false);
+                }
+                report(label + ", regex", startNs, pageCount, found);
+
+                startNs = System.nanoTime();
+                found = 0;
+                for (String page : pages) {
+                    found += scan(page, new HTMLTokenizer.Tags(page, 64),
+                            attributePattern, true);
+                }
+                report(label + ", tokenizer", startNs, pageCount, found);
+            }
+        }
+    }
+
+    /**
+     * As ExtractorHTML.extract(): tags, then the attributes of each.
+     *
+     * @return count of attributes found
+     */
+    protected long scan(String page, HTMLTokenizer tags, String attributePattern,
+            boolean tokenizer) {
+        long found = 0;
+        while (tags.find()) {
+            int start;
+            int end;
+            if (tags.start(8) > 0) {
+                continue;
+            } else if (tags.start(5) > 0) {
+                start = tags.start(5);
+                end = tags.end(5);
+            } else if (tags.start(1) > 0) {
+                start = tags.start(1);
+                end = tags.end(2);
+            } else {
+                start = tags.start(3);
+                end = tags.end(4);
+            }
+            CharSequence cs = page.subSequence(start, end);
+            HTMLTokenizer attributes = tokenizer
+                ? new HTMLTokenizer.Attributes(cs, 64, 2048)
+                : HTMLTokenizer.regex(attributePattern, cs);
+            while (attributes.find()) {
+                found++;
+            }
+            attributes.recycle();
+        }
+        tags.recycle();
+        return found;
+    }
+
+    protected String syntheticPage(Random random, int elements, boolean malformed) {
+        StringBuilder page = new StringBuilder("<html><head><title>t</title>");
+        page.append("<meta http-equiv=\"Content-Type\" content=\"text/html\">");
+        for (int i = 0; i < elements; i++) {
+            switch (random.nextInt(8)) {
+            case 0:
+                page.append("<a href=\"/dir").append(i).append("/page.html\" class=nav "
+                        + "onclick=\"track('x')\">link text</a>\n");
+                break;
+            case 1:
+                page.append("<img src='/img/").append(i).append(".gif' width=10 "
+                        + "height=10 alt=\"an image\">");
+                break;
+            case 2:
+                page.append("<script type=\"text/javascript\">var x").append(i)
+                    .append(" = '/js/").append(i).append(".html';</script>");
+                break;
+            case 3:
+                page.append("<!-- comment ").append(i).append(" -->");
+                break;
+            case 4:
+                page.append("<style>.c").append(i).append(" { background: url(bg")
+                    .append(i).append(".png) }</style>");
+                break;
+            case 5:
+                page.append("<div id=d").append(i).append(" style=\"color: red\">")
+                    .append("Some text content, long enough to be typical. ")
+                    .append("</div>");
+                break;
+            case 6:
+                page.append("<form action=\"/search\" method=get><input name=q "
+                        + "value=\"\"></form>");
+                break;
+            default:
+                page.append("<p>Paragraph ").append(i).append(" text &amp; more text.</p>");
+            }
+            if (malformed && random.nextInt(20) == 0) {
+                switch (random.nextInt(4)) {
+                case 0:
+                    page.append("<script>unclosed ");
+                    break;
+                case 1:
+                    page.append("<a href=\"unclosed quote ");
+                    break;
+                case 2:
+                    page.append("<div class=x unclosed tag ");
+                    break;
+                default:
+                    page.append("<!-- unclosed comment ");
+                }
+            }
+        }
+        page.append("</body></html>");
+        return page.toString();
+    }
+
+    protected void report(String label, long startNs, int pages, long found) {
+        long elapsedNs = System.nanoTime() - startNs;
+        System.out.println(label + ": " + (pages * 1000000000L / Math.max(1, elapsedNs))
+                + " pages/s (" + found + " attributes)");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.archive.net.UURI;
+
+/**
+ * Simple benchmarking of the string finding done by
+ * ExtractorJS.considerStrings(), by its regular expression versus by
+ * JSStringScanner, in megabytes per second, over a large synthetic
+ * minified script, both typical and heavy with escaped quotes.
+ *
+ * Usage: BenchmarkJSStringScanner [passes] [kilobytes]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkJSStringScanner {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkJSStringScanner()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int passes = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int kilobytes = (args.length > 1) ? Integer.parseInt(args[1]) : 2048;
+        System.out.println("passes=" + passes + " kilobytes=" + kilobytes);
+        Pattern pattern = Pattern.compile(ExtractorJS.JAVASCRIPT_STRING_EXTRACTOR);
+
+        Random random = new Random(1);
+        for (boolean escaped : new boolean[] {false, true}) {
+            String script = syntheticScript(random, kilobytes * 1024, escaped);
+            String label = escaped ? "escaped" : "typical";
+            for (int pass = 0; pass < passes; pass++) {
+                // first pass includes warm-up
+                long startNs = System.nanoTime();
+                long found = 0;
+                Matcher strings = pattern.matcher(script);
+                int startIndex = 0;
+                while (strings.find(startIndex)) {
+                    found++;
+                    startIndex = strings.end(1);
+                }
+                report(label + ", regex", startNs, script.length(), found);
+
+                startNs = System.nanoTime();
+                found = 0;
+                JSStringScanner scanner = new JSStringScanner(script,
+                        UURI.MAX_URL_LENGTH, false);
+                while (scanner.find()) {
+                    found++;
+                }
+                report(label + ", scanner", startNs, script.length(), found);
+            }
+        }
+    }
+
+    /**
+     * @return script resembling minified code: short identifiers, few
+     * spaces, many short strings, some URL-like; if escaped, with
+     * backslash- and unicode-escaped quotes as in embedded JSON or HTML
+     */
+    protected String syntheticScript(Random random, int length, boolean escaped) {
+        StringBuilder script = new StringBuilder("!function(e,t){");
+        int i = 0;
+        while (script.length() < length) {
+            switch (random.nextInt(escaped ? 8 : 6)) {
+            case 0:
+                script.append("var a").append(i).append("=\"/static/js/chunk.")
+                    .append(i).append(".js\";");
+                break;
+            case 1:
+                script.append("e.src='https://cdn.example.com/i/").append(i)
+                    .append(".png',");
+                break;
+            case 2:
+                script.append("t[\"k").append(i).append("\"]=e.get('v").append(i)
+                    .append("')||null;");
+                break;
+            case 3:
+                script.append("function f").append(i).append("(n){return n&&n.")
+                    .append("length>").append(i % 10).append("?n:[]}");
+                break;
+            case 4:
+                script.append("if(x.type===\"click\"){y.push(\"ev").append(i)
+                    .append("\",o)}");
+                break;
+            case 5:
+                script.append("r=").append(i).append("*e+(t|0);");
+                break;
+            case 6:
+                script.append("h+='<a href=\\\"/p/").append(i)
+                    .append(".html\\\" class=\\\"c\\\">';");
+                break;
+            default:
+                script.append("j=\"{\\u0022u\\u0022:\\u0022\\u002fq\\u002f").append(i)
+                    .append("\\u0022}\";");
+            }
+            i++;
+        }
+        script.append("}(window,document);");
+        return script.toString();
+    }
+
+    protected void report(String label, long startNs, int chars, long found) {
+        long elapsedNs = System.nanoTime() - startNs;
+        System.out.println(label + ": " + (chars * 1000L / Math.max(1, elapsedNs))
+                + " MB/s (" + found + " strings)");
+    }
+}
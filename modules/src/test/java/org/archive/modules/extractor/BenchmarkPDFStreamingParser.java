@@ -0,0 +1,100 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simple benchmarking of PDF link extraction, as ExtractorPDF formerly
+ * did (copy to a temporary file, then PDFParser) versus by
+ * PDFStreamingParser, over a corpus of synthetic PDFs of various sizes,
+ * with and without compressed object streams.
+ *
+ * Usage: BenchmarkPDFStreamingParser [passes] [documents]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkPDFStreamingParser {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkPDFStreamingParser()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int passes = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int documents = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        System.out.println("passes=" + passes + " documents=" + documents);
+        Random random = new Random(1);
+        List<byte[]> corpus = new ArrayList<byte[]>();
+        long corpusBytes = 0;
+        for (int i = 0; i < documents; i++) {
+            // 1 to 40 pages of 1KB to 64KB content
+            byte[] pdf = PDFStreamingParserTest.syntheticPdf(random,
+                    1 + random.nextInt(40), random.nextInt(6),
+                    1024 << random.nextInt(7), random.nextBoolean());
+            corpus.add(pdf);
+            corpusBytes += pdf.length;
+        }
+        System.out.println("corpus bytes=" + corpusBytes);
+
+        File tempFile = File.createTempFile("benchmark", "tmp.pdf");
+        try {
+            for (int pass = 0; pass < passes; pass++) {
+                // first pass includes warm-up
+                long startNs = System.nanoTime();
+                long links = 0;
+                for (byte[] pdf : corpus) {
+                    FileOutputStream out = new FileOutputStream(tempFile);
+                    out.write(pdf);
+                    out.close();
+                    PDFParser parser = new PDFParser(tempFile.getAbsolutePath());
+                    ArrayList<String> uris = parser.extractURIs();
+                    links += uris == null ? 0 : uris.size();
+                }
+                report("temp file + PDFParser", startNs, corpusBytes, documents, links);
+
+                startNs = System.nanoTime();
+                links = 0;
+                for (byte[] pdf : corpus) {
+                    links += new PDFStreamingParser().extractURIs(
+                            new ByteArrayInputStream(pdf)).size();
+                }
+                report("PDFStreamingParser", startNs, corpusBytes, documents, links);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    protected void report(String label, long startNs, long corpusBytes,
+            int documents, long links) {
+        long elapsedNs = System.nanoTime() - startNs;
+        System.out.println(label + ": " + (elapsedNs / documents / 1000)
+                + "us/doc, " + (corpusBytes * 1000 / Math.max(1, elapsedNs))
+                + "MB/s (" + links + " links)");
+    }
+}
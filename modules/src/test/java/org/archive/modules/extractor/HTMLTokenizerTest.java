@@ -0,0 +1,175 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that HTMLTokenizer's hand-written scanners find exactly the
+ * matches (and groups) of ExtractorHTML's regular expressions.
+ */
+public class HTMLTokenizerTest extends TestCase {
+
+    /** fragments from which to build random markup */
+    protected static final String[] FRAGMENTS = {
+        "<", ">", "<", ">", " ", " ", "\n", "\r", "\t", "=", "=", "\"", "'",
+        "a", "A", "x", "-", "_", "9", "script", "SCRIPT", "</script>",
+        "</sCript", "style", "</style>", "meta", "MeTa", "metadata", "<!--",
+        "-->", "--", "[if", "!", "href", "HREF", "action", "onclick", "on",
+        "on-x", "src", "lowsrc", "data", "data-src", "datasrc", "codebase",
+        "code", "classid", "archive", "value", "style", "method", "name",
+        "content", "http://x.com/", "\u2028", "\u0085", "\u00e9",
+        "data-remote", "true", "javascript:",
+    };
+
+    protected String randomMarkup(Random random, int fragments) {
+        StringBuilder markup = new StringBuilder();
+        for (int i = 0; i < fragments; i++) {
+            markup.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return markup.toString();
+    }
+
+    protected Pattern tagPattern(int maxElement) {
+        return Pattern.compile(ExtractorHTML.RELEVANT_TAG_EXTRACTOR.replace(
+                "MAX_ELEMENT", Integer.toString(maxElement)));
+    }
+
+    protected Pattern attributePattern(int maxName, int maxValue) {
+        return Pattern.compile(ExtractorHTML.EACH_ATTRIBUTE_EXTRACTOR
+                .replace("MAX_ATTR_NAME", Integer.toString(maxName))
+                .replace("MAX_ATTR_VAL", Integer.toString(maxValue)));
+    }
+
+    protected void assertParity(Pattern pattern, HTMLTokenizer tokenizer,
+            CharSequence cs) {
+        Matcher matcher = pattern.matcher(cs);
+        while (matcher.find()) {
+            String message = "'" + cs + "' at " + matcher.start();
+            assertTrue(message + ": missed '" + matcher.group() + "'", tokenizer.find());
+            for (int group = 0; group <= matcher.groupCount(); group++) {
+                assertEquals(message + " start of group " + group,
+                        matcher.start(group), tokenizer.start(group));
+                assertEquals(message + " end of group " + group,
+                        matcher.end(group), tokenizer.end(group));
+            }
+        }
+        assertFalse("'" + cs + "': extra match", tokenizer.find());
+    }
+
+    protected void assertTagParity(String markup) {
+        assertParity(tagPattern(64), new HTMLTokenizer.Tags(markup, 64), markup);
+    }
+
+    protected void assertAttributeParity(String tag) {
+        assertParity(attributePattern(64, 2048),
+                new HTMLTokenizer.Attributes(tag, 64, 2048), tag);
+    }
+
+    public void testTags() {
+        assertTagParity("<a href='x'>link</a><br><BR/>");
+        assertTagParity("<script src='x.js'>var a = '<b c=d>';</SCRIPT> <b x=y>");
+        assertTagParity("<script>unclosed <a href=x>");
+        assertTagParity("<style>@import url(x.css);</style ><style a>b</style>");
+        assertTagParity("<meta name='robots' content='nofollow'><metadata x=y>"
+                + "<meta>");
+        assertTagParity("<!-- c --> <!--[if IE]><img src=x><![endif]--> <!---->"
+                + "<!--> <a b=c>");
+        assertTagParity("<scripts x>y</script>");
+        assertTagParity("<a\nhref=x><a href=x");
+    }
+
+    public void testAttributes() {
+        assertAttributeParity("a href=\"x\" title='y' onclick=z");
+        assertAttributeParity("frame name=\"main\"src=\"http://x.com/\"");
+        assertAttributeParity("object classid=x codebase = \"y\" data=z archive='a b'");
+        assertAttributeParity("a xhref=x data-src=y on-x=z ON=w datasrc=v codebases=u");
+        assertAttributeParity("a href=\"unclosed title='y'");
+        assertAttributeParity("a href=\"unclosed\n");
+        assertAttributeParity("a href=\"unclosed\r\n");
+        assertAttributeParity("a href='x'y=z href=");
+        assertAttributeParity("a = b =c d= ");
+    }
+
+    public void testLimits() {
+        String longName = "a x123456789=y onxxxxxxxxxx=z";
+        assertParity(attributePattern(3, 5),
+                new HTMLTokenizer.Attributes(longName, 3, 5), longName);
+        String longValue = "a href=\"0123456789\" src=0123456789 b='012345";
+        assertParity(attributePattern(3, 5),
+                new HTMLTokenizer.Attributes(longValue, 3, 5), longValue);
+        String elements = "<abcd x=y><abc x=y><meta x=y>";
+        assertParity(tagPattern(3), new HTMLTokenizer.Tags(elements, 3), elements);
+    }
+
+    public void testRandom() {
+        Random random = new Random(0);
+        int[] maxes = {1, 3, 64};
+        for (int round = 0; round < 3000; round++) {
+            String markup = randomMarkup(random, random.nextInt(40));
+            int max = maxes[random.nextInt(maxes.length)];
+            assertParity(tagPattern(max), new HTMLTokenizer.Tags(markup, max), markup);
+            int maxValue = maxes[random.nextInt(maxes.length)];
+            assertParity(attributePattern(max, maxValue),
+                    new HTMLTokenizer.Attributes(markup, max, maxValue), markup);
+        }
+    }
+
+    public void testHelpers() {
+        Pattern javascript = Pattern.compile(ExtractorHTML.JAVASCRIPT);
+        Pattern dataRemote = Pattern.compile("(?i).*data-remote\\s*=\\s*([\"'])true.*\\1");
+        Random random = new Random(0);
+        for (int round = 0; round < 3000; round++) {
+            String markup = randomMarkup(random, random.nextInt(12));
+            assertEquals(markup, javascript.matcher(markup).matches(),
+                    HTMLTokenizer.isJavascriptUri(markup));
+            assertEquals(markup, dataRemote.matcher(markup).matches(),
+                    HTMLTokenizer.hasDataRemoteTrue(markup));
+        }
+        assertTrue(HTMLTokenizer.isJavascriptUri("JavaScript:go()"));
+        assertFalse(HTMLTokenizer.isJavascriptUri("javascript:go(\n)"));
+        assertTrue(HTMLTokenizer.hasDataRemoteTrue("a data-remote = 'true' href='x'"));
+        assertFalse(HTMLTokenizer.hasDataRemoteTrue("a data-remote='true' href=\"x\""));
+    }
+
+    /**
+     * Input on which the regular expressions backtrack heavily is
+     * scanned in one pass.
+     */
+    public void testPathological() {
+        StringBuilder markup = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            markup.append("<script <style <!-- <a b=\"");
+        }
+        HTMLTokenizer tags = new HTMLTokenizer.Tags(markup, 64);
+        int count = 0;
+        while (tags.find()) {
+            HTMLTokenizer attributes = new HTMLTokenizer.Attributes(
+                    markup.subSequence(tags.start(0), tags.end(0)), 64, 2048);
+            while (attributes.find()) {
+                count++;
+            }
+        }
+        assertEquals(0, count);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.archive.net.UURI;
+
+/**
+ * Tests that JSStringScanner finds exactly the strings ExtractorJS's
+ * regular expression finds.
+ */
+public class JSStringScannerTest extends TestCase {
+
+    /** fragments from which to build random script */
+    protected static final String[] FRAGMENTS = {
+        "'", "'", "\"", "\"", "\\", "\\", "\\\\", "\\\\\\\\\\\\\\\\", "u0027",
+        "u0022", "\\u0027", "\\u0022", "\\\\u0027", "u002", "u0021", "u00227",
+        "a", "/", ".", " ", "http://x.com/", "x.html", "`", "${", "}",
+        "var ", "=", ";", "(", ")", "u",
+    };
+
+    protected String randomScript(Random random, int fragments) {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < fragments; i++) {
+            script.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return script.toString();
+    }
+
+    protected Pattern stringPattern(int maxLength) {
+        return Pattern.compile(ExtractorJS.JAVASCRIPT_STRING_EXTRACTOR.replace(
+                "{0," + UURI.MAX_URL_LENGTH + "}", "{0," + maxLength + "}"));
+    }
+
+    /**
+     * @return bounds of strings found as by ExtractorJS.considerStrings()
+     */
+    protected List<String> regexStrings(Pattern pattern, CharSequence cs) {
+        List<String> found = new ArrayList<String>();
+        Matcher strings = pattern.matcher(cs);
+        int startIndex = 0;
+        while (strings.find(startIndex)) {
+            found.add(strings.start(2) + "-" + strings.end(2));
+            startIndex = strings.end(1);
+        }
+        return found;
+    }
+
+    protected List<String> scannedStrings(JSStringScanner scanner) {
+        List<String> found = new ArrayList<String>();
+        while (scanner.find()) {
+            found.add(scanner.start() + "-" + scanner.end());
+        }
+        return found;
+    }
+
+    protected void assertParity(String script, int maxLength) {
+        assertEquals("'" + script + "'", regexStrings(stringPattern(maxLength), script),
+                scannedStrings(new JSStringScanner(script, maxLength, false)));
+    }
+
+    public void testStrings() {
+        assertParity("var foo = \"http://www.example.com/outlink\";", 2083);
+        assertParity("'string with spaces','http://example.com/outlink'", 2083);
+        assertParity("'string_with_\\'nested/quoted/relative/url.html\\'_inside'", 2083);
+        assertParity("scheme-less_\\\\\\'example.org/outlink\\\\\\'_with_extra", 2083);
+        assertParity("\\u0027project_detail.aspx?guid=x\\u0027", 2083);
+        assertParity("\\u0022a\\u0022b\\u0022c\\u0022", 2083);
+        assertParity("\\\\\\\\\\\\\\\\\\'too many backslashes\\\\\\\\\\\\\\\\\\'", 2083);
+        assertParity("'unclosed", 2083);
+        assertParity("'mismatched\" 'x'", 2083);
+    }
+
+    public void testLimits() {
+        assertParity("'0123456789' \"01234\" '012345'", 5);
+        assertParity("u0027012345u0027 u0027abcu0027", 5);
+    }
+
+    public void testRandom() {
+        Random random = new Random(0);
+        int[] maxes = {0, 1, 3, 10, 2083};
+        for (int round = 0; round < 5000; round++) {
+            String script = randomScript(random, random.nextInt(40));
+            assertParity(script, maxes[random.nextInt(maxes.length)]);
+        }
+    }
+
+    public void testTemplateLiterals() {
+        String script = "var a = `/static/one.html`; var b = `/two/${x}/y.html`; "
+            + "var c = 'quoted.html'; var d = `esc\\`aped`";
+        JSStringScanner scanner = new JSStringScanner(script, 2083, true);
+        List<String> found = new ArrayList<String>();
+        while (scanner.find()) {
+            found.add(script.substring(scanner.start(), scanner.end()));
+        }
+        // quoted strings, then template literals
+        assertEquals("quoted.html", found.get(0));
+        assertEquals("/static/one.html", found.get(found.size() - 3));
+        assertEquals("/two/", found.get(found.size() - 2));
+        assertEquals("esc\\`aped", found.get(found.size() - 1));
+    }
+
+    /**
+     * Input on which the regular expression backtracks heavily is
+     * scanned in one pass.
+     */
+    public void testPathological() {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            script.append("\\u0027a\\u0022");
+        }
+        script.append("'");
+        JSStringScanner scanner = new JSStringScanner(script, 2083, true);
+        int count = 0;
+        while (scanner.find()) {
+            count++;
+        }
+        assertEquals(100000 - 2, count);
+    }
+}
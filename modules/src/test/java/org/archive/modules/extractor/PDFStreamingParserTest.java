@@ -0,0 +1,290 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests PDFStreamingParser against synthetic PDFs: plain objects,
+ * content streams (of direct and indirect length) that must be skipped,
+ * and compressed object streams.
+ */
+public class PDFStreamingParserTest extends TestCase {
+
+    /**
+     * Builds a PDF of numbered objects, with a cross-reference table.
+     */
+    public static class PdfBuilder {
+        protected ByteArrayOutputStream out = new ByteArrayOutputStream();
+        protected List<Integer> offsets = new ArrayList<Integer>();
+
+        public PdfBuilder() {
+            write("%PDF-1.5\n%\u00e2\u00e3\u00cf\u00d3\n");
+        }
+
+        public PdfBuilder write(String text) {
+            byte[] bytes = latin1(text);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        public PdfBuilder write(byte[] bytes) {
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /**
+         * @return number of the object added
+         */
+        public int object(String body) {
+            offsets.add(out.size());
+            write(offsets.size() + " 0 obj\n" + body + "\nendobj\n");
+            return offsets.size();
+        }
+
+        public int stream(String dict, byte[] data, boolean indirectLength) {
+            offsets.add(out.size());
+            int number = offsets.size();
+            String length = indirectLength ? (number + 1) + " 0 R" : "" + data.length;
+            write(number + " 0 obj\n<<" + dict + " /Length " + length + ">>\nstream\r\n");
+            write(data);
+            write("\nendstream\nendobj\n");
+            if (indirectLength) {
+                object("" + data.length);
+            }
+            return number;
+        }
+
+        /**
+         * Add an object stream holding the given object bodies (so not in
+         * the cross-reference table).
+         */
+        public int objectStream(String... bodies) throws IOException {
+            StringBuilder header = new StringBuilder();
+            StringBuilder content = new StringBuilder();
+            int first = offsets.size() + 100;
+            for (int i = 0; i < bodies.length; i++) {
+                header.append(first + i).append(' ').append(content.length()).append(' ');
+                content.append(bodies[i]).append('\n');
+            }
+            byte[] data = deflate(header.toString() + content);
+            return stream(" /Type /ObjStm /N " + bodies.length + " /First "
+                    + header.length() + " /Filter /FlateDecode", data, false);
+        }
+
+        public byte[] finish(int root) {
+            int xref = out.size();
+            write("xref\n0 " + (offsets.size() + 1) + "\n0000000000 65535 f \n");
+            for (int offset : offsets) {
+                write(String.format("%010d 00000 n \n", offset));
+            }
+            write("trailer\n<< /Size " + (offsets.size() + 1) + " /Root " + root
+                    + " 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+            return out.toByteArray();
+        }
+    }
+
+    public static byte[] latin1(String text) {
+        try {
+            return text.getBytes("ISO-8859-1");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static byte[] deflate(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(bytes);
+        deflater.write(latin1(text));
+        deflater.close();
+        return bytes.toByteArray();
+    }
+
+    public static String linkAnnot(String uri) {
+        return "<< /Type /Annot /Subtype /Link /Rect [0 0 100 20] /A << /S /URI /URI ("
+            + uri + ") >> >>";
+    }
+
+    /**
+     * @return a PDF of pages, each with a content stream of random bytes
+     * and linkAnnots link annotations: if compressed, in an object stream,
+     * else as plain objects reachable from the catalog
+     */
+    public static byte[] syntheticPdf(Random random, int pages, int linkAnnots,
+            int contentBytes, boolean compressed) throws IOException {
+        PdfBuilder pdf = new PdfBuilder();
+        int pagesNumber = pdf.object("<< /Type /Pages /Kids [] /Count 0 >>");
+        StringBuilder kids = new StringBuilder();
+        for (int p = 0; p < pages; p++) {
+            byte[] content = new byte[contentBytes];
+            random.nextBytes(content);
+            int contentNumber = pdf.stream(" /Filter /FlateDecode", content, p % 2 == 0);
+            StringBuilder annots = new StringBuilder();
+            List<String> annotBodies = new ArrayList<String>();
+            for (int a = 0; a < linkAnnots; a++) {
+                annotBodies.add(linkAnnot("http://example.com/page" + p + "/link" + a));
+            }
+            if (compressed) {
+                // not referenced from the page, so found only by a scan
+                pdf.objectStream(annotBodies.toArray(new String[0]));
+            } else {
+                for (String body : annotBodies) {
+                    annots.append(pdf.object(body)).append(" 0 R ");
+                }
+            }
+            int page = pdf.object("<< /Type /Page /Parent " + pagesNumber
+                    + " 0 R /Contents " + contentNumber + " 0 R /Annots ["
+                    + annots + "] >>");
+            kids.append(page).append(" 0 R ");
+        }
+        // a later revision of the page tree, as by incremental update
+        pdf.offsets.set(pagesNumber - 1, pdf.out.size());
+        pdf.write(pagesNumber + " 0 obj\n<< /Type /Pages /Kids [" + kids
+                + "] /Count " + pages + " >>\nendobj\n");
+        int catalog = pdf.object("<< /Type /Catalog /Pages " + pagesNumber + " 0 R >>");
+        return pdf.finish(catalog);
+    }
+
+    protected List<String> scan(byte[] pdf) throws IOException {
+        return new PDFStreamingParser().extractURIs(new ByteArrayInputStream(pdf));
+    }
+
+    public void testPlainObjects() throws IOException {
+        PdfBuilder pdf = new PdfBuilder();
+        pdf.object(linkAnnot("http://example.com/a"));
+        pdf.object("<< /S /URI /URI <687474703a2f2f6578616d706c652e636f6d2f62> >>");
+        // escapes, balanced parentheses, and line continuation
+        pdf.object("<< /URI (http://example.com/\\(c\\)/(d)/\\\n\\145) >>");
+        // URL key, as by some producers; and a name written with escapes
+        pdf.object("<< /URL (http://example.com/f) /#55RI (http://example.com/g) >>");
+        // not URIs
+        pdf.object("<< /Title (/URI \\(http://example.com/x\\)) /URI 12 0 R >>");
+        pdf.object("% /URI (http://example.com/comment)\n<< /Producer (x) >>");
+        int root = pdf.object("<< /Type /Catalog >>");
+        assertEquals(Arrays.asList("http://example.com/a", "http://example.com/b",
+                "http://example.com/(c)/(d)/e", "http://example.com/f",
+                "http://example.com/g"), scan(pdf.finish(root)));
+    }
+
+    public void testUtf16() throws IOException {
+        PdfBuilder pdf = new PdfBuilder();
+        pdf.object("<< /URI <FEFF0068007400740070003a002f002f0078002e0063006f006d002f00e9> >>");
+        assertEquals(Arrays.asList("http://x.com/\u00e9"), scan(pdf.finish(1)));
+    }
+
+    public void testSkipsStreams() throws IOException {
+        PdfBuilder pdf = new PdfBuilder();
+        pdf.stream("", latin1("BT /URI (http://example.com/in-content) Tj ET\n"
+                + "(unbalanced"), false);
+        pdf.object(linkAnnot("http://example.com/1"));
+        // indirect length: skipped by looking for endstream
+        pdf.stream("", latin1("<< /URI (http://example.com/in-content) (unbalanced"), true);
+        pdf.stream(" /Filter /FlateDecode", deflate("(http://example.com/x)"), true);
+        pdf.object(linkAnnot("http://example.com/2"));
+        assertEquals(Arrays.asList("http://example.com/1", "http://example.com/2"),
+                scan(pdf.finish(1)));
+    }
+
+    public void testObjectStreams() throws IOException {
+        PdfBuilder pdf = new PdfBuilder();
+        pdf.objectStream(linkAnnot("http://example.com/1"), "<< /Producer (x) >>",
+                linkAnnot("http://example.com/2"));
+        pdf.object(linkAnnot("http://example.com/3"));
+        byte[] bytes = pdf.finish(1);
+        PDFStreamingParser parser = new PDFStreamingParser();
+        assertEquals(Arrays.asList("http://example.com/1", "http://example.com/2",
+                "http://example.com/3"),
+                parser.extractURIs(new ByteArrayInputStream(bytes)));
+        assertEquals(1, parser.getObjectStreamCount());
+        assertFalse(parser.isEncrypted());
+    }
+
+    public void testBounds() throws IOException {
+        StringBuilder longUri = new StringBuilder("http://example.com/");
+        while (longUri.length() < 20000) {
+            longUri.append("x");
+        }
+        PdfBuilder pdf = new PdfBuilder();
+        pdf.object(linkAnnot(longUri.toString()));
+        pdf.objectStream(linkAnnot("http://example.com/1"));
+        pdf.object(linkAnnot("http://example.com/2"));
+        byte[] bytes = pdf.finish(1);
+        // too-long string skipped; object stream inflated only partly
+        PDFStreamingParser parser = new PDFStreamingParser(8192, 10);
+        assertEquals(Arrays.asList("http://example.com/2"),
+                parser.extractURIs(new ByteArrayInputStream(bytes)));
+    }
+
+    public void testEncrypted() throws IOException {
+        PdfBuilder pdf = new PdfBuilder();
+        pdf.object(linkAnnot("garbage"));
+        byte[] bytes = pdf.finish(1);
+        String text = new String(bytes, "ISO-8859-1").replace("/Root",
+                "/Encrypt << /Filter /Standard >> /Root");
+        PDFStreamingParser parser = new PDFStreamingParser();
+        parser.extractURIs(new ByteArrayInputStream(latin1(text)));
+        assertTrue(parser.isEncrypted());
+    }
+
+    public void testTruncated() throws IOException {
+        Random random = new Random(0);
+        byte[] bytes = syntheticPdf(random, 3, 2, 2000, true);
+        List<String> all = scan(bytes);
+        assertEquals(6, all.size());
+        for (int length = 0; length < bytes.length; length += 97) {
+            // no exception, and a prefix of all URIs
+            List<String> found = scan(Arrays.copyOf(bytes, length));
+            assertEquals(all.subList(0, found.size()), found);
+        }
+    }
+
+    public void testSynthetic() throws IOException {
+        Random random = new Random(0);
+        assertEquals(12, scan(syntheticPdf(random, 4, 3, 5000, false)).size());
+        assertEquals(12, scan(syntheticPdf(random, 4, 3, 5000, true)).size());
+    }
+
+    /**
+     * One byte at a time, as from a slow stream.
+     */
+    public void testTrickle() throws IOException {
+        Random random = new Random(0);
+        byte[] bytes = syntheticPdf(random, 2, 2, 3000, true);
+        final InputStream in = new ByteArrayInputStream(bytes);
+        InputStream trickle = new InputStream() {
+            public int read() throws IOException {
+                return in.read();
+            }
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, Math.min(len, 1));
+            }
+        };
+        assertEquals(scan(bytes), new PDFStreamingParser().extractURIs(trickle));
+    }
+}
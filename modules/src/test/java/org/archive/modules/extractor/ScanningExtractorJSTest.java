@@ -0,0 +1,143 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Runs the ExtractorJS tests with {@link ExtractorJS#getUseScanner()} set,
+ * and tests template literals and the CPU time limit.
+ */
+public class ScanningExtractorJSTest extends ExtractorJSTest {
+
+    @Override
+    protected Extractor makeExtractor() {
+        ExtractorJS result = (ExtractorJS) super.makeExtractor();
+        result.setUseScanner(true);
+        return result;
+    }
+
+    protected Set<String> outlinks(CrawlURI curi) {
+        Set<String> outlinks = new HashSet<String>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            outlinks.add(link.getURI());
+        }
+        return outlinks;
+    }
+
+    public void testTemplateLiterals() throws Exception {
+        String script = "var a = `/static/template.html`; "
+            + "var b = `/dynamic/page.html?id=${id}`;";
+        ExtractorJS js = (ExtractorJS) extractor;
+        CrawlURI curi = makeData(script, null).iterator().next().uri;
+        js.considerStrings(js, curi, script, true);
+        assertTrue(curi.getOutLinks().isEmpty());
+
+        js.setExtractTemplateLiterals(true);
+        js.considerStrings(js, curi, script, true);
+        Set<String> expected = new HashSet<String>();
+        expected.add("http://www.archive.org/static/template.html");
+        expected.add("http://www.archive.org/dynamic/page.html?id=");
+        assertEquals(expected, outlinks(curi));
+    }
+
+    public void testCpuLimit() throws Exception {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            script.append("a['/path/").append(i).append("/page.html']=1;");
+        }
+        for (boolean useScanner : new boolean[] {false, true}) {
+            ExtractorJS js = (ExtractorJS) extractor;
+            js.setUseScanner(useScanner);
+            js.setMaxCpuMsPerDocument(1);
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                    "http://www.archive.org/foo/dummy.js"));
+            long found = js.considerStrings(js, curi, script, false);
+            assertTrue(found < 200000);
+            assertTrue(curi.getAnnotations().contains(
+                    ExtractorJS.BUDGET_EXCEEDED_ANNOTATION));
+
+            // later calls for the same document find nothing more
+            assertEquals(0L, js.considerStrings(js, curi, script, false));
+        }
+    }
+
+    /**
+     * With the regular expression, a single search that finds nothing in
+     * a large script is stopped when the time is spent.
+     */
+    public void testCpuLimitWithinSearch() throws Exception {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            padding.append('x');
+        }
+        StringBuilder unmatched = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            unmatched.append('\'').append(padding).append('"').append(padding);
+        }
+        final String script = unmatched.toString();
+        final AtomicLong reads = new AtomicLong(0);
+        CharSequence counted = new CharSequence() {
+            public char charAt(int index) {
+                reads.incrementAndGet();
+                return script.charAt(index);
+            }
+            public int length() {
+                return script.length();
+            }
+            public CharSequence subSequence(int start, int end) {
+                return script.subSequence(start, end);
+            }
+            public String toString() {
+                return script;
+            }
+        };
+        ExtractorJS js = (ExtractorJS) extractor;
+        js.setUseScanner(false);
+        js.setMaxCpuMsPerDocument(1);
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                "http://www.archive.org/foo/dummy.js"));
+        assertEquals(0L, js.considerStrings(js, curi, counted, false));
+        assertTrue(curi.getAnnotations().contains(
+                ExtractorJS.BUDGET_EXCEEDED_ANNOTATION));
+        assertTrue(reads.get() < script.length());
+    }
+
+    /**
+     * The CPU time tally travels with the document only while it's being
+     * extracted.
+     */
+    public void testCpuTallyCleared() throws Exception {
+        ExtractorJS js = (ExtractorJS) extractor;
+        js.setMaxCpuMsPerDocument(60000);
+        CrawlURI curi = makeData("var a = '/static/page.html';", null)
+                .iterator().next().uri;
+        curi.setFetchStatus(200);
+        js.considerStrings(js, curi, "var b = '/other.html';", false);
+        assertTrue(curi.getData().containsKey(ExtractorJS.A_JS_CPU_NANOS));
+        js.process(curi);
+        assertFalse(curi.getData().containsKey(ExtractorJS.A_JS_CPU_NANOS));
+        assertTrue(outlinks(curi).contains("http://www.archive.org/static/page.html"));
+    }
+}
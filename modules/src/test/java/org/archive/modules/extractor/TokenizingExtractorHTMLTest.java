@@ -0,0 +1,128 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Runs the ExtractorHTML tests with {@link ExtractorHTML#getUseTokenizer()}
+ * set, and checks that both modes find the same outlinks (with the same
+ * contexts and hops) in sample pages.
+ */
+public class TokenizingExtractorHTMLTest extends ExtractorHTMLTest {
+
+    /** sample pages exercising each kind of tag and attribute handled */
+    public static final String[] PAGES = {
+        "<html><head><base href=\"http://www.example.com/base/\">"
+            + "<meta http-equiv=\"refresh\" content=\"5; url=refreshed.html\">"
+            + "<meta property=\"og:image\" content=\"http://www.example.com/og.png\">"
+            + "<link rel=stylesheet href=\"style.css\">"
+            + "<style type=\"text/css\">@import url(imported.css); "
+            + "body { background: url('bg.png') }</style>"
+            + "<script src=\"lib.js\"></script>"
+            + "<script>var u = \"/scripted/page.html\"; "
+            + "document.write('<a href=\"written.html\">');</script>"
+            + "</head><body background=\"body.png\" onload=\"go('/onload.html')\">"
+            + "<a href='a.html' title=\"x > y\">a</a><A HREF=B.HTML>b</A>"
+            + "<a href=\"javascript:open('/js.html')\">js</a>"
+            + "<a data-remote=\"true\" href=\"remote.html\">r</a>"
+            + "<img src=\"i.gif\" lowsrc=low.gif longdesc='desc.html' usemap=\"#m\">"
+            + "<div style=\"background-image: url(div.png)\">d</div>"
+            + "<frame src=\"frame.html\"><iframe src=\"iframe.html\"></iframe>"
+            + "<form action=\"get.cgi\"><input type=image src=\"button.gif\" "
+            + "value=\"/value/path.html\"></form>"
+            + "<form method=post action=\"post.cgi\"></form>"
+            + "<object classid=\"clsid:xyz\" codebase=\"/cb/\" data=\"obj.swf\">"
+            + "<param name=\"flashvars\" value=\"a=/fv/one.xml&b=two\"></object>"
+            + "<applet code=\"Main\" archive=\"a.jar b.jar\"></applet>"
+            + "<embed flashvars=\"x=http://www.example.com/embed.xml\" src=e.swf>"
+            + "<!-- <a href=\"commented.html\"> -->"
+            + "<!--[if IE]><img src=\"ie.gif\"><![endif]-->"
+            + "</body></html>",
+
+        // malformed: unclosed script, style, quotes, comments
+        "<a href=\"unclosed.html title=x><img src=ok.gif>"
+            + "<style>unclosed <a href=after-style.html>"
+            + "<script type=text/javascript>x='/in-script.html'"
+            + "<!-- <a href=after-comment.html>",
+
+        "<meta name=\"robots\" content=\"noindex\">\n"
+            + "<a\nhref=\"newline.html\"\n>n</a><a href = spaced.html>s</a>"
+            + "<td background=cell.gif cite=\"cite.html\" profile=p.xml>",
+    };
+
+    @Override
+    protected Extractor makeExtractor() {
+        ExtractorHTML result = (ExtractorHTML) super.makeExtractor();
+        result.setUseTokenizer(true);
+        return result;
+    }
+
+    protected List<String> outlinks(boolean useTokenizer, String page)
+    throws URIException {
+        ExtractorHTML extractor = (ExtractorHTML) super.makeExtractor();
+        extractor.setUseTokenizer(useTokenizer);
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                "http://www.example.com/dir/page.html"));
+        extractor.extract(curi, page);
+        List<String> outlinks = new ArrayList<String>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            outlinks.add(link.getURI() + " " + link.getViaContext() + " "
+                    + link.getLastHop());
+        }
+        Collections.sort(outlinks);
+        return outlinks;
+    }
+
+    public void testParity() throws URIException {
+        for (String page : PAGES) {
+            List<String> expected = outlinks(false, page);
+            assertFalse(expected.isEmpty());
+            assertEquals(page, expected, outlinks(true, page));
+        }
+    }
+
+    public void testMetaRobotsNofollowParity() throws URIException {
+        String page = "<a href=before.html><meta name=robots content=nofollow>"
+            + "<a href=after.html>";
+        List<String> expected = outlinks(false, page);
+        assertEquals(1, expected.size());
+        assertEquals(expected, outlinks(true, page));
+    }
+
+    public void testFormOffsets() throws URIException {
+        String page = "<p class=x><form action=a.cgi></form> <FORM ACTION=b.cgi>";
+        List<Object> offsets = new ArrayList<Object>();
+        for (boolean useTokenizer : new boolean[] {false, true}) {
+            ExtractorHTML extractor = (ExtractorHTML) super.makeExtractor();
+            extractor.setUseTokenizer(useTokenizer);
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                    "http://www.example.com/"));
+            extractor.extract(curi, page);
+            offsets.add(curi.getDataList(ExtractorHTML.A_FORM_OFFSETS));
+        }
+        assertEquals(offsets.get(0), offsets.get(1));
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.fetcher.AsyncDnsResolver.Resolution;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+
+/**
+ * Tests for {@link AsyncDnsResolver}, against a {@link StubDnsServer}.
+ */
+public class AsyncDnsResolverTest extends TestCase {
+
+    protected StubDnsServer server;
+    protected AsyncDnsResolver resolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StubDnsServer();
+        server.put("www.example.com.", "192.0.2.1");
+        server.put("alias.example.com.", "cname:www.example.com.");
+        server.put("dangling.example.com.", "cname:nowhere.example.com.");
+        resolver = new AsyncDnsResolver();
+        resolver.setServers(Arrays.asList(server.getAddress()));
+        resolver.setTimeoutMs(200);
+        resolver.setRetries(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        resolver.stop();
+        server.close();
+        super.tearDown();
+    }
+
+    protected Resolution resolve(String name) throws InterruptedException {
+        Resolution r = resolver.lookup(name);
+        assertTrue(name, r.await(5000));
+        return r;
+    }
+
+    public void testResolve() throws Exception {
+        Resolution r = resolve("WWW.example.com");
+        assertEquals(AsyncDnsResolver.RESOLVED, r.getStatus());
+        assertEquals("192.0.2.1", r.getAddress().getHostAddress());
+        assertEquals("127.0.0.1", r.getServer());
+        Record[] records = r.getRecords();
+        assertEquals(1, records.length);
+        assertTrue(records[0] instanceof ARecord);
+        assertTrue(records[0].getTTL() <= StubDnsServer.TTL);
+
+        // cached, under either form of the name
+        assertSame(r, resolver.lookup("www.example.com."));
+        assertEquals(1, server.getQueryCount());
+        assertEquals(1, resolver.getCacheHits());
+    }
+
+    public void testNegativeCache() throws Exception {
+        Resolution r = resolve("missing.example.com");
+        assertEquals(AsyncDnsResolver.NO_ADDRESS, r.getStatus());
+        assertNull(r.getAddress());
+        assertTrue(r.expiresMs - r.completedMs <= StubDnsServer.NEGATIVE_TTL * 1000);
+        assertTrue(r.expiresMs > System.currentTimeMillis());
+        assertSame(r, resolver.lookup("missing.example.com"));
+        assertEquals(1, server.getQueryCount());
+    }
+
+    public void testCoalesce() throws Exception {
+        server.setDelayMs(100);
+        List<Resolution> pending = new ArrayList<Resolution>();
+        for (int i = 0; i < 10; i++) {
+            pending.add(resolver.lookup("www.example.com"));
+        }
+        for (Resolution r : pending) {
+            assertTrue(r.await(5000));
+            assertEquals(AsyncDnsResolver.RESOLVED, r.getStatus());
+        }
+        assertEquals(1, server.getQueryCount());
+    }
+
+    public void testRetry() throws Exception {
+        server.dropNext(2);
+        Resolution r = resolve("www.example.com");
+        assertEquals(AsyncDnsResolver.RESOLVED, r.getStatus());
+        assertEquals(3, server.getQueryCount());
+        assertEquals(2, resolver.getTimeouts());
+    }
+
+    public void testTimeout() throws Exception {
+        server.dropNext(100);
+        long start = System.currentTimeMillis();
+        Resolution r = resolve("www.example.com");
+        assertEquals(AsyncDnsResolver.FAILED, r.getStatus());
+        assertTrue(System.currentTimeMillis() - start < resolver.getMaxWaitMs());
+        assertEquals(3, server.getQueryCount());
+
+        // failures aren't cached
+        server.dropNext(0);
+        r = resolve("www.example.com");
+        assertEquals(AsyncDnsResolver.RESOLVED, r.getStatus());
+    }
+
+    public void testCname() throws Exception {
+        Resolution r = resolve("alias.example.com");
+        assertEquals(AsyncDnsResolver.RESOLVED, r.getStatus());
+        assertEquals("192.0.2.1", r.getAddress().getHostAddress());
+        Record[] records = r.getRecords();
+        assertEquals(2, records.length);
+        assertTrue(records[0] instanceof CNAMERecord);
+
+        // alias to nowhere: followed, then found missing
+        r = resolve("dangling.example.com");
+        assertEquals(AsyncDnsResolver.NO_ADDRESS, r.getStatus());
+        assertEquals(3, server.getQueryCount());
+    }
+
+    public void testManyOutstanding() throws Exception {
+        server.setDelayMs(200);
+        resolver.setTimeoutMs(2000);
+        resolver.setMaxOutstanding(50);
+        List<Resolution> pending = new ArrayList<Resolution>();
+        for (int i = 0; i < 300; i++) {
+            String name = "host" + i + ".example.com.";
+            server.put(name, "192.0.2." + (i % 250));
+            pending.add(resolver.lookup(name));
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            Resolution r = pending.get(i);
+            assertTrue(r.await(10000));
+            assertEquals(AsyncDnsResolver.RESOLVED, r.getStatus());
+            assertEquals("192.0.2." + (i % 250), r.getAddress().getHostAddress());
+        }
+        assertEquals(300, server.getQueryCount());
+        assertEquals(0, resolver.getTimeouts());
+    }
+
+    /**
+     * Records in an answer for names other than the one asked about (and
+     * its aliases) are neither kept nor allowed to set the TTL.
+     */
+    public void testUnrelatedRecordsIgnored() throws Exception {
+        server.addExtra(new ARecord(Name.fromString("victim.example.org."),
+                DClass.IN, 5, InetAddress.getByName("203.0.113.9")));
+        server.addExtra(new CNAMERecord(Name.fromString("victim.example.com."),
+                DClass.IN, 5, Name.fromString("www.example.com.")));
+        Resolution r = resolve("alias.example.com");
+        assertEquals(AsyncDnsResolver.RESOLVED, r.getStatus());
+        assertEquals("192.0.2.1", r.getAddress().getHostAddress());
+        Record[] records = r.getRecords();
+        assertEquals(2, records.length);
+        assertEquals(Name.fromString("alias.example.com."), records[0].getName());
+        assertEquals(Name.fromString("www.example.com."), records[1].getName());
+        assertTrue(r.expiresMs - r.completedMs > 5000);
+    }
+
+    /**
+     * Sockets are replaced, on new ports, after their quota of queries.
+     */
+    public void testSocketRotation() throws Exception {
+        resolver.setSockets(1);
+        resolver.setQueriesPerSocket(2);
+        for (int i = 0; i < 6; i++) {
+            String name = "host" + i + ".example.com.";
+            server.put(name, "192.0.2." + i);
+            assertEquals(AsyncDnsResolver.RESOLVED, resolve(name).getStatus());
+        }
+        assertEquals(6, server.getQueryCount());
+        assertEquals(3, server.getClientPorts().size());
+    }
+
+    /**
+     * A lookup that fails to start the resolver leaves nothing in the
+     * cache for later lookups to wait on.
+     */
+    public void testStartFailure() throws Exception {
+        resolver.setServers(Arrays.asList("127.0.0.1:notaport"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.lookup("www.example.com");
+                fail("expected failure to start");
+            } catch (RuntimeException e) {
+                // expected
+            }
+            assertEquals(0, resolver.getCacheSize());
+        }
+    }
+
+    /**
+     * A lookup submitted as the I/O thread closes (here: never runs) is
+     * failed at once, and leaves nothing in the cache.
+     */
+    public void testSubmitAfterClose() throws Exception {
+        resolver = new AsyncDnsResolver() {
+            @Override
+            public synchronized void start() {
+                // as if closed again just after starting
+            }
+        };
+        Resolution r = resolver.lookup("www.example.com");
+        assertTrue(r.isDone());
+        assertEquals(AsyncDnsResolver.FAILED, r.getStatus());
+        assertEquals(0, resolver.getCacheSize());
+        assertNotSame(r, resolver.lookup("www.example.com"));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.modules.fetcher.AsyncDnsResolver.Resolution;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.Type;
+
+/**
+ * Simple benchmarking of lookups of many distinct names against a local
+ * server with simulated network latency: by a fixed number of threads
+ * (like ToeThreads) each blocking on its own query, versus all submitted
+ * at once to AsyncDnsResolver.
+ *
+ * Usage: BenchmarkAsyncDnsResolver [names] [latencyMs] [threads]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkAsyncDnsResolver {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkAsyncDnsResolver()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int nameCount = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        long latencyMs = (args.length > 1) ? Long.parseLong(args[1]) : 20;
+        int threadCount = (args.length > 2) ? Integer.parseInt(args[2]) : 25;
+        System.out.println("names=" + nameCount + " latencyMs=" + latencyMs
+                + " threads=" + threadCount);
+
+        StubDnsServer server = new StubDnsServer();
+        server.setDelayMs(latencyMs);
+        final List<String> names = new ArrayList<String>();
+        for (int i = 0; i < nameCount; i++) {
+            String name = "host" + i + ".example.com.";
+            server.put(name, "192.0.2." + (i % 250));
+            names.add(name);
+        }
+        try {
+            blocking(server, names, threadCount);
+            async(server, names);
+        } finally {
+            server.close();
+        }
+    }
+
+    protected void blocking(StubDnsServer server, final List<String> names,
+            int threadCount) throws Exception {
+        final SimpleResolver resolver = new SimpleResolver("127.0.0.1");
+        resolver.setPort(Integer.parseInt(server.getAddress().split(":")[1]));
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger resolved = new AtomicInteger(0);
+        Thread[] threads = new Thread[threadCount];
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    int i;
+                    while ((i = next.getAndIncrement()) < names.size()) {
+                        try {
+                            Message query = Message.newQuery(Record.newRecord(
+                                    Name.fromString(names.get(i)), Type.A, DClass.IN));
+                            if (resolver.send(query).getSectionArray(Section.ANSWER).length > 0) {
+                                resolved.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            // counted as unresolved
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report("blocking", start, names.size(), resolved.get());
+    }
+
+    protected void async(StubDnsServer server, List<String> names)
+    throws Exception {
+        AsyncDnsResolver resolver = new AsyncDnsResolver();
+        resolver.setServers(Arrays.asList(server.getAddress()));
+        resolver.start();
+        try {
+            long start = System.currentTimeMillis();
+            List<Resolution> pending = new ArrayList<Resolution>();
+            for (String name : names) {
+                pending.add(resolver.lookup(name));
+            }
+            int resolved = 0;
+            for (Resolution r : pending) {
+                r.await(resolver.getMaxWaitMs());
+                if (r.getStatus() == AsyncDnsResolver.RESOLVED) {
+                    resolved++;
+                }
+            }
+            report("async", start, names.size(), resolved);
+        } finally {
+            resolver.stop();
+        }
+    }
+
+    protected void report(String label, long start, int count, int resolved) {
+        long elapsedMs = System.currentTimeMillis() - start;
+        System.out.println(label + ": " + elapsedMs + "ms, "
+                + (count * 1000L / Math.max(1, elapsedMs)) + " lookups/s ("
+                + resolved + " resolved)");
+    }
+}
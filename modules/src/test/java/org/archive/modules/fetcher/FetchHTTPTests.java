@@ -706,6 +706,30 @@ public class FetchHTTPTests extends ProcessorTestBase {
         assertEquals(DEFAULT_PAYLOAD_STRING, contentString(curi));
     }
 
+    public void testReuseConnections() throws Exception {
+        fetcher().setUseHTTP11(true);
+        fetcher().setSendConnectionClose(false);
+        fetcher().setReuseConnections(true);
+
+        CrawlURI curi = makeCrawlURI("http://localhost:7777/");
+        fetcher().process(curi);
+        assertFalse(httpRequestString(curi).matches("(?s).*Connection: [Cc]lose\r\n.*"));
+        assertEquals(DEFAULT_PAYLOAD_STRING, contentString(curi));
+        assertEquals(1, fetcher().keepAliveSocketPool().getConnectionsOpened());
+        assertEquals(0, fetcher().keepAliveSocketPool().getConnectionsReused());
+        assertEquals(1, fetcher().keepAliveSocketPool().getIdleCount());
+
+        // second fetch from same server goes over the same connection
+        curi = makeCrawlURI("http://localhost:7777/");
+        fetcher().process(curi);
+        assertTrue(httpRequestString(curi).startsWith("GET / HTTP/1.1\r\n"));
+        assertEquals(200, curi.getFetchStatus());
+        assertEquals(DEFAULT_PAYLOAD_STRING, contentString(curi));
+        assertEquals(1, fetcher().keepAliveSocketPool().getConnectionsOpened());
+        assertEquals(1, fetcher().keepAliveSocketPool().getConnectionsReused());
+        fetcher().keepAliveSocketPool().clear();
+    }
+
     protected static class NoResponseServer extends Thread {
         protected String listenAddress;
         protected int listenPort;
@@ -0,0 +1,202 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+
+/**
+ * Minimal DNS server on a loopback UDP port, for tests: answers A
+ * queries from a map of names to addresses (or, for values starting
+ * "cname:", aliases), with NXDOMAIN for others. Responses may be delayed,
+ * the first few queries dropped, and extra records added to every answer.
+ */
+public class StubDnsServer {
+    public static final long TTL = 600;
+    public static final long NEGATIVE_TTL = 60;
+
+    protected DatagramSocket socket;
+    protected Thread thread;
+    protected ScheduledExecutorService delayer =
+        Executors.newSingleThreadScheduledExecutor();
+    protected Map<String, String> answers = new ConcurrentHashMap<String, String>();
+    protected volatile long delayMs = 0;
+    protected AtomicInteger toDrop = new AtomicInteger(0);
+    protected AtomicInteger queries = new AtomicInteger(0);
+    protected List<Record> extras = new CopyOnWriteArrayList<Record>();
+    protected Set<Integer> clientPorts = Collections.newSetFromMap(
+            new ConcurrentHashMap<Integer, Boolean>());
+
+    public StubDnsServer() throws IOException {
+        socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        socket.setReceiveBufferSize(1 << 20);
+        thread = new Thread("StubDnsServer") {
+            public void run() {
+                serve();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return 'host:port' for resolver configuration
+     */
+    public String getAddress() {
+        return "127.0.0.1:" + socket.getLocalPort();
+    }
+
+    /**
+     * @param name absolute name, ending '.'
+     * @param value dotted-quad address, or "cname:" plus absolute name
+     */
+    public void put(String name, String value) {
+        answers.put(name, value);
+    }
+
+    public void setDelayMs(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    /**
+     * Add the given record to the answer section of every response.
+     */
+    public void addExtra(Record record) {
+        extras.add(record);
+    }
+
+    /**
+     * @return distinct source ports from which queries have come
+     */
+    public Set<Integer> getClientPorts() {
+        return clientPorts;
+    }
+
+    public void dropNext(int count) {
+        toDrop.set(count);
+    }
+
+    public int getQueryCount() {
+        return queries.get();
+    }
+
+    public void close() {
+        socket.close();
+        delayer.shutdownNow();
+    }
+
+    protected void serve() {
+        byte[] buf = new byte[512];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                return;
+            }
+            queries.incrementAndGet();
+            clientPorts.add(((InetSocketAddress) packet.getSocketAddress()).getPort());
+            if (toDrop.getAndDecrement() > 0) {
+                continue;
+            }
+            try {
+                Message query = new Message(
+                        Arrays.copyOf(packet.getData(), packet.getLength()));
+                final byte[] response = answer(query).toWire();
+                final SocketAddress to = packet.getSocketAddress();
+                if (delayMs > 0) {
+                    delayer.schedule(new Runnable() {
+                        public void run() {
+                            send(response, to);
+                        }
+                    }, delayMs, TimeUnit.MILLISECONDS);
+                } else {
+                    send(response, to);
+                }
+            } catch (IOException e) {
+                // ignore malformed query
+            }
+        }
+    }
+
+    protected void send(byte[] response, SocketAddress to) {
+        try {
+            socket.send(new DatagramPacket(response, response.length, to));
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    protected Message answer(Message query) throws IOException {
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        Record question = query.getQuestion();
+        response.addRecord(question, Section.QUESTION);
+        Name name = question.getName();
+        for (Record extra : extras) {
+            response.addRecord(extra, Section.ANSWER);
+        }
+        String value = answers.get(name.toString().toLowerCase());
+        while (value != null && value.startsWith("cname:")) {
+            Name target = Name.fromString(value.substring(6));
+            response.addRecord(new CNAMERecord(name, DClass.IN, TTL, target),
+                    Section.ANSWER);
+            name = target;
+            value = answers.get(name.toString().toLowerCase());
+        }
+        if (value != null) {
+            response.addRecord(new ARecord(name, DClass.IN, TTL,
+                    InetAddress.getByName(value)), Section.ANSWER);
+        } else if (name.equals(question.getName())) {
+            response.getHeader().setRcode(Rcode.NXDOMAIN);
+            Name zone = new Name(name, 1);
+            response.addRecord(new SOARecord(zone, DClass.IN, TTL,
+                    Name.fromString("ns." + zone), Name.fromString("root." + zone),
+                    1, 3600, 600, 86400, NEGATIVE_TTL), Section.AUTHORITY);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Simple benchmarking of robots rules, kept (as formerly in
+ * RobotsDirectives, and still while parsing) in a pair of
+ * ConcurrentSkipListSets versus in CompactRobotsRules: time per allows()
+ * check, for hosts of 10 to 5000 rules, and heap per host.
+ *
+ * Usage: BenchmarkRobotsDirectives [checks] [hosts]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkRobotsDirectives {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkRobotsDirectives()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int checks = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int hosts = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        System.out.println("checks=" + checks + " hosts=" + hosts);
+        Random random = new Random(1);
+        String[] paths = new String[10000];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = randomPath(random);
+        }
+
+        for (int count : new int[] {10, 100, 1000, 5000}) {
+            List<String> allows = new ArrayList<String>();
+            List<String> disallows = new ArrayList<String>();
+            makeRules(random, count, allows, disallows);
+            ConcurrentSkipListSet<String> allowSet = new ConcurrentSkipListSet<String>(allows);
+            ConcurrentSkipListSet<String> disallowSet = new ConcurrentSkipListSet<String>(disallows);
+            CompactRobotsRules rules = new CompactRobotsRules(allows, disallows);
+            for (int pass = 0; pass < 2; pass++) {
+                // first pass includes warm-up
+                long startNs = System.nanoTime();
+                int allowed = 0;
+                for (int i = 0; i < checks; i++) {
+                    String path = paths[i % paths.length];
+                    if (!(longestPrefixLength(disallowSet, path)
+                            > longestPrefixLength(allowSet, path))) {
+                        allowed++;
+                    }
+                }
+                report(count, "skip-list sets", startNs, checks, allowed);
+                startNs = System.nanoTime();
+                allowed = 0;
+                for (int i = 0; i < checks; i++) {
+                    if (rules.allows(paths[i % paths.length])) {
+                        allowed++;
+                    }
+                }
+                report(count, "compact", startNs, checks, allowed);
+            }
+        }
+
+        // heap per host of 100 rules
+        List<Object> retained = new ArrayList<Object>();
+        long before = usedHeap();
+        for (int h = 0; h < hosts; h++) {
+            List<String> allows = new ArrayList<String>();
+            List<String> disallows = new ArrayList<String>();
+            makeRules(random, 100, allows, disallows);
+            retained.add(new ConcurrentSkipListSet<String>(allows));
+            retained.add(new ConcurrentSkipListSet<String>(disallows));
+        }
+        long sets = usedHeap() - before;
+        retained.clear();
+        before = usedHeap();
+        for (int h = 0; h < hosts; h++) {
+            List<String> allows = new ArrayList<String>();
+            List<String> disallows = new ArrayList<String>();
+            makeRules(random, 100, allows, disallows);
+            retained.add(new CompactRobotsRules(allows, disallows));
+        }
+        long compact = usedHeap() - before;
+        System.out.println("100 rules, bytes per host: skip-list sets "
+                + (sets / hosts) + ", compact " + (compact / hosts)
+                + " (" + retained.size() + " hosts)");
+    }
+
+    /** the former RobotsDirectives lookup */
+    protected int longestPrefixLength(ConcurrentSkipListSet<String> prefixSet,
+            String str) {
+        String possiblePrefix = prefixSet.floor(str);
+        if (possiblePrefix != null && str.startsWith(possiblePrefix)) {
+            return possiblePrefix.length();
+        } else {
+            return 0;
+        }
+    }
+
+    protected void makeRules(Random random, int count, List<String> allows,
+            List<String> disallows) {
+        for (int i = 0; i < count; i++) {
+            String path = randomPath(random);
+            if (random.nextInt(4) == 0) {
+                allows.add(path);
+            } else {
+                disallows.add(path);
+            }
+        }
+    }
+
+    protected String randomPath(Random random) {
+        StringBuilder path = new StringBuilder();
+        int depth = 1 + random.nextInt(3);
+        for (int d = 0; d < depth; d++) {
+            path.append("/dir").append(random.nextInt(20));
+        }
+        if (random.nextBoolean()) {
+            path.append("/page").append(random.nextInt(100)).append(".html");
+        }
+        return path.toString();
+    }
+
+    protected long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    protected void report(int count, String label, long startNs, int checks, int allowed) {
+        long elapsedNs = System.nanoTime() - startNs;
+        System.out.println(count + " rules, " + label + ": "
+                + (elapsedNs / checks) + "ns/check (" + allowed + " allowed)");
+    }
+}
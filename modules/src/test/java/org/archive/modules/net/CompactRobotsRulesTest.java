@@ -0,0 +1,252 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.archive.bdb.AutoKryo;
+
+/**
+ * Tests that CompactRobotsRules applies the longest matching rule,
+ * including '*' and '$' wildcards, against a simple regex-based
+ * reference.
+ */
+public class CompactRobotsRulesTest extends TestCase {
+
+    protected CompactRobotsRules rules(List<String> allows, List<String> disallows) {
+        return new CompactRobotsRules(allows, disallows);
+    }
+
+    /**
+     * @return length of longest of patterns matching path, or -1
+     */
+    protected int longestMatch(List<String> patterns, String path) {
+        int best = -1;
+        for (String pattern : patterns) {
+            StringBuilder regex = new StringBuilder();
+            boolean anchored = pattern.endsWith("$");
+            String body = anchored ? pattern.substring(0, pattern.length() - 1) : pattern;
+            for (String part : body.split("\\*", -1)) {
+                if (regex.length() > 0) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(part));
+            }
+            if (!anchored) {
+                regex.append(".*");
+            }
+            if (Pattern.compile(regex.toString(), Pattern.DOTALL).matcher(path).matches()) {
+                best = Math.max(best, pattern.length());
+            }
+        }
+        return best;
+    }
+
+    protected void assertParity(List<String> allows, List<String> disallows,
+            CompactRobotsRules rules, String path) {
+        boolean expected = longestMatch(disallows, path) <= longestMatch(allows, path);
+        assertEquals("allow " + allows + " disallow " + disallows + " " + path,
+                expected, rules.allows(path));
+    }
+
+    public void testPrefixes() {
+        List<String> allows = Arrays.asList("/", "/a/b", "/x/y/");
+        List<String> disallows = Arrays.asList("/a", "/a0", "/a/b/c", "/x/y/");
+        CompactRobotsRules rules = rules(allows, disallows);
+        assertTrue(rules.allows("/"));
+        assertTrue(rules.allows("/b"));
+        assertFalse(rules.allows("/a"));
+        // not fooled by "/a0" sorting between "/a" and "/a1"
+        assertFalse(rules.allows("/a1"));
+        assertTrue(rules.allows("/a/b"));
+        assertFalse(rules.allows("/a/b/c/d"));
+        // tie goes to allow
+        assertTrue(rules.allows("/x/y/z"));
+        assertEquals(7, rules.size());
+    }
+
+    public void testWildcards() {
+        List<String> allows = Arrays.asList("/*.html$", "/private/ok*");
+        List<String> disallows = Arrays.asList("/private", "/*?sessionid=", "/*.php$",
+                "/fish*.php");
+        CompactRobotsRules rules = rules(allows, disallows);
+        assertTrue(rules.allows("/index.php?x=1"));
+        assertFalse(rules.allows("/index.php"));
+        assertFalse(rules.allows("/dir/page?a=1&x?sessionid=2"));
+        assertTrue(rules.allows("/dir/page?a=1"));
+        assertFalse(rules.allows("/private/x.htm"));
+        assertTrue(rules.allows("/private/x.html"));
+        assertFalse(rules.allows("/private/x.html?q"));
+        assertTrue(rules.allows("/private/okay"));
+        assertFalse(rules.allows("/fishheads/catfish.php?parameters"));
+        assertTrue(rules.allows("/Fish.PHP"));
+    }
+
+    public void testEmpty() {
+        List<String> none = new ArrayList<String>();
+        CompactRobotsRules rules = rules(none, none);
+        assertTrue(rules.allows(""));
+        assertTrue(rules.allows("/anything"));
+        rules = rules(Arrays.asList(""), none);
+        assertTrue(rules.allows("/anything"));
+    }
+
+    public void testDirectives() {
+        RobotsDirectives directives = new RobotsDirectives();
+        directives.addDisallow("/a");
+        assertFalse(directives.allows("/ab"));
+        // adding after compilation recompiles with the new rule
+        directives.addAllow("/ab");
+        assertTrue(directives.allows("/ab"));
+        assertFalse(directives.allows("/a"));
+        assertEquals(2, directives.compile().size());
+        // only the compiled form kept
+        assertTrue(directives.allows instanceof CompactRobotsRules);
+        assertNull(directives.disallows);
+    }
+
+    protected RobotsDirectives kryoCopy(RobotsDirectives directives) {
+        AutoKryo kryo = new AutoKryo();
+        kryo.autoregister(RobotsDirectives.class);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        kryo.writeObject(buffer, directives);
+        buffer.flip();
+        return kryo.readObject(buffer, RobotsDirectives.class);
+    }
+
+    /**
+     * Compiled directives are persisted in their compact form.
+     */
+    public void testKryo() {
+        RobotsDirectives directives = new RobotsDirectives();
+        directives.addDisallow("/a");
+        directives.addDisallow("/\u00e9t\u00e9");
+        directives.addDisallow("/\u65e5\u672c");
+        directives.addDisallow("/*.php$");
+        directives.addAllow("/a/b");
+        directives.addAllow("/a/*.html$");
+        directives.setCrawlDelay(2.5f);
+        directives.compile();
+
+        RobotsDirectives copy = kryoCopy(directives);
+        assertTrue(copy.allows instanceof CompactRobotsRules);
+        assertNull(copy.disallows);
+        assertEquals(2.5f, copy.getCrawlDelay());
+        CompactRobotsRules rules = directives.compile();
+        CompactRobotsRules copied = copy.compile();
+        assertEquals(rules.size(), copied.size());
+        for (int i = 0; i < rules.size(); i++) {
+            assertEquals(rules.getPath(i), copied.getPath(i));
+            assertEquals(rules.isAllow(i), copied.isAllow(i));
+        }
+        for (String path : new String[] {"/a", "/a/b", "/a/x.html", "/x.php",
+                "/\u00e9t\u00e9/", "/\u65e5\u672c", "/other"}) {
+            assertEquals(path, directives.allows(path), copy.allows(path));
+        }
+    }
+
+    /**
+     * Records of earlier versions (the set form, as still written for
+     * uncompiled directives) read, and are compiled on reading.
+     */
+    public void testKryoSetForm() {
+        RobotsDirectives directives = new RobotsDirectives();
+        directives.addDisallow("/a");
+        directives.addAllow("/a/b");
+        assertTrue(directives.allows instanceof ConcurrentSkipListSet);
+
+        RobotsDirectives copy = kryoCopy(directives);
+        assertTrue(copy.allows instanceof CompactRobotsRules);
+        assertNull(copy.disallows);
+        assertFalse(copy.allows("/a"));
+        assertTrue(copy.allows("/a/b/c"));
+    }
+
+    /**
+     * Java serialization keeps the set form, as in earlier versions.
+     */
+    public void testJavaSerialization() throws Exception {
+        RobotsDirectives directives = new RobotsDirectives();
+        directives.addDisallow("/a");
+        directives.addAllow("/a/b");
+        directives.compile();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(directives);
+        out.close();
+        assertTrue(directives.allows instanceof CompactRobotsRules);
+
+        RobotsDirectives copy = (RobotsDirectives) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertTrue(copy.allows instanceof CompactRobotsRules);
+        assertFalse(copy.allows("/a"));
+        assertTrue(copy.allows("/a/b/c"));
+    }
+
+    /**
+     * Random rules from a small alphabet, against random paths.
+     */
+    public void testRandom() {
+        Random random = new Random(0);
+        String alphabet = "/ab.?*$";
+        for (int round = 0; round < 500; round++) {
+            List<String> allows = new ArrayList<String>();
+            List<String> disallows = new ArrayList<String>();
+            int count = random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                StringBuilder path = new StringBuilder("/");
+                int length = random.nextInt(6);
+                for (int j = 0; j < length; j++) {
+                    char c = alphabet.charAt(random.nextInt(alphabet.length()));
+                    if (c == '$' && j < length - 1) {
+                        // '$' special only at end
+                        c = 'a';
+                    }
+                    path.append(c);
+                }
+                (random.nextBoolean() ? allows : disallows).add(path.toString());
+            }
+            // as from RobotsDirectives' sets
+            allows = new ArrayList<String>(new TreeSet<String>(allows));
+            disallows = new ArrayList<String>(new TreeSet<String>(disallows));
+            CompactRobotsRules rules = rules(allows, disallows);
+            for (int k = 0; k < 50; k++) {
+                StringBuilder path = new StringBuilder("/");
+                int length = random.nextInt(8);
+                for (int j = 0; j < length; j++) {
+                    path.append("/ab.?$".charAt(random.nextInt(6)));
+                }
+                assertParity(allows, disallows, rules, path.toString());
+            }
+        }
+    }
+}
@@ -50,6 +50,8 @@ public class CrawlHostTest extends TestCase {
     
     public void testKryoSerialization() throws Exception {
         AutoKryo kryo = new AutoKryo();
+        // as the 'hosts' cache's binding may be, so nothing unregistered
+        kryo.setStrictRegistration(true);
         kryo.autoregister(CrawlHost.class);
 
         InetAddress localhost = InetAddress.getLocalHost();
@@ -18,11 +18,17 @@
  */
 package org.archive.modules.net;
 
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import org.archive.bdb.KryoBinding;
 import org.archive.modules.net.CrawlServer;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.TestUtils;
 
+import com.sleepycat.je.DatabaseEntry;
+
 import junit.framework.TestCase;
 
 /**
@@ -35,6 +41,32 @@ public class CrawlServerTest extends TestCase {
         TestUtils.testSerialization(new CrawlServer("hi"));
     }
 
+    /**
+     * Test (Kryo) serialization, as in the 'servers' cache, of a server 
+     * with parsed robots.txt needs no class not registered by CrawlServer.
+     */
+    public void testKryoSerialization() throws Exception {
+        CrawlServer server = new CrawlServer("www.example.com");
+        server.robotstxt = new Robotstxt(new BufferedReader(new StringReader(
+                "User-agent: foo\nDisallow: /foo/\n\n"
+                + "User-agent: *\nDisallow: /private/\nAllow: /private/ok\n"
+                + "Crawl-delay: 5\n")));
+        
+        KryoBinding<CrawlServer> binding = 
+            new KryoBinding<CrawlServer>(CrawlServer.class, true);
+        DatabaseEntry entry = new DatabaseEntry();
+        binding.objectToEntry(server, entry);
+        CrawlServer copy = binding.entryToObject(entry);
+        
+        assertEquals(server, copy);
+        Robotstxt robots = copy.getRobotstxt();
+        assertFalse(robots.getDirectivesFor("foo").allows("/foo/bar"));
+        RobotsDirectives directives = robots.getDirectivesFor("bar");
+        assertFalse(directives.allows("/private/page"));
+        assertTrue(directives.allows("/private/ok"));
+        assertEquals(5f, directives.getCrawlDelay());
+    }
+
     public void testGetServerKey() throws Exception {
         UURI u1 = UURIFactory.getInstance("https://www.example.com");
         assertEquals(
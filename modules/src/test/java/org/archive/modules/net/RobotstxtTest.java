@@ -203,9 +203,32 @@ public class RobotstxtTest extends TestCase {
             RobotsDirectives da = rt2.getDirectivesFor("a", false);
             RobotsDirectives db = rt2.getDirectivesFor("b", false);
             assertTrue("user-agent a and b shares the same RobotsDirectives after deserialization", da == db);
+            assertTrue("compact form persisted", da.allows instanceof CompactRobotsRules);
+            assertFalse(da.allows("/service/x"));
+            assertTrue(da.allows("/other"));
         }
     }
 
+    public void testWildcards() throws IOException {
+        final String TEST_ROBOTS_TXT = "User-agent: *\n"
+                + "Disallow: /*.php$\n"
+                + "Disallow: /*?sessionid=\n"
+                + "Disallow: /tmp*\n"
+                + "Allow: /tmp/public/*.html$\n";
+        StringReader sr = new StringReader(TEST_ROBOTS_TXT);
+        Robotstxt rt = new Robotstxt(new BufferedReader(sr));
+        RobotsDirectives directives = rt.getDirectivesFor("anybot");
+        assertTrue("compiled at parse", directives.allows instanceof CompactRobotsRules);
+
+        assertFalse(directives.allows("/index.php"));
+        assertTrue(directives.allows("/index.php?page=2"));
+        assertFalse(directives.allows("/list?sessionid=123"));
+        assertFalse(directives.allows("/tmpfile"));
+        assertFalse(directives.allows("/tmp/public/a.htm"));
+        assertTrue(directives.allows("/tmp/public/a.html"));
+        assertTrue(directives.allows("/other.html"));
+    }
+
     public void testSeparatedSections() throws IOException {
         final String TEST_ROBOTS_TXT = "User-agent: *\n"
                 + "Crawl-delay: 5\n"
@@ -0,0 +1,230 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.writer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.io.WriterPool;
+import org.archive.io.WriterPoolMember;
+import org.archive.io.warc.WARCRecordInfo;
+import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPoolSettingsData;
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.CrawlURI.FetchType;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.uid.UUIDGenerator;
+import org.archive.util.FileUtils;
+import org.archive.util.Recorder;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Simple benchmarking of WARCWriterProcessor throughput, in URIs/sec, with
+ * writes on the ToeThreads versus handed to dedicated writer threads. Each
+ * simulated ToeThread records a response, runs the processor, then spends
+ * a fixed time on 'downstream' work (standing in for outlink scheduling)
+ * before awaiting the URI's pending write, as ProcessorChain does. Each
+ * WARC record write is delayed by an injected latency, standing in for a
+ * slow or contended disk.
+ *
+ * Usage: BenchmarkAsyncWarcWriting [uris-per-run] [toe-threads]
+ * [record-latency-ms] [downstream-ms] [body-bytes]
+ *
+ * Take care when interpreting results; the effect of GC,
+ * dynamic compilation, and any other activity on test
+ * machine may affect relative tallies in unpredictable
+ * ways.
+ */
+public class BenchmarkAsyncWarcWriting {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkAsyncWarcWriting()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int uris =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        int toeThreads =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int latencyMs =
+            (args.length > 2) ? Integer.parseInt(args[2]) : 2;
+        int downstreamMs =
+            (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+        int bodyBytes =
+            (args.length > 4) ? Integer.parseInt(args[4]) : 16 * 1024;
+        System.out.println("uris="+uris+" toeThreads="+toeThreads
+                +" latencyMs="+latencyMs+" downstreamMs="+downstreamMs
+                +" bodyBytes="+bodyBytes);
+        byte[] response = makeResponse(bodyBytes);
+        int[] writerThreadCounts = {0, 1, 2, 4, 8};
+        for(int writerThreads : writerThreadCounts) {
+            testWriting(writerThreads, uris, toeThreads, latencyMs,
+                    downstreamMs, response);
+        }
+    }
+
+    protected byte[] makeResponse(int bodyBytes) throws IOException {
+        StringBuilder body = new StringBuilder(bodyBytes);
+        while(body.length() < bodyBytes) {
+            body.append("<p>benchmark filler text ").append(body.length())
+                .append("</p>\r\n");
+        }
+        body.setLength(bodyBytes);
+        String header = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/html\r\n"
+            + "Content-Length: " + bodyBytes + "\r\n"
+            + "\r\n";
+        return (header + body).getBytes("ASCII");
+    }
+
+    protected void testWriting(int writerThreads, final int uris,
+            int toeThreads, final int latencyMs, final int downstreamMs,
+            final byte[] response) throws Exception {
+        File workDir = new File(TmpDirTestCase.tmpDir(),
+                "BenchmarkAsyncWarcWriting-" + writerThreads);
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+        FileUtils.ensureWriteableDirectory(workDir);
+        final File warcsDir = new File(workDir, "warcs");
+        FileUtils.ensureWriteableDirectory(warcsDir);
+
+        final WARCWriterProcessor wwp = new WARCWriterProcessor() {
+            @Override
+            protected void setupPool(AtomicInteger serialNo) {
+                setPool(new LatencyWriterPool(serialNo, this, warcsDir,
+                        latencyMs, getPoolMaxActive()));
+            }
+        };
+        wwp.setMetadataProvider(new CrawlMetadata());
+        final DefaultServerCache serverCache = new DefaultServerCache();
+        wwp.setServerCache(serverCache);
+        wwp.setDirectory(new ConfigPath(null, workDir.getPath()));
+        wwp.setWriterThreads(writerThreads);
+        wwp.start();
+
+        final AtomicInteger remaining = new AtomicInteger(uris);
+        final AtomicLong failures = new AtomicLong(0);
+        final CountDownLatch done = new CountDownLatch(toeThreads);
+        System.gc();
+        long startMs = System.currentTimeMillis();
+        for(int t = 0; t < toeThreads; t++) {
+            final Recorder recorder = new Recorder(workDir, "toe" + t,
+                    16 * 1024, 512 * 1024);
+            final int toe = t;
+            new Thread() {
+                public void run() {
+                    try {
+                        int i;
+                        while((i = remaining.decrementAndGet()) >= 0) {
+                            String host = "host" + (i % 100) + ".example.com";
+                            serverCache.getHostFor(host).setIP(
+                                    InetAddress.getLoopbackAddress(), -1);
+                            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                                    "http://" + host + "/" + toe + "/" + i));
+                            curi.setRecorder(recorder);
+                            recorder.inputWrap(new ByteArrayInputStream(response));
+                            recorder.getRecordedInput().readFully();
+                            recorder.close();
+                            curi.setFetchStatus(200);
+                            curi.setFetchType(FetchType.HTTP_GET);
+                            curi.setContentSize(response.length);
+
+                            wwp.process(curi);
+                            // token work standing in for later processors
+                            Thread.sleep(downstreamMs);
+                            curi.awaitPendingWork();
+                            if(!curi.getNonFatalFailures().isEmpty()) {
+                                failures.incrementAndGet();
+                            }
+                            recorder.endReplays();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        long elapsedMs = Math.max(1, System.currentTimeMillis() - startMs);
+        wwp.stop();
+        System.out.println("writerThreads=" + writerThreads + ": "
+                + (uris * 1000L / elapsedMs) + " URIs/sec, "
+                + elapsedMs + "ms, " + failures.get() + " failures");
+    }
+
+    /**
+     * WARCWriter which sleeps before each record write.
+     */
+    public static class LatencyWARCWriter extends WARCWriter {
+        protected int latencyMs;
+        public LatencyWARCWriter(AtomicInteger serial,
+                WARCWriterPoolSettingsData settings, int latencyMs) {
+            super(serial, settings);
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public void writeRecord(WARCRecordInfo recordInfo) throws IOException {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            super.writeRecord(recordInfo);
+        }
+    }
+
+    /**
+     * replacement WriterPool that injects LatencyWARCWriter
+     */
+    public static class LatencyWriterPool extends WriterPool {
+        protected File dir;
+        protected int latencyMs;
+        public LatencyWriterPool(AtomicInteger serial,
+                WARCWriterProcessor settings, File dir, int latencyMs,
+                int maxActive) {
+            super(serial, settings, maxActive,
+                    settings.getMaxWaitForIdleMs());
+            this.dir = dir;
+            this.latencyMs = latencyMs;
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        protected WriterPoolMember makeWriter() {
+            return new LatencyWARCWriter(serialNo,
+                    new WARCWriterPoolSettingsData("BENCH",
+                            "${prefix}-${timestamp17}-${serialno}",
+                            1000 * 1000 * 1000, true, Arrays.asList(dir),
+                            Collections.EMPTY_LIST, new UUIDGenerator()),
+                    latencyMs);
+        }
+    }
+}
@@ -19,16 +19,22 @@
 
 package org.archive.modules.writer;
 
+import static org.archive.modules.CoreAttributeConstants.A_WARC_STATS;
+
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.archive.io.WriterPool;
 import org.archive.io.WriterPoolMember;
 import org.archive.io.WriterPoolSettings;
@@ -189,6 +195,92 @@ public class WARCWriterProcessorTest extends ProcessorTestBase {
         // assertEquals(warc.length(), wwp.getStats().get("totals").get("sizeOnDisk").get());
     }
 
+    public void testAsyncWrite() throws IOException, InterruptedException {
+        WARCWriterProcessor wwp = new WARCWriterProcessor();
+        wwp.setMetadataProvider(new CrawlMetadata());
+        DefaultServerCache serverCache = new DefaultServerCache();
+        serverCache.getHostFor("test.com").setIP(InetAddress.getLoopbackAddress(), -1);
+        wwp.setServerCache(serverCache);
+        File workDir = new File(TmpDirTestCase.tmpDir(), "WARCWriterProcessorTest-testAsyncWrite");
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+        wwp.setDirectory(new ConfigPath(null, workDir.getPath()));
+        wwp.setWriterThreads(2);
+        wwp.start();
+
+        final CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://test.com/"));
+        byte[] responseBytes = ("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Length: 4\r\n"
+                + "\r\n"
+                + "test").getBytes("ASCII");
+        curi.setRecorder(getRecorder());
+        curi.getRecorder().inputWrap(new ByteArrayInputStream(responseBytes));
+        curi.getRecorder().getRecordedInput().readFully();
+        curi.getRecorder().close();
+        curi.setFetchStatus(200);
+        curi.setFetchType(FetchType.HTTP_GET);
+        curi.setContentSize(responseBytes.length);
+
+        wwp.process(curi);
+        assertTrue(curi.hasPendingWork());
+        curi.awaitPendingWork();
+        assertFalse(curi.hasPendingWork());
+
+        assertTrue(curi.getNonFatalFailures().isEmpty());
+        assertTrue(curi.getExtraInfo().has("warcFilename"));
+        assertTrue(curi.getData().containsKey(A_WARC_STATS));
+        assertEquals(1, wwp.getStats().get("response").get("numRecords").get());
+
+        wwp.stop();
+    }
+
+    public void testParallelCompression() throws IOException, InterruptedException {
+        WARCWriterProcessor wwp = new WARCWriterProcessor();
+        wwp.setMetadataProvider(new CrawlMetadata());
+        DefaultServerCache serverCache = new DefaultServerCache();
+        serverCache.getHostFor("test.com").setIP(InetAddress.getLoopbackAddress(), -1);
+        wwp.setServerCache(serverCache);
+        File workDir = new File(TmpDirTestCase.tmpDir(), "WARCWriterProcessorTest-testParallelCompression");
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+        wwp.setDirectory(new ConfigPath(null, workDir.getPath()));
+        wwp.setParallelCompression(true);
+        wwp.setParallelCompressionChunkSize(32 * 1024);
+        wwp.start();
+
+        // several chunks' worth of body
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; body.length() < 200 * 1024; i++) {
+            body.append("<p>paragraph ").append(i).append("</p>\r\n");
+        }
+        byte[] responseBytes = ("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/html\r\n"
+                + "Content-Length: " + body.length() + "\r\n"
+                + "\r\n" + body).getBytes("ASCII");
+        final CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://test.com/"));
+        curi.setRecorder(getRecorder());
+        curi.getRecorder().inputWrap(new ByteArrayInputStream(responseBytes));
+        curi.getRecorder().getRecordedInput().readFully();
+        curi.getRecorder().close();
+        curi.setFetchStatus(200);
+        curi.setFetchType(FetchType.HTTP_GET);
+        curi.setContentSize(responseBytes.length);
+
+        wwp.process(curi);
+        assertTrue(curi.getNonFatalFailures().isEmpty());
+        wwp.stop();
+
+        File warc = new File(workDir, "warcs").listFiles(new FileFilter() {
+            public boolean accept(File pathname) {
+                return pathname.getName().endsWith(".warc.gz");
+            }
+        })[0];
+        // readable as ordinary (multi-member) gzip
+        String uncompressed = new String(IOUtils.toByteArray(
+                new GZIPInputStream(new FileInputStream(warc))), "ASCII");
+        assertEquals(4, StringUtils.countMatches(uncompressed, "WARC/1.0\r\n"));
+        assertTrue(uncompressed.contains(body));
+    }
+
     /**
      * WARCWriter whose getPosition() always fails.
      * It simulates disk full during last write() (it didn't fail